@@ -0,0 +1,126 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import ru.yandex.practicum.filmorate.controller.CompactFilmSerializer;
+import ru.yandex.practicum.filmorate.dal.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.service.JsonResponseCache;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Страница популярных фильмов (10 фильмов) в JSON тремя способами: список {@link Film}
+ * обычным ObjectMapper, как до компактных фильмов; список {@link CompactFilm} через
+ * {@link CompactFilmSerializer} с Blackbird; готовые байты из {@link JsonResponseCache}.
+ * Справочник жанров для сериализатора читается из H2 со схемой приложения.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FilmJsonBenchmark {
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"0", "1000"})
+    private int likesPerFilm;
+
+    private EmbeddedDatabase database;
+    private ObjectMapper defaultMapper;
+    private ObjectMapper compactMapper;
+    private JsonResponseCache cache;
+    private List<Film> films;
+    private List<CompactFilm> compactFilms;
+
+    @Setup
+    public void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .addScripts("classpath:schema.sql", "classpath:data.sql")
+                .build();
+        ReferenceDataCache referenceData = new ReferenceDataCache(new NamedParameterJdbcTemplate(database));
+        defaultMapper = JsonMapper.builder()
+                .addModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        compactMapper = JsonMapper.builder()
+                .addModule(new JavaTimeModule())
+                .addModule(new BlackbirdModule())
+                .addModule(new SimpleModule("compact-film")
+                        .addSerializer(CompactFilm.class, new CompactFilmSerializer(referenceData)))
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        cache = new JsonResponseCache(compactMapper, TimeUnit.HOURS.toMillis(1), 64);
+
+        films = new ArrayList<>(PAGE_SIZE);
+        for (int i = 1; i <= PAGE_SIZE; i++) {
+            Film film = new Film();
+            film.setId((long) i);
+            film.setName("Фильм " + i);
+            film.setDescription("Описание фильма номер " + i);
+            film.setReleaseDate(LocalDate.of(1990 + i, 1, 1));
+            film.setDuration(90 + i);
+            film.setMpa(referenceData.mpa(i % 5 + 1));
+            film.setGenres(new LinkedHashSet<>(List.of(referenceData.genre(i % 6 + 1), referenceData.genre(1))));
+            Set<Long> likes = new HashSet<>();
+            for (long userId = 1; userId <= likesPerFilm; userId++) {
+                likes.add(userId);
+            }
+            film.setLikes(likes);
+            films.add(film);
+        }
+        compactFilms = films.stream().map(CompactFilm::from).toList();
+    }
+
+    @TearDown
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    @Benchmark
+    public byte[] defaultJackson() throws JsonProcessingException {
+        return defaultMapper.writeValueAsBytes(films);
+    }
+
+    @Benchmark
+    public byte[] compactSerializer() throws JsonProcessingException {
+        return compactMapper.writeValueAsBytes(compactFilms);
+    }
+
+    @Benchmark
+    public byte[] cachedBytes() {
+        return cache.popular(0, PAGE_SIZE, () -> compactFilms);
+    }
+}
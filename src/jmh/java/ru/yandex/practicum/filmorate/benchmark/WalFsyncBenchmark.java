@@ -0,0 +1,75 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.dal.storage.wal.FsyncPolicy;
+import ru.yandex.practicum.filmorate.dal.storage.wal.WalRecord;
+import ru.yandex.practicum.filmorate.dal.storage.wal.WriteAheadLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пропускная способность журнала предзаписи при разных режимах fsync: запись лайка
+ * ждёт подтверждения журнала, как в {@code JournaledFilmStorage}. Один поток показывает
+ * цену fsync на каждую запись, восемь — выигрыш от объединения записей в один fsync.
+ * Журнал пишется в {@code target}, то есть на тот же диск, что и сборка.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WalFsyncBenchmark {
+    @Param({"ALWAYS", "INTERVAL", "NEVER"})
+    private FsyncPolicy policy;
+
+    private final AtomicLong userIds = new AtomicLong();
+    private Path dir;
+    private WriteAheadLog wal;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory(Files.createDirectories(Path.of("target")), "wal-benchmark");
+        wal = new WriteAheadLog(dir.resolve("storage.wal"), policy, 100);
+        wal.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        wal.close();
+        Files.deleteIfExists(dir.resolve("storage.wal"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Boolean appendLike() {
+        return append();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Boolean appendLikeConcurrently() {
+        return append();
+    }
+
+    private Boolean append() {
+        return wal.append(new WalRecord.LikeAdd(1, userIds.incrementAndGet()), () -> Boolean.TRUE).join();
+    }
+}
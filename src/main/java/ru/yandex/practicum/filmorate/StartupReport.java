@@ -0,0 +1,33 @@
+package ru.yandex.practicum.filmorate;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Пишет в лог время от запуска JVM до готовности приложения. С
+ * {@code filmorate.startup.exit-when-ready=true} сразу после этого завершает работу —
+ * так замеряет старт сборка с профилем fast-startup.
+ */
+@Slf4j
+@Component
+public class StartupReport {
+    private final boolean exitWhenReady;
+
+    public StartupReport(@Value("${filmorate.startup.exit-when-ready:false}") boolean exitWhenReady) {
+        this.exitWhenReady = exitWhenReady;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady(ApplicationReadyEvent event) {
+        log.info("Готово к работе через {} мс после запуска JVM", ManagementFactory.getRuntimeMXBean().getUptime());
+        if (exitWhenReady) {
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+}
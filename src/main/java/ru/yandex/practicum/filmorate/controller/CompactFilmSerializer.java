@@ -0,0 +1,51 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import ru.yandex.practicum.filmorate.dal.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+import ru.yandex.practicum.filmorate.model.Genre;
+
+import java.io.IOException;
+
+/**
+ * Пишет {@link CompactFilm} в том же виде, что и {@code Film}, но вместо списка
+ * лайков — их число. Жанры разрешаются через справочник в момент записи.
+ */
+public class CompactFilmSerializer extends StdSerializer<CompactFilm> {
+    private final ReferenceDataCache referenceData;
+
+    public CompactFilmSerializer(ReferenceDataCache referenceData) {
+        super(CompactFilm.class);
+        this.referenceData = referenceData;
+    }
+
+    @Override
+    public void serialize(CompactFilm film, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject();
+        gen.writeNumberField("id", film.id());
+        gen.writeStringField("name", film.name());
+        gen.writeStringField("description", film.description());
+        gen.writeFieldName("releaseDate");
+        provider.defaultSerializeValue(film.releaseDate(), gen);
+        if (film.duration() != null) {
+            gen.writeNumberField("duration", film.duration());
+        } else {
+            gen.writeNullField("duration");
+        }
+        gen.writeFieldName("mpa");
+        provider.defaultSerializeValue(film.mpa(), gen);
+        gen.writeArrayFieldStart("genres");
+        for (int i = 0; i < film.genreCount(); i++) {
+            Genre genre = referenceData.genre(film.genreIdAt(i));
+            gen.writeStartObject();
+            gen.writeNumberField("id", genre.getId());
+            gen.writeStringField("name", genre.getName());
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeNumberField("likeCount", film.likeCount());
+        gen.writeEndObject();
+    }
+}
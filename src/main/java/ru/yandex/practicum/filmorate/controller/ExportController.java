@@ -0,0 +1,31 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.dal.sql.ExportSqlQuery;
+import ru.yandex.practicum.filmorate.service.ExportService;
+
+@RestController
+@RequiredArgsConstructor
+public class ExportController {
+    private static final MediaType GZIP = MediaType.parseMediaType("application/gzip");
+
+    private final ExportService exportService;
+
+    @GetMapping("/export/{table}")
+    public ResponseEntity<StreamingResponseBody> export(@PathVariable String table) {
+        ExportSqlQuery query = exportService.resolve(table);
+        String fileName = query.getTable() + ".ndjson.gz";
+        return ResponseEntity.ok()
+                .contentType(GZIP)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(fileName).build().toString())
+                .body(out -> exportService.exportGzip(query, out));
+    }
+}
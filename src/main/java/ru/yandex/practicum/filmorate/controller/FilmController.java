@@ -1,12 +1,19 @@
 package ru.yandex.practicum.filmorate.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmBrowsePage;
+import ru.yandex.practicum.filmorate.model.FilmRank;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.MpaRating;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.JsonResponseCache;
+import ru.yandex.practicum.filmorate.service.browse.FilmBrowseQuery;
 
 import java.util.Collection;
 import java.util.List;
@@ -16,9 +23,13 @@ import java.util.List;
 public class FilmController {
 
     private final FilmService filmService;
+    private final JsonResponseCache jsonCache;
 
     @GetMapping("/films")
-    public Collection<Film> findAll() {
+    public Collection<Film> findAll(@RequestParam(name = "ids", required = false) List<Long> ids) {
+        if (ids != null) {
+            return filmService.getByIds(ids);
+        }
         return filmService.findAll();
     }
 
@@ -28,11 +39,71 @@ public class FilmController {
     }
 
     @GetMapping("/films/popular")
-    public Collection<Film> getPopular(@RequestParam(name = "count", defaultValue = "10") int count) {
+    public ResponseEntity<byte[]> getPopular(@RequestParam(name = "offset", defaultValue = "0") int offset,
+                                             @RequestParam(name = "count", defaultValue = "10") int count) {
+        if (offset < 0) {
+            throw new ValidationException("Параметр offset не может быть отрицательным");
+        }
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        return json(jsonCache.popular(offset, count, () -> filmService.getPopular(offset, count)));
+    }
+
+    @GetMapping("/films/{id}/rank")
+    public FilmRank getRank(@PathVariable long id) {
+        return filmService.getRank(id);
+    }
+
+    @GetMapping("/films/trending")
+    public List<CompactFilm> getTrending(@RequestParam(name = "window", defaultValue = "24h") String window,
+                                         @RequestParam(name = "count", defaultValue = "10") int count) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        return filmService.getTrending(window, count);
+    }
+
+    @GetMapping("/films/browse")
+    public FilmBrowsePage browse(@RequestParam(name = "genre", required = false) List<Integer> genreIds,
+                                 @RequestParam(name = "mpa", required = false) List<Integer> mpaIds,
+                                 @RequestParam(required = false) Integer yearFrom,
+                                 @RequestParam(required = false) Integer yearTo,
+                                 @RequestParam(required = false) Integer durationFrom,
+                                 @RequestParam(required = false) Integer durationTo,
+                                 @RequestParam(name = "offset", defaultValue = "0") int offset,
+                                 @RequestParam(name = "count", defaultValue = "20") int count) {
+        if (offset < 0) {
+            throw new ValidationException("Параметр offset не может быть отрицательным");
+        }
         if (count <= 0) {
             throw new ValidationException("Параметр count должен быть положительным");
         }
-        return filmService.getPopular(count);
+        return filmService.browse(FilmBrowseQuery.of(genreIds, mpaIds, yearFrom, yearTo, durationFrom, durationTo),
+                offset, count);
+    }
+
+    @GetMapping("/films/autocomplete")
+    public List<CompactFilm> autocomplete(@RequestParam(name = "prefix") String prefix,
+                                          @RequestParam(name = "count", defaultValue = "10") int count) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        return filmService.autocomplete(prefix, count);
+    }
+
+    @GetMapping("/films/{id}/similar")
+    public List<CompactFilm> getSimilar(@PathVariable long id,
+                                        @RequestParam(name = "count", defaultValue = "10") int count) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        return filmService.getSimilar(id, count);
+    }
+
+    @GetMapping("/films/common")
+    public List<CompactFilm> getCommon(@RequestParam long userId, @RequestParam long friendId) {
+        return filmService.getCommon(userId, friendId);
     }
 
     @PostMapping("/films")
@@ -56,8 +127,8 @@ public class FilmController {
     }
 
     @GetMapping("/genres")
-    public List<Genre> allGenres() {
-        return filmService.getAllGenres();
+    public ResponseEntity<byte[]> allGenres() {
+        return json(jsonCache.reference("genres", filmService::getAllGenres));
     }
 
     @GetMapping("/genres/{id}")
@@ -66,12 +137,18 @@ public class FilmController {
     }
 
     @GetMapping("/mpa")
-    public List<MpaRating> allMpa() {
-        return filmService.getAllMpa();
+    public ResponseEntity<byte[]> allMpa() {
+        return json(jsonCache.reference("mpa", filmService::getAllMpa));
     }
 
     @GetMapping("/mpa/{id}")
     public MpaRating mpaById(@PathVariable int id) {
         return filmService.getMpaById(id);
     }
+
+    private static ResponseEntity<byte[]> json(byte[] body) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
 }
\ No newline at end of file
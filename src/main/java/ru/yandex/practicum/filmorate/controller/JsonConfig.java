@@ -0,0 +1,27 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.yandex.practicum.filmorate.dal.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+
+@Configuration
+public class JsonConfig {
+    /**
+     * Blackbird заменяет рефлексивный доступ к геттерам и сеттерам сгенерированными
+     * через LambdaMetafactory аксессорами. Spring Boot сам подключает модуль к ObjectMapper.
+     */
+    @Bean
+    public Module blackbirdModule() {
+        return new BlackbirdModule();
+    }
+
+    @Bean
+    public Module compactFilmModule(ReferenceDataCache referenceData) {
+        return new SimpleModule("compact-film")
+                .addSerializer(CompactFilm.class, new CompactFilmSerializer(referenceData));
+    }
+}
@@ -0,0 +1,86 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import ru.yandex.practicum.filmorate.exception.TooManyRequestsException;
+import ru.yandex.practicum.filmorate.service.ratelimit.AdaptiveConcurrencyLimiter;
+import ru.yandex.practicum.filmorate.service.ratelimit.RateLimiter;
+
+import java.util.Map;
+
+/**
+ * Пишущие запросы ограничиваются ведром токенов на пару (endpoint, пользователь),
+ * все запросы — общим адаптивным лимитом параллельности.
+ * <p>
+ * Асинхронный запрос (например, потоковая выгрузка) проходит через перехватчик дважды:
+ * место занимается при первой диспетчеризации и освобождается один раз, после
+ * повторной диспетчеризации, когда ответ действительно дописан.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "filmorate.rate-limit.enabled", havingValue = "true")
+public class RateLimitInterceptor implements AsyncHandlerInterceptor {
+    private static final String STARTED_AT = RateLimitInterceptor.class.getName() + ".startedAt";
+
+    private final RateLimiter rateLimiter;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getDispatcherType() == DispatcherType.ASYNC || request.getAttribute(STARTED_AT) != null) {
+            return true;
+        }
+        if (!HttpMethod.GET.matches(request.getMethod())) {
+            String endpoint = request.getMethod() + " " + request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            String subject = subjectOf(request);
+            if (!rateLimiter.tryAcquire(endpoint, subject)) {
+                log.warn("Превышен лимит запросов: {} от {}", endpoint, subject);
+                throw new TooManyRequestsException("Слишком много запросов, повторите позже.");
+            }
+        }
+        if (!concurrencyLimiter.tryAcquire()) {
+            log.warn("Запрос отклонён: достигнут лимит параллельных запросов {}", concurrencyLimiter.getLimit());
+            throw new TooManyRequestsException("Сервис перегружен, повторите позже.");
+        }
+        request.setAttribute(STARTED_AT, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Object startedAt = request.getAttribute(STARTED_AT);
+        if (startedAt != null) {
+            request.removeAttribute(STARTED_AT);
+            boolean failed = ex != null || response.getStatus() >= 500;
+            concurrencyLimiter.release(System.nanoTime() - (Long) startedAt, failed);
+        }
+    }
+
+    /**
+     * Аутентификации нет, поэтому пользователь берётся из пути: для лайков это userId,
+     * для дружбы — id. Для остальных запросов лимит считается по адресу клиента.
+     */
+    @SuppressWarnings("unchecked")
+    private static String subjectOf(HttpServletRequest request) {
+        Map<String, String> vars = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (vars != null) {
+            if (vars.containsKey("userId")) {
+                return "user:" + vars.get("userId");
+            }
+            if (vars.containsKey("friendId") && vars.containsKey("id")) {
+                return "user:" + vars.get("id");
+            }
+        }
+        return "addr:" + request.getRemoteAddr();
+    }
+}
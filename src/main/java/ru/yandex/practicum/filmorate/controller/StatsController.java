@@ -0,0 +1,28 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.service.stats.LikeAnalytics;
+import ru.yandex.practicum.filmorate.service.stats.LikeStats;
+
+import java.time.LocalDate;
+
+@RestController
+@RequiredArgsConstructor
+public class StatsController {
+    private final LikeAnalytics likeAnalytics;
+
+    @GetMapping("/stats")
+    public LikeStats getStats(@RequestParam(name = "date", required = false)
+                              @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+                              @RequestParam(name = "top", defaultValue = "10") int top) {
+        if (top <= 0) {
+            throw new ValidationException("Параметр top должен быть положительным");
+        }
+        return likeAnalytics.snapshot(date != null ? date : LocalDate.now(), top);
+    }
+}
@@ -2,7 +2,11 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.FeedItem;
+import ru.yandex.practicum.filmorate.model.FriendPath;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserAvailability;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import java.util.Collection;
@@ -15,20 +19,54 @@ public class UserController {
     private final UserService userService;
 
     @GetMapping
-    public Collection<User> findAll() {
+    public Collection<User> findAll(@RequestParam(name = "ids", required = false) List<Long> ids) {
+        if (ids != null) {
+            return userService.getByIds(ids);
+        }
         return userService.findAll();
     }
 
+    @GetMapping("/availability")
+    public UserAvailability availability(@RequestParam(name = "email", required = false) String email,
+                                         @RequestParam(name = "login", required = false) String login) {
+        if (email == null && login == null) {
+            throw new ValidationException("Нужно указать email или login");
+        }
+        return userService.checkAvailability(email, login);
+    }
+
+    @GetMapping("/autocomplete")
+    public List<User> autocomplete(@RequestParam(name = "prefix") String prefix,
+                                   @RequestParam(name = "count", defaultValue = "10") int count) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        return userService.autocomplete(prefix, count);
+    }
+
     @GetMapping("/{id}/friends")
     public List<User> listFriends(@PathVariable long id) {
         return userService.listFriends(id);
     }
 
+    @GetMapping("/{id}/feed")
+    public List<FeedItem> feed(@PathVariable long id, @RequestParam(name = "count", defaultValue = "20") int count) {
+        if (count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+        return userService.getFeed(id, count);
+    }
+
     @GetMapping("/{id}/friends/common/{otherId}")
     public List<User> commonFriends(@PathVariable long id, @PathVariable long otherId) {
         return userService.commonFriends(id, otherId);
     }
 
+    @GetMapping("/{id}/path/{otherId}")
+    public FriendPath friendPath(@PathVariable long id, @PathVariable long otherId) {
+        return userService.getFriendPath(id, otherId);
+    }
+
     @PostMapping
     public User create(@RequestBody User user) {
         return userService.create(user);
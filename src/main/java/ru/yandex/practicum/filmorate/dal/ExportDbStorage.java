@@ -0,0 +1,162 @@
+package ru.yandex.practicum.filmorate.dal;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.dal.bitmap.LikeBitmapStorage;
+import ru.yandex.practicum.filmorate.dal.shard.ShardRouter;
+import ru.yandex.practicum.filmorate.dal.sql.ExportSqlQuery;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Locale;
+import java.util.Optional;
+import javax.sql.DataSource;
+
+/**
+ * Потоковая выгрузка таблиц в NDJSON: строки читаются курсором только вперёд
+ * порциями по {@code fetch-size} и сразу пишутся в поток, поэтому расход памяти
+ * не зависит от размера таблицы. Таблицы лайков и дружбы в режиме шардирования
+ * выгружаются из шардов по очереди. При хранении лайков битовыми картами
+ * {@code film_likes} собирается из карт и журнала; время лайка там не хранится,
+ * и {@code liked_at} выгружается пустым.
+ */
+@Repository
+public class ExportDbStorage {
+    private final JdbcTemplate jdbc;
+    private final Optional<ShardRouter> shards;
+    private final Optional<LikeBitmapStorage> bitmaps;
+    private final int fetchSize;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public ExportDbStorage(DataSource dataSource,
+                           Optional<ShardRouter> shards,
+                           Optional<LikeBitmapStorage> bitmaps,
+                           @Value("${filmorate.export.fetch-size:1000}") int fetchSize) {
+        this.jdbc = cursorTemplate(dataSource, fetchSize);
+        this.shards = shards;
+        this.bitmaps = bitmaps;
+        this.fetchSize = fetchSize;
+    }
+
+    public long export(ExportSqlQuery query, OutputStream out) throws IOException {
+        try (JsonGenerator gen = jsonFactory.createGenerator(out)) {
+            gen.setRootValueSeparator(new SerializedString("\n"));
+            RowWriter writer = new RowWriter(gen);
+            try {
+                if (query == ExportSqlQuery.FILM_LIKES && bitmaps.isPresent()) {
+                    bitmaps.get().forEachLike(writer::writeLike);
+                } else if (query.isSharded() && shards.isPresent()) {
+                    ShardRouter router = shards.get();
+                    for (int i = 0; i < router.size(); i++) {
+                        JdbcTemplate shard = cursorTemplate(router.shard(i).getJdbcTemplate().getDataSource(), fetchSize);
+                        shard.query(query.getSql(), writer);
+                    }
+                } else {
+                    jdbc.query(query.getSql(), writer);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            gen.writeRaw('\n');
+            return writer.rows;
+        }
+    }
+
+    private static JdbcTemplate cursorTemplate(DataSource dataSource, int fetchSize) {
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.setFetchSize(fetchSize);
+        return template;
+    }
+
+    private static final class RowWriter implements RowCallbackHandler {
+        private final JsonGenerator gen;
+        private String[] columns;
+        private long rows;
+
+        private RowWriter(JsonGenerator gen) {
+            this.gen = gen;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            ResultSetMetaData meta = rs.getMetaData();
+            if (columns == null) {
+                columns = new String[meta.getColumnCount()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = meta.getColumnLabel(i + 1).toLowerCase(Locale.ROOT);
+                }
+            }
+            try {
+                gen.writeStartObject();
+                for (int i = 0; i < columns.length; i++) {
+                    gen.writeFieldName(columns[i]);
+                    writeValue(rs, i + 1, meta.getColumnType(i + 1));
+                }
+                gen.writeEndObject();
+                rows++;
+            } catch (IOException e) {
+                // клиент закрыл соединение — прерываем чтение курсора
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeLike(long filmId, long userId) {
+            try {
+                gen.writeStartObject();
+                gen.writeNumberField("film_id", filmId);
+                gen.writeNumberField("user_id", userId);
+                gen.writeNullField("liked_at");
+                gen.writeEndObject();
+                rows++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeValue(ResultSet rs, int column, int type) throws SQLException, IOException {
+            switch (type) {
+                case Types.BIGINT, Types.INTEGER, Types.SMALLINT, Types.TINYINT -> {
+                    long value = rs.getLong(column);
+                    if (rs.wasNull()) {
+                        gen.writeNull();
+                    } else {
+                        gen.writeNumber(value);
+                    }
+                }
+                case Types.DATE -> {
+                    java.sql.Date value = rs.getDate(column);
+                    gen.writeString(value != null ? value.toLocalDate().toString() : null);
+                }
+                case Types.TIMESTAMP -> {
+                    java.sql.Timestamp value = rs.getTimestamp(column);
+                    gen.writeString(value != null ? value.toLocalDateTime().toString() : null);
+                }
+                case Types.ARRAY -> {
+                    Array array = rs.getArray(column);
+                    if (array == null) {
+                        gen.writeStartArray();
+                        gen.writeEndArray();
+                        return;
+                    }
+                    gen.writeStartArray();
+                    for (Object item : (Object[]) array.getArray()) {
+                        gen.writeNumber(((Number) item).longValue());
+                    }
+                    gen.writeEndArray();
+                }
+                default -> gen.writeString(rs.getString(column));
+            }
+        }
+    }
+}
@@ -1,47 +1,138 @@
 package ru.yandex.practicum.filmorate.dal;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.dal.bitmap.LikeBitmapStorage;
+import ru.yandex.practicum.filmorate.dal.mappers.CompactFilmRowMapper;
 import ru.yandex.practicum.filmorate.dal.mappers.FilmRowMapper;
+import ru.yandex.practicum.filmorate.dal.shard.ShardedRelationStorage;
 import ru.yandex.practicum.filmorate.dal.sql.FilmSqlQuery;
 import ru.yandex.practicum.filmorate.dal.sql.GenreSqlQuery;
 import ru.yandex.practicum.filmorate.dal.sql.MpaSqlQuery;
 import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.OutboxEventType;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Repository("filmDbStorage")
 @RequiredArgsConstructor
 public class FilmDbStorage implements FilmStorage {
+    // держим IN-списки короткими: длинные списки параметров дорого разбирать и планировать
+    private static final int ID_CHUNK_SIZE = 500;
+
     private final NamedParameterJdbcTemplate jdbc;
+    private final OutboxDbStorage outbox;
+    private final Optional<ShardedRelationStorage> shards;
+    private final Optional<LikeBitmapStorage> bitmaps;
+    private final Optional<ParallelQueryExecutor> parallel;
+    private final ReferenceDataCache referenceData;
     private final FilmRowMapper filmRowMapper = new FilmRowMapper();
 
     @Override
     public Collection<Film> findAll() {
+        if (parallel.isPresent()) {
+            Supplier<FilmGenres> genres = parallel.get().fork(() ->
+                    loadFilmGenres(FilmSqlQuery.GENRES_FOR_ALL_FILMS.getSql(), Map.of()));
+            List<Film> films = jdbc.getJdbcTemplate().query(FilmSqlQuery.FIND_ALL.getSql(), filmRowMapper);
+            applyGenres(films, genres.get());
+            return films;
+        }
         List<Film> films = jdbc.getJdbcTemplate().query(FilmSqlQuery.FIND_ALL.getSql(), filmRowMapper);
         setGenresToFilms(films);
         return films;
     }
 
+    @Override
+    public List<Long> findAllIds() {
+        return jdbc.getJdbcTemplate().queryForList(FilmSqlQuery.FIND_ALL_IDS.getSql(), Long.class);
+    }
+
     @Override
     public Optional<Film> findById(Long id) {
+        Supplier<Set<Genre>> genres = fork(() -> getGenres(id));
+        Supplier<Set<Long>> likes = fork(() -> loadLikeUserIds(id));
         List<Film> list = jdbc.query(FilmSqlQuery.FIND_BY_ID.getSql(), Map.of("id", id), filmRowMapper);
         if (list.isEmpty()) return Optional.empty();
         Film film = list.get(0);
-        film.setGenres(getGenres(id));
-        film.setLikes(loadLikeUserIds(id));
+        film.setGenres(genres.get());
+        film.setLikes(likes.get());
         return Optional.of(film);
     }
 
+    /**
+     * Загружает фильмы пачкой за постоянное число запросов на каждые {@value #ID_CHUNK_SIZE} id:
+     * фильмы вместе с MPA, жанры и лайки. Порядок соответствует порядку id, дубли и
+     * несуществующие id отбрасываются.
+     */
+    @Override
+    public List<Film> findByIds(Collection<Long> ids) {
+        List<Long> distinctIds = ids.stream().distinct().toList();
+        if (distinctIds.isEmpty()) return new ArrayList<>();
+        // жанры и лайки зависят только от id, поэтому их можно читать одновременно с самими фильмами
+        Supplier<Map<Long, Set<Genre>>> genres = fork(() -> genresByFilmIds(distinctIds));
+        Supplier<Map<Long, Set<Long>>> likes = fork(() -> likesByFilmIds(distinctIds));
+        Map<Long, Film> byId = new HashMap<>();
+        for (List<Long> chunk : chunks(distinctIds)) {
+            jdbc.query(FilmSqlQuery.FIND_BY_IDS.getSql(), Map.of("ids", chunk), filmRowMapper)
+                    .forEach(f -> byId.put(f.getId(), f));
+        }
+        List<Film> films = distinctIds.stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        Map<Long, Set<Genre>> genreMap = genres.get();
+        Map<Long, Set<Long>> likeMap = likes.get();
+        for (Film f : films) {
+            f.setGenres(genreMap.getOrDefault(f.getId(), Collections.emptySet()));
+            f.setLikes(new HashSet<>(likeMap.getOrDefault(f.getId(), Collections.emptySet())));
+        }
+        return films;
+    }
+
+    /**
+     * Один запрос на каждые {@value #ID_CHUNK_SIZE} id: число лайков и id жанров считаются
+     * подзапросами, MPA берётся из справочника. В режиме шардирования число лайков
+     * дочитывается из шардов, при хранении битовыми картами — из карт.
+     */
+    @Override
+    public List<CompactFilm> findCompactByIds(Collection<Long> ids) {
+        List<Long> distinctIds = ids.stream().distinct().toList();
+        Map<Long, CompactFilm> byId = new HashMap<>();
+        referenceData.warmUp();
+        for (List<Long> chunk : chunks(distinctIds)) {
+            jdbc.query(FilmSqlQuery.FIND_COMPACT_BY_IDS.getSql(), Map.of("ids", chunk),
+                            new CompactFilmRowMapper(referenceData))
+                    .forEach(f -> byId.put(f.id(), f));
+        }
+        if ((shards.isPresent() || bitmaps.isPresent()) && !byId.isEmpty()) {
+            Map<Long, Integer> likeCounts = shards.isPresent()
+                    ? shards.get().likeCounts(byId.keySet())
+                    : bitmaps.get().likeCounts(byId.keySet());
+            byId.replaceAll((id, f) -> f.withLikeCount(likeCounts.getOrDefault(id, 0)));
+        }
+        return distinctIds.stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
     @Override
     public Film add(Film film) {
         MapSqlParameterSource ps = new MapSqlParameterSource()
@@ -118,6 +209,8 @@ public class FilmDbStorage implements FilmStorage {
     @Override
     public void deleteById(Long id) {
         jdbc.update(FilmSqlQuery.DELETE_BY_ID.getSql(), Map.of("id", id));
+        shards.ifPresent(s -> s.deleteFilm(id));
+        bitmaps.ifPresent(b -> b.deleteFilm(id));
     }
 
     @Override
@@ -131,28 +224,125 @@ public class FilmDbStorage implements FilmStorage {
     }
 
     @Override
-    public void addLike(long filmId, long userId) {
-        jdbc.update(FilmSqlQuery.ADD_LIKE.getSql(),
-                Map.of("filmId", filmId, "userId", userId));
+    @Transactional
+    public boolean addLike(long filmId, long userId) {
+        int added;
+        if (shards.isPresent()) {
+            added = shards.get().addLike(filmId, userId);
+        } else if (bitmaps.isPresent()) {
+            added = bitmaps.get().addLike(filmId, userId);
+        } else {
+            try {
+                added = jdbc.update(FilmSqlQuery.ADD_LIKE.getSql(), Map.of("filmId", filmId, "userId", userId));
+            } catch (DuplicateKeyException e) {
+                // параллельный запрос успел вставить тот же лайк
+                added = 0;
+            }
+        }
+        if (added > 0) {
+            outbox.append(OutboxEventType.LIKE_ADDED, filmId, userId);
+        }
+        return added > 0;
+    }
+
+    @Override
+    @Transactional
+    public boolean removeLike(long filmId, long userId) {
+        int removed;
+        if (shards.isPresent()) {
+            removed = shards.get().removeLike(filmId, userId);
+        } else if (bitmaps.isPresent()) {
+            removed = bitmaps.get().removeLike(filmId, userId);
+        } else {
+            removed = jdbc.update(FilmSqlQuery.REMOVE_LIKE.getSql(), Map.of("filmId", filmId, "userId", userId));
+        }
+        if (removed > 0) {
+            outbox.append(OutboxEventType.LIKE_REMOVED, filmId, userId);
+        }
+        return removed > 0;
+    }
+
+    @Override
+    public void forEachLikeSince(LocalDateTime since, Consumer<FilmLike> action) {
+        if (shards.isPresent()) {
+            shards.get().forEachLikeSince(since, action);
+            return;
+        }
+        if (bitmaps.isPresent()) {
+            bitmaps.get().forEachLikeSince(since, action);
+            return;
+        }
+        jdbc.query(FilmSqlQuery.LIKES_SINCE.getSql(), Map.of("since", since), rs -> {
+            action.accept(filmLikeMapper(rs, 0));
+        });
+    }
+
+    @Override
+    public void forEachLike(LikeConsumer action) {
+        if (shards.isPresent()) {
+            shards.get().forEachLike(action);
+            return;
+        }
+        if (bitmaps.isPresent()) {
+            bitmaps.get().forEachLike(action);
+            return;
+        }
+        jdbc.query(FilmSqlQuery.ALL_LIKES.getSql(), Map.of(), rs -> {
+            action.accept(rs.getLong("film_id"), rs.getLong("user_id"));
+        });
     }
 
     @Override
-    public void removeLike(long filmId, long userId) {
-        jdbc.update(FilmSqlQuery.REMOVE_LIKE.getSql(),
-                Map.of("filmId", filmId, "userId", userId));
+    public Map<Long, Set<Long>> findLikeUserIds(Collection<Long> filmIds) {
+        List<Long> ids = filmIds.stream().distinct().toList();
+        if (ids.isEmpty()) return new HashMap<>();
+        return likesByFilmIds(ids);
     }
 
     private Set<Long> loadLikeUserIds(long filmId) {
+        if (shards.isPresent()) {
+            return shards.get().likeUserIds(filmId);
+        }
+        if (bitmaps.isPresent()) {
+            return bitmaps.get().likeUserIds(filmId);
+        }
         return new HashSet<>(jdbc.query(FilmSqlQuery.LOAD_LIKE_USER_IDS.getSql(),
                 Map.of("filmId", filmId),
                 (rs, rn) -> rs.getLong("user_id")));
     }
 
     @Override
-    public List<Film> getPopular(int count) {
-        List<Film> films = jdbc.query(FilmSqlQuery.POPULAR.getSql(), Map.of("count", count), filmRowMapper);
-        setGenresToFilms(films);
-        return films;
+    public List<FilmLike> findRecentLikesByUsers(Collection<Long> userIds, int limit) {
+        List<Long> ids = userIds.stream().distinct().toList();
+        if (ids.isEmpty()) return List.of();
+        if (shards.isPresent()) {
+            return shards.get().recentLikesByUsers(ids, limit);
+        }
+        if (bitmaps.isPresent()) {
+            return bitmaps.get().recentLikesByUsers(ids, limit);
+        }
+        List<FilmLike> likes = new ArrayList<>();
+        for (List<Long> chunk : chunks(ids)) {
+            likes.addAll(jdbc.query(FilmSqlQuery.RECENT_LIKES_BY_USERS.getSql(),
+                    Map.of("ids", chunk, "limit", limit), this::filmLikeMapper));
+        }
+        if (likes.size() > limit) {
+            likes.sort(Comparator.comparing(FilmLike::likedAt).reversed());
+            return likes.subList(0, limit);
+        }
+        return likes;
+    }
+
+    @Override
+    public List<Long> findCommonLikedFilmIds(long userId, long otherUserId) {
+        if (shards.isPresent()) {
+            return shards.get().commonLikedFilmIds(userId, otherUserId);
+        }
+        if (bitmaps.isPresent()) {
+            return bitmaps.get().commonLikedFilmIds(userId, otherUserId);
+        }
+        return jdbc.queryForList(FilmSqlQuery.COMMON_LIKED_FILM_IDS.getSql(),
+                Map.of("userId", userId, "otherUserId", otherUserId), Long.class);
     }
 
     @Override
@@ -176,25 +366,88 @@ public class FilmDbStorage implements FilmStorage {
     private void setGenresToFilms(List<Film> films) {
         if (films == null || films.isEmpty()) return;
 
-        films.forEach(f -> f.setGenres(new HashSet<>()));
+        Map<Long, Set<Genre>> map = genresByFilmIds(films.stream().map(Film::getId).toList());
+        for (Film f : films) {
+            f.setGenres(map.getOrDefault(f.getId(), Collections.emptySet()));
+        }
+    }
 
-        List<Long> filmIds = films.stream().map(Film::getId).toList();
+    private Map<Long, Set<Genre>> genresByFilmIds(List<Long> filmIds) {
+        Map<Long, Set<Genre>> map = new HashMap<>();
+        for (List<Long> chunk : chunks(filmIds)) {
+            jdbc.query(FilmSqlQuery.GENRES_FOR_FILM_LIST.getSql(), Map.of("ids", chunk), rs -> {
+                long filmId = rs.getLong("film_id");
+                int genreId = rs.getInt("genre_id");
+                String name = rs.getString("name");
+                Genre genre = new Genre();
+                genre.setId(genreId);
+                genre.setName(name);
+                map.computeIfAbsent(filmId, k -> new LinkedHashSet<>()).add(genre);
+            });
+        }
+        return map;
+    }
 
+    private Map<Long, Set<Long>> likesByFilmIds(List<Long> filmIds) {
+        if (shards.isPresent()) {
+            return shards.get().likeUserIds(filmIds);
+        }
+        if (bitmaps.isPresent()) {
+            return bitmaps.get().likeUserIds(filmIds);
+        }
+        Map<Long, Set<Long>> map = new HashMap<>();
+        for (List<Long> chunk : chunks(filmIds)) {
+            jdbc.query(FilmSqlQuery.LIKES_FOR_FILM_LIST.getSql(), Map.of("ids", chunk), rs -> {
+                map.computeIfAbsent(rs.getLong("film_id"), k -> new HashSet<>()).add(rs.getLong("user_id"));
+            });
+        }
+        return map;
+    }
 
+    /**
+     * Жанры, прочитанные параллельно с фильмами, и id фильмов, которые покрыл запрос жанров.
+     * Между двумя запросами данные могли измениться, поэтому для непокрытых фильмов
+     * жанры дочитываются отдельно.
+     */
+    private record FilmGenres(Set<Long> coveredFilmIds, Map<Long, Set<Genre>> genres) {
+    }
+
+    private FilmGenres loadFilmGenres(String sql, Map<String, ?> params) {
+        Set<Long> covered = new HashSet<>();
         Map<Long, Set<Genre>> map = new HashMap<>();
-        jdbc.query(FilmSqlQuery.GENRES_FOR_FILM_LIST.getSql(), Map.of("ids", filmIds), rs -> {
+        jdbc.query(sql, params, rs -> {
             long filmId = rs.getLong("film_id");
-            int genreId = rs.getInt("genre_id");
-            String name = rs.getString("name");
-            Genre genre = new Genre();
-            genre.setId(genreId);
-            genre.setName(name);
-            map.computeIfAbsent(filmId, k -> new LinkedHashSet<>()).add(genre);
+            covered.add(filmId);
+            if (rs.getObject("genre_id") != null) {
+                map.computeIfAbsent(filmId, k -> new LinkedHashSet<>())
+                        .add(new Genre(rs.getInt("genre_id"), rs.getString("name")));
+            }
         });
+        return new FilmGenres(covered, map);
+    }
 
+    private void applyGenres(List<Film> films, FilmGenres filmGenres) {
+        List<Film> uncovered = new ArrayList<>();
         for (Film f : films) {
-            f.setGenres(map.getOrDefault(f.getId(), Collections.emptySet()));
+            if (filmGenres.coveredFilmIds().contains(f.getId())) {
+                f.setGenres(filmGenres.genres().getOrDefault(f.getId(), Collections.emptySet()));
+            } else {
+                uncovered.add(f);
+            }
         }
+        setGenresToFilms(uncovered);
+    }
+
+    private <T> Supplier<T> fork(Supplier<T> query) {
+        return parallel.isPresent() ? parallel.get().fork(query) : query;
+    }
+
+    private static <T> List<List<T>> chunks(List<T> list) {
+        List<List<T>> result = new ArrayList<>((list.size() + ID_CHUNK_SIZE - 1) / ID_CHUNK_SIZE);
+        for (int from = 0; from < list.size(); from += ID_CHUNK_SIZE) {
+            result.add(list.subList(from, Math.min(list.size(), from + ID_CHUNK_SIZE)));
+        }
+        return result;
     }
 
     @Override
@@ -215,6 +468,11 @@ public class FilmDbStorage implements FilmStorage {
         return g;
     }
 
+    private FilmLike filmLikeMapper(ResultSet rs, int rn) throws SQLException {
+        return new FilmLike(rs.getLong("film_id"), rs.getLong("user_id"),
+                rs.getTimestamp("liked_at").toLocalDateTime());
+    }
+
     private MpaRating mpaMapper(ResultSet rs, int rn) throws SQLException {
         MpaRating m = new MpaRating();
         m.setId(rs.getInt("id"));
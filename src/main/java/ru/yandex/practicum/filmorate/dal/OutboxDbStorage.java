@@ -0,0 +1,46 @@
+package ru.yandex.practicum.filmorate.dal;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.dal.sql.OutboxSqlQuery;
+import ru.yandex.practicum.filmorate.model.OutboxEvent;
+import ru.yandex.practicum.filmorate.model.OutboxEventType;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+@RequiredArgsConstructor
+public class OutboxDbStorage {
+    private final NamedParameterJdbcTemplate jdbc;
+
+    /**
+     * Пишет событие в outbox. Вызывается внутри транзакции изменения,
+     * поэтому событие фиксируется вместе с самим лайком или дружбой.
+     */
+    public void append(OutboxEventType type, long entityId, long relatedId) {
+        jdbc.update(OutboxSqlQuery.INSERT.getSql(),
+                Map.of("type", type.name(), "entityId", entityId, "relatedId", relatedId));
+    }
+
+    public List<OutboxEvent> fetchBatch(int limit) {
+        return jdbc.query(OutboxSqlQuery.FETCH_BATCH.getSql(), Map.of("limit", limit), this::eventMapper);
+    }
+
+    public void delete(List<Long> ids) {
+        jdbc.update(OutboxSqlQuery.DELETE_BY_IDS.getSql(), Map.of("ids", ids));
+    }
+
+    private OutboxEvent eventMapper(ResultSet rs, int rn) throws SQLException {
+        OutboxEvent event = new OutboxEvent();
+        event.setId(rs.getLong("id"));
+        event.setType(OutboxEventType.valueOf(rs.getString("event_type")));
+        event.setEntityId(rs.getLong("entity_id"));
+        event.setRelatedId(rs.getLong("related_id"));
+        event.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        return event;
+    }
+}
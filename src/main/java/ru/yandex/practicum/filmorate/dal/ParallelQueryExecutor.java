@@ -0,0 +1,95 @@
+package ru.yandex.practicum.filmorate.dal;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.dal.routing.ReadYourWritesTracker;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Выполняет независимые подзапросы гидрации параллельно на виртуальных потоках.
+ * <p>
+ * Каждый подзапрос берёт отдельное соединение из пула, поэтому число одновременно
+ * выполняемых подзапросов ограничено семафором. Лимит должен быть меньше размера пула:
+ * вызывающие потоки сами держат соединения, и при нехватке разрешений подзапрос
+ * выполняется в вызывающем потоке, а не ждёт.
+ */
+@Component
+@ConditionalOnProperty(name = "filmorate.hydration.parallel", havingValue = "true")
+public class ParallelQueryExecutor {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits;
+    private final TransactionTemplate readOnlyTx;
+
+    public ParallelQueryExecutor(PlatformTransactionManager transactionManager,
+                                 @Value("${filmorate.hydration.max-concurrency:4}") int maxConcurrency) {
+        this.permits = new Semaphore(maxConcurrency);
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+    }
+
+    /**
+     * Запускает запрос и возвращает функцию ожидания его результата. Внутри пишущей
+     * транзакции запрос выполняется лениво в вызывающем потоке: другое соединение
+     * не увидит её незафиксированных изменений. Закрепление за основной БД хранится
+     * в потоке, поэтому переносится в подзапрос явно.
+     */
+    public <T> Supplier<T> fork(Supplier<T> query) {
+        boolean inTransaction = TransactionSynchronizationManager.isActualTransactionActive();
+        boolean readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        boolean pinned = ReadYourWritesTracker.isPinnedToPrimary();
+        if (inTransaction && !readOnly) {
+            return query;
+        }
+        if (!permits.tryAcquire()) {
+            T result = query.get();
+            return () -> result;
+        }
+        CompletableFuture<T> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    // сохраняем read-only, чтобы маршрутизация на реплику работала и в подзапросах
+                    return readOnly ? readOnlyTx.execute(status -> {
+                        if (pinned) {
+                            ReadYourWritesTracker.pinToPrimary();
+                        }
+                        return query.get();
+                    }) : query.get();
+                } finally {
+                    permits.release();
+                }
+            }, executor);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return () -> join(future);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+package ru.yandex.practicum.filmorate.dal;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.dal.sql.GenreSqlQuery;
+import ru.yandex.practicum.filmorate.dal.sql.MpaSqlQuery;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Справочники жанров и рейтингов MPA, загруженные один раз. Все компактные
+ * представления фильмов ссылаются на одни и те же экземпляры отсюда.
+ * <p>
+ * Загружаются при старте и перед запросами компактных фильмов, а не из маппера строк:
+ * иначе поток, уже занявший соединение, ждал бы второе, и при исчерпанном пуле
+ * запросы блокировали бы друг друга.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ReferenceDataCache {
+    private final NamedParameterJdbcTemplate jdbc;
+    private volatile Snapshot snapshot;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        load();
+    }
+
+    public Genre genre(int id) {
+        Genre genre = load().genres.get(id);
+        if (genre == null) {
+            genre = reload().genres.get(id);
+        }
+        return genre != null ? genre : new Genre(id, null);
+    }
+
+    public List<Genre> genres(int[] ids) {
+        List<Genre> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            result.add(genre(id));
+        }
+        return result;
+    }
+
+    public MpaRating mpa(int id) {
+        MpaRating mpa = load().mpa.get(id);
+        if (mpa == null) {
+            mpa = reload().mpa.get(id);
+        }
+        return mpa;
+    }
+
+    private Snapshot load() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            return snapshot != null ? snapshot : reload();
+        }
+    }
+
+    private synchronized Snapshot reload() {
+        Map<Integer, Genre> genres = new LinkedHashMap<>();
+        jdbc.getJdbcTemplate().query(GenreSqlQuery.FIND_ALL_GENRE.getSql(),
+                rs -> {
+                    genres.put(rs.getInt("id"), new Genre(rs.getInt("id"), rs.getString("name")));
+                });
+        Map<Integer, MpaRating> mpa = new LinkedHashMap<>();
+        jdbc.getJdbcTemplate().query(MpaSqlQuery.FIND_ALL_MPA.getSql(),
+                rs -> {
+                    MpaRating rating = new MpaRating();
+                    rating.setId(rs.getInt("id"));
+                    rating.setName(rs.getString("name"));
+                    mpa.put(rating.getId(), rating);
+                });
+        snapshot = new Snapshot(Map.copyOf(genres), Map.copyOf(mpa));
+        return snapshot;
+    }
+
+    private record Snapshot(Map<Integer, Genre> genres, Map<Integer, MpaRating> mpa) {
+    }
+}
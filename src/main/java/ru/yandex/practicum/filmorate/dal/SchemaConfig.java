@@ -0,0 +1,31 @@
+package ru.yandex.practicum.filmorate.dal;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Версионированная инициализация схемы ({@code filmorate.schema.versioned=true}) вместо
+ * повторного выполнения schema.sql и data.sql при каждом старте. Включается профилем
+ * {@code fast-startup} вместе с {@code spring.sql.init.mode=never}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "filmorate.schema.versioned", havingValue = "true")
+public class SchemaConfig {
+
+    @Bean
+    public VersionedSchemaInitializer schemaInitializer(DataSource dataSource) {
+        return new VersionedSchemaInitializer(dataSource, "main",
+                List.of(new ClassPathResource("schema.sql"), new ClassPathResource("data.sql")));
+    }
+
+    @Bean
+    public static LazyInitializationExcludeFilter eagerSchemaInitializer() {
+        return LazyInitializationExcludeFilter.forBeanTypes(VersionedSchemaInitializer.class);
+    }
+}
@@ -0,0 +1,41 @@
+package ru.yandex.practicum.filmorate.dal;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
+
+/**
+ * Выбирает хранилище, с которым работают сервисы: {@code filmorate.storage.type=db}
+ * (по умолчанию) или {@code memory}. In-memory хранилища становятся устойчивыми,
+ * если включён журнал предзаписи ({@code filmorate.wal.enabled=true}).
+ */
+@Configuration
+public class StorageConfig {
+    private static final String MEMORY = "memory";
+
+    @Bean("filmStorage")
+    public FilmStorage filmStorage(@Value("${filmorate.storage.type:db}") String type,
+                                   @Qualifier("filmDbStorage") FilmStorage dbStorage,
+                                   @Qualifier("inMemoryFilmStorage") FilmStorage inMemoryStorage,
+                                   @Qualifier("journaledFilmStorage") ObjectProvider<FilmStorage> journaledStorage) {
+        if (!MEMORY.equalsIgnoreCase(type)) {
+            return dbStorage;
+        }
+        return journaledStorage.getIfAvailable(() -> inMemoryStorage);
+    }
+
+    @Bean("userStorage")
+    public UserStorage userStorage(@Value("${filmorate.storage.type:db}") String type,
+                                   @Qualifier("userDbStorage") UserStorage dbStorage,
+                                   @Qualifier("inMemoryUserStorage") UserStorage inMemoryStorage,
+                                   @Qualifier("journaledUserStorage") ObjectProvider<UserStorage> journaledStorage) {
+        if (!MEMORY.equalsIgnoreCase(type)) {
+            return dbStorage;
+        }
+        return journaledStorage.getIfAvailable(() -> inMemoryStorage);
+    }
+}
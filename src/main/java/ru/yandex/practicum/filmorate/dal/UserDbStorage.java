@@ -1,25 +1,39 @@
 package ru.yandex.practicum.filmorate.dal;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.dal.bitmap.LikeBitmapStorage;
 import ru.yandex.practicum.filmorate.dal.mappers.UserRowMapper;
+import ru.yandex.practicum.filmorate.dal.shard.ShardedRelationStorage;
 import ru.yandex.practicum.filmorate.dal.sql.UserSqlQuery;
 import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
+import ru.yandex.practicum.filmorate.model.OutboxEventType;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
 @Repository("userDbStorage")
 @RequiredArgsConstructor
 public class UserDbStorage implements UserStorage {
+    private static final int ID_CHUNK_SIZE = 500;
+
     private final JdbcTemplate jdbcTemplate;
+    private final OutboxDbStorage outbox;
+    private final Optional<ShardedRelationStorage> shards;
+    private final Optional<LikeBitmapStorage> likeBitmaps;
     private final UserRowMapper userRowMapper = new UserRowMapper();
 
     @Override
@@ -34,6 +48,11 @@ public class UserDbStorage implements UserStorage {
                 .findFirst();
     }
 
+    @Override
+    public List<User> findByIds(Collection<Long> ids) {
+        return findAllByIdsOrdered(ids.stream().distinct().toList());
+    }
+
     @Override
     public User add(User user) {
         KeyHolder keyHolder = new GeneratedKeyHolder();
@@ -63,7 +82,9 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public void deleteById(Long id) {
+        likeBitmaps.ifPresent(b -> b.deleteUser(id));
         jdbcTemplate.update(UserSqlQuery.DELETE_BY_ID.getSql(), id);
+        shards.ifPresent(s -> s.deleteUser(id));
     }
 
     @Override
@@ -77,25 +98,104 @@ public class UserDbStorage implements UserStorage {
     }
 
     @Override
+    public Optional<Long> findIdByEmail(String email) {
+        return jdbcTemplate.queryForList(UserSqlQuery.FIND_ID_BY_EMAIL.getSql(), Long.class, email).stream()
+                .findFirst();
+    }
+
+    @Override
+    public Optional<Long> findIdByLogin(String login) {
+        return jdbcTemplate.queryForList(UserSqlQuery.FIND_ID_BY_LOGIN.getSql(), Long.class, login).stream()
+                .findFirst();
+    }
+
+    @Override
+    @Transactional
     public void addFriend(long userId, long friendId) {
         if (userId == friendId) return;
         if (!existsById(userId) || !existsById(friendId)) return;
 
-        jdbcTemplate.update(UserSqlQuery.ADD_FRIEND.getSql(), userId, friendId);
+        int added;
+        if (shards.isPresent()) {
+            added = shards.get().addFriend(userId, friendId);
+        } else {
+            try {
+                added = jdbcTemplate.update(UserSqlQuery.ADD_FRIEND.getSql(), userId, friendId, userId, friendId);
+            } catch (DuplicateKeyException e) {
+                // параллельный запрос успел добавить ту же дружбу
+                added = 0;
+            }
+        }
+        if (added > 0) {
+            outbox.append(OutboxEventType.FRIEND_ADDED, userId, friendId);
+        }
     }
 
     @Override
+    @Transactional
     public void removeFriend(long userId, long friendId) {
-        jdbcTemplate.update(UserSqlQuery.REMOVE_FRIEND.getSql(), userId, friendId);
+        int removed = shards.isPresent()
+                ? shards.get().removeFriend(userId, friendId)
+                : jdbcTemplate.update(UserSqlQuery.REMOVE_FRIEND.getSql(), userId, friendId);
+        if (removed > 0) {
+            outbox.append(OutboxEventType.FRIEND_REMOVED, userId, friendId);
+        }
     }
 
     @Override
     public List<User> findFriends(long userId) {
+        if (shards.isPresent()) {
+            return findAllByIdsOrdered(shards.get().friendIds(userId));
+        }
         return jdbcTemplate.query(UserSqlQuery.FIND_FRIENDS.getSql(), userRowMapper, userId);
     }
 
+    @Override
+    public List<Long> findFriendIds(long userId) {
+        if (shards.isPresent()) {
+            return shards.get().friendIds(userId);
+        }
+        return jdbcTemplate.queryForList(UserSqlQuery.FIND_FRIEND_IDS.getSql(), Long.class, userId);
+    }
+
+    @Override
+    public List<Long> findFollowerIds(long userId, int limit) {
+        if (shards.isPresent()) {
+            return shards.get().followerIds(userId, limit);
+        }
+        return jdbcTemplate.queryForList(UserSqlQuery.FIND_FOLLOWER_IDS.getSql(), Long.class, userId, limit);
+    }
+
+    @Override
+    public void forEachFriendship(FriendshipConsumer action) {
+        if (shards.isPresent()) {
+            shards.get().forEachFriendship(action);
+            return;
+        }
+        jdbcTemplate.query(UserSqlQuery.FIND_ALL_FRIENDSHIPS.getSql(), rs -> {
+            action.accept(rs.getLong("user_id"), rs.getLong("friend_id"));
+        });
+    }
+
     @Override
     public List<User> findCommonFriends(long userId, long otherUserId) {
+        if (shards.isPresent()) {
+            return findAllByIdsOrdered(shards.get().commonFriendIds(userId, otherUserId));
+        }
         return jdbcTemplate.query(UserSqlQuery.FIND_COMMON_FRIENDS.getSql(), userRowMapper, userId, otherUserId);
     }
+
+    private List<User> findAllByIdsOrdered(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        NamedParameterJdbcTemplate namedJdbc = new NamedParameterJdbcTemplate(jdbcTemplate);
+        Map<Long, User> byId = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += ID_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + ID_CHUNK_SIZE));
+            namedJdbc.query(UserSqlQuery.FIND_BY_IDS.getSql(), Map.of("ids", chunk), userRowMapper)
+                    .forEach(u -> byId.put(u.getId(), u));
+        }
+        return ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+    }
 }
@@ -0,0 +1,72 @@
+package ru.yandex.practicum.filmorate.dal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.jdbc.init.DataSourceScriptDatabaseInitializer;
+import org.springframework.boot.sql.init.DatabaseInitializationSettings;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import ru.yandex.practicum.filmorate.dal.sql.SchemaVersionSqlQuery;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Выполняет скрипты схемы только если они изменились с прошлого запуска: контрольная
+ * сумма скриптов хранится в таблице schema_version под именем схемы. Когда схема актуальна,
+ * старт обходится одним запросом вместо повторного выполнения всех скриптов.
+ * <p>
+ * Скрипты должны оставаться идемпотентными: несколько экземпляров, стартующих
+ * одновременно, могут выполнить их параллельно.
+ */
+@Slf4j
+public class VersionedSchemaInitializer extends DataSourceScriptDatabaseInitializer {
+    private final DataSource dataSource;
+    private final String name;
+    private final List<Resource> scripts;
+
+    public VersionedSchemaInitializer(DataSource dataSource, String name, List<Resource> scripts) {
+        super(dataSource, new DatabaseInitializationSettings());
+        this.dataSource = dataSource;
+        this.name = name;
+        this.scripts = List.copyOf(scripts);
+    }
+
+    @Override
+    public boolean initializeDatabase() {
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        String checksum = checksum();
+        jdbc.execute(SchemaVersionSqlQuery.CREATE_TABLE.getSql());
+        List<String> applied = jdbc.queryForList(SchemaVersionSqlQuery.FIND_CHECKSUM.getSql(), String.class, name);
+        if (applied.contains(checksum)) {
+            log.debug("Схема {} актуальна, миграция не нужна", name);
+            return false;
+        }
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator(scripts.toArray(Resource[]::new));
+        populator.setSqlScriptEncoding(StandardCharsets.UTF_8.name());
+        populator.execute(dataSource);
+        jdbc.update(SchemaVersionSqlQuery.SAVE_CHECKSUM.getSql(), name, checksum);
+        log.info("Схема {} обновлена до версии {}", name, checksum.substring(0, 12));
+        return true;
+    }
+
+    private String checksum() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Resource script : scripts) {
+                digest.update(script.getContentAsByteArray());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать скрипты схемы " + name, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
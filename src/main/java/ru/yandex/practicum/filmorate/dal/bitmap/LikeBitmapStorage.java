@@ -0,0 +1,483 @@
+package ru.yandex.practicum.filmorate.dal.bitmap;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.dal.sql.LikeBitmapSqlQuery;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Лайки в виде сжатых битовых карт: для каждого фильма — карта лайкнувших
+ * пользователей с их числом, для каждого пользователя — карта лайкнутых фильмов.
+ * <p>
+ * Лайки и их отмены пишутся в журнал {@code film_like_deltas} в транзакции запроса,
+ * а фоновое слияние пачками вливает их в карты и помечает слитыми. Читатели
+ * сначала берут неслитые записи журнала, а затем карту: запись журнала новее карты,
+ * и порядок чтения гарантирует, что слияние между ними ничего не потеряет.
+ * Слитые записи хранятся ещё {@code delta-retention-hours} — по ним отвечают
+ * запросы о времени лайков.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.likes.layout", havingValue = "bitmap")
+public class LikeBitmapStorage {
+    private static final int ID_CHUNK_SIZE = 500;
+
+    private final NamedParameterJdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final int mergeBatchSize;
+    private final long retentionHours;
+    private final Map<Long, Roaring64NavigableMap> filmBitmaps;
+    // кеш карт фильмов обновляется только слиянием; пара счётчиков позволяет
+    // читателю понять, не шло ли слияние, пока он читал журнал
+    private final AtomicLong mergesStarted = new AtomicLong();
+    private final AtomicLong mergesFinished = new AtomicLong();
+
+    public LikeBitmapStorage(NamedParameterJdbcTemplate jdbc,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${filmorate.likes.bitmap.cache-size:10000}") int cacheSize,
+                             @Value("${filmorate.likes.bitmap.merge-batch-size:10000}") int mergeBatchSize,
+                             @Value("${filmorate.likes.bitmap.delta-retention-hours:168}") long retentionHours,
+                             @Value("${filmorate.sharding.enabled:false}") boolean sharding) {
+        if (sharding) {
+            throw new IllegalStateException("Хранение лайков битовыми картами несовместимо с шардированием");
+        }
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.mergeBatchSize = mergeBatchSize;
+        this.retentionHours = retentionHours;
+        this.filmBitmaps = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Roaring64NavigableMap> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * При первом включении переносит лайки из {@code film_likes} в журнал,
+     * откуда слияние разложит их по картам. Перенос отмечается в {@code data_migrations}
+     * в той же транзакции: пустые карты и журнал не значат, что переноса не было, —
+     * все лайки могли снять. Пустота проверяется только в базах без отметки, чтобы
+     * не перенести лайки повторно туда, где карты появились до неё.
+     */
+    @PostConstruct
+    public void backfill() {
+        Boolean backfilled = jdbc.queryForObject(LikeBitmapSqlQuery.IS_BACKFILLED.getSql(), Map.of(), Boolean.class);
+        if (Boolean.TRUE.equals(backfilled)) {
+            return;
+        }
+        try {
+            tx.executeWithoutResult(status -> {
+                jdbc.update(LikeBitmapSqlQuery.MARK_BACKFILLED.getSql(), Map.of());
+                Boolean empty = jdbc.queryForObject(LikeBitmapSqlQuery.IS_EMPTY.getSql(), Map.of(), Boolean.class);
+                if (Boolean.TRUE.equals(empty)) {
+                    int copied = jdbc.update(LikeBitmapSqlQuery.BACKFILL_FROM_ROWS.getSql(), Map.of());
+                    if (copied > 0) {
+                        log.info("В журнал битовых карт перенесено {} лайков из film_likes", copied);
+                    }
+                }
+            });
+        } catch (DuplicateKeyException e) {
+            log.debug("Лайки в журнал битовых карт переносит другой экземпляр");
+        }
+    }
+
+    /**
+     * Вызывается в транзакции запроса: блокировка строки фильма держится до её конца,
+     * поэтому проверка и запись в журнал не перемежаются с другим лайком того же фильма.
+     */
+    public int addLike(long filmId, long userId) {
+        lockFilm(filmId);
+        return isLiked(filmId, userId) ? 0 : appendDelta(filmId, userId, true);
+    }
+
+    public int removeLike(long filmId, long userId) {
+        lockFilm(filmId);
+        return isLiked(filmId, userId) ? appendDelta(filmId, userId, false) : 0;
+    }
+
+    public boolean isLiked(long filmId, long userId) {
+        long epoch = mergesFinished.get();
+        List<Boolean> pending = jdbc.queryForList(LikeBitmapSqlQuery.LAST_PENDING_DELTA.getSql(),
+                Map.of("filmId", filmId, "userId", userId), Boolean.class);
+        if (!pending.isEmpty()) {
+            return pending.get(0);
+        }
+        return filmBitmap(filmId, epoch).contains(userId);
+    }
+
+    public Set<Long> likeUserIds(long filmId) {
+        return likeUserIds(List.of(filmId)).getOrDefault(filmId, new HashSet<>());
+    }
+
+    /**
+     * Лайки для списка фильмов; фильмы без лайков в результат не попадают.
+     */
+    public Map<Long, Set<Long>> likeUserIds(Collection<Long> filmIds) {
+        List<Long> ids = filmIds.stream().distinct().toList();
+        long epoch = mergesFinished.get();
+        Map<Long, List<Delta>> pending = pendingBy(LikeBitmapSqlQuery.PENDING_FOR_FILMS, ids, true);
+        Map<Long, Roaring64NavigableMap> bitmaps = filmBitmaps(ids, epoch);
+        Map<Long, Set<Long>> result = new HashMap<>();
+        for (Long filmId : ids) {
+            Set<Long> users = new HashSet<>();
+            Roaring64NavigableMap bitmap = bitmaps.get(filmId);
+            if (bitmap != null) {
+                bitmap.forEach(users::add);
+            }
+            for (Delta delta : pending.getOrDefault(filmId, List.of())) {
+                if (delta.liked()) {
+                    users.add(delta.userId());
+                } else {
+                    users.remove(delta.userId());
+                }
+            }
+            if (!users.isEmpty()) {
+                result.put(filmId, users);
+            }
+        }
+        return result;
+    }
+
+    public Map<Long, Integer> likeCounts(Collection<Long> filmIds) {
+        Map<Long, Integer> result = new HashMap<>();
+        for (List<Long> chunk : chunks(filmIds.stream().distinct().toList())) {
+            jdbc.query(LikeBitmapSqlQuery.LIKE_COUNTS_FOR_FILM_LIST.getSql(), Map.of("ids", chunk), rs -> {
+                result.put(rs.getLong("film_id"), rs.getInt("like_count"));
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Фильмы, которые лайкнули оба пользователя: пересечение их карт фильмов.
+     */
+    public List<Long> commonLikedFilmIds(long userId, long otherUserId) {
+        List<Long> ids = List.of(userId, otherUserId);
+        Map<Long, List<Delta>> pending = pendingBy(LikeBitmapSqlQuery.PENDING_FOR_USERS, ids, false);
+        Map<Long, Roaring64NavigableMap> bitmaps = new HashMap<>();
+        jdbc.query(LikeBitmapSqlQuery.USER_BITMAPS_FOR_LIST.getSql(), Map.of("ids", ids), rs -> {
+            bitmaps.put(rs.getLong("user_id"), deserialize(rs.getBytes("film_ids")));
+        });
+        Roaring64NavigableMap common = userBitmap(userId, bitmaps, pending);
+        common.and(userBitmap(otherUserId, bitmaps, pending));
+        List<Long> filmIds = new ArrayList<>();
+        common.forEach(filmIds::add);
+        return filmIds;
+    }
+
+    public void forEachLike(FilmStorage.LikeConsumer action) {
+        Map<Long, List<Delta>> pending = new HashMap<>();
+        jdbc.query(LikeBitmapSqlQuery.ALL_PENDING.getSql(), Map.of(), rs -> {
+            Delta delta = new Delta(rs.getLong("film_id"), rs.getLong("user_id"), rs.getBoolean("liked"));
+            pending.computeIfAbsent(delta.filmId(), k -> new ArrayList<>()).add(delta);
+        });
+        jdbc.query(LikeBitmapSqlQuery.ALL_FILM_BITMAPS.getSql(), Map.of(), rs -> {
+            long filmId = rs.getLong("film_id");
+            Roaring64NavigableMap users = deserialize(rs.getBytes("user_ids"));
+            apply(users, pending.remove(filmId), true);
+            users.forEach(userId -> action.accept(filmId, userId));
+        });
+        pending.forEach((filmId, deltas) -> {
+            Roaring64NavigableMap users = newBitmap();
+            apply(users, deltas, true);
+            users.forEach(userId -> action.accept(filmId, userId));
+        });
+    }
+
+    public void forEachLikeSince(LocalDateTime since, Consumer<FilmLike> action) {
+        jdbc.query(LikeBitmapSqlQuery.LIKES_SINCE.getSql(), Map.of("since", since), rs -> {
+            action.accept(new FilmLike(rs.getLong("film_id"), rs.getLong("user_id"),
+                    rs.getTimestamp("liked_at").toLocalDateTime()));
+        });
+    }
+
+    public List<FilmLike> recentLikesByUsers(List<Long> userIds, int limit) {
+        List<FilmLike> likes = new ArrayList<>();
+        for (List<Long> chunk : chunks(userIds)) {
+            likes.addAll(jdbc.query(LikeBitmapSqlQuery.RECENT_LIKES_BY_USERS.getSql(),
+                    Map.of("ids", chunk, "limit", limit),
+                    (rs, rn) -> new FilmLike(rs.getLong("film_id"), rs.getLong("user_id"),
+                            rs.getTimestamp("liked_at").toLocalDateTime())));
+        }
+        if (likes.size() > limit) {
+            likes.sort(Comparator.comparing(FilmLike::likedAt).reversed());
+            return likes.subList(0, limit);
+        }
+        return likes;
+    }
+
+    public void deleteFilm(long filmId) {
+        synchronized (filmBitmaps) {
+            filmBitmaps.remove(filmId);
+        }
+    }
+
+    /**
+     * Снимает все лайки пользователя через журнал. Вызывается до удаления
+     * самого пользователя, пока его карта фильмов ещё существует.
+     */
+    public void deleteUser(long userId) {
+        Map<Long, List<Delta>> pending = pendingBy(LikeBitmapSqlQuery.PENDING_FOR_USERS, List.of(userId), false);
+        Map<Long, Roaring64NavigableMap> bitmaps = new HashMap<>();
+        jdbc.query(LikeBitmapSqlQuery.USER_BITMAPS_FOR_LIST.getSql(), Map.of("ids", List.of(userId)), rs -> {
+            bitmaps.put(rs.getLong("user_id"), deserialize(rs.getBytes("film_ids")));
+        });
+        List<MapSqlParameterSource> batch = new ArrayList<>();
+        userBitmap(userId, bitmaps, pending).forEach(filmId -> batch.add(new MapSqlParameterSource()
+                .addValue("filmId", filmId)
+                .addValue("userId", userId)
+                .addValue("liked", false)));
+        if (!batch.isEmpty()) {
+            jdbc.batchUpdate(LikeBitmapSqlQuery.INSERT_DELTA.getSql(), batch.toArray(MapSqlParameterSource[]::new));
+        }
+    }
+
+    /**
+     * Вливает журнал в карты пачками по {@code merge-batch-size} записей,
+     * пока он не опустеет, и удаляет слитые записи старше срока хранения.
+     */
+    @Scheduled(fixedDelayString = "${filmorate.likes.bitmap.merge-interval-ms:1000}")
+    public void merge() {
+        long started = System.nanoTime();
+        int total = 0;
+        int merged;
+        do {
+            merged = mergeBatch();
+            total += merged;
+        } while (merged == mergeBatchSize);
+        jdbc.update(LikeBitmapSqlQuery.PURGE_MERGED.getSql(),
+                Map.of("before", LocalDateTime.now().minusHours(retentionHours)));
+        if (total > 0) {
+            log.debug("В битовые карты влито {} изменений лайков за {} мс", total,
+                    (System.nanoTime() - started) / 1_000_000);
+        }
+    }
+
+    private int mergeBatch() {
+        Map<Long, Roaring64NavigableMap> mergedFilms = new HashMap<>();
+        mergesStarted.incrementAndGet();
+        try {
+            Integer merged = tx.execute(status -> {
+                List<Long> deltaIds = new ArrayList<>();
+                Map<Long, List<Delta>> byFilm = new LinkedHashMap<>();
+                Map<Long, List<Delta>> byUser = new LinkedHashMap<>();
+                jdbc.query(LikeBitmapSqlQuery.PENDING_BATCH.getSql(), Map.of("limit", mergeBatchSize), rs -> {
+                    Delta delta = new Delta(rs.getLong("film_id"), rs.getLong("user_id"), rs.getBoolean("liked"));
+                    deltaIds.add(rs.getLong("id"));
+                    byFilm.computeIfAbsent(delta.filmId(), k -> new ArrayList<>()).add(delta);
+                    byUser.computeIfAbsent(delta.userId(), k -> new ArrayList<>()).add(delta);
+                });
+                if (deltaIds.isEmpty()) {
+                    return 0;
+                }
+                Map<Long, Roaring64NavigableMap> films = loadBitmaps(LikeBitmapSqlQuery.FILM_BITMAPS_FOR_LIST,
+                        byFilm.keySet(), "film_id", "user_ids");
+                byFilm.forEach((filmId, deltas) -> {
+                    Roaring64NavigableMap users = films.getOrDefault(filmId, newBitmap());
+                    apply(users, deltas, true);
+                    save(LikeBitmapSqlQuery.SAVE_FILM_BITMAP, LikeBitmapSqlQuery.DELETE_FILM_BITMAP, filmId, users);
+                    mergedFilms.put(filmId, users);
+                });
+                Map<Long, Roaring64NavigableMap> users = loadBitmaps(LikeBitmapSqlQuery.USER_BITMAPS_FOR_LIST,
+                        byUser.keySet(), "user_id", "film_ids");
+                byUser.forEach((userId, deltas) -> {
+                    Roaring64NavigableMap likedFilms = users.getOrDefault(userId, newBitmap());
+                    apply(likedFilms, deltas, false);
+                    save(LikeBitmapSqlQuery.SAVE_USER_BITMAP, LikeBitmapSqlQuery.DELETE_USER_BITMAP, userId, likedFilms);
+                });
+                for (List<Long> chunk : chunks(deltaIds)) {
+                    jdbc.update(LikeBitmapSqlQuery.MARK_MERGED.getSql(), Map.of("ids", chunk));
+                }
+                return deltaIds.size();
+            });
+            synchronized (filmBitmaps) {
+                filmBitmaps.putAll(mergedFilms);
+            }
+            return merged == null ? 0 : merged;
+        } finally {
+            mergesFinished.incrementAndGet();
+        }
+    }
+
+    private Roaring64NavigableMap filmBitmap(long filmId, long epoch) {
+        return filmBitmaps(List.of(filmId), epoch).getOrDefault(filmId, newBitmap());
+    }
+
+    /**
+     * Карты фильмов из кеша или из БД. Прочитанное из БД попадает в кеш, только если
+     * с момента {@code epoch} слияние не начиналось, и только вне read-only
+     * транзакций, которые могут читать отстающую реплику.
+     */
+    private Map<Long, Roaring64NavigableMap> filmBitmaps(List<Long> filmIds, long epoch) {
+        Map<Long, Roaring64NavigableMap> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        synchronized (filmBitmaps) {
+            boolean cacheValid = mergesStarted.get() == epoch;
+            for (Long filmId : filmIds) {
+                Roaring64NavigableMap cached = cacheValid ? filmBitmaps.get(filmId) : null;
+                if (cached != null) {
+                    result.put(filmId, cached);
+                } else {
+                    missing.add(filmId);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        Map<Long, Roaring64NavigableMap> loaded = loadBitmaps(LikeBitmapSqlQuery.FILM_BITMAPS_FOR_LIST,
+                missing, "film_id", "user_ids");
+        for (Long filmId : missing) {
+            loaded.putIfAbsent(filmId, newBitmap());
+        }
+        result.putAll(loaded);
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            synchronized (filmBitmaps) {
+                if (mergesStarted.get() == epoch) {
+                    filmBitmaps.putAll(loaded);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Map<Long, Roaring64NavigableMap> loadBitmaps(LikeBitmapSqlQuery query, Collection<Long> ids,
+                                                         String idColumn, String bitmapColumn) {
+        Map<Long, Roaring64NavigableMap> result = new HashMap<>();
+        for (List<Long> chunk : chunks(new ArrayList<>(ids))) {
+            jdbc.query(query.getSql(), Map.of("ids", chunk), rs -> {
+                result.put(rs.getLong(idColumn), deserialize(rs.getBytes(bitmapColumn)));
+            });
+        }
+        return result;
+    }
+
+    private Map<Long, List<Delta>> pendingBy(LikeBitmapSqlQuery query, List<Long> ids, boolean byFilm) {
+        Map<Long, List<Delta>> result = new HashMap<>();
+        for (List<Long> chunk : chunks(ids)) {
+            jdbc.query(query.getSql(), Map.of("ids", chunk), rs -> {
+                Delta delta = new Delta(rs.getLong("film_id"), rs.getLong("user_id"), rs.getBoolean("liked"));
+                result.computeIfAbsent(byFilm ? delta.filmId() : delta.userId(), k -> new ArrayList<>()).add(delta);
+            });
+        }
+        return result;
+    }
+
+    private Roaring64NavigableMap userBitmap(long userId, Map<Long, Roaring64NavigableMap> bitmaps,
+                                             Map<Long, List<Delta>> pending) {
+        Roaring64NavigableMap films = bitmaps.getOrDefault(userId, newBitmap());
+        apply(films, pending.get(userId), false);
+        return films;
+    }
+
+    private void lockFilm(long filmId) {
+        jdbc.queryForList(LikeBitmapSqlQuery.LOCK_FILM.getSql(), Map.of("filmId", filmId), Long.class);
+    }
+
+    private int appendDelta(long filmId, long userId, boolean liked) {
+        return jdbc.update(LikeBitmapSqlQuery.INSERT_DELTA.getSql(),
+                Map.of("filmId", filmId, "userId", userId, "liked", liked));
+    }
+
+    private void save(LikeBitmapSqlQuery saveQuery, LikeBitmapSqlQuery deleteQuery, long id,
+                      Roaring64NavigableMap bitmap) {
+        if (bitmap.isEmpty()) {
+            jdbc.update(deleteQuery.getSql(), Map.of("id", id));
+            return;
+        }
+        jdbc.update(saveQuery.getSql(), new MapSqlParameterSource()
+                .addValue("id", id)
+                .addValue("likeCount", bitmap.getLongCardinality())
+                .addValue("bitmap", serialize(bitmap)));
+    }
+
+    /**
+     * Применяет записи журнала к карте: для карты фильма элементы — id пользователей,
+     * для карты пользователя — id фильмов.
+     */
+    private static void apply(Roaring64NavigableMap bitmap, List<Delta> deltas, boolean filmBitmap) {
+        if (deltas == null) {
+            return;
+        }
+        for (Delta delta : deltas) {
+            long value = filmBitmap ? delta.userId() : delta.filmId();
+            if (delta.liked()) {
+                bitmap.addLong(value);
+            } else {
+                bitmap.removeLong(value);
+            }
+        }
+    }
+
+    /**
+     * Карты без кеша кардинальностей: чтение такой карты ничего в ней не меняет,
+     * поэтому закешированную карту можно читать из нескольких потоков.
+     */
+    private static Roaring64NavigableMap newBitmap() {
+        return new Roaring64NavigableMap(false, false);
+    }
+
+    private static byte[] serialize(Roaring64NavigableMap bitmap) {
+        bitmap.runOptimize();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            bitmap.serializePortable(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Roaring64NavigableMap deserialize(byte[] data) {
+        Roaring64NavigableMap bitmap = newBitmap();
+        try {
+            bitmap.deserializePortable(new DataInputStream(new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+
+    private static <T> List<List<T>> chunks(List<T> list) {
+        List<List<T>> result = new ArrayList<>((list.size() + ID_CHUNK_SIZE - 1) / ID_CHUNK_SIZE);
+        for (int from = 0; from < list.size(); from += ID_CHUNK_SIZE) {
+            result.add(list.subList(from, Math.min(list.size(), from + ID_CHUNK_SIZE)));
+        }
+        return result;
+    }
+
+    private record Delta(long filmId, long userId, boolean liked) {
+    }
+}
@@ -0,0 +1,43 @@
+package ru.yandex.practicum.filmorate.dal.mappers;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.RowMapper;
+import ru.yandex.practicum.filmorate.dal.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+
+import java.sql.Array;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+@RequiredArgsConstructor
+public class CompactFilmRowMapper implements RowMapper<CompactFilm> {
+    private final ReferenceDataCache referenceData;
+
+    @Override
+    public CompactFilm mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Date releaseDate = rs.getDate("release_date");
+        Integer mpaId = (Integer) rs.getObject("mpa_id");
+        return new CompactFilm(
+                rs.getLong("id"),
+                rs.getString("name"),
+                rs.getString("description"),
+                releaseDate != null ? releaseDate.toLocalDate() : null,
+                (Integer) rs.getObject("duration"),
+                mpaId != null ? referenceData.mpa(mpaId) : null,
+                toIntArray(rs.getArray("genre_ids")),
+                rs.getInt("like_count"));
+    }
+
+    private static int[] toIntArray(Array array) throws SQLException {
+        if (array == null) {
+            return null;
+        }
+        Object[] values = (Object[]) array.getArray();
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = ((Number) values[i]).intValue();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,6 @@
+package ru.yandex.practicum.filmorate.dal.routing;
+
+public enum DataSourceRole {
+    PRIMARY,
+    REPLICA
+}
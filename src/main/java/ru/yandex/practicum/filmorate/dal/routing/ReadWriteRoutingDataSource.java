@@ -0,0 +1,20 @@
+package ru.yandex.practicum.filmorate.dal.routing;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Направляет соединения read-only транзакций на реплику, всё остальное — на основную БД.
+ * Должен быть обёрнут в {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy},
+ * иначе соединение берётся до того, как транзакция помечена как read-only.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && !ReadYourWritesTracker.isPinnedToPrimary()) {
+            return DataSourceRole.REPLICA;
+        }
+        return DataSourceRole.PRIMARY;
+    }
+}
@@ -0,0 +1,95 @@
+package ru.yandex.practicum.filmorate.dal.routing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запоминает, какие пользователи недавно что-то меняли, и на время
+ * {@code filmorate.datasource.replica.sticky-ms} отправляет их чтения на основную БД,
+ * чтобы пользователь сразу видел свои изменения, даже если реплика отстаёт.
+ * Так же запоминаются недавно изменённые фильмы: их читают без id пользователя,
+ * и чтение фильма закрепляется за основной БД, пока его изменение может не дойти до реплики.
+ */
+@Component
+public class ReadYourWritesTracker {
+    private static final ThreadLocal<Boolean> PINNED = new ThreadLocal<>();
+
+    private final Map<Long, Long> lastWriteNanos = new ConcurrentHashMap<>();
+    private final Map<Long, Long> lastFilmWriteNanos = new ConcurrentHashMap<>();
+    private final long stickyNanos;
+
+    public ReadYourWritesTracker(@Value("${filmorate.datasource.replica.sticky-ms:5000}") long stickyMs) {
+        this.stickyNanos = TimeUnit.MILLISECONDS.toNanos(stickyMs);
+    }
+
+    public static boolean isPinnedToPrimary() {
+        return Boolean.TRUE.equals(PINNED.get());
+    }
+
+    public void markWrite(long userId) {
+        lastWriteNanos.put(userId, System.nanoTime());
+    }
+
+    public void markFilmWrite(long filmId) {
+        lastFilmWriteNanos.put(filmId, System.nanoTime());
+    }
+
+    /**
+     * Закрепляет текущую транзакцию за основной БД, если пользователь недавно
+     * выполнял изменения. Закрепление снимается по завершении транзакции.
+     */
+    public void pinIfRecentWriter(long userId) {
+        Long lastWrite = lastWriteNanos.get(userId);
+        if (lastWrite == null || System.nanoTime() - lastWrite > stickyNanos) {
+            return;
+        }
+        pinToPrimary();
+    }
+
+    /**
+     * Закрепляет текущую транзакцию за основной БД, если недавно менялся
+     * хотя бы один из читаемых фильмов.
+     */
+    public void pinIfFilmsChanged(Collection<Long> filmIds) {
+        long now = System.nanoTime();
+        for (Long filmId : filmIds) {
+            Long lastWrite = lastFilmWriteNanos.get(filmId);
+            if (lastWrite != null && now - lastWrite <= stickyNanos) {
+                pinToPrimary();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Закрепляет текущую транзакцию за основной БД безусловно — например, в подзапросе,
+     * запущенном из уже закреплённой транзакции в другом потоке.
+     */
+    public static void pinToPrimary() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive() || isPinnedToPrimary()) {
+            return;
+        }
+        PINNED.set(Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                PINNED.remove();
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.datasource.replica.sticky-ms:5000}")
+    public void evictExpired() {
+        long now = System.nanoTime();
+        lastWriteNanos.values().removeIf(lastWrite -> now - lastWrite > stickyNanos);
+        lastFilmWriteNanos.values().removeIf(lastWrite -> now - lastWrite > stickyNanos);
+    }
+}
@@ -0,0 +1,118 @@
+package ru.yandex.practicum.filmorate.dal.routing;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.sql.ReplicationSqlQuery;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Замена настоящей репликации для локального запуска: периодически копирует
+ * таблицы основной БД в реплику целиком. Реплика отстаёт не более чем на интервал копирования.
+ * <p>
+ * Журнал изменений лайков {@code film_like_deltas} растёт с каждым лайком, поэтому копируется
+ * только его хвост: записи начиная с самой старой ещё не влитой в битовые карты на реплике
+ * (у более ранних флаг {@code merged} уже не меняется). Записи, удалённые на основной БД
+ * по сроку хранения, удаляются и на реплике.
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression("${filmorate.datasource.replica.enabled:false} "
+        + "and ${filmorate.datasource.replica.stand-in.enabled:true}")
+public class ReplicationStandIn {
+    private static final List<String> TABLES = List.of(
+            "users", "mpa_ratings", "genres", "films", "film_genres", "film_likes", "friendships",
+            "film_like_bitmaps", "user_like_bitmaps");
+    private static final String DELTAS = "film_like_deltas";
+
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+    private final DataSource replicaDataSource;
+
+    public ReplicationStandIn(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                              @Qualifier("replicaDataSource") DataSource replicaDataSource) {
+        this.primary = new JdbcTemplate(primaryDataSource);
+        this.replica = new JdbcTemplate(replicaDataSource);
+        this.replicaDataSource = replicaDataSource;
+    }
+
+    @PostConstruct
+    public void init() {
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(replicaDataSource);
+        replicate();
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.datasource.replica.stand-in.interval-ms:1000}")
+    public void replicate() {
+        Map<String, List<Map<String, Object>>> rows = new LinkedHashMap<>();
+        for (String table : TABLES) {
+            rows.put(table, primary.queryForList("SELECT * FROM " + table));
+        }
+        long copyFrom = replica.queryForObject(ReplicationSqlQuery.DELTAS_COPY_FROM.getSql(), Long.class);
+        List<Map<String, Object>> deltas = primary.queryForList(ReplicationSqlQuery.DELTAS_SINCE.getSql(), copyFrom);
+        long firstDeltaId = primary.queryForObject(ReplicationSqlQuery.FIRST_DELTA_ID.getSql(), Long.class);
+        replica.execute((ConnectionCallback<Void>) conn -> {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (Statement st = conn.createStatement()) {
+                st.execute("SET REFERENTIAL_INTEGRITY FALSE");
+                for (String table : TABLES) {
+                    st.execute("TRUNCATE TABLE " + table);
+                }
+                for (Map.Entry<String, List<Map<String, Object>>> entry : rows.entrySet()) {
+                    insertAll(conn, entry.getKey(), entry.getValue());
+                }
+                try (PreparedStatement ps = conn.prepareStatement(ReplicationSqlQuery.DELETE_STALE_DELTAS.getSql())) {
+                    ps.setLong(1, copyFrom);
+                    ps.setLong(2, firstDeltaId);
+                    ps.executeUpdate();
+                }
+                insertAll(conn, DELTAS, deltas);
+                st.execute("SET REFERENTIAL_INTEGRITY TRUE");
+                conn.commit();
+            } catch (Exception e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+        log.trace("Реплика обновлена, скопировано изменений лайков: {}", deltas.size());
+    }
+
+    private void insertAll(Connection conn, String table, List<Map<String, Object>> tableRows) throws SQLException {
+        if (tableRows.isEmpty()) {
+            return;
+        }
+        List<String> columns = new ArrayList<>(tableRows.get(0).keySet());
+        String sql = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (Map<String, Object> row : tableRows) {
+                for (int i = 0; i < columns.size(); i++) {
+                    ps.setObject(i + 1, row.get(columns.get(i)));
+                }
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+}
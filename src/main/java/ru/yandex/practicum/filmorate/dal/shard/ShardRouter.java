@@ -0,0 +1,100 @@
+package ru.yandex.practicum.filmorate.dal.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.VersionedSchemaInitializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Набор шардов для таблиц film_likes и friendships. Строка попадает в шард
+ * по хешу ведущего ключа: film_id для лайков, user_id для дружбы.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.sharding.enabled", havingValue = "true")
+public class ShardRouter {
+    private final List<HikariDataSource> dataSources = new ArrayList<>();
+    private final List<NamedParameterJdbcTemplate> shards = new ArrayList<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public ShardRouter(@Value("${filmorate.sharding.shard-count:4}") int shardCount,
+                       @Value("${filmorate.sharding.url-template}") String urlTemplate,
+                       @Value("${spring.datasource.username:sa}") String username,
+                       @Value("${spring.datasource.password:}") String password,
+                       @Value("${filmorate.schema.versioned:false}") boolean versionedSchema) {
+        ClassPathResource schemaScript = new ClassPathResource("shard-schema.sql");
+        for (int i = 0; i < shardCount; i++) {
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(urlTemplate.formatted(i))
+                    .username(username)
+                    .password(password)
+                    .build();
+            dataSource.setPoolName("shard-" + i);
+            if (versionedSchema) {
+                new VersionedSchemaInitializer(dataSource, "shard", List.of(schemaScript)).initializeDatabase();
+            } else {
+                new ResourceDatabasePopulator(schemaScript).execute(dataSource);
+            }
+            dataSources.add(dataSource);
+            shards.add(new NamedParameterJdbcTemplate(dataSource));
+        }
+        log.info("Подключено шардов: {}", shardCount);
+    }
+
+    public NamedParameterJdbcTemplate shardFor(long key) {
+        return shards.get(indexFor(key));
+    }
+
+    public int indexFor(long key) {
+        // перемешиваем биты, чтобы последовательные id равномерно расходились по шардам
+        return Math.floorMod(Long.hashCode(key * 0x9E3779B97F4A7C15L), shards.size());
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    public NamedParameterJdbcTemplate shard(int index) {
+        return shards.get(index);
+    }
+
+    /**
+     * Выполняет запрос на всех шардах параллельно и возвращает частичные результаты.
+     */
+    public <T> List<T> scatter(Function<NamedParameterJdbcTemplate, T> query) {
+        return gather(shards.stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> query.apply(shard), executor))
+                .toList());
+    }
+
+    public <T> CompletableFuture<T> async(long key, Function<NamedParameterJdbcTemplate, T> query) {
+        NamedParameterJdbcTemplate shard = shardFor(key);
+        return CompletableFuture.supplyAsync(() -> query.apply(shard), executor);
+    }
+
+    private static <T> List<T> gather(List<CompletableFuture<T>> futures) {
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdown();
+        dataSources.forEach(HikariDataSource::close);
+    }
+}
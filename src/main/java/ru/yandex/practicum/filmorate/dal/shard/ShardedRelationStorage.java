@@ -0,0 +1,238 @@
+package ru.yandex.practicum.filmorate.dal.shard;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.sql.ShardSqlQuery;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Лайки и дружбы, разложенные по шардам. Все лайки фильма лежат в одном шарде,
+ * все исходящие дружбы пользователя — тоже, поэтому частичные результаты
+ * по шардам можно сливать без пересчёта.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "filmorate.sharding.enabled", havingValue = "true")
+public class ShardedRelationStorage {
+    private static final int ID_CHUNK_SIZE = 500;
+
+    private final ShardRouter router;
+
+    public int addLike(long filmId, long userId) {
+        try {
+            return router.shardFor(filmId).update(ShardSqlQuery.ADD_LIKE.getSql(),
+                    Map.of("filmId", filmId, "userId", userId));
+        } catch (DuplicateKeyException e) {
+            return 0;
+        }
+    }
+
+    public int removeLike(long filmId, long userId) {
+        return router.shardFor(filmId).update(ShardSqlQuery.REMOVE_LIKE.getSql(),
+                Map.of("filmId", filmId, "userId", userId));
+    }
+
+    public Set<Long> likeUserIds(long filmId) {
+        return new HashSet<>(router.shardFor(filmId).queryForList(ShardSqlQuery.LIKE_USER_IDS.getSql(),
+                Map.of("filmId", filmId), Long.class));
+    }
+
+    /**
+     * Лайки для списка фильмов: id группируются по шардам, шарды опрашиваются параллельно.
+     */
+    public Map<Long, Set<Long>> likeUserIds(Collection<Long> filmIds) {
+        Map<Integer, List<Long>> byShard = filmIds.stream()
+                .collect(Collectors.groupingBy(router::indexFor));
+        Map<Long, Set<Long>> result = new ConcurrentHashMap<>();
+        byShard.values().stream()
+                .map(ids -> router.async(ids.get(0), shard -> {
+                    for (List<Long> chunk : chunks(ids)) {
+                        shard.query(ShardSqlQuery.LIKES_FOR_FILM_LIST.getSql(), Map.of("ids", chunk), rs -> {
+                            result.computeIfAbsent(rs.getLong("film_id"), k -> ConcurrentHashMap.newKeySet())
+                                    .add(rs.getLong("user_id"));
+                        });
+                    }
+                    return null;
+                }))
+                .toList()
+                .forEach(CompletableFuture::join);
+        return result;
+    }
+
+    public Map<Long, Integer> likeCounts(Collection<Long> filmIds) {
+        Map<Integer, List<Long>> byShard = filmIds.stream()
+                .collect(Collectors.groupingBy(router::indexFor));
+        Map<Long, Integer> result = new ConcurrentHashMap<>();
+        byShard.values().stream()
+                .map(ids -> router.async(ids.get(0), shard -> {
+                    for (List<Long> chunk : chunks(ids)) {
+                        shard.query(ShardSqlQuery.LIKE_COUNTS_FOR_FILM_LIST.getSql(), Map.of("ids", chunk), rs -> {
+                            result.put(rs.getLong("film_id"), rs.getInt("like_count"));
+                        });
+                    }
+                    return null;
+                }))
+                .toList()
+                .forEach(CompletableFuture::join);
+        return result;
+    }
+
+    public void forEachLike(FilmStorage.LikeConsumer action) {
+        Object lock = new Object();
+        router.scatter(shard -> {
+            shard.query(ShardSqlQuery.ALL_LIKES.getSql(), Map.of(), rs -> {
+                long filmId = rs.getLong("film_id");
+                long userId = rs.getLong("user_id");
+                synchronized (lock) {
+                    action.accept(filmId, userId);
+                }
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Шарды читаются параллельно, но {@code action} вызывается последовательно.
+     */
+    public void forEachLikeSince(LocalDateTime since, Consumer<FilmLike> action) {
+        Object lock = new Object();
+        router.scatter(shard -> {
+            shard.query(ShardSqlQuery.LIKES_SINCE.getSql(), Map.of("since", since), rs -> {
+                FilmLike like = new FilmLike(rs.getLong("film_id"), rs.getLong("user_id"),
+                        rs.getTimestamp("liked_at").toLocalDateTime());
+                synchronized (lock) {
+                    action.accept(like);
+                }
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Лайки пользователя разложены по шардам фильмов, поэтому опрашиваются все шарды,
+     * а их частичные top-{@code limit} (по одному на каждую пачку id) сливаются по времени.
+     */
+    public List<FilmLike> recentLikesByUsers(Collection<Long> userIds, int limit) {
+        List<List<Long>> chunks = chunks(List.copyOf(userIds));
+        List<List<FilmLike>> partial = router.scatter(shard -> {
+            List<FilmLike> likes = new ArrayList<>();
+            for (List<Long> chunk : chunks) {
+                likes.addAll(shard.query(ShardSqlQuery.RECENT_LIKES_BY_USERS.getSql(),
+                        Map.of("ids", chunk, "limit", limit),
+                        (rs, rn) -> new FilmLike(rs.getLong("film_id"), rs.getLong("user_id"),
+                                rs.getTimestamp("liked_at").toLocalDateTime())));
+            }
+            return likes;
+        });
+        return partial.stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(FilmLike::likedAt).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * Все лайки фильма лежат в одном шарде, поэтому каждый шард пересекает
+     * лайки пользователей сам, а результаты просто объединяются.
+     */
+    public List<Long> commonLikedFilmIds(long userId, long otherUserId) {
+        return router.scatter(shard -> shard.queryForList(ShardSqlQuery.COMMON_LIKED_FILM_IDS.getSql(),
+                        Map.of("userId", userId, "otherUserId", otherUserId), Long.class)).stream()
+                .flatMap(List::stream)
+                .toList();
+    }
+
+    public void deleteFilm(long filmId) {
+        router.shardFor(filmId).update(ShardSqlQuery.DELETE_FILM_LIKES.getSql(), Map.of("filmId", filmId));
+    }
+
+    public void deleteUser(long userId) {
+        router.scatter(shard -> shard.update(ShardSqlQuery.DELETE_USER_LIKES.getSql(), Map.of("userId", userId))
+                + shard.update(ShardSqlQuery.DELETE_USER_FRIENDSHIPS.getSql(), Map.of("userId", userId)));
+    }
+
+    public int addFriend(long userId, long friendId) {
+        try {
+            return router.shardFor(userId).update(ShardSqlQuery.ADD_FRIEND.getSql(),
+                    Map.of("userId", userId, "friendId", friendId));
+        } catch (DuplicateKeyException e) {
+            return 0;
+        }
+    }
+
+    public int removeFriend(long userId, long friendId) {
+        return router.shardFor(userId).update(ShardSqlQuery.REMOVE_FRIEND.getSql(),
+                Map.of("userId", userId, "friendId", friendId));
+    }
+
+    public List<Long> followerIds(long userId, int limit) {
+        return router.scatter(shard -> shard.queryForList(ShardSqlQuery.FOLLOWER_IDS.getSql(),
+                        Map.of("userId", userId, "limit", limit), Long.class)).stream()
+                .flatMap(List::stream)
+                .limit(limit)
+                .toList();
+    }
+
+    public void forEachFriendship(UserStorage.FriendshipConsumer action) {
+        Object lock = new Object();
+        router.scatter(shard -> {
+            shard.query(ShardSqlQuery.ALL_FRIENDSHIPS.getSql(), Map.of(), rs -> {
+                long userId = rs.getLong("user_id");
+                long friendId = rs.getLong("friend_id");
+                synchronized (lock) {
+                    action.accept(userId, friendId);
+                }
+            });
+            return null;
+        });
+    }
+
+    public List<Long> friendIds(long userId) {
+        return router.shardFor(userId).queryForList(ShardSqlQuery.FRIEND_IDS.getSql(),
+                Map.of("userId", userId), Long.class);
+    }
+
+    /**
+     * Если оба пользователя в одном шарде, пересечение считает сам шард,
+     * иначе списки друзей читаются из двух шардов параллельно и пересекаются в памяти.
+     */
+    public List<Long> commonFriendIds(long userId, long otherUserId) {
+        if (router.indexFor(userId) == router.indexFor(otherUserId)) {
+            return router.shardFor(userId).queryForList(ShardSqlQuery.COMMON_FRIEND_IDS.getSql(),
+                    Map.of("userId", userId, "otherUserId", otherUserId), Long.class);
+        }
+        CompletableFuture<List<Long>> first = router.async(userId, shard -> shard.queryForList(
+                ShardSqlQuery.FRIEND_IDS.getSql(), Map.of("userId", userId), Long.class));
+        CompletableFuture<List<Long>> second = router.async(otherUserId, shard -> shard.queryForList(
+                ShardSqlQuery.FRIEND_IDS.getSql(), Map.of("userId", otherUserId), Long.class));
+        Set<Long> common = new LinkedHashSet<>(first.join());
+        common.retainAll(new HashSet<>(second.join()));
+        return new ArrayList<>(common);
+    }
+
+    private static <T> List<List<T>> chunks(List<T> list) {
+        List<List<T>> result = new ArrayList<>((list.size() + ID_CHUNK_SIZE - 1) / ID_CHUNK_SIZE);
+        for (int from = 0; from < list.size(); from += ID_CHUNK_SIZE) {
+            result.add(list.subList(from, Math.min(list.size(), from + ID_CHUNK_SIZE)));
+        }
+        return result;
+    }
+}
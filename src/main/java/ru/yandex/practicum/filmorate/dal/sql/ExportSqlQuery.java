@@ -0,0 +1,29 @@
+package ru.yandex.practicum.filmorate.dal.sql;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Выгрузки таблиц целиком. Без ORDER BY: строки читаются в порядке хранения,
+ * и БД не нужно сортировать всю таблицу перед отдачей первой строки.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum ExportSqlQuery {
+    FILMS("films", false, """
+                SELECT id, name, description, release_date, duration, mpa_id,
+                       (SELECT ARRAY_AGG(fg.genre_id ORDER BY fg.genre_id)
+                        FROM film_genres fg WHERE fg.film_id = f.id) AS genre_ids
+                FROM films f
+            """),
+
+    USERS("users", false, "SELECT id, email, login, name, birthday FROM users"),
+
+    FILM_LIKES("film_likes", true, "SELECT film_id, user_id, liked_at FROM film_likes"),
+
+    FRIENDSHIPS("friendships", true, "SELECT user_id, friend_id FROM friendships");
+
+    private final String table;
+    private final boolean sharded;
+    private final String sql;
+}
@@ -14,6 +14,8 @@ public enum FilmSqlQuery {
                 ORDER BY f.id
             """),
 
+    FIND_ALL_IDS("SELECT id FROM films"),
+
     FIND_BY_ID("""
                 SELECT f.id, f.name, f.description, f.release_date, f.duration,
                        f.mpa_id, mr.name AS mpa_name
@@ -22,6 +24,23 @@ public enum FilmSqlQuery {
                 WHERE f.id = :id
             """),
 
+    FIND_BY_IDS("""
+                SELECT f.id, f.name, f.description, f.release_date, f.duration,
+                       f.mpa_id, mr.name AS mpa_name
+                FROM films f
+                LEFT JOIN mpa_ratings mr ON f.mpa_id = mr.id
+                WHERE f.id IN (:ids)
+            """),
+
+    FIND_COMPACT_BY_IDS("""
+                SELECT f.id, f.name, f.description, f.release_date, f.duration, f.mpa_id,
+                       (SELECT COUNT(*) FROM film_likes fl WHERE fl.film_id = f.id) AS like_count,
+                       (SELECT ARRAY_AGG(fg.genre_id ORDER BY fg.genre_id)
+                        FROM film_genres fg WHERE fg.film_id = f.id) AS genre_ids
+                FROM films f
+                WHERE f.id IN (:ids)
+            """),
+
     INSERT("""
                 INSERT INTO films (name, description, release_date, duration, mpa_id)
                 VALUES (:name, :description, :releaseDate, :duration, :mpaId)
@@ -41,20 +60,10 @@ public enum FilmSqlQuery {
 
     EXISTS_BY_ID("SELECT COUNT(*) FROM films WHERE id = :id"),
 
-    POPULAR("""
-                SELECT f.id, f.name, f.description, f.release_date, f.duration,
-                       f.mpa_id, mr.name AS mpa_name
-                FROM films f
-                LEFT JOIN mpa_ratings mr ON f.mpa_id = mr.id
-                LEFT JOIN film_likes fl ON fl.film_id = f.id
-                GROUP BY f.id, f.name, f.description, f.release_date, f.duration, f.mpa_id, mr.name
-                ORDER BY COUNT(fl.user_id) DESC, f.id
-                LIMIT :count
-            """),
-
     ADD_LIKE("""
-                MERGE INTO film_likes (film_id, user_id) KEY(film_id, user_id)
-                VALUES (:filmId, :userId)
+                INSERT INTO film_likes (film_id, user_id)
+                SELECT :filmId, :userId
+                WHERE NOT EXISTS (SELECT 1 FROM film_likes WHERE film_id = :filmId AND user_id = :userId)
             """),
 
     REMOVE_LIKE("""
@@ -65,6 +74,33 @@ public enum FilmSqlQuery {
                 SELECT user_id FROM film_likes WHERE film_id = :filmId
             """),
 
+    ALL_LIKES("""
+                SELECT film_id, user_id FROM film_likes
+            """),
+
+    LIKES_SINCE("""
+                SELECT film_id, user_id, liked_at FROM film_likes WHERE liked_at >= :since
+            """),
+
+    RECENT_LIKES_BY_USERS("""
+                SELECT film_id, user_id, liked_at
+                FROM film_likes
+                WHERE user_id IN (:ids)
+                ORDER BY liked_at DESC
+                LIMIT :limit
+            """),
+
+    COMMON_LIKED_FILM_IDS("""
+                SELECT l1.film_id
+                FROM film_likes l1
+                JOIN film_likes l2 ON l2.film_id = l1.film_id
+                WHERE l1.user_id = :userId AND l2.user_id = :otherUserId
+            """),
+
+    LIKES_FOR_FILM_LIST("""
+                SELECT film_id, user_id FROM film_likes WHERE film_id IN (:ids)
+            """),
+
     GENRES_BY_FILM_ID("""
                 SELECT g.id, g.name
                 FROM film_genres fg
@@ -85,6 +121,14 @@ public enum FilmSqlQuery {
                 JOIN genres g ON g.id = fg.genre_id
                 WHERE fg.film_id IN (:ids)
                 ORDER BY fg.film_id, g.id
+            """),
+
+    GENRES_FOR_ALL_FILMS("""
+                SELECT f.id AS film_id, g.id AS genre_id, g.name
+                FROM films f
+                LEFT JOIN film_genres fg ON fg.film_id = f.id
+                LEFT JOIN genres g ON g.id = fg.genre_id
+                ORDER BY f.id, g.id
             """);
 
     private final String sql;
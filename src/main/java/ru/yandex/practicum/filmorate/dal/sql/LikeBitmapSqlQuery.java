@@ -0,0 +1,115 @@
+package ru.yandex.practicum.filmorate.dal.sql;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum LikeBitmapSqlQuery {
+    LOCK_FILM("SELECT id FROM films WHERE id = :filmId FOR UPDATE"),
+
+    INSERT_DELTA("""
+                INSERT INTO film_like_deltas (film_id, user_id, liked) VALUES (:filmId, :userId, :liked)
+            """),
+
+    LAST_PENDING_DELTA("""
+                SELECT liked FROM film_like_deltas
+                WHERE film_id = :filmId AND user_id = :userId AND NOT merged
+                ORDER BY id DESC
+                LIMIT 1
+            """),
+
+    PENDING_FOR_FILMS("""
+                SELECT film_id, user_id, liked FROM film_like_deltas
+                WHERE film_id IN (:ids) AND NOT merged
+                ORDER BY id
+            """),
+
+    PENDING_FOR_USERS("""
+                SELECT film_id, user_id, liked FROM film_like_deltas
+                WHERE user_id IN (:ids) AND NOT merged
+                ORDER BY id
+            """),
+
+    ALL_PENDING("""
+                SELECT film_id, user_id, liked FROM film_like_deltas
+                WHERE NOT merged
+                ORDER BY id
+            """),
+
+    PENDING_BATCH("""
+                SELECT id, film_id, user_id, liked FROM film_like_deltas
+                WHERE NOT merged
+                ORDER BY id
+                LIMIT :limit
+            """),
+
+    MARK_MERGED("UPDATE film_like_deltas SET merged = TRUE WHERE id IN (:ids)"),
+
+    PURGE_MERGED("DELETE FROM film_like_deltas WHERE merged AND liked_at < :before"),
+
+    FILM_BITMAPS_FOR_LIST("SELECT film_id, user_ids FROM film_like_bitmaps WHERE film_id IN (:ids)"),
+
+    ALL_FILM_BITMAPS("SELECT film_id, user_ids FROM film_like_bitmaps"),
+
+    USER_BITMAPS_FOR_LIST("SELECT user_id, film_ids FROM user_like_bitmaps WHERE user_id IN (:ids)"),
+
+    SAVE_FILM_BITMAP("""
+                MERGE INTO film_like_bitmaps (film_id, like_count, user_ids) KEY(film_id)
+                VALUES (:id, :likeCount, :bitmap)
+            """),
+
+    DELETE_FILM_BITMAP("DELETE FROM film_like_bitmaps WHERE film_id = :id"),
+
+    SAVE_USER_BITMAP("""
+                MERGE INTO user_like_bitmaps (user_id, like_count, film_ids) KEY(user_id)
+                VALUES (:id, :likeCount, :bitmap)
+            """),
+
+    DELETE_USER_BITMAP("DELETE FROM user_like_bitmaps WHERE user_id = :id"),
+
+    LIKE_COUNTS_FOR_FILM_LIST("""
+                SELECT f.id AS film_id,
+                       COALESCE(b.like_count, 0)
+                           + COALESCE((SELECT SUM(CASE WHEN d.liked THEN 1 ELSE -1 END)
+                                       FROM film_like_deltas d
+                                       WHERE d.film_id = f.id AND NOT d.merged), 0) AS like_count
+                FROM films f
+                LEFT JOIN film_like_bitmaps b ON b.film_id = f.id
+                WHERE f.id IN (:ids)
+            """),
+
+    LIKES_SINCE("""
+                SELECT d.film_id, d.user_id, d.liked_at
+                FROM film_like_deltas d
+                WHERE d.liked AND d.liked_at >= :since
+                  AND NOT EXISTS (SELECT 1 FROM film_like_deltas n
+                                  WHERE n.film_id = d.film_id AND n.user_id = d.user_id AND n.id > d.id)
+            """),
+
+    RECENT_LIKES_BY_USERS("""
+                SELECT d.film_id, d.user_id, d.liked_at
+                FROM film_like_deltas d
+                WHERE d.user_id IN (:ids) AND d.liked
+                  AND NOT EXISTS (SELECT 1 FROM film_like_deltas n
+                                  WHERE n.film_id = d.film_id AND n.user_id = d.user_id AND n.id > d.id)
+                ORDER BY d.liked_at DESC
+                LIMIT :limit
+            """),
+
+    IS_EMPTY("""
+                SELECT NOT EXISTS (SELECT 1 FROM film_like_bitmaps)
+                   AND NOT EXISTS (SELECT 1 FROM film_like_deltas)
+            """),
+
+    IS_BACKFILLED("SELECT EXISTS (SELECT 1 FROM data_migrations WHERE name = 'like_bitmaps_backfill')"),
+
+    MARK_BACKFILLED("INSERT INTO data_migrations (name) VALUES ('like_bitmaps_backfill')"),
+
+    BACKFILL_FROM_ROWS("""
+                INSERT INTO film_like_deltas (film_id, user_id, liked, liked_at)
+                SELECT film_id, user_id, TRUE, liked_at FROM film_likes ORDER BY liked_at
+            """);
+
+    private final String sql;
+}
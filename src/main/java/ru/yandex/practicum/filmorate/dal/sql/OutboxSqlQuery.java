@@ -0,0 +1,24 @@
+package ru.yandex.practicum.filmorate.dal.sql;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum OutboxSqlQuery {
+    INSERT("""
+                INSERT INTO outbox_events (event_type, entity_id, related_id)
+                VALUES (:type, :entityId, :relatedId)
+            """),
+
+    FETCH_BATCH("""
+                SELECT id, event_type, entity_id, related_id, created_at
+                FROM outbox_events
+                ORDER BY id
+                LIMIT :limit
+            """),
+
+    DELETE_BY_IDS("DELETE FROM outbox_events WHERE id IN (:ids)");
+
+    private final String sql;
+}
@@ -0,0 +1,27 @@
+package ru.yandex.practicum.filmorate.dal.sql;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Запросы {@link ru.yandex.practicum.filmorate.dal.routing.ReplicationStandIn} для
+ * журнала изменений лайков, который копируется в реплику не целиком, а с первой
+ * ещё не влитой в битовые карты записи.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum ReplicationSqlQuery {
+    DELTAS_COPY_FROM("""
+                SELECT COALESCE(MIN(id), (SELECT COALESCE(MAX(id), 0) + 1 FROM film_like_deltas))
+                FROM film_like_deltas
+                WHERE NOT merged
+            """),
+
+    DELTAS_SINCE("SELECT * FROM film_like_deltas WHERE id >= ?"),
+
+    FIRST_DELTA_ID("SELECT COALESCE(MIN(id), 0) FROM film_like_deltas"),
+
+    DELETE_STALE_DELTAS("DELETE FROM film_like_deltas WHERE id >= ? OR id < ?");
+
+    private final String sql;
+}
@@ -0,0 +1,24 @@
+package ru.yandex.practicum.filmorate.dal.sql;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum SchemaVersionSqlQuery {
+    CREATE_TABLE("""
+            CREATE TABLE IF NOT EXISTS schema_version
+            (
+                name        VARCHAR(64) PRIMARY KEY,
+                checksum    VARCHAR(64) NOT NULL,
+                applied_at  TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP
+            )
+            """),
+    FIND_CHECKSUM("SELECT checksum FROM schema_version WHERE name = ?"),
+    SAVE_CHECKSUM("""
+            MERGE INTO schema_version (name, checksum, applied_at) KEY(name)
+            VALUES (?, ?, CURRENT_TIMESTAMP)
+            """);
+
+    private final String sql;
+}
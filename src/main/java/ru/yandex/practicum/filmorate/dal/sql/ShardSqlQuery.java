@@ -0,0 +1,75 @@
+package ru.yandex.practicum.filmorate.dal.sql;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public enum ShardSqlQuery {
+    ADD_LIKE("""
+                INSERT INTO film_likes (film_id, user_id)
+                SELECT :filmId, :userId
+                WHERE NOT EXISTS (SELECT 1 FROM film_likes WHERE film_id = :filmId AND user_id = :userId)
+            """),
+
+    REMOVE_LIKE("DELETE FROM film_likes WHERE film_id = :filmId AND user_id = :userId"),
+
+    LIKE_USER_IDS("SELECT user_id FROM film_likes WHERE film_id = :filmId"),
+
+    LIKES_SINCE("SELECT film_id, user_id, liked_at FROM film_likes WHERE liked_at >= :since"),
+
+    ALL_LIKES("SELECT film_id, user_id FROM film_likes"),
+
+    RECENT_LIKES_BY_USERS("""
+                SELECT film_id, user_id, liked_at
+                FROM film_likes
+                WHERE user_id IN (:ids)
+                ORDER BY liked_at DESC
+                LIMIT :limit
+            """),
+
+    COMMON_LIKED_FILM_IDS("""
+                SELECT l1.film_id
+                FROM film_likes l1
+                JOIN film_likes l2 ON l2.film_id = l1.film_id
+                WHERE l1.user_id = :userId AND l2.user_id = :otherUserId
+            """),
+
+    LIKES_FOR_FILM_LIST("SELECT film_id, user_id FROM film_likes WHERE film_id IN (:ids)"),
+
+    LIKE_COUNTS_FOR_FILM_LIST("""
+                SELECT film_id, COUNT(*) AS like_count
+                FROM film_likes
+                WHERE film_id IN (:ids)
+                GROUP BY film_id
+            """),
+
+    DELETE_FILM_LIKES("DELETE FROM film_likes WHERE film_id = :filmId"),
+
+    DELETE_USER_LIKES("DELETE FROM film_likes WHERE user_id = :userId"),
+
+    ADD_FRIEND("""
+                INSERT INTO friendships (user_id, friend_id)
+                SELECT :userId, :friendId
+                WHERE NOT EXISTS (SELECT 1 FROM friendships WHERE user_id = :userId AND friend_id = :friendId)
+            """),
+
+    REMOVE_FRIEND("DELETE FROM friendships WHERE user_id = :userId AND friend_id = :friendId"),
+
+    FRIEND_IDS("SELECT friend_id FROM friendships WHERE user_id = :userId"),
+
+    FOLLOWER_IDS("SELECT user_id FROM friendships WHERE friend_id = :userId LIMIT :limit"),
+
+    ALL_FRIENDSHIPS("SELECT user_id, friend_id FROM friendships"),
+
+    COMMON_FRIEND_IDS("""
+                SELECT f1.friend_id
+                FROM friendships f1
+                JOIN friendships f2 ON f1.friend_id = f2.friend_id
+                WHERE f1.user_id = :userId AND f2.user_id = :otherUserId
+            """),
+
+    DELETE_USER_FRIENDSHIPS("DELETE FROM friendships WHERE user_id = :userId OR friend_id = :userId");
+
+    private final String sql;
+}
@@ -17,6 +17,12 @@ public enum UserSqlQuery {
             WHERE id = ?
             """),
 
+    FIND_BY_IDS("""
+            SELECT id, email, login, name, birthday
+            FROM users
+            WHERE id IN (:ids)
+            """),
+
     INSERT("""
             INSERT INTO users (email, login, name, birthday)
             VALUES (?, ?, ?, ?)
@@ -36,10 +42,18 @@ public enum UserSqlQuery {
             SELECT COUNT(*) FROM users WHERE id = ?
             """),
 
+    FIND_ID_BY_EMAIL("""
+            SELECT id FROM users WHERE email = ?
+            """),
+
+    FIND_ID_BY_LOGIN("""
+            SELECT id FROM users WHERE login = ?
+            """),
+
     ADD_FRIEND("""
-            MERGE INTO friendships (user_id, friend_id)
-            KEY(user_id, friend_id)
-            VALUES (?, ?)
+            INSERT INTO friendships (user_id, friend_id)
+            SELECT ?, ?
+            WHERE NOT EXISTS (SELECT 1 FROM friendships WHERE user_id = ? AND friend_id = ?)
             """),
 
     REMOVE_FRIEND("""
@@ -47,6 +61,18 @@ public enum UserSqlQuery {
             WHERE user_id = ? AND friend_id = ?
             """),
 
+    FIND_FRIEND_IDS("""
+            SELECT friend_id FROM friendships WHERE user_id = ?
+            """),
+
+    FIND_FOLLOWER_IDS("""
+            SELECT user_id FROM friendships WHERE friend_id = ? LIMIT ?
+            """),
+
+    FIND_ALL_FRIENDSHIPS("""
+            SELECT user_id, friend_id FROM friendships
+            """),
+
     FIND_FRIENDS("""
             SELECT u.id, u.email, u.login, u.name, u.birthday
             FROM friendships f
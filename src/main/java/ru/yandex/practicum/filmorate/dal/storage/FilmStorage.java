@@ -1,19 +1,40 @@
 package ru.yandex.practicum.filmorate.dal.storage;
 
+import ru.yandex.practicum.filmorate.model.CompactFilm;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.MpaRating;
 
+import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
     Collection<Film> findAll();
 
+    /**
+     * Id всех фильмов без их данных: индексам в памяти, которые строятся по всем фильмам,
+     * не нужны ни жанры, ни MPA.
+     */
+    List<Long> findAllIds();
+
     Optional<Film> findById(Long id);
 
+    List<Film> findByIds(Collection<Long> ids);
+
+    /**
+     * Компактные представления фильмов в порядке переданных id. По умолчанию строятся
+     * из полных фильмов, хранилища с собственным запросом переопределяют метод.
+     */
+    default List<CompactFilm> findCompactByIds(Collection<Long> ids) {
+        return findByIds(ids).stream().map(CompactFilm::from).toList();
+    }
+
     Film add(Film film);
 
     Film update(Film film);
@@ -22,11 +43,41 @@ public interface FilmStorage {
 
     boolean existsById(Long id);
 
-    void addLike(long filmId, long userId);
-
-    void removeLike(long filmId, long userId);
-
-    List<Film> getPopular(int count);
+    /**
+     * @return {@code true}, если лайка ещё не было и он добавлен
+     */
+    boolean addLike(long filmId, long userId);
+
+    /**
+     * @return {@code true}, если лайк был и он удалён
+     */
+    boolean removeLike(long filmId, long userId);
+
+    /**
+     * Id лайкнувших пользователей для списка фильмов; фильмы без лайков в результат не попадают.
+     */
+    Map<Long, Set<Long>> findLikeUserIds(Collection<Long> filmIds);
+
+    /**
+     * Передаёт в {@code action} все лайки, поставленные не раньше {@code since}.
+     * Хранилища без времени лайков ничего не передают.
+     */
+    void forEachLikeSince(LocalDateTime since, Consumer<FilmLike> action);
+
+    /**
+     * Передаёт все лайки без загрузки их в память целиком. Нужен пакетным расчётам по всем лайкам.
+     */
+    void forEachLike(LikeConsumer action);
+
+    /**
+     * Последние {@code limit} лайков, поставленных указанными пользователями, от новых к старым.
+     */
+    List<FilmLike> findRecentLikesByUsers(Collection<Long> userIds, int limit);
+
+    /**
+     * Id фильмов, которые лайкнули оба пользователя.
+     */
+    List<Long> findCommonLikedFilmIds(long userId, long otherUserId);
 
     List<Genre> getAllGenres();
 
@@ -37,4 +88,9 @@ public interface FilmStorage {
     List<MpaRating> getAllMpa();
 
     Optional<MpaRating> getMpaById(int id);
+
+    @FunctionalInterface
+    interface LikeConsumer {
+        void accept(long filmId, long userId);
+    }
 }
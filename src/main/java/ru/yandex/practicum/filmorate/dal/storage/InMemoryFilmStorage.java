@@ -1,43 +1,131 @@
 package ru.yandex.practicum.filmorate.dal.storage;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.offheap.OffHeapLikeStore;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.MpaRating;
 
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+/**
+ * Фильмы в памяти. Справочники жанров и рейтингов MPA заполнены теми же значениями,
+ * что и {@code data.sql}, поэтому фильмы можно создавать и в пустом хранилище.
+ * <p>
+ * Фильмы лежат в {@link ConcurrentHashMap}, лайки каждого фильма — в конкурентном
+ * множестве (или вне кучи), так что хранилище можно использовать из нескольких потоков.
+ * Изменения идут под общей блокировкой чтения и не мешают друг другу; снимок
+ * берёт её исключительно через {@link #exclusively}, чтобы видеть согласованное состояние.
+ */
 @Component("inMemoryFilmStorage")
 public class InMemoryFilmStorage implements FilmStorage {
-    private final Map<Long, Film> films = new HashMap<>();
+    private final Map<Long, Film> films = new ConcurrentHashMap<>();
+    private final Map<Integer, Genre> genres = new LinkedHashMap<>();
+    private final Map<Integer, MpaRating> mpaRatings = new LinkedHashMap<>();
+    private final OffHeapLikeStore offHeapLikes;
+    private final AtomicLong lastId = new AtomicLong();
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    public InMemoryFilmStorage(@Value("${filmorate.likes.off-heap.enabled:false}") boolean offHeap,
+                               @Value("${filmorate.likes.off-heap.chunk-size-mb:64}") int chunkSizeMb,
+                               @Value("${filmorate.likes.off-heap.compaction-threshold:0.5}") double compactionThreshold) {
+        this.offHeapLikes = offHeap ? new OffHeapLikeStore(chunkSizeMb << 20, compactionThreshold) : null;
+        String[] mpaNames = {"G", "PG", "PG-13", "R", "NC-17"};
+        for (int i = 0; i < mpaNames.length; i++) {
+            MpaRating mpa = new MpaRating();
+            mpa.setId(i + 1);
+            mpa.setName(mpaNames[i]);
+            mpaRatings.put(mpa.getId(), mpa);
+        }
+        String[] genreNames = {"Комедия", "Драма", "Мультфильм", "Триллер", "Документальный", "Боевик"};
+        for (int i = 0; i < genreNames.length; i++) {
+            genres.put(i + 1, new Genre(i + 1, genreNames[i]));
+        }
+    }
 
     @Override
     public Collection<Film> findAll() {
-        return new ArrayList<>(films.values());
+        return films.values().stream()
+                .map(this::withLikes)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Long> findAllIds() {
+        return new ArrayList<>(films.keySet());
     }
 
     @Override
     public Optional<Film> findById(Long id) {
-        return Optional.ofNullable(films.get(id));
+        return Optional.ofNullable(films.get(id)).map(this::withLikes);
+    }
+
+    @Override
+    public List<Film> findByIds(Collection<Long> ids) {
+        return ids.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .map(this::withLikes)
+                .collect(Collectors.toList());
     }
 
     @Override
     public Film add(Film film) {
-        film.setId(getNextId());
-        films.put(film.getId(), film);
-        return film;
+        film.setId(nextId());
+        return update(film);
     }
 
+    /**
+     * Сохраняет фильм. Как и в БД, обновление существующего фильма не трогает его лайки;
+     * лайки переданного фильма учитываются, только если фильма ещё нет (так проигрывается
+     * журнал предзаписи).
+     */
     @Override
     public Film update(Film film) {
-        films.put(film.getId(), film);
-        return film;
+        return mutate(() -> {
+            Film stored = films.compute(film.getId(), (id, existing) -> existing != null
+                    ? copy(film, existing.getLikes())
+                    : detachLikes(film));
+            lastId.accumulateAndGet(film.getId(), Math::max);
+            film.setLikes(offHeapLikes != null ? likesOf(stored) : new HashSet<>(stored.getLikes()));
+            return film;
+        });
+    }
+
+    /**
+     * Резервирует id для нового фильма, не добавляя его.
+     */
+    public long nextId() {
+        return lastId.incrementAndGet();
+    }
+
+    public boolean hasLike(long filmId, long userId) {
+        Film film = films.get(filmId);
+        if (film == null) {
+            return false;
+        }
+        return offHeapLikes != null ? offHeapLikes.contains(filmId, userId) : film.getLikes().contains(userId);
     }
 
     @Override
     public void deleteById(Long id) {
-        films.remove(id);
+        mutate(() -> {
+            films.remove(id);
+            if (offHeapLikes != null) {
+                offHeapLikes.removeFilm(id);
+            }
+            return null;
+        });
     }
 
     @Override
@@ -46,54 +134,79 @@ public class InMemoryFilmStorage implements FilmStorage {
     }
 
     @Override
-    public void addLike(long filmId, long userId) {
-        Film film = films.get(filmId);
-        if (film != null) {
-            film.getLikes().add(userId);
-        }
+    public boolean addLike(long filmId, long userId) {
+        return mutate(() -> {
+            Film film = films.get(filmId);
+            if (film == null) {
+                return false;
+            }
+            return offHeapLikes != null ? offHeapLikes.add(filmId, userId) : film.getLikes().add(userId);
+        });
     }
 
     @Override
-    public void removeLike(long filmId, long userId) {
-        Film film = films.get(filmId);
-        if (film != null) {
-            film.getLikes().remove(userId);
+    public boolean removeLike(long filmId, long userId) {
+        return mutate(() -> {
+            Film film = films.get(filmId);
+            if (film == null) {
+                return false;
+            }
+            return offHeapLikes != null ? offHeapLikes.remove(filmId, userId) : film.getLikes().remove(userId);
+        });
+    }
+
+    @Override
+    public void forEachLikeSince(LocalDateTime since, Consumer<FilmLike> action) {
+        // время лайков в памяти не хранится
+    }
+
+    @Override
+    public void forEachLike(LikeConsumer action) {
+        if (offHeapLikes != null) {
+            offHeapLikes.forEach(action);
+            return;
         }
+        films.forEach((filmId, film) -> film.getLikes().forEach(userId -> action.accept(filmId, userId)));
     }
 
     @Override
-    public List<Film> getPopular(int count) {
+    public List<Long> findCommonLikedFilmIds(long userId, long otherUserId) {
+        if (offHeapLikes != null) {
+            return films.keySet().stream()
+                    .filter(id -> offHeapLikes.contains(id, userId) && offHeapLikes.contains(id, otherUserId))
+                    .collect(Collectors.toList());
+        }
         return films.values().stream()
-                .sorted(Comparator
-                        .comparingInt((Film film) -> film.getLikes().size())
-                        .reversed()
-                        .thenComparing(Film::getId))
-                .limit(count)
+                .filter(film -> film.getLikes().contains(userId) && film.getLikes().contains(otherUserId))
+                .map(Film::getId)
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public List<FilmLike> findRecentLikesByUsers(Collection<Long> userIds, int limit) {
+        return List.of();
+    }
+
+    @Override
+    public Map<Long, Set<Long>> findLikeUserIds(Collection<Long> filmIds) {
+        Map<Long, Set<Long>> result = new HashMap<>();
+        for (Long filmId : filmIds) {
+            Film film = films.get(filmId);
+            if (film != null && likeCount(film) > 0) {
+                result.put(filmId, offHeapLikes != null ? likesOf(film) : new HashSet<>(film.getLikes()));
+            }
+        }
+        return result;
+    }
+
     @Override
     public List<Genre> getAllGenres() {
-        return films.values().stream()
-                .filter(Objects::nonNull)
-                .flatMap(f -> Optional.ofNullable(f.getGenres()).orElseGet(Set::of).stream())
-                .filter(Objects::nonNull)
-                .collect(Collectors.collectingAndThen(
-                        Collectors.toMap(
-                                Genre::getId,
-                                g -> g,
-                                (a, b) -> a,
-                                LinkedHashMap::new
-                        ),
-                        m -> new ArrayList<>(m.values())
-                ));
+        return new ArrayList<>(genres.values());
     }
 
     @Override
     public Optional<Genre> getGenreById(int id) {
-        return getAllGenres().stream()
-                .filter(g -> Objects.equals(g.getId(), id))
-                .findFirst();
+        return Optional.ofNullable(genres.get(id));
     }
 
     @Override
@@ -106,34 +219,99 @@ public class InMemoryFilmStorage implements FilmStorage {
 
     @Override
     public List<MpaRating> getAllMpa() {
-        // агрегируем уникальные рейтинги из всех фильмов
-        return films.values().stream()
-                .map(Film::getMpa)
-                .filter(Objects::nonNull)
-                .collect(Collectors.collectingAndThen(
-                        Collectors.toMap(
-                                MpaRating::getId,
-                                m -> m,
-                                (a, b) -> a,
-                                LinkedHashMap::new
-                        ),
-                        m -> new ArrayList<>(m.values())
-                ));
+        return new ArrayList<>(mpaRatings.values());
     }
 
     @Override
     public Optional<MpaRating> getMpaById(int id) {
-        return getAllMpa().stream()
-                .filter(m -> Objects.equals(m.getId(), id))
-                .findFirst();
-    }
-
-    private long getNextId() {
-        long currentMaxId = films.keySet()
-                .stream()
-                .mapToLong(id -> id)
-                .max()
-                .orElse(0);
-        return ++currentMaxId;
+        return Optional.ofNullable(mpaRatings.get(id));
+    }
+
+    /**
+     * Заменяет содержимое хранилища фильмами из снимка.
+     */
+    public void restore(Collection<Film> snapshot) {
+        exclusively(() -> {
+            films.clear();
+            if (offHeapLikes != null) {
+                offHeapLikes.clear();
+            }
+            lastId.set(0);
+            for (Film film : snapshot) {
+                films.put(film.getId(), detachLikes(film));
+                lastId.accumulateAndGet(film.getId(), Math::max);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Выполняет действие, пока изменения хранилища приостановлены.
+     */
+    public <T> T exclusively(Supplier<T> action) {
+        snapshotLock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    private <T> T mutate(Supplier<T> action) {
+        snapshotLock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    private int likeCount(Film film) {
+        return offHeapLikes != null ? offHeapLikes.count(film.getId()) : film.getLikes().size();
+    }
+
+    private Set<Long> likesOf(Film film) {
+        Set<Long> likes = new HashSet<>();
+        for (long userId : offHeapLikes.userIds(film.getId())) {
+            likes.add(userId);
+        }
+        return likes;
+    }
+
+    /**
+     * При хранении лайков вне кучи наружу отдаётся копия фильма
+     * с лайками, собранными из off-heap хранилища.
+     */
+    private Film withLikes(Film film) {
+        return offHeapLikes != null ? copy(film, likesOf(film)) : film;
+    }
+
+    /**
+     * Копия фильма, которая остаётся в хранилище: лайки переносятся в конкурентное
+     * множество или, при хранении вне кучи, в off-heap хранилище.
+     */
+    private Film detachLikes(Film film) {
+        Set<Long> likes = ConcurrentHashMap.newKeySet();
+        if (film.getLikes() != null) {
+            if (offHeapLikes == null) {
+                likes.addAll(film.getLikes());
+            } else {
+                film.getLikes().forEach(userId -> offHeapLikes.add(film.getId(), userId));
+            }
+        }
+        return copy(film, likes);
+    }
+
+    private static Film copy(Film film, Set<Long> likes) {
+        Film copy = new Film();
+        copy.setId(film.getId());
+        copy.setName(film.getName());
+        copy.setDescription(film.getDescription());
+        copy.setReleaseDate(film.getReleaseDate());
+        copy.setDuration(film.getDuration());
+        copy.setLikes(likes);
+        copy.setGenres(film.getGenres());
+        copy.setMpa(film.getMpa());
+        return copy;
     }
 }
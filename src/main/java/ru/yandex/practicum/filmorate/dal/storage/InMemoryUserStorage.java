@@ -5,11 +5,22 @@ import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Пользователи и дружбы в памяти. Изменения идут под общей блокировкой чтения,
+ * снимок берёт её исключительно через {@link #exclusively}.
+ */
 @Component("inMemoryUserStorage")
 public class InMemoryUserStorage implements UserStorage {
-    private final Map<Long, User> users = new HashMap<>();
-    private final Map<Long, Set<Long>> friendships = new HashMap<>();
+    private final Map<Long, User> users = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> friendships = new ConcurrentHashMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
 
     @Override
     public Collection<User> findAll() {
@@ -22,27 +33,55 @@ public class InMemoryUserStorage implements UserStorage {
     }
 
     @Override
-    public User add(User user) {
-        user.setId(getNextId());
-        if (user.getName() == null || user.getName().isBlank()) {
-            user.setName(user.getLogin());
+    public List<User> findByIds(Collection<Long> ids) {
+        List<User> result = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            User user = users.get(id);
+            if (user != null) {
+                result.add(user);
+            }
         }
-        users.put(user.getId(), user);
-        return user;
+        return result;
+    }
+
+    @Override
+    public User add(User user) {
+        return mutate(() -> {
+            user.setId(nextId());
+            if (user.getName() == null || user.getName().isBlank()) {
+                user.setName(user.getLogin());
+            }
+            users.put(user.getId(), user);
+            return user;
+        });
     }
 
     @Override
     public User update(User user) {
-        if (user.getName() == null || user.getName().isBlank()) {
-            user.setName(user.getLogin());
-        }
-        users.put(user.getId(), user);
-        return user;
+        return mutate(() -> {
+            if (user.getName() == null || user.getName().isBlank()) {
+                user.setName(user.getLogin());
+            }
+            users.put(user.getId(), user);
+            lastId.accumulateAndGet(user.getId(), Math::max);
+            return user;
+        });
+    }
+
+    /**
+     * Резервирует id для нового пользователя, не добавляя его.
+     */
+    public long nextId() {
+        return lastId.incrementAndGet();
+    }
+
+    public boolean hasFriend(long userId, long friendId) {
+        return friendships.getOrDefault(userId, Set.of()).contains(friendId);
     }
 
     @Override
     public void deleteById(Long id) {
-        users.remove(id);
+        mutate(() -> users.remove(id));
     }
 
     @Override
@@ -50,22 +89,35 @@ public class InMemoryUserStorage implements UserStorage {
         return users.containsKey(id);
     }
 
+    @Override
+    public Optional<Long> findIdByEmail(String email) {
+        return users.values().stream()
+                .filter(user -> Objects.equals(user.getEmail(), email))
+                .map(User::getId)
+                .findFirst();
+    }
+
+    @Override
+    public Optional<Long> findIdByLogin(String login) {
+        return users.values().stream()
+                .filter(user -> Objects.equals(user.getLogin(), login))
+                .map(User::getId)
+                .findFirst();
+    }
+
     @Override
     public void addFriend(long userId, long friendId) {
-        if (users.containsKey(userId) && users.containsKey(friendId)) {
-            if (!friendships.containsKey(userId)) {
-                friendships.put(userId, new HashSet<>());
-            }
-            friendships.get(userId).add(friendId);
-        }
+        mutate(() -> users.containsKey(userId) && users.containsKey(friendId)
+                && friendships.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(friendId));
     }
 
     @Override
     public void removeFriend(long userId, long friendId) {
         // Удаляем друга, если пользователь и список друзей существуют
-        if (friendships.containsKey(userId)) {
-            friendships.get(userId).remove(friendId);
-        }
+        mutate(() -> {
+            Set<Long> friendIds = friendships.get(userId);
+            return friendIds != null && friendIds.remove(friendId);
+        });
     }
 
     @Override
@@ -84,6 +136,25 @@ public class InMemoryUserStorage implements UserStorage {
         return result;
     }
 
+    @Override
+    public List<Long> findFriendIds(long userId) {
+        return new ArrayList<>(friendships.getOrDefault(userId, Set.of()));
+    }
+
+    @Override
+    public void forEachFriendship(FriendshipConsumer action) {
+        friendships.forEach((userId, friendIds) -> friendIds.forEach(friendId -> action.accept(userId, friendId)));
+    }
+
+    @Override
+    public List<Long> findFollowerIds(long userId, int limit) {
+        return friendships.entrySet().stream()
+                .filter(e -> e.getValue().contains(userId))
+                .map(Map.Entry::getKey)
+                .limit(limit)
+                .toList();
+    }
+
     @Override
     public List<User> findCommonFriends(long userId, long otherUserId) {
         List<User> common = new ArrayList<>();
@@ -110,12 +181,49 @@ public class InMemoryUserStorage implements UserStorage {
         }
     }
 
-    private long getNextId() {
-        long currentMaxId = users.keySet()
-                .stream()
-                .mapToLong(id -> id)
-                .max()
-                .orElse(0);
-        return ++currentMaxId;
+    public Map<Long, Set<Long>> getFriendships() {
+        return Collections.unmodifiableMap(friendships);
+    }
+
+    /**
+     * Заменяет содержимое хранилища пользователями и дружбами из снимка.
+     */
+    public void restore(Collection<User> snapshotUsers, Map<Long, Set<Long>> snapshotFriendships) {
+        exclusively(() -> {
+            users.clear();
+            friendships.clear();
+            lastId.set(0);
+            for (User user : snapshotUsers) {
+                users.put(user.getId(), user);
+                lastId.accumulateAndGet(user.getId(), Math::max);
+            }
+            snapshotFriendships.forEach((userId, friendIds) -> {
+                Set<Long> copy = ConcurrentHashMap.newKeySet();
+                copy.addAll(friendIds);
+                friendships.put(userId, copy);
+            });
+            return null;
+        });
+    }
+
+    /**
+     * Выполняет действие, пока изменения хранилища приостановлены.
+     */
+    public <T> T exclusively(Supplier<T> action) {
+        snapshotLock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    private <T> T mutate(Supplier<T> action) {
+        snapshotLock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
     }
 }
@@ -11,6 +11,8 @@ public interface UserStorage {
 
     Optional<User> findById(Long id);
 
+    List<User> findByIds(Collection<Long> ids);
+
     User add(User user);
 
     User update(User user);
@@ -19,11 +21,35 @@ public interface UserStorage {
 
     boolean existsById(Long id);
 
+    /**
+     * Id пользователя с такой электронной почтой, если он есть.
+     */
+    Optional<Long> findIdByEmail(String email);
+
+    Optional<Long> findIdByLogin(String login);
+
     void addFriend(long userId, long friendId);
 
     void removeFriend(long userId, long friendId);
 
     List<User> findFriends(long userId);
 
+    List<Long> findFriendIds(long userId);
+
+    /**
+     * Пользователи, добавившие {@code userId} в друзья, но не больше {@code limit}.
+     */
+    List<Long> findFollowerIds(long userId, int limit);
+
     List<User> findCommonFriends(long userId, long otherUserId);
+
+    /**
+     * Передаёт все дружбы без загрузки их в память целиком. Нужен для снимка графа друзей.
+     */
+    void forEachFriendship(FriendshipConsumer action);
+
+    @FunctionalInterface
+    interface FriendshipConsumer {
+        void accept(long userId, long friendId);
+    }
 }
@@ -0,0 +1,395 @@
+package ru.yandex.practicum.filmorate.dal.storage.offheap;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Отношение «фильм — лайкнувшие пользователи», вынесенное из кучи.
+ * Для каждого фильма хранится отсортированный массив id пользователей
+ * в прямой памяти; в куче остаётся только индекс по фильмам, поэтому её
+ * размер и паузы сборщика не зависят от количества лайков.
+ *
+ * <p>Память выделяется блоками размером в степень двойки из крупных
+ * кусков; освобождённые блоки уходят в списки свободных по размерам,
+ * а когда доля пустого места превышает порог, живые блоки переписываются
+ * плотно в новые куски.
+ */
+@Slf4j
+public class OffHeapLikeStore {
+    private static final int MIN_CAPACITY = 4;
+    private static final int MAX_CLASSES = 31;
+    private static final long NO_BLOCK = -1;
+
+    private final int chunkBytes;
+    private final double compactionThreshold;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private List<ByteBuffer> chunks = new ArrayList<>();
+    private int bumpOffset;
+    private long freeBytes;
+    private final long[][] freeLists = new long[MAX_CLASSES][];
+    private final int[] freeCounts = new int[MAX_CLASSES];
+
+    private final Map<Long, Integer> slots = new HashMap<>();
+    private long[] filmIds = new long[16];
+    private long[] addresses = new long[16];
+    private int[] sizes = new int[16];
+    private int[] capacities = new int[16];
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount;
+
+    public OffHeapLikeStore(int chunkBytes, double compactionThreshold) {
+        if (chunkBytes < MIN_CAPACITY * Long.BYTES || Integer.bitCount(chunkBytes) != 1) {
+            throw new IllegalArgumentException("Размер куска off-heap памяти должен быть степенью двойки: " + chunkBytes);
+        }
+        this.chunkBytes = chunkBytes;
+        this.compactionThreshold = compactionThreshold;
+        Arrays.fill(filmIds, -1);
+    }
+
+    public boolean add(long filmId, long userId) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotFor(filmId);
+            int size = sizes[slot];
+            int pos = size == 0 ? -1 : search(addresses[slot], size, userId);
+            if (pos >= 0) {
+                return false;
+            }
+            int insertAt = -pos - 1;
+            if (size == capacities[slot]) {
+                grow(slot, insertAt, userId);
+            } else {
+                ByteBuffer chunk = chunk(addresses[slot]);
+                int base = offset(addresses[slot]);
+                if (insertAt < size) {
+                    chunk.put(base + (insertAt + 1) * Long.BYTES, chunk,
+                            base + insertAt * Long.BYTES, (size - insertAt) * Long.BYTES);
+                }
+                chunk.putLong(base + insertAt * Long.BYTES, userId);
+            }
+            sizes[slot] = size + 1;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(long filmId, long userId) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.get(filmId);
+            if (slot == null || sizes[slot] == 0) {
+                return false;
+            }
+            int size = sizes[slot];
+            int pos = search(addresses[slot], size, userId);
+            if (pos < 0) {
+                return false;
+            }
+            if (size == 1) {
+                release(slot);
+            } else {
+                ByteBuffer chunk = chunk(addresses[slot]);
+                int base = offset(addresses[slot]);
+                chunk.put(base + pos * Long.BYTES, chunk,
+                        base + (pos + 1) * Long.BYTES, (size - pos - 1) * Long.BYTES);
+                sizes[slot] = size - 1;
+            }
+            compactIfFragmented();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(long filmId, long userId) {
+        lock.readLock().lock();
+        try {
+            Integer slot = slots.get(filmId);
+            return slot != null && sizes[slot] > 0 && search(addresses[slot], sizes[slot], userId) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int count(long filmId) {
+        lock.readLock().lock();
+        try {
+            Integer slot = slots.get(filmId);
+            return slot == null ? 0 : sizes[slot];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Копия лайков фильма в порядке возрастания id пользователя.
+     */
+    public long[] userIds(long filmId) {
+        lock.readLock().lock();
+        try {
+            Integer slot = slots.get(filmId);
+            return slot == null ? new long[0] : read(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Обходит все лайки. Лайки каждого фильма копируются под блокировкой,
+     * а обработчик вызывается уже без неё.
+     */
+    public void forEach(FilmStorage.LikeConsumer action) {
+        long[] films;
+        lock.readLock().lock();
+        try {
+            films = slots.keySet().stream().mapToLong(Long::longValue).toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (long filmId : films) {
+            for (long userId : userIds(filmId)) {
+                action.accept(filmId, userId);
+            }
+        }
+    }
+
+    public void removeFilm(long filmId) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slots.get(filmId);
+            if (slot != null) {
+                release(slot);
+                compactIfFragmented();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            chunks = new ArrayList<>();
+            bumpOffset = 0;
+            freeBytes = 0;
+            Arrays.fill(freeCounts, 0);
+            slots.clear();
+            Arrays.fill(filmIds, -1);
+            slotCount = 0;
+            freeSlotCount = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Объём выделенной прямой памяти в байтах.
+     */
+    public long reservedBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) chunks.size() * chunkBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Объём памяти, занятой блоками фильмов, в байтах.
+     */
+    public long usedBytes() {
+        lock.readLock().lock();
+        try {
+            long used = 0;
+            for (int slot = 0; slot < slotCount; slot++) {
+                used += (long) capacities[slot] * Long.BYTES;
+            }
+            return used;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int slotFor(long filmId) {
+        Integer slot = slots.get(filmId);
+        if (slot != null) {
+            return slot;
+        }
+        int created = freeSlotCount > 0 ? freeSlots[--freeSlotCount] : slotCount++;
+        if (created == filmIds.length) {
+            int length = filmIds.length * 2;
+            filmIds = Arrays.copyOf(filmIds, length);
+            Arrays.fill(filmIds, created, length, -1);
+            addresses = Arrays.copyOf(addresses, length);
+            sizes = Arrays.copyOf(sizes, length);
+            capacities = Arrays.copyOf(capacities, length);
+        }
+        filmIds[created] = filmId;
+        addresses[created] = NO_BLOCK;
+        sizes[created] = 0;
+        capacities[created] = 0;
+        slots.put(filmId, created);
+        return created;
+    }
+
+    private void release(int slot) {
+        if (addresses[slot] != NO_BLOCK) {
+            free(addresses[slot], capacities[slot]);
+        }
+        slots.remove(filmIds[slot]);
+        filmIds[slot] = -1;
+        addresses[slot] = NO_BLOCK;
+        sizes[slot] = 0;
+        capacities[slot] = 0;
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    /**
+     * Переносит лайки в блок вдвое больше, вставляя новый id по пути.
+     */
+    private void grow(int slot, int insertAt, long userId) {
+        int size = sizes[slot];
+        int capacity = Math.max(MIN_CAPACITY, capacities[slot] * 2);
+        if ((long) capacity * Long.BYTES > chunkBytes) {
+            throw new IllegalStateException("Лайки фильма " + filmIds[slot] + " не помещаются в кусок off-heap памяти");
+        }
+        long target = allocate(capacity);
+        ByteBuffer to = chunk(target);
+        int toBase = offset(target);
+        if (size > 0) {
+            long source = addresses[slot];
+            ByteBuffer from = chunk(source);
+            int fromBase = offset(source);
+            to.put(toBase, from, fromBase, insertAt * Long.BYTES);
+            to.put(toBase + (insertAt + 1) * Long.BYTES, from,
+                    fromBase + insertAt * Long.BYTES, (size - insertAt) * Long.BYTES);
+            free(source, capacities[slot]);
+        }
+        to.putLong(toBase + insertAt * Long.BYTES, userId);
+        addresses[slot] = target;
+        capacities[slot] = capacity;
+    }
+
+    private long allocate(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (freeCounts[sizeClass] > 0) {
+            freeBytes -= (long) capacity * Long.BYTES;
+            return freeLists[sizeClass][--freeCounts[sizeClass]];
+        }
+        int bytes = capacity * Long.BYTES;
+        if (chunks.isEmpty() || bumpOffset + bytes > chunkBytes) {
+            if (!chunks.isEmpty()) {
+                // хвост предыдущего куска уже не пригодится до уплотнения
+                freeBytes += chunkBytes - bumpOffset;
+            }
+            chunks.add(ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.nativeOrder()));
+            bumpOffset = 0;
+        }
+        long address = ((long) (chunks.size() - 1) << 32) | bumpOffset;
+        bumpOffset += bytes;
+        return address;
+    }
+
+    private void free(long address, int capacity) {
+        int sizeClass = sizeClass(capacity);
+        long[] list = freeLists[sizeClass];
+        if (list == null) {
+            list = freeLists[sizeClass] = new long[16];
+        } else if (freeCounts[sizeClass] == list.length) {
+            list = freeLists[sizeClass] = Arrays.copyOf(list, list.length * 2);
+        }
+        list[freeCounts[sizeClass]++] = address;
+        freeBytes += (long) capacity * Long.BYTES;
+    }
+
+    private void compactIfFragmented() {
+        if (chunks.size() > 1 && freeBytes > compactionThreshold * chunks.size() * chunkBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Переписывает живые блоки подряд в новые куски, подгоняя ёмкость
+     * под текущее число лайков. Старые куски освобождаются сборщиком
+     * вместе с их буферами.
+     */
+    private void compact() {
+        long started = System.nanoTime();
+        long before = (long) chunks.size() * chunkBytes;
+        List<ByteBuffer> old = chunks;
+        chunks = new ArrayList<>();
+        bumpOffset = 0;
+        freeBytes = 0;
+        Arrays.fill(freeCounts, 0);
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (addresses[slot] == NO_BLOCK) {
+                continue;
+            }
+            int size = sizes[slot];
+            int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+            long target = allocate(capacity);
+            long source = addresses[slot];
+            chunk(target).put(offset(target), old.get((int) (source >>> 32)), offset(source), size * Long.BYTES);
+            addresses[slot] = target;
+            capacities[slot] = capacity;
+        }
+        log.info("Off-heap лайки уплотнены за {} мс: {} -> {} байт", (System.nanoTime() - started) / 1_000_000,
+                before, (long) chunks.size() * chunkBytes);
+    }
+
+    private long[] read(int slot) {
+        int size = sizes[slot];
+        long[] result = new long[size];
+        if (size > 0) {
+            chunk(addresses[slot]).asLongBuffer()
+                    .get(offset(addresses[slot]) / Long.BYTES, result, 0, size);
+        }
+        return result;
+    }
+
+    private int search(long address, int size, long userId) {
+        ByteBuffer chunk = chunk(address);
+        int base = offset(address);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = chunk.getLong(base + mid * Long.BYTES);
+            if (value < userId) {
+                low = mid + 1;
+            } else if (value > userId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private ByteBuffer chunk(long address) {
+        return chunks.get((int) (address >>> 32));
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private static int sizeClass(int capacity) {
+        return Integer.numberOfTrailingZeros(capacity);
+    }
+}
@@ -0,0 +1,335 @@
+package ru.yandex.practicum.filmorate.dal.storage.snapshot;
+
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Бинарный формат снимка in-memory хранилищ.
+ * <pre>
+ * header:      magic:int version:int bodyLength:long crc32c:int
+ * genres:      count:int { id:int name:str }
+ * mpa:         count:int { id:int name:str }
+ * users:       count:int { id:long email:str login:str name:str birthday:date }
+ * friendships: count:int { userId:long n:int friendId:long[n] }
+ * films:       count:int { id:long name:str description:str releaseDate:date duration:int
+ *                          mpaId:int genres:int genreId:int[] likes:int userId:long[] }
+ * </pre>
+ * Строки — длина в байтах и UTF-8 (длина -1 для null), даты — номер дня эпохи
+ * ({@link Long#MIN_VALUE} для null), отсутствующие int — -1. Жанры и рейтинги
+ * хранятся один раз в словаре, фильмы ссылаются на них по id.
+ */
+public final class SnapshotCodec {
+    private static final int MAGIC = 0x464D534E;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES + Integer.BYTES;
+    private static final long NULL_DATE = Long.MIN_VALUE;
+
+    private SnapshotCodec() {
+    }
+
+    /**
+     * Записывает снимок во временный файл через отображение в память
+     * и атомарно подменяет им {@code target}.
+     */
+    public static void write(Path target, StorageSnapshot snapshot) throws IOException {
+        Dictionary dictionary = Dictionary.of(snapshot.films());
+        SizeCounter counter = new SizeCounter();
+        writeBody(counter, snapshot, dictionary);
+        long bodyLength = counter.size;
+        if (bodyLength > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IOException("Снимок слишком велик для одного отображаемого сегмента: " + bodyLength);
+        }
+
+        if (target.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(target.toAbsolutePath().getParent());
+        }
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + bodyLength);
+            buffer.position(HEADER_SIZE);
+            writeBody(new BufferOutput(buffer), snapshot, dictionary);
+
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(HEADER_SIZE, (int) bodyLength));
+            buffer.putInt(0, MAGIC)
+                    .putInt(Integer.BYTES, VERSION)
+                    .putLong(Integer.BYTES * 2, bodyLength)
+                    .putInt(Integer.BYTES * 2 + Long.BYTES, (int) crc.getValue());
+            buffer.force();
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Читает снимок напрямую из отображённого в память файла: массивы id
+     * копируются пакетно из страниц файла, без промежуточных буферов.
+     */
+    public static StorageSnapshot read(Path source) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Файл " + source + " не является снимком хранилища");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Неподдерживаемая версия снимка: " + version);
+            }
+            long bodyLength = buffer.getLong();
+            int expectedCrc = buffer.getInt();
+            if (bodyLength != buffer.remaining()) {
+                throw new IOException("Снимок " + source + " обрезан");
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(HEADER_SIZE, (int) bodyLength));
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Контрольная сумма снимка " + source + " не совпадает");
+            }
+            return readBody(buffer);
+        }
+    }
+
+    private static void writeBody(Output out, StorageSnapshot snapshot, Dictionary dictionary) {
+        out.putInt(dictionary.genres.size());
+        for (Genre genre : dictionary.genres.values()) {
+            out.putInt(genre.getId());
+            out.putString(genre.getName());
+        }
+        out.putInt(dictionary.mpa.size());
+        for (MpaRating mpa : dictionary.mpa.values()) {
+            out.putInt(mpa.getId());
+            out.putString(mpa.getName());
+        }
+
+        out.putInt(snapshot.users().size());
+        for (User user : snapshot.users()) {
+            out.putLong(user.getId());
+            out.putString(user.getEmail());
+            out.putString(user.getLogin());
+            out.putString(user.getName());
+            out.putLong(user.getBirthday() != null ? user.getBirthday().toEpochDay() : NULL_DATE);
+        }
+
+        out.putInt(snapshot.friendships().size());
+        for (Map.Entry<Long, Set<Long>> entry : snapshot.friendships().entrySet()) {
+            out.putLong(entry.getKey());
+            out.putLongs(entry.getValue());
+        }
+
+        out.putInt(snapshot.films().size());
+        for (Film film : snapshot.films()) {
+            out.putLong(film.getId());
+            out.putString(film.getName());
+            out.putString(film.getDescription());
+            out.putLong(film.getReleaseDate() != null ? film.getReleaseDate().toEpochDay() : NULL_DATE);
+            out.putInt(film.getDuration() != null ? film.getDuration() : -1);
+            out.putInt(film.getMpa() != null && film.getMpa().getId() != null ? film.getMpa().getId() : -1);
+            Set<Genre> genres = film.getGenres() != null ? film.getGenres() : Set.of();
+            out.putInt((int) genres.stream().filter(Dictionary::hasId).count());
+            for (Genre genre : genres) {
+                if (Dictionary.hasId(genre)) {
+                    out.putInt(genre.getId());
+                }
+            }
+            out.putLongs(film.getLikes() != null ? film.getLikes() : Set.of());
+        }
+    }
+
+    private static StorageSnapshot readBody(ByteBuffer in) {
+        Map<Integer, Genre> genres = new HashMap<>();
+        int genreCount = in.getInt();
+        for (int i = 0; i < genreCount; i++) {
+            int id = in.getInt();
+            genres.put(id, new Genre(id, getString(in)));
+        }
+        Map<Integer, MpaRating> mpa = new HashMap<>();
+        int mpaCount = in.getInt();
+        for (int i = 0; i < mpaCount; i++) {
+            MpaRating rating = new MpaRating();
+            rating.setId(in.getInt());
+            rating.setName(getString(in));
+            mpa.put(rating.getId(), rating);
+        }
+
+        int userCount = in.getInt();
+        List<User> users = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            User user = new User();
+            user.setId(in.getLong());
+            user.setEmail(getString(in));
+            user.setLogin(getString(in));
+            user.setName(getString(in));
+            user.setBirthday(getDate(in));
+            users.add(user);
+        }
+
+        int friendshipCount = in.getInt();
+        Map<Long, Set<Long>> friendships = new HashMap<>(friendshipCount * 2);
+        for (int i = 0; i < friendshipCount; i++) {
+            long userId = in.getLong();
+            friendships.put(userId, getLongs(in));
+        }
+
+        int filmCount = in.getInt();
+        List<Film> films = new ArrayList<>(filmCount);
+        for (int i = 0; i < filmCount; i++) {
+            Film film = new Film();
+            film.setId(in.getLong());
+            film.setName(getString(in));
+            film.setDescription(getString(in));
+            film.setReleaseDate(getDate(in));
+            int duration = in.getInt();
+            film.setDuration(duration >= 0 ? duration : null);
+            film.setMpa(mpa.get(in.getInt()));
+            int filmGenres = in.getInt();
+            Set<Genre> filmGenreSet = new LinkedHashSet<>();
+            for (int g = 0; g < filmGenres; g++) {
+                filmGenreSet.add(genres.get(in.getInt()));
+            }
+            film.setGenres(filmGenreSet);
+            film.setLikes(getLongs(in));
+            films.add(film);
+        }
+        return new StorageSnapshot(films, users, friendships);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = StandardCharsets.UTF_8.decode(in.slice(in.position(), length)).toString();
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private static LocalDate getDate(ByteBuffer in) {
+        long epochDay = in.getLong();
+        return epochDay == NULL_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    private static Set<Long> getLongs(ByteBuffer in) {
+        int count = in.getInt();
+        long[] ids = new long[count];
+        in.asLongBuffer().get(ids);
+        in.position(in.position() + count * Long.BYTES);
+        Set<Long> result = new HashSet<>(Math.max(16, (int) (count / 0.75f) + 1));
+        for (long id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+
+    private interface Output {
+        void putInt(int value);
+
+        void putLong(long value);
+
+        void putString(String value);
+
+        void putLongs(Collection<Long> values);
+    }
+
+    private static final class SizeCounter implements Output {
+        private long size;
+
+        @Override
+        public void putInt(int value) {
+            size += Integer.BYTES;
+        }
+
+        @Override
+        public void putLong(long value) {
+            size += Long.BYTES;
+        }
+
+        @Override
+        public void putString(String value) {
+            size += Integer.BYTES;
+            if (value != null) {
+                size += value.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+
+        @Override
+        public void putLongs(Collection<Long> values) {
+            size += Integer.BYTES + (long) values.size() * Long.BYTES;
+        }
+    }
+
+    private static final class BufferOutput implements Output {
+        private final ByteBuffer buffer;
+
+        private BufferOutput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void putInt(int value) {
+            buffer.putInt(value);
+        }
+
+        @Override
+        public void putLong(long value) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        public void putString(String value) {
+            if (value == null) {
+                buffer.putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        @Override
+        public void putLongs(Collection<Long> values) {
+            buffer.putInt(values.size());
+            for (Long value : values) {
+                buffer.putLong(value);
+            }
+        }
+    }
+
+    private record Dictionary(Map<Integer, Genre> genres, Map<Integer, MpaRating> mpa) {
+        static Dictionary of(Collection<Film> films) {
+            Map<Integer, Genre> genres = new LinkedHashMap<>();
+            Map<Integer, MpaRating> mpa = new LinkedHashMap<>();
+            for (Film film : films) {
+                if (film.getMpa() != null && film.getMpa().getId() != null) {
+                    mpa.putIfAbsent(film.getMpa().getId(), film.getMpa());
+                }
+                if (film.getGenres() != null) {
+                    for (Genre genre : film.getGenres()) {
+                        if (hasId(genre)) {
+                            genres.putIfAbsent(genre.getId(), genre);
+                        }
+                    }
+                }
+            }
+            return new Dictionary(genres, mpa);
+        }
+
+        static boolean hasId(Genre genre) {
+            return genre != null && genre.getId() != null;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ru.yandex.practicum.filmorate.dal.storage.snapshot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.dal.storage.InMemoryUserStorage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Поднимает in-memory хранилища из снимка при старте и сохраняет их
+ * при остановке и периодически. Если включён журнал предзаписи,
+ * снимками управляет {@link ru.yandex.practicum.filmorate.dal.storage.wal.WalStorageManager}.
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression("${filmorate.snapshot.enabled:false} and !${filmorate.wal.enabled:false}")
+public class SnapshotManager {
+    private final InMemoryFilmStorage filmStorage;
+    private final InMemoryUserStorage userStorage;
+    private final Path file;
+
+    public SnapshotManager(InMemoryFilmStorage filmStorage,
+                           InMemoryUserStorage userStorage,
+                           @Value("${filmorate.snapshot.file:./db/in-memory.snapshot}") Path file) {
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.file = file;
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        if (!Files.exists(file)) {
+            log.info("Снимок {} не найден, in-memory хранилища стартуют пустыми", file);
+            return;
+        }
+        long started = System.nanoTime();
+        StorageSnapshot snapshot = SnapshotCodec.read(file);
+        snapshot.restoreInto(filmStorage, userStorage);
+        log.info("Снимок {} загружен за {} мс: фильмов {}, пользователей {}", file,
+                (System.nanoTime() - started) / 1_000_000, snapshot.films().size(), snapshot.users().size());
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${filmorate.snapshot.interval-ms:300000}",
+            initialDelayString = "${filmorate.snapshot.interval-ms:300000}")
+    public void save() throws IOException {
+        long started = System.nanoTime();
+        SnapshotCodec.write(file, StorageSnapshot.capture(filmStorage, userStorage));
+        log.info("Снимок in-memory хранилищ сохранён в {} за {} мс", file,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+}
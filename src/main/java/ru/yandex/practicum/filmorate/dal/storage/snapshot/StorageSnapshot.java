@@ -0,0 +1,64 @@
+package ru.yandex.practicum.filmorate.dal.storage.snapshot;
+
+import ru.yandex.practicum.filmorate.dal.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.dal.storage.InMemoryUserStorage;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+public record StorageSnapshot(Collection<Film> films,
+                              Collection<User> users,
+                              Map<Long, Set<Long>> friendships) {
+
+    /**
+     * Снимает неизменяемую копию обоих хранилищ. Пока копия собирается, изменения
+     * хранилищ приостановлены, а сами фильмы, пользователи и множества лайков и друзей
+     * копируются, так что кодек может проходить по снимку сколько угодно раз.
+     */
+    public static StorageSnapshot capture(InMemoryFilmStorage filmStorage, InMemoryUserStorage userStorage) {
+        return filmStorage.exclusively(() -> userStorage.exclusively(() -> {
+            Map<Long, Set<Long>> friendships = new HashMap<>();
+            userStorage.getFriendships().forEach((id, friends) -> friendships.put(id, Set.copyOf(friends)));
+            return new StorageSnapshot(
+                    filmStorage.findAll().stream().map(StorageSnapshot::copyOf).toList(),
+                    userStorage.findAll().stream().map(StorageSnapshot::copyOf).toList(),
+                    Collections.unmodifiableMap(friendships));
+        }));
+    }
+
+    public void restoreInto(InMemoryFilmStorage filmStorage, InMemoryUserStorage userStorage) {
+        filmStorage.restore(films);
+        userStorage.restore(users, friendships);
+    }
+
+    private static Film copyOf(Film film) {
+        Film copy = new Film();
+        copy.setId(film.getId());
+        copy.setName(film.getName());
+        copy.setDescription(film.getDescription());
+        copy.setReleaseDate(film.getReleaseDate());
+        copy.setDuration(film.getDuration());
+        copy.setLikes(film.getLikes() != null ? Set.copyOf(film.getLikes()) : Set.of());
+        copy.setGenres(film.getGenres() != null
+                ? Collections.unmodifiableSet(new LinkedHashSet<>(film.getGenres()))
+                : Set.of());
+        copy.setMpa(film.getMpa());
+        return copy;
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setEmail(user.getEmail());
+        copy.setLogin(user.getLogin());
+        copy.setName(user.getName());
+        copy.setBirthday(user.getBirthday());
+        return copy;
+    }
+}
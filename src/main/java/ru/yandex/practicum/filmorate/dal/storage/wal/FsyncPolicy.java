@@ -0,0 +1,18 @@
+package ru.yandex.practicum.filmorate.dal.storage.wal;
+
+public enum FsyncPolicy {
+    /**
+     * Запись подтверждается только после fsync; одновременные записи
+     * объединяются в один fsync (group commit).
+     */
+    ALWAYS,
+    /**
+     * Запись подтверждается сразу после записи в файл, fsync выполняется
+     * не реже раза в заданный интервал.
+     */
+    INTERVAL,
+    /**
+     * fsync выполняется только при компакции и остановке.
+     */
+    NEVER
+}
@@ -0,0 +1,147 @@
+package ru.yandex.practicum.filmorate.dal.storage.wal;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.dal.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+@Component("journaledFilmStorage")
+@ConditionalOnProperty(name = "filmorate.wal.enabled", havingValue = "true")
+public class JournaledFilmStorage implements FilmStorage {
+    private final InMemoryFilmStorage delegate;
+    private final WalStorageManager wal;
+
+    public JournaledFilmStorage(InMemoryFilmStorage delegate, WalStorageManager wal) {
+        this.delegate = delegate;
+        this.wal = wal;
+    }
+
+    @Override
+    public Collection<Film> findAll() {
+        return wal.read(delegate::findAll);
+    }
+
+    @Override
+    public List<Long> findAllIds() {
+        return wal.read(delegate::findAllIds);
+    }
+
+    @Override
+    public Optional<Film> findById(Long id) {
+        return wal.read(() -> delegate.findById(id));
+    }
+
+    @Override
+    public List<Film> findByIds(Collection<Long> ids) {
+        return wal.read(() -> delegate.findByIds(ids));
+    }
+
+    @Override
+    public Film add(Film film) {
+        // id выдаётся до записи в журнал, чтобы запись и проигрывание создали тот же фильм
+        film.setId(delegate.nextId());
+        return wal.write(new WalRecord.FilmPut(film), () -> delegate.update(film));
+    }
+
+    @Override
+    public Film update(Film film) {
+        return wal.write(new WalRecord.FilmPut(film), () -> delegate.update(film));
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        wal.write(new WalRecord.FilmDelete(id), () -> delegate.deleteById(id));
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return wal.read(() -> delegate.existsById(id));
+    }
+
+    /**
+     * Повторный лайк и лайк несуществующему фильму ничего не меняют и в журнал не пишутся.
+     */
+    @Override
+    public boolean addLike(long filmId, long userId) {
+        if (!wal.read(() -> delegate.existsById(filmId) && !delegate.hasLike(filmId, userId))) {
+            return false;
+        }
+        return wal.write(new WalRecord.LikeAdd(filmId, userId), () -> delegate.addLike(filmId, userId));
+    }
+
+    @Override
+    public boolean removeLike(long filmId, long userId) {
+        if (!wal.read(() -> delegate.hasLike(filmId, userId))) {
+            return false;
+        }
+        return wal.write(new WalRecord.LikeRemove(filmId, userId), () -> delegate.removeLike(filmId, userId));
+    }
+
+    @Override
+    public void forEachLikeSince(LocalDateTime since, Consumer<FilmLike> action) {
+        wal.read(() -> {
+            delegate.forEachLikeSince(since, action);
+            return null;
+        });
+    }
+
+    @Override
+    public void forEachLike(LikeConsumer action) {
+        wal.read(() -> {
+            delegate.forEachLike(action);
+            return null;
+        });
+    }
+
+    @Override
+    public List<Long> findCommonLikedFilmIds(long userId, long otherUserId) {
+        return wal.read(() -> delegate.findCommonLikedFilmIds(userId, otherUserId));
+    }
+
+    @Override
+    public List<FilmLike> findRecentLikesByUsers(Collection<Long> userIds, int limit) {
+        return wal.read(() -> delegate.findRecentLikesByUsers(userIds, limit));
+    }
+
+    @Override
+    public Map<Long, Set<Long>> findLikeUserIds(Collection<Long> filmIds) {
+        return wal.read(() -> delegate.findLikeUserIds(filmIds));
+    }
+
+    @Override
+    public List<Genre> getAllGenres() {
+        return wal.read(delegate::getAllGenres);
+    }
+
+    @Override
+    public Optional<Genre> getGenreById(int id) {
+        return wal.read(() -> delegate.getGenreById(id));
+    }
+
+    @Override
+    public Set<Genre> getGenres(long filmId) {
+        return wal.read(() -> delegate.getGenres(filmId));
+    }
+
+    @Override
+    public List<MpaRating> getAllMpa() {
+        return wal.read(delegate::getAllMpa);
+    }
+
+    @Override
+    public Optional<MpaRating> getMpaById(int id) {
+        return wal.read(() -> delegate.getMpaById(id));
+    }
+}
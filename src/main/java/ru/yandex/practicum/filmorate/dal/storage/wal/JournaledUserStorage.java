@@ -0,0 +1,116 @@
+package ru.yandex.practicum.filmorate.dal.storage.wal;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.InMemoryUserStorage;
+import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Component("journaledUserStorage")
+@ConditionalOnProperty(name = "filmorate.wal.enabled", havingValue = "true")
+public class JournaledUserStorage implements UserStorage {
+    private final InMemoryUserStorage delegate;
+    private final WalStorageManager wal;
+
+    public JournaledUserStorage(InMemoryUserStorage delegate, WalStorageManager wal) {
+        this.delegate = delegate;
+        this.wal = wal;
+    }
+
+    @Override
+    public Collection<User> findAll() {
+        return wal.read(() -> new ArrayList<>(delegate.findAll()));
+    }
+
+    @Override
+    public Optional<User> findById(Long id) {
+        return wal.read(() -> delegate.findById(id));
+    }
+
+    @Override
+    public List<User> findByIds(Collection<Long> ids) {
+        return wal.read(() -> delegate.findByIds(ids));
+    }
+
+    @Override
+    public User add(User user) {
+        // id выдаётся до записи в журнал, чтобы запись и проигрывание создали того же пользователя
+        user.setId(delegate.nextId());
+        return wal.write(new WalRecord.UserPut(user), () -> delegate.update(user));
+    }
+
+    @Override
+    public User update(User user) {
+        return wal.write(new WalRecord.UserPut(user), () -> delegate.update(user));
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        wal.write(new WalRecord.UserDelete(id), () -> delegate.deleteById(id));
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return wal.read(() -> delegate.existsById(id));
+    }
+
+    @Override
+    public Optional<Long> findIdByEmail(String email) {
+        return wal.read(() -> delegate.findIdByEmail(email));
+    }
+
+    @Override
+    public Optional<Long> findIdByLogin(String login) {
+        return wal.read(() -> delegate.findIdByLogin(login));
+    }
+
+    @Override
+    public void addFriend(long userId, long friendId) {
+        if (wal.read(() -> !delegate.existsById(userId) || !delegate.existsById(friendId)
+                || delegate.hasFriend(userId, friendId))) {
+            return;
+        }
+        wal.write(new WalRecord.FriendAdd(userId, friendId), () -> delegate.addFriend(userId, friendId));
+    }
+
+    @Override
+    public void removeFriend(long userId, long friendId) {
+        if (!wal.read(() -> delegate.hasFriend(userId, friendId))) {
+            return;
+        }
+        wal.write(new WalRecord.FriendRemove(userId, friendId), () -> delegate.removeFriend(userId, friendId));
+    }
+
+    @Override
+    public List<User> findFriends(long userId) {
+        return wal.read(() -> delegate.findFriends(userId));
+    }
+
+    @Override
+    public List<Long> findFriendIds(long userId) {
+        return wal.read(() -> delegate.findFriendIds(userId));
+    }
+
+    @Override
+    public List<Long> findFollowerIds(long userId, int limit) {
+        return wal.read(() -> delegate.findFollowerIds(userId, limit));
+    }
+
+    @Override
+    public void forEachFriendship(FriendshipConsumer action) {
+        wal.read(() -> {
+            delegate.forEachFriendship(action);
+            return null;
+        });
+    }
+
+    @Override
+    public List<User> findCommonFriends(long userId, long otherUserId) {
+        return wal.read(() -> delegate.findCommonFriends(userId, otherUserId));
+    }
+}
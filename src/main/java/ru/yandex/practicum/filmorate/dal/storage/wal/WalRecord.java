@@ -0,0 +1,235 @@
+package ru.yandex.practicum.filmorate.dal.storage.wal;
+
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Операции, которые записываются в журнал. Все операции идемпотентны:
+ * повторное применение уже учтённого в снимке хвоста журнала не меняет состояние.
+ */
+public sealed interface WalRecord {
+    byte FILM_PUT = 1;
+    byte FILM_DELETE = 2;
+    byte LIKE_ADD = 3;
+    byte LIKE_REMOVE = 4;
+    byte USER_PUT = 5;
+    byte USER_DELETE = 6;
+    byte FRIEND_ADD = 7;
+    byte FRIEND_REMOVE = 8;
+
+    long NULL_DATE = Long.MIN_VALUE;
+
+    void encode(Encoder out);
+
+    record FilmPut(Film film) implements WalRecord {
+        @Override
+        public void encode(Encoder out) {
+            out.putByte(FILM_PUT);
+            out.putLong(film.getId());
+            out.putString(film.getName());
+            out.putString(film.getDescription());
+            out.putDate(film.getReleaseDate());
+            out.putInt(film.getDuration() != null ? film.getDuration() : -1);
+            MpaRating mpa = film.getMpa();
+            out.putInt(mpa != null && mpa.getId() != null ? mpa.getId() : -1);
+            out.putString(mpa != null ? mpa.getName() : null);
+            Set<Genre> genres = film.getGenres() != null ? film.getGenres() : Set.of();
+            out.putInt(genres.size());
+            for (Genre genre : genres) {
+                out.putInt(genre.getId());
+                out.putString(genre.getName());
+            }
+            Set<Long> likes = film.getLikes() != null ? film.getLikes() : Set.of();
+            out.putInt(likes.size());
+            for (Long userId : likes) {
+                out.putLong(userId);
+            }
+        }
+    }
+
+    record FilmDelete(long filmId) implements WalRecord {
+        @Override
+        public void encode(Encoder out) {
+            out.putByte(FILM_DELETE);
+            out.putLong(filmId);
+        }
+    }
+
+    record LikeAdd(long filmId, long userId) implements WalRecord {
+        @Override
+        public void encode(Encoder out) {
+            out.putByte(LIKE_ADD);
+            out.putLong(filmId);
+            out.putLong(userId);
+        }
+    }
+
+    record LikeRemove(long filmId, long userId) implements WalRecord {
+        @Override
+        public void encode(Encoder out) {
+            out.putByte(LIKE_REMOVE);
+            out.putLong(filmId);
+            out.putLong(userId);
+        }
+    }
+
+    record UserPut(User user) implements WalRecord {
+        @Override
+        public void encode(Encoder out) {
+            out.putByte(USER_PUT);
+            out.putLong(user.getId());
+            out.putString(user.getEmail());
+            out.putString(user.getLogin());
+            out.putString(user.getName());
+            out.putDate(user.getBirthday());
+        }
+    }
+
+    record UserDelete(long userId) implements WalRecord {
+        @Override
+        public void encode(Encoder out) {
+            out.putByte(USER_DELETE);
+            out.putLong(userId);
+        }
+    }
+
+    record FriendAdd(long userId, long friendId) implements WalRecord {
+        @Override
+        public void encode(Encoder out) {
+            out.putByte(FRIEND_ADD);
+            out.putLong(userId);
+            out.putLong(friendId);
+        }
+    }
+
+    record FriendRemove(long userId, long friendId) implements WalRecord {
+        @Override
+        public void encode(Encoder out) {
+            out.putByte(FRIEND_REMOVE);
+            out.putLong(userId);
+            out.putLong(friendId);
+        }
+    }
+
+    static WalRecord decode(ByteBuffer in) {
+        byte type = in.get();
+        return switch (type) {
+            case FILM_PUT -> {
+                Film film = new Film();
+                film.setId(in.getLong());
+                film.setName(getString(in));
+                film.setDescription(getString(in));
+                film.setReleaseDate(getDate(in));
+                int duration = in.getInt();
+                film.setDuration(duration >= 0 ? duration : null);
+                int mpaId = in.getInt();
+                String mpaName = getString(in);
+                if (mpaId >= 0) {
+                    MpaRating mpa = new MpaRating();
+                    mpa.setId(mpaId);
+                    mpa.setName(mpaName);
+                    film.setMpa(mpa);
+                }
+                int genreCount = in.getInt();
+                Set<Genre> genres = new LinkedHashSet<>();
+                for (int i = 0; i < genreCount; i++) {
+                    genres.add(new Genre(in.getInt(), getString(in)));
+                }
+                film.setGenres(genres);
+                int likeCount = in.getInt();
+                Set<Long> likes = new HashSet<>();
+                for (int i = 0; i < likeCount; i++) {
+                    likes.add(in.getLong());
+                }
+                film.setLikes(likes);
+                yield new FilmPut(film);
+            }
+            case FILM_DELETE -> new FilmDelete(in.getLong());
+            case LIKE_ADD -> new LikeAdd(in.getLong(), in.getLong());
+            case LIKE_REMOVE -> new LikeRemove(in.getLong(), in.getLong());
+            case USER_PUT -> {
+                User user = new User();
+                user.setId(in.getLong());
+                user.setEmail(getString(in));
+                user.setLogin(getString(in));
+                user.setName(getString(in));
+                user.setBirthday(getDate(in));
+                yield new UserPut(user);
+            }
+            case USER_DELETE -> new UserDelete(in.getLong());
+            case FRIEND_ADD -> new FriendAdd(in.getLong(), in.getLong());
+            case FRIEND_REMOVE -> new FriendRemove(in.getLong(), in.getLong());
+            default -> throw new IllegalStateException("Неизвестный тип записи журнала: " + type);
+        };
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static LocalDate getDate(ByteBuffer in) {
+        long epochDay = in.getLong();
+        return epochDay == NULL_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    /**
+     * Растущий буфер для кодирования одной записи.
+     */
+    final class Encoder {
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        void putByte(byte value) {
+            ensure(1).put(value);
+        }
+
+        void putInt(int value) {
+            ensure(Integer.BYTES).putInt(value);
+        }
+
+        void putLong(long value) {
+            ensure(Long.BYTES).putLong(value);
+        }
+
+        void putDate(LocalDate date) {
+            putLong(date != null ? date.toEpochDay() : NULL_DATE);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length).put(bytes);
+        }
+
+        ByteBuffer toBuffer() {
+            return buffer.duplicate().flip();
+        }
+
+        private ByteBuffer ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                grown.put(buffer.flip());
+                buffer = grown;
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ru.yandex.practicum.filmorate.dal.storage.wal;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.dal.storage.InMemoryUserStorage;
+import ru.yandex.practicum.filmorate.dal.storage.snapshot.SnapshotCodec;
+import ru.yandex.practicum.filmorate.dal.storage.snapshot.StorageSnapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Делает in-memory хранилища устойчивыми: при старте загружает снимок и
+ * проигрывает поверх него журнал, каждое изменение пишет в журнал, а когда
+ * журнал разрастается — сворачивает его в новый снимок.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.wal.enabled", havingValue = "true")
+public class WalStorageManager {
+    private final InMemoryFilmStorage filmStorage;
+    private final InMemoryUserStorage userStorage;
+    private final Path snapshotFile;
+    private final Path walFile;
+    private final FsyncPolicy policy;
+    private final long fsyncIntervalMs;
+    private final long compactThresholdBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private WriteAheadLog wal;
+
+    public WalStorageManager(InMemoryFilmStorage filmStorage,
+                             InMemoryUserStorage userStorage,
+                             @Value("${filmorate.snapshot.file:./db/in-memory.snapshot}") Path snapshotFile,
+                             @Value("${filmorate.wal.file:./db/in-memory.wal}") Path walFile,
+                             @Value("${filmorate.wal.fsync-policy:ALWAYS}") FsyncPolicy policy,
+                             @Value("${filmorate.wal.fsync-interval-ms:100}") long fsyncIntervalMs,
+                             @Value("${filmorate.wal.compact-threshold-bytes:67108864}") long compactThresholdBytes) {
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.snapshotFile = snapshotFile;
+        this.walFile = walFile;
+        this.policy = policy;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+        this.compactThresholdBytes = compactThresholdBytes;
+    }
+
+    @PostConstruct
+    public void recover() throws IOException {
+        long started = System.nanoTime();
+        if (Files.exists(snapshotFile)) {
+            SnapshotCodec.read(snapshotFile).restoreInto(filmStorage, userStorage);
+        }
+        wal = new WriteAheadLog(walFile, policy, fsyncIntervalMs);
+        int replayed = wal.replay(this::apply);
+        wal.start();
+        log.info("In-memory хранилища восстановлены за {} мс, проиграно записей журнала: {}, режим fsync: {}",
+                (System.nanoTime() - started) / 1_000_000, replayed, policy);
+    }
+
+    public <T> T read(Supplier<T> query) {
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Пишет запись в журнал и только потом применяет изменение: {@code mutation} выполняет
+     * поток журнала в порядке записей, под блокировкой записи. Если запись в журнал
+     * не удалась, память не меняется, а вызывающий получает ошибку. Вызывающий ждёт
+     * только свою пачку, поэтому параллельные записи попадают в один fsync.
+     */
+    public <T> T write(WalRecord record, Supplier<T> mutation) {
+        return await(wal.append(record, () -> {
+            lock.writeLock().lock();
+            try {
+                return mutation.get();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }));
+    }
+
+    public void write(WalRecord record, Runnable mutation) {
+        write(record, () -> {
+            mutation.run();
+            return null;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.wal.compact-check-interval-ms:10000}")
+    public void compactIfNeeded() throws IOException {
+        if (wal.size() >= compactThresholdBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Сворачивает журнал в снимок в контрольной точке журнала: всё записанное до неё
+     * уже применено и попадает в снимок, а следующие записи ждут, пока журнал очистится.
+     */
+    public void compact() throws IOException {
+        try {
+            await(wal.checkpoint(() -> {
+                long started = System.nanoTime();
+                long walSize = wal.size();
+                SnapshotCodec.write(snapshotFile, StorageSnapshot.capture(filmStorage, userStorage));
+                wal.truncate();
+                log.info("Журнал ({} байт) свёрнут в снимок {} за {} мс", walSize, snapshotFile,
+                        (System.nanoTime() - started) / 1_000_000);
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        compact();
+        wal.close();
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw new UncheckedIOException(cause);
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void apply(WalRecord record) {
+        switch (record) {
+            case WalRecord.FilmPut r -> filmStorage.update(r.film());
+            case WalRecord.FilmDelete r -> filmStorage.deleteById(r.filmId());
+            case WalRecord.LikeAdd r -> filmStorage.addLike(r.filmId(), r.userId());
+            case WalRecord.LikeRemove r -> filmStorage.removeLike(r.filmId(), r.userId());
+            case WalRecord.UserPut r -> userStorage.update(r.user());
+            case WalRecord.UserDelete r -> userStorage.deleteById(r.userId());
+            case WalRecord.FriendAdd r -> userStorage.addFriend(r.userId(), r.friendId());
+            case WalRecord.FriendRemove r -> userStorage.removeFriend(r.userId(), r.friendId());
+        }
+    }
+}
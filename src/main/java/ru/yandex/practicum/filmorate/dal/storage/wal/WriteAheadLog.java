@@ -0,0 +1,285 @@
+package ru.yandex.practicum.filmorate.dal.storage.wal;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
+/**
+ * Журнал предзаписи поверх {@link FileChannel}. Формат записи:
+ * {@code length:int crc32c:int payload:byte[length]}.
+ * <p>
+ * Записи ставятся в очередь и пишутся одним потоком: всё, что накопилось
+ * в очереди, уходит в файл одной пачкой и подтверждается одним fsync. Изменение,
+ * ради которого сделана запись, тот же поток применяет только после того, как запись
+ * попала в файл, и строго в порядке журнала — память никогда не опережает журнал.
+ */
+@Slf4j
+public class WriteAheadLog implements Closeable {
+    private static final int FRAME_HEADER = Integer.BYTES * 2;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final FsyncPolicy policy;
+    private final long fsyncIntervalNanos;
+    private final long pollNanos;
+    private final LinkedBlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+    private volatile UncheckedIOException failure;
+    private long lastForceNanos = System.nanoTime();
+    private boolean dirty;
+
+    public WriteAheadLog(Path file, FsyncPolicy policy, long fsyncIntervalMs) throws IOException {
+        this.file = file;
+        this.policy = policy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs);
+        this.pollNanos = fsyncIntervalNanos > 0 ? fsyncIntervalNanos : TimeUnit.SECONDS.toNanos(1);
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.flusher = Thread.ofPlatform().name("wal-flusher").daemon().unstarted(this::flushLoop);
+    }
+
+    /**
+     * Проигрывает журнал с начала и обрезает недописанный хвост,
+     * оставшийся после аварийной остановки. Вызывается до {@link #start()}.
+     *
+     * @return количество применённых записей
+     */
+    public int replay(Consumer<WalRecord> consumer) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return 0;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        CRC32C crc = new CRC32C();
+        int applied = 0;
+        long validEnd = 0;
+        while (buffer.remaining() >= FRAME_HEADER) {
+            int length = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            ByteBuffer payload = buffer.slice(buffer.position(), length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != expectedCrc) {
+                break;
+            }
+            consumer.accept(WalRecord.decode(payload));
+            buffer.position(buffer.position() + length);
+            validEnd = buffer.position();
+            applied++;
+        }
+        if (validEnd < size) {
+            log.warn("Журнал {} содержит повреждённый хвост: обрезается с {} до {} байт", file, size, validEnd);
+            channel.truncate(validEnd);
+            channel.force(true);
+        }
+        channel.position(validEnd);
+        return applied;
+    }
+
+    public void start() {
+        flusher.start();
+    }
+
+    /**
+     * Ставит запись в очередь. Когда запись попала в файл (при {@link FsyncPolicy#ALWAYS} —
+     * и прошла fsync), поток записи вызывает {@code apply} и завершает future его результатом.
+     * Если записать не удалось, {@code apply} не вызывается, а future завершается ошибкой.
+     */
+    public <T> CompletableFuture<T> append(WalRecord record, Supplier<T> apply) {
+        WalRecord.Encoder encoder = new WalRecord.Encoder();
+        record.encode(encoder);
+        ByteBuffer payload = encoder.toBuffer();
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + payload.remaining());
+        frame.putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload).flip();
+        return enqueue(frame, apply::get);
+    }
+
+    /**
+     * Выполняет {@code action} в потоке записи, когда всё поставленное в очередь ранее
+     * записано, прошло fsync и применено, а поставленное позже ещё не записано.
+     */
+    public CompletableFuture<Void> checkpoint(Checkpoint action) {
+        return enqueue(null, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Очищает журнал после того, как его содержимое вошло в снимок.
+     * Вызывающий должен гарантировать, что новых записей в это время нет.
+     */
+    public synchronized void truncate() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        // пустая запись будит поток записи, прерывать его нельзя: прерывание закрывает FileChannel
+        queue.add(new Pending<>(null, () -> null, new CompletableFuture<>()));
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Pending<?>> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        process(batch);
+        synchronized (this) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    private <T> CompletableFuture<T> enqueue(ByteBuffer frame, Callable<T> action) {
+        if (!running) {
+            throw new IllegalStateException("Журнал " + file + " закрыт");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        Pending<T> pending = new Pending<>(frame, action, new CompletableFuture<>());
+        queue.add(pending);
+        return pending.done;
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Pending<?> first = queue.poll(pollNanos, TimeUnit.NANOSECONDS);
+                List<Pending<?>> batch = new ArrayList<>();
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                }
+                process(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Пачка делится на части по контрольным точкам: всё до контрольной точки
+     * записывается, сбрасывается fsync и применяется раньше неё.
+     */
+    private synchronized void process(List<Pending<?>> batch) {
+        int from = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i).frame == null) {
+                writeSegment(batch.subList(from, i + 1), true);
+                from = i + 1;
+            }
+        }
+        writeSegment(batch.subList(from, batch.size()), false);
+    }
+
+    private void writeSegment(List<Pending<?>> segment, boolean barrier) {
+        if (failure != null) {
+            segment.forEach(p -> p.done.completeExceptionally(failure));
+            return;
+        }
+        ByteBuffer[] frames = segment.stream()
+                .map(Pending::frame)
+                .filter(Objects::nonNull)
+                .toArray(ByteBuffer[]::new);
+        long start = -1;
+        try {
+            start = channel.position();
+            long remaining = Arrays.stream(frames).mapToLong(ByteBuffer::remaining).sum();
+            while (remaining > 0) {
+                remaining -= channel.write(frames);
+            }
+            dirty |= frames.length > 0;
+            long now = System.nanoTime();
+            boolean force = barrier
+                    || (policy == FsyncPolicy.ALWAYS && frames.length > 0)
+                    || (policy == FsyncPolicy.INTERVAL && now - lastForceNanos >= fsyncIntervalNanos);
+            if (force && dirty) {
+                channel.force(false);
+                dirty = false;
+                lastForceNanos = now;
+            }
+        } catch (IOException e) {
+            log.error("Ошибка записи в журнал {}", file, e);
+            discardFrom(start);
+            UncheckedIOException error = new UncheckedIOException(e);
+            segment.forEach(p -> p.done.completeExceptionally(error));
+            return;
+        }
+        segment.forEach(Pending::run);
+    }
+
+    /**
+     * Отрезает неудавшуюся пачку: при проигрывании журнал обрывается на первом
+     * повреждённом кадре, и следующие записи за ним были бы потеряны. Если отрезать
+     * не удалось, журнал перестаёт принимать записи.
+     */
+    private void discardFrom(long start) {
+        try {
+            if (start < 0) {
+                throw new IOException("Позиция журнала неизвестна");
+            }
+            channel.truncate(start);
+            channel.position(start);
+        } catch (IOException e) {
+            failure = new UncheckedIOException("Журнал " + file + " недоступен для записи", e);
+            log.error("Не удалось отрезать неудавшуюся запись в журнале {}, запись остановлена", file, e);
+        }
+    }
+
+    /**
+     * Действие контрольной точки, например запись снимка и очистка журнала.
+     */
+    @FunctionalInterface
+    public interface Checkpoint {
+        void run() throws IOException;
+    }
+
+    private record Pending<T>(ByteBuffer frame, Callable<T> action, CompletableFuture<T> done) {
+        void run() {
+            try {
+                done.complete(action.call());
+            } catch (Exception e) {
+                done.completeExceptionally(e);
+            }
+        }
+    }
+}
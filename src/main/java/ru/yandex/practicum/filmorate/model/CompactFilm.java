@@ -0,0 +1,87 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Неизменяемое представление фильма для чтения и кеширования: вместо множества
+ * лайков хранится их количество, вместо объектов жанров — отсортированные id,
+ * которые разрешаются через справочник, MPA — общий экземпляр из справочника.
+ */
+public record CompactFilm(long id,
+                          String name,
+                          String description,
+                          LocalDate releaseDate,
+                          Integer duration,
+                          MpaRating mpa,
+                          int[] genreIds,
+                          int likeCount) {
+    private static final int[] NO_GENRES = new int[0];
+
+    public CompactFilm {
+        genreIds = genreIds == null || genreIds.length == 0 ? NO_GENRES : genreIds.clone();
+        Arrays.sort(genreIds);
+    }
+
+    public static CompactFilm from(Film film) {
+        int[] genreIds = film.getGenres() == null ? NO_GENRES : film.getGenres().stream()
+                .filter(Objects::nonNull)
+                .map(Genre::getId)
+                .filter(Objects::nonNull)
+                .mapToInt(Integer::intValue)
+                .distinct()
+                .toArray();
+        return new CompactFilm(film.getId(), film.getName(), film.getDescription(), film.getReleaseDate(),
+                film.getDuration(), film.getMpa(), genreIds,
+                film.getLikes() == null ? 0 : film.getLikes().size());
+    }
+
+    @Override
+    public int[] genreIds() {
+        return genreIds.clone();
+    }
+
+    public int genreCount() {
+        return genreIds.length;
+    }
+
+    public int genreIdAt(int index) {
+        return genreIds[index];
+    }
+
+    public boolean hasGenre(int genreId) {
+        return Arrays.binarySearch(genreIds, genreId) >= 0;
+    }
+
+    public CompactFilm withLikeCount(int newLikeCount) {
+        return new CompactFilm(id, name, description, releaseDate, duration, mpa, genreIds, newLikeCount);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompactFilm other)) return false;
+        return id == other.id
+                && likeCount == other.likeCount
+                && Objects.equals(name, other.name)
+                && Objects.equals(description, other.description)
+                && Objects.equals(releaseDate, other.releaseDate)
+                && Objects.equals(duration, other.duration)
+                && Objects.equals(mpa, other.mpa)
+                && Arrays.equals(genreIds, other.genreIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(id, name, description, releaseDate, duration, mpa, likeCount)
+                + Arrays.hashCode(genreIds);
+    }
+
+    @Override
+    public String toString() {
+        return "CompactFilm(id=" + id + ", name=" + name + ", releaseDate=" + releaseDate
+                + ", duration=" + duration + ", mpa=" + mpa + ", genreIds=" + Arrays.toString(genreIds)
+                + ", likeCount=" + likeCount + ")";
+    }
+}
@@ -0,0 +1,9 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Запись ленты: друг {@code userId} лайкнул фильм {@code film} в момент {@code likedAt}.
+ */
+public record FeedItem(long userId, LocalDateTime likedAt, CompactFilm film) {
+}
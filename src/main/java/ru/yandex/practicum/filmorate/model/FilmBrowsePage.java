@@ -0,0 +1,10 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.util.List;
+
+/**
+ * Страница каталога: {@code total} — сколько фильмов подходит под фильтры всего,
+ * {@code films} — запрошенная страница от популярных к менее популярным.
+ */
+public record FilmBrowsePage(long total, List<CompactFilm> films, FilmFacets facets) {
+}
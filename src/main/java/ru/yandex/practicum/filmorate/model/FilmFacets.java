@@ -0,0 +1,14 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.util.SortedMap;
+
+/**
+ * Счётчики фильмов выборки по значениям фильтров: жанры и MPA — по id,
+ * годы — по десятилетиям (ключ — первый год), продолжительность — по получасам
+ * (ключ — нижняя граница в минутах). Нулевые счётчики не попадают в ответ.
+ */
+public record FilmFacets(SortedMap<Integer, Long> genres,
+                         SortedMap<Integer, Long> mpa,
+                         SortedMap<Integer, Long> decades,
+                         SortedMap<Integer, Long> durations) {
+}
@@ -0,0 +1,6 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.time.LocalDateTime;
+
+public record FilmLike(long filmId, long userId, LocalDateTime likedAt) {
+}
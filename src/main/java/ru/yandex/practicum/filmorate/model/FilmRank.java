@@ -0,0 +1,7 @@
+package ru.yandex.practicum.filmorate.model;
+
+/**
+ * Место фильма в рейтинге популярности, начиная с 1, и число его лайков.
+ */
+public record FilmRank(long filmId, int rank, int likeCount) {
+}
@@ -0,0 +1,10 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.util.List;
+
+/**
+ * Кратчайшая цепочка друзей: {@code length} — число рёбер, {@code users} — пользователи
+ * цепочки по порядку, включая оба конца.
+ */
+public record FriendPath(int length, List<User> users) {
+}
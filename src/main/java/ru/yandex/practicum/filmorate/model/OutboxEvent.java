@@ -0,0 +1,14 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class OutboxEvent {
+    private Long id;
+    private OutboxEventType type;
+    private Long entityId;
+    private Long relatedId;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,8 @@
+package ru.yandex.practicum.filmorate.model;
+
+public enum OutboxEventType {
+    LIKE_ADDED,
+    LIKE_REMOVED,
+    FRIEND_ADDED,
+    FRIEND_REMOVED
+}
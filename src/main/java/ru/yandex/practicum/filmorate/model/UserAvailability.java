@@ -0,0 +1,7 @@
+package ru.yandex.practicum.filmorate.model;
+
+/**
+ * Свободны ли почта и логин; {@code null}, если значение не проверялось.
+ */
+public record UserAvailability(Boolean emailAvailable, Boolean loginAvailable) {
+}
@@ -0,0 +1,131 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.dal.routing.ReadYourWritesTracker;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ограниченный LRU-кеш компактных фильмов для ленты, рекомендаций и рейтингов.
+ * Записи неизменяемы, поэтому их можно отдавать наружу без копирования;
+ * при изменении фильма запись выбрасывается, при изменении лайков заменяется
+ * копией с новым числом лайков.
+ * <p>
+ * Каждое изменение увеличивает счётчик поколений фильма. Загруженный из хранилища
+ * фильм попадает в кеш, только если поколение не менялось во время загрузки, —
+ * иначе загрузка могла прочитать число лайков до изменения, уже учтённого в кеше.
+ * По той же причине при включённой реплике промахи читаются с основной БД: у записей
+ * нет срока жизни, и отставшее число лайков с реплики жило бы в кеше до следующего изменения.
+ */
+@Component
+public class CompactFilmCache {
+    private final FilmStorage filmStorage;
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Map<Long, CompactFilm> films;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final TransactionTemplate primaryTx;
+
+    public CompactFilmCache(@Qualifier("filmStorage") FilmStorage filmStorage,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${filmorate.film-cache.capacity:10000}") int capacity,
+                            @Value("${filmorate.datasource.replica.enabled:false}") boolean replicaEnabled) {
+        this.filmStorage = filmStorage;
+        if (replicaEnabled) {
+            this.primaryTx = new TransactionTemplate(transactionManager);
+            this.primaryTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        } else {
+            this.primaryTx = null;
+        }
+        this.films = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CompactFilm> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Фильмы в порядке переданных id; промахи догружаются из хранилища одним пакетным запросом.
+     */
+    public List<CompactFilm> getAll(Collection<Long> ids) {
+        Map<Long, CompactFilm> found = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        synchronized (films) {
+            for (Long id : ids) {
+                CompactFilm film = films.get(id);
+                if (film != null) {
+                    found.put(id, film);
+                } else {
+                    missing.add(id);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<Long, Long> generationsBefore = new HashMap<>();
+            for (Long id : missing) {
+                generationsBefore.put(id, generations.get(stripe(id)));
+            }
+            List<CompactFilm> loaded = load(missing);
+            synchronized (films) {
+                for (CompactFilm film : loaded) {
+                    if (generations.get(stripe(film.id())) == generationsBefore.get(film.id())) {
+                        films.put(film.id(), film);
+                    }
+                    found.put(film.id(), film);
+                }
+            }
+        }
+        return ids.stream()
+                .distinct()
+                .map(found::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    public void invalidate(long filmId) {
+        synchronized (films) {
+            generations.incrementAndGet(stripe(filmId));
+            films.remove(filmId);
+        }
+    }
+
+    public void adjustLikeCount(long filmId, int delta) {
+        synchronized (films) {
+            generations.incrementAndGet(stripe(filmId));
+            films.computeIfPresent(filmId, (id, film) -> film.withLikeCount(Math.max(0, film.likeCount() + delta)));
+        }
+    }
+
+    /**
+     * Read-only транзакция запроса читала бы реплику, поэтому промахи загружаются
+     * в отдельной пишущей транзакции, которая идёт на основную БД.
+     */
+    private List<CompactFilm> load(List<Long> ids) {
+        if (primaryTx == null
+                || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                || ReadYourWritesTracker.isPinnedToPrimary()) {
+            return filmStorage.findCompactByIds(ids);
+        }
+        return primaryTx.execute(status -> filmStorage.findCompactByIds(ids));
+    }
+
+    private static int stripe(long filmId) {
+        return (int) Math.floorMod(filmId, (long) GENERATION_STRIPES);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.dal.ExportDbStorage;
+import ru.yandex.practicum.filmorate.dal.sql.ExportSqlQuery;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+@Slf4j
+@Service
+public class ExportService {
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private final ExportDbStorage exportStorage;
+    private final TransactionTemplate readOnlyTx;
+    private final boolean dbStorage;
+
+    public ExportService(ExportDbStorage exportStorage,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${filmorate.storage.type:db}") String storageType) {
+        this.exportStorage = exportStorage;
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+        this.dbStorage = !"memory".equalsIgnoreCase(storageType);
+    }
+
+    public ExportSqlQuery resolve(String table) {
+        if (!dbStorage) {
+            throw new ValidationException("Выгрузка доступна только при хранении данных в БД");
+        }
+        return Arrays.stream(ExportSqlQuery.values())
+                .filter(query -> query.getTable().equalsIgnoreCase(table))
+                .findFirst()
+                .orElseThrow(() -> new NotFoundException("Таблица " + table + " недоступна для выгрузки"));
+    }
+
+    /**
+     * Пишет таблицу в {@code out} как NDJSON, сжатый gzip. Вызывается из потока,
+     * обслуживающего ответ, и держит read-only транзакцию до конца выгрузки.
+     */
+    public void exportGzip(ExportSqlQuery query, OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        GZIPOutputStream gzip = new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+        Long rows;
+        try {
+            rows = readOnlyTx.execute(status -> {
+                try {
+                    return exportStorage.export(query, gzip);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        gzip.finish();
+        log.info("Выгружена таблица {}: {} строк за {} мс", query.getTable(), rows,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+}
@@ -2,14 +2,29 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.dal.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.dal.routing.ReadYourWritesTracker;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationFilmException;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmBrowsePage;
+import ru.yandex.practicum.filmorate.model.FilmRank;
 import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
 import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.service.autocomplete.AutocompleteIndex;
+import ru.yandex.practicum.filmorate.service.browse.FilmBrowseQuery;
+import ru.yandex.practicum.filmorate.service.browse.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.service.event.FilmLikeEvent;
+import ru.yandex.practicum.filmorate.service.ranking.PopularityRanking;
+import ru.yandex.practicum.filmorate.service.similar.SimilarFilmsIndex;
+import ru.yandex.practicum.filmorate.service.trending.TrendingTracker;
+import ru.yandex.practicum.filmorate.service.trending.TrendingWindow;
 
 import java.time.LocalDate;
 import java.util.*;
@@ -19,23 +34,67 @@ import java.util.*;
 public class FilmService {
     private final FilmStorage filmStorage;
     private final UserStorage userStorage;
+    private final ReadYourWritesTracker readYourWrites;
+    private final JsonResponseCache jsonCache;
+    private final CompactFilmCache compactFilms;
+    private final TrendingTracker trending;
+    private final ApplicationEventPublisher events;
+    private final LikeCoalescer likeCoalescer;
+    private final SimilarFilmsIndex similarFilms;
+    private final PopularityRanking popularity;
+    private final ReferenceDataCache referenceData;
+    private final FilmFacetIndex facets;
+    private final AutocompleteIndex autocomplete;
 
-    public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
-                       @Qualifier("userDbStorage") UserStorage userStorage) {
+    public FilmService(@Qualifier("filmStorage") FilmStorage filmStorage,
+                       @Qualifier("userStorage") UserStorage userStorage,
+                       ReadYourWritesTracker readYourWrites,
+                       JsonResponseCache jsonCache,
+                       CompactFilmCache compactFilms,
+                       TrendingTracker trending,
+                       ApplicationEventPublisher events,
+                       LikeCoalescer likeCoalescer,
+                       SimilarFilmsIndex similarFilms,
+                       PopularityRanking popularity,
+                       ReferenceDataCache referenceData,
+                       FilmFacetIndex facets,
+                       AutocompleteIndex autocomplete) {
         this.filmStorage = filmStorage;
         this.userStorage = userStorage;
+        this.readYourWrites = readYourWrites;
+        this.jsonCache = jsonCache;
+        this.compactFilms = compactFilms;
+        this.trending = trending;
+        this.events = events;
+        this.likeCoalescer = likeCoalescer;
+        this.similarFilms = similarFilms;
+        this.popularity = popularity;
+        this.referenceData = referenceData;
+        this.facets = facets;
+        this.autocomplete = autocomplete;
     }
 
     private static final LocalDate CINEMA_BIRTHDAY = LocalDate.of(1895, 12, 28);
+    private static final int MAX_BATCH_IDS = 1000;
 
+    @Transactional(readOnly = true)
     public Collection<Film> findAll() {
         log.info("Запрошен список всех фильмов.");
         return filmStorage.findAll();
     }
 
+    @Transactional(readOnly = true)
+    public List<CompactFilm> getCompactByIds(Collection<Long> ids) {
+        return compactFilms.getAll(ids);
+    }
+
     public Film create(Film film) {
         validateFilm(film);
         Film saved = filmStorage.add(film);
+        popularity.addFilm(saved.getId());
+        facets.index(CompactFilm.from(saved));
+        autocomplete.putFilm(saved);
+        jsonCache.invalidatePopular();
         log.info("Добавлен новый фильм id={}", saved.getId());
         return saved;
     }
@@ -46,54 +105,177 @@ public class FilmService {
         }
         validateFilm(film);
         Film updated = filmStorage.update(film);
+        readYourWrites.markFilmWrite(updated.getId());
+        compactFilms.invalidate(updated.getId());
+        facets.index(CompactFilm.from(updated));
+        autocomplete.putFilm(updated);
+        jsonCache.invalidatePopular();
         log.info("Фильм обновлён id={}", updated.getId());
         return updated;
     }
 
+    @Transactional(readOnly = true)
     public Film getById(long id) {
+        readYourWrites.pinIfFilmsChanged(List.of(id));
         return filmStorage.findById(id)
                 .orElseThrow(() -> new NotFoundException("Фильм с id = " + id + " не найден"));
     }
 
+    @Transactional(readOnly = true)
+    public List<Film> getByIds(List<Long> ids) {
+        if (ids.size() > MAX_BATCH_IDS) {
+            throw new ValidationFilmException("За один запрос можно получить не более " + MAX_BATCH_IDS + " фильмов");
+        }
+        readYourWrites.pinIfFilmsChanged(ids);
+        return filmStorage.findByIds(ids);
+    }
+
     public void addLike(long filmId, long userId) {
-        requireFilm(filmId);
+        CompactFilm film = requireFilm(filmId);
         requireUserExists(userId);
-        filmStorage.addLike(filmId, userId);
+        if (!likeCoalescer.apply(filmId, userId, true, () -> filmStorage.addLike(filmId, userId))) {
+            log.info("Пользователь {} уже лайкнул фильм {}", userId, filmId);
+            return;
+        }
+        readYourWrites.markWrite(userId);
+        readYourWrites.markFilmWrite(filmId);
+        compactFilms.adjustLikeCount(filmId, 1);
+        popularity.adjust(filmId, 1);
+        jsonCache.invalidatePopular();
+        events.publishEvent(FilmLikeEvent.of(film, userId, true));
         log.info("Пользователь {} лайкнул фильм {}", userId, filmId);
     }
 
     public void removeLike(long filmId, long userId) {
-        requireFilm(filmId);
+        CompactFilm film = requireFilm(filmId);
         requireUserExists(userId);
-        filmStorage.removeLike(filmId, userId);
+        if (!likeCoalescer.apply(filmId, userId, false, () -> filmStorage.removeLike(filmId, userId))) {
+            log.info("У фильма {} нет лайка пользователя {}", filmId, userId);
+            return;
+        }
+        readYourWrites.markWrite(userId);
+        readYourWrites.markFilmWrite(filmId);
+        compactFilms.adjustLikeCount(filmId, -1);
+        popularity.adjust(filmId, -1);
+        jsonCache.invalidatePopular();
+        events.publishEvent(FilmLikeEvent.of(film, userId, false));
         log.info("Пользователь {} убрал лайк с фильма {}", userId, filmId);
     }
 
-    public List<Film> getPopular(int count) {
-        return filmStorage.getPopular(count);
+    /**
+     * Страница рейтинга популярности с позиции {@code offset}. Порядок берётся из
+     * {@link PopularityRanking}, сами фильмы — из кеша компактных фильмов, лайки
+     * страницы дочитываются из хранилища одним запросом.
+     */
+    @Transactional(readOnly = true)
+    public List<Film> getPopular(int offset, int count) {
+        List<Long> page = popularity.page(offset, count);
+        Map<Long, Set<Long>> likes = filmStorage.findLikeUserIds(page);
+        return compactFilms.getAll(page).stream()
+                .map(film -> toFilm(film, likes.getOrDefault(film.id(), Set.of())))
+                .toList();
+    }
+
+    @Transactional(readOnly = true)
+    public FilmRank getRank(long filmId) {
+        requireFilm(filmId);
+        return popularity.rank(filmId)
+                .orElseThrow(() -> new NotFoundException("Фильм с id = " + filmId + " ещё не попал в рейтинг."));
+    }
+
+    /**
+     * Каталог с фильтрами и счётчиками фасетов: выборка считается по битовым индексам
+     * {@link FilmFacetIndex}, страница упорядочена по рейтингу популярности.
+     */
+    @Transactional(readOnly = true)
+    public FilmBrowsePage browse(FilmBrowseQuery query, int offset, int count) {
+        requireRange("year", query.yearFrom(), query.yearTo());
+        requireRange("duration", query.durationFrom(), query.durationTo());
+        FilmFacetIndex.Match match = facets.search(query);
+        List<Long> page = popularity.order(match.filmIds(), offset, count);
+        return new FilmBrowsePage(match.filmIds().length, compactFilms.getAll(page), match.facets());
+    }
+
+    @Transactional(readOnly = true)
+    public List<CompactFilm> autocomplete(String prefix, int count) {
+        return compactFilms.getAll(autocomplete.completeFilms(prefix, count));
+    }
+
+    @Transactional(readOnly = true)
+    public List<CompactFilm> getTrending(String windowCode, int count) {
+        TrendingWindow window = TrendingWindow.fromCode(windowCode)
+                .orElseThrow(() -> new ValidationFilmException("Неизвестное окно трендов: " + windowCode
+                        + ". Допустимые значения: 1h, 24h, 7d."));
+        return compactFilms.getAll(trending.top(window, count));
+    }
+
+    @Transactional(readOnly = true)
+    public List<CompactFilm> getSimilar(long filmId, int count) {
+        requireFilm(filmId);
+        return compactFilms.getAll(similarFilms.similar(filmId, count));
     }
 
+    /**
+     * Фильмы, которые лайкнули оба пользователя, от популярных к менее популярным.
+     */
+    @Transactional(readOnly = true)
+    public List<CompactFilm> getCommon(long userId, long friendId) {
+        readYourWrites.pinIfRecentWriter(userId);
+        requireUserExists(userId);
+        requireUserExists(friendId);
+        return compactFilms.getAll(filmStorage.findCommonLikedFilmIds(userId, friendId)).stream()
+                .sorted(Comparator.comparingInt(CompactFilm::likeCount).reversed()
+                        .thenComparingLong(CompactFilm::id))
+                .toList();
+    }
+
+    @Transactional(readOnly = true)
     public List<Genre> getAllGenres() {
         return filmStorage.getAllGenres();
     }
 
+    @Transactional(readOnly = true)
     public Genre getGenreById(int id) {
         return filmStorage.getGenreById(id)
                 .orElseThrow(() -> new NotFoundException("Жанр с id=" + id + " не найден"));
     }
 
+    @Transactional(readOnly = true)
     public List<MpaRating> getAllMpa() {
         return filmStorage.getAllMpa();
     }
 
+    @Transactional(readOnly = true)
     public MpaRating getMpaById(int id) {
         return filmStorage.getMpaById(id)
                 .orElseThrow(() -> new NotFoundException("Рейтинг с id=" + id + " не найден"));
     }
 
-    private void requireFilm(long id) {
-        filmStorage.findById(id)
-                .orElseThrow(() -> new NotFoundException("Фильм с id = " + id + " не найден."));
+    private CompactFilm requireFilm(long id) {
+        List<CompactFilm> found = compactFilms.getAll(List.of(id));
+        if (found.isEmpty()) {
+            throw new NotFoundException("Фильм с id = " + id + " не найден.");
+        }
+        return found.get(0);
+    }
+
+    private Film toFilm(CompactFilm compact, Set<Long> likes) {
+        Film film = new Film();
+        film.setId(compact.id());
+        film.setName(compact.name());
+        film.setDescription(compact.description());
+        film.setReleaseDate(compact.releaseDate());
+        film.setDuration(compact.duration());
+        film.setMpa(compact.mpa());
+        film.setGenres(new LinkedHashSet<>(referenceData.genres(compact.genreIds())));
+        film.setLikes(new HashSet<>(likes));
+        return film;
+    }
+
+    private static void requireRange(String name, Integer from, Integer to) {
+        if (from != null && to != null && from > to) {
+            throw new ValidationFilmException("Параметр " + name + "From не может быть больше " + name + "To.");
+        }
     }
 
     private void requireUserExists(long id) {
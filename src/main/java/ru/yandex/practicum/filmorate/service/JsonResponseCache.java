@@ -0,0 +1,82 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Кеш уже сериализованных ответов. Справочники (жанры, рейтинги) не меняются
+ * во время работы и сериализуются один раз. Страницы популярных фильмов
+ * сбрасываются при любом изменении лайков или фильмов и живут не дольше TTL;
+ * из ограниченного числа страниц вытесняется давно запрошенная (LRU).
+ */
+@Component
+public class JsonResponseCache {
+    private final ObjectMapper objectMapper;
+    private final long popularTtlNanos;
+    private final Map<String, byte[]> referenceData = new ConcurrentHashMap<>();
+    private final Map<PageKey, CachedPage> popularPages;
+    private final AtomicLong popularVersion = new AtomicLong();
+
+    public JsonResponseCache(ObjectMapper objectMapper,
+                             @Value("${filmorate.json-cache.popular-ttl-ms:1000}") long popularTtlMs,
+                             @Value("${filmorate.json-cache.popular-pages:64}") int maxPopularPages) {
+        this.objectMapper = objectMapper;
+        this.popularTtlNanos = TimeUnit.MILLISECONDS.toNanos(popularTtlMs);
+        this.popularPages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageKey, CachedPage> eldest) {
+                return size() > maxPopularPages;
+            }
+        };
+    }
+
+    public byte[] reference(String key, Supplier<?> loader) {
+        return referenceData.computeIfAbsent(key, k -> serialize(loader.get()));
+    }
+
+    public byte[] popular(int offset, int count, Supplier<?> loader) {
+        PageKey key = new PageKey(offset, count);
+        long version = popularVersion.get();
+        long now = System.nanoTime();
+        CachedPage page;
+        synchronized (popularPages) {
+            page = popularPages.get(key);
+        }
+        if (page != null && page.version == version && now - page.createdNanos < popularTtlNanos) {
+            return page.json;
+        }
+        byte[] json = serialize(loader.get());
+        // версия взята до загрузки: если данные изменились во время загрузки, страница сразу устареет
+        synchronized (popularPages) {
+            popularPages.put(key, new CachedPage(json, version, now));
+        }
+        return json;
+    }
+
+    public void invalidatePopular() {
+        popularVersion.incrementAndGet();
+    }
+
+    private byte[] serialize(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось сериализовать ответ", e);
+        }
+    }
+
+    private record PageKey(int offset, int count) {
+    }
+
+    private record CachedPage(byte[] json, long version, long createdNanos) {
+    }
+}
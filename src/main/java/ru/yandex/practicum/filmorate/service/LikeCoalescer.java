@@ -0,0 +1,135 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Схлопывает одновременные запросы лайка или его снятия по ключу (filmId, userId):
+ * пока один запрос пишет в хранилище, остальные запросы с тем же ключом ждут его
+ * результата и затем перепроверяют состояние — одинаковые отвечают, что ничего не меняют,
+ * противоположные и повторы после неудачной записи пишут сами. Последнее известное
+ * состояние лайка хранится в ограниченном кеше, и если оно уже совпадает с запрошенным,
+ * запись в хранилище не выполняется вовсе.
+ * <p>
+ * Ждать можно только вне транзакции: ожидающий поток не должен держать соединение,
+ * которое может понадобиться первому запросу для записи. Поэтому {@code write} сам
+ * фиксирует изменение, а вызов внутри транзакции пишет сразу, без ожидания, и лишь
+ * сбрасывает известное состояние после её завершения. Пока такие записи идут, состояние,
+ * записанное параллельно вне транзакций, тоже не запоминается: порядок коммитов неизвестен.
+ * Кеш корректен, пока все изменения лайков проходят через этот компонент.
+ */
+@Component
+public class LikeCoalescer {
+    private final Map<LikeKey, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final Map<LikeKey, Boolean> likeStates;
+    // меняется под монитором likeStates при каждой записи внутри транзакции и её завершении
+    private final AtomicLong transactionalWrites = new AtomicLong();
+
+    public LikeCoalescer(@Value("${filmorate.likes.state-cache-size:100000}") int stateCacheSize) {
+        this.likeStates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LikeKey, Boolean> eldest) {
+                return size() > stateCacheSize;
+            }
+        };
+    }
+
+    /**
+     * Приводит лайк к состоянию {@code liked}, вызывая {@code write} не больше одного раза
+     * на группу одинаковых одновременных запросов.
+     *
+     * @return {@code true}, если именно этот вызов изменил состояние лайка
+     */
+    public boolean apply(long filmId, long userId, boolean liked, BooleanSupplier write) {
+        LikeKey key = new LikeKey(filmId, userId);
+        if (Boolean.valueOf(liked).equals(knownState(key))) {
+            return false;
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return applyInTransaction(key, write);
+        }
+        while (true) {
+            long generation = transactionalWrites.get();
+            CompletableFuture<Void> mine = new CompletableFuture<>();
+            CompletableFuture<Void> existing = inFlight.putIfAbsent(key, mine);
+            if (existing != null) {
+                existing.join();
+                if (Boolean.valueOf(liked).equals(knownState(key))) {
+                    return false;
+                }
+                continue;
+            }
+            if (Boolean.valueOf(liked).equals(knownState(key))) {
+                // предыдущий запрос успел завершиться между проверкой и захватом ключа
+                finish(key, mine, liked, generation);
+                return false;
+            }
+            boolean changed;
+            try {
+                changed = write.getAsBoolean();
+            } catch (RuntimeException e) {
+                finish(key, mine, null, generation);
+                throw e;
+            }
+            finish(key, mine, liked, generation);
+            return changed;
+        }
+    }
+
+    /**
+     * Изменение станет видно только после коммита внешней транзакции, а порядок коммитов
+     * с параллельными запросами неизвестен, поэтому состояние не запоминается, а сбрасывается.
+     */
+    private boolean applyInTransaction(LikeKey key, BooleanSupplier write) {
+        forget(key);
+        boolean changed = write.getAsBoolean();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    forget(key);
+                }
+            });
+        } else {
+            forget(key);
+        }
+        return changed;
+    }
+
+    private void finish(LikeKey key, CompletableFuture<Void> mine, Boolean state, long generation) {
+        synchronized (likeStates) {
+            if (state != null && transactionalWrites.get() == generation) {
+                likeStates.put(key, state);
+            } else {
+                likeStates.remove(key);
+            }
+        }
+        inFlight.remove(key, mine);
+        mine.complete(null);
+    }
+
+    private void forget(LikeKey key) {
+        synchronized (likeStates) {
+            transactionalWrites.incrementAndGet();
+            likeStates.remove(key);
+        }
+    }
+
+    private Boolean knownState(LikeKey key) {
+        synchronized (likeStates) {
+            return likeStates.get(key);
+        }
+    }
+
+    private record LikeKey(long filmId, long userId) {
+    }
+}
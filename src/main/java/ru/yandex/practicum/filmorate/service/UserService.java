@@ -2,34 +2,88 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.dal.routing.ReadYourWritesTracker;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.ValidationUserException;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+import ru.yandex.practicum.filmorate.model.FeedItem;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+import ru.yandex.practicum.filmorate.model.FriendPath;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserAvailability;
 import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
+import ru.yandex.practicum.filmorate.service.autocomplete.AutocompleteIndex;
+import ru.yandex.practicum.filmorate.service.availability.UserAvailabilityFilter;
+import ru.yandex.practicum.filmorate.service.event.FriendshipEvent;
+import ru.yandex.practicum.filmorate.service.feed.FeedStore;
+import ru.yandex.practicum.filmorate.service.graph.FriendGraphService;
 
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 public class UserService {
 
-    private final UserStorage userStorage;
+    private static final int MAX_BATCH_IDS = 1000;
 
-    public UserService(@Qualifier("userDbStorage") UserStorage userStorage) {
+    private final UserStorage userStorage;
+    private final ReadYourWritesTracker readYourWrites;
+    private final FeedStore feedStore;
+    private final CompactFilmCache compactFilms;
+    private final ApplicationEventPublisher events;
+    private final FriendGraphService friendGraph;
+    private final AutocompleteIndex autocomplete;
+    private final UserAvailabilityFilter availability;
+
+    public UserService(@Qualifier("userStorage") UserStorage userStorage,
+                       ReadYourWritesTracker readYourWrites,
+                       FeedStore feedStore,
+                       CompactFilmCache compactFilms,
+                       ApplicationEventPublisher events,
+                       FriendGraphService friendGraph,
+                       AutocompleteIndex autocomplete,
+                       UserAvailabilityFilter availability) {
         this.userStorage = userStorage;
+        this.readYourWrites = readYourWrites;
+        this.feedStore = feedStore;
+        this.compactFilms = compactFilms;
+        this.events = events;
+        this.friendGraph = friendGraph;
+        this.autocomplete = autocomplete;
+        this.availability = availability;
     }
 
+    @Transactional(readOnly = true)
     public Collection<User> findAll() {
         log.info("Запрошен список всех пользователей. Количество: {}", userStorage.findAll().size());
         return userStorage.findAll();
     }
 
+    @Transactional(readOnly = true)
+    public List<User> getByIds(List<Long> ids) {
+        if (ids.size() > MAX_BATCH_IDS) {
+            throw new ValidationUserException("За один запрос можно получить не более " + MAX_BATCH_IDS
+                    + " пользователей");
+        }
+        return userStorage.findByIds(ids);
+    }
+
     public User create(User user) {
         validateUser(user);
+        requireAvailable(user, null);
         User created = userStorage.add(user);
+        readYourWrites.markWrite(created.getId());
+        availability.register(created);
+        autocomplete.putUser(created);
         log.info("Создан новый пользователь {}", user);
         return created;
     }
@@ -40,11 +94,27 @@ public class UserService {
             throw new NotFoundException("Пользователь с таким id не найден или id не указан");
         }
         validateUser(user);
+        requireAvailable(user, user.getId());
         User updated = userStorage.update(user);
+        readYourWrites.markWrite(updated.getId());
+        availability.register(updated);
+        autocomplete.putUser(updated);
         log.info("Обновлены данные пользователя с id {}", user.getId());
         return updated;
     }
 
+    @Transactional(readOnly = true)
+    public List<User> autocomplete(String prefix, int count) {
+        return userStorage.findByIds(autocomplete.completeUsers(prefix, count));
+    }
+
+    @Transactional(readOnly = true)
+    public UserAvailability checkAvailability(String email, String login) {
+        return new UserAvailability(
+                email == null ? null : availability.isEmailAvailable(email, null),
+                login == null ? null : availability.isLoginAvailable(login, null));
+    }
+
     public void addFriend(long userId, long friendId) {
         if (userId == friendId) {
             throw new ValidationUserException("Нельзя добавить в друзья самого себя");
@@ -53,6 +123,8 @@ public class UserService {
         requiredUser(friendId);
 
         userStorage.addFriend(userId, friendId);
+        readYourWrites.markWrite(userId);
+        events.publishEvent(new FriendshipEvent(userId, friendId, true));
         log.info("Пользователь {} добавил в друзья {}", userId, friendId);
     }
 
@@ -61,25 +133,68 @@ public class UserService {
         requiredUser(friendId);
 
         userStorage.removeFriend(userId, friendId);
+        readYourWrites.markWrite(userId);
+        events.publishEvent(new FriendshipEvent(userId, friendId, false));
         log.info("Пользователь {} удалил из друзей {}", userId, friendId);
     }
 
+    @Transactional(readOnly = true)
     public List<User> listFriends(long userId) {
+        readYourWrites.pinIfRecentWriter(userId);
         requiredUser(userId);
         return userStorage.findFriends(userId);
     }
 
+    @Transactional(readOnly = true)
     public List<User> commonFriends(long userId, long friendId) {
+        readYourWrites.pinIfRecentWriter(userId);
         requiredUser(userId);
         requiredUser(friendId);
         return userStorage.findCommonFriends(userId, friendId);
     }
 
+    @Transactional(readOnly = true)
+    public List<FeedItem> getFeed(long userId, int count) {
+        readYourWrites.pinIfRecentWriter(userId);
+        requiredUser(userId);
+        List<FilmLike> likes = feedStore.feed(userId, count);
+        Map<Long, CompactFilm> films = compactFilms.getAll(likes.stream().map(FilmLike::filmId).toList()).stream()
+                .collect(Collectors.toMap(CompactFilm::id, Function.identity()));
+        return likes.stream()
+                .filter(like -> films.containsKey(like.filmId()))
+                .map(like -> new FeedItem(like.userId(), like.likedAt(), films.get(like.filmId())))
+                .toList();
+    }
+
+    @Transactional(readOnly = true)
+    public FriendPath getFriendPath(long userId, long otherId) {
+        requiredUser(userId);
+        requiredUser(otherId);
+        long[] path = friendGraph.shortestPath(userId, otherId);
+        if (path == null) {
+            throw new NotFoundException("Пользователей " + userId + " и " + otherId
+                    + " не связывает цепочка друзей длиной до " + friendGraph.maxDepth());
+        }
+        List<User> users = userStorage.findByIds(Arrays.stream(path).boxed().toList());
+        return new FriendPath(path.length - 1, users);
+    }
+
     private void requiredUser(long id) {
         userStorage.findById(id)
                 .orElseThrow(() -> new NotFoundException("Пользователь с id = " + id + " не найден."));
     }
 
+    private void requireAvailable(User user, Long userId) {
+        if (!availability.isEmailAvailable(user.getEmail(), userId)) {
+            log.error("Ошибка валидации пользователя: почта {} уже занята", user.getEmail());
+            throw new ValidationUserException("Пользователь с такой электронной почтой уже зарегистрирован");
+        }
+        if (!availability.isLoginAvailable(user.getLogin(), userId)) {
+            log.error("Ошибка валидации пользователя: логин {} уже занят", user.getLogin());
+            throw new ValidationUserException("Логин уже занят");
+        }
+    }
+
     private void validateUser(User user) {
         if (user.getEmail() == null || user.getEmail().isBlank() || !user.getEmail().contains("@")) {
             log.error("Ошибка валидации пользователя: некорректный email {}", user.getEmail());
@@ -0,0 +1,99 @@
+package ru.yandex.practicum.filmorate.service.autocomplete;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmRank;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.event.FilmLikeEvent;
+import ru.yandex.practicum.filmorate.service.event.FriendshipEvent;
+import ru.yandex.practicum.filmorate.service.ranking.PopularityRanking;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+/**
+ * Подсказки по началу названия фильма и логина пользователя из {@link PrefixIndex} в памяти
+ * вместо {@code LIKE 'x%'} на каждое нажатие клавиши. Фильмы упорядочены по числу лайков,
+ * пользователи — по числу друзей.
+ * <p>
+ * Загружаются из хранилищ после старта; создание и изменение фильмов и пользователей
+ * и события лайков и дружбы обновляют индексы сразу.
+ */
+@Slf4j
+@Component
+public class AutocompleteIndex {
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+    private final PopularityRanking popularity;
+    private final PrefixIndex films;
+    private final PrefixIndex users;
+
+    public AutocompleteIndex(@Qualifier("filmStorage") FilmStorage filmStorage,
+                             @Qualifier("userStorage") UserStorage userStorage,
+                             PopularityRanking popularity,
+                             @Value("${filmorate.autocomplete.top-k:10}") int topK) {
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.popularity = popularity;
+        this.films = new PrefixIndex(topK);
+        this.users = new PrefixIndex(topK);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        long start = System.nanoTime();
+        for (Film film : filmStorage.findAll()) {
+            films.putIfAbsent(film.getId(), film.getName(), likeCount(film.getId()));
+        }
+        Map<Long, Integer> friendCounts = new HashMap<>();
+        userStorage.forEachFriendship((userId, friendId) -> friendCounts.merge(userId, 1, Integer::sum));
+        for (User user : userStorage.findAll()) {
+            users.putIfAbsent(user.getId(), user.getLogin(), friendCounts.getOrDefault(user.getId(), 0));
+        }
+        log.info("Индексы подсказок загружены: {} фильмов, {} пользователей за {} мс",
+                films.size(), users.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public List<Long> completeFilms(String prefix, int count) {
+        return LongStream.of(films.complete(prefix, count)).boxed().toList();
+    }
+
+    public List<Long> completeUsers(String prefix, int count) {
+        return LongStream.of(users.complete(prefix, count)).boxed().toList();
+    }
+
+    public void putFilm(Film film) {
+        films.put(film.getId(), film.getName(), likeCount(film.getId()));
+    }
+
+    public void putUser(User user) {
+        users.put(user.getId(), user.getLogin(), userStorage.findFriendIds(user.getId()).size());
+    }
+
+    /**
+     * Вес берётся из рейтинга популярности, который к этому моменту уже учёл лайк,
+     * поэтому повторные и пропущенные события не копят расхождение.
+     */
+    @EventListener
+    public void onLike(FilmLikeEvent event) {
+        films.setWeight(event.filmId(), likeCount(event.filmId()));
+    }
+
+    @EventListener
+    public void onFriendship(FriendshipEvent event) {
+        users.setWeight(event.userId(), userStorage.findFriendIds(event.userId()).size());
+    }
+
+    private int likeCount(long filmId) {
+        return popularity.rank(filmId).map(FilmRank::likeCount).orElse(0);
+    }
+}
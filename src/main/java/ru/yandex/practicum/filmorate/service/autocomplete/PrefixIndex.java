@@ -0,0 +1,317 @@
+package ru.yandex.practicum.filmorate.service.autocomplete;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Сжатое префиксное дерево строк (рёбра помечены подстроками, узлы — только в точках
+ * ветвления). Каждый узел хранит {@code topK} id с наибольшим весом во всём своём
+ * поддереве, поэтому подсказка по префиксу — спуск на длину префикса и копия готового
+ * списка, без обхода поддерева.
+ * <p>
+ * Список узла собирается из его собственных строк и списков детей. После любого
+ * изменения пересчитываются только узлы на пути к изменённой строке, снизу вверх.
+ */
+public final class PrefixIndex {
+    private static final long[] NO_IDS = new long[0];
+    private static final int[] NO_WEIGHTS = new int[0];
+
+    private final int topK;
+    private final Node root = new Node("");
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final long[] scratchIds;
+    private final int[] scratchWeights;
+
+    public PrefixIndex(int topK) {
+        this.topK = topK;
+        this.scratchIds = new long[topK];
+        this.scratchWeights = new int[topK];
+    }
+
+    public static String normalize(String text) {
+        return text == null ? "" : text.strip().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Не более {@code limit} (и не более {@code topK}) id строк с префиксом {@code prefix},
+     * по убыванию веса, при равенстве — по возрастанию id.
+     */
+    public long[] complete(String prefix, int limit) {
+        String key = normalize(prefix);
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            int pos = 0;
+            while (pos < key.length()) {
+                Node child = node.child(key.charAt(pos));
+                if (child == null) {
+                    return NO_IDS;
+                }
+                int matched = commonPrefix(child.edge, key, pos);
+                if (pos + matched == key.length()) {
+                    node = child;
+                    break;
+                }
+                if (matched < child.edge.length()) {
+                    return NO_IDS;
+                }
+                node = child;
+                pos += matched;
+            }
+            return Arrays.copyOf(node.topIds, Math.min(limit, node.topIds.length));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Добавляет строку или заменяет прежнюю строку и вес этого id.
+     */
+    public void put(long id, String text, int weight) {
+        lock.writeLock().lock();
+        try {
+            Entry old = entries.remove(id);
+            if (old != null) {
+                removePath(old.key(), id);
+            }
+            String key = normalize(text);
+            entries.put(id, new Entry(key, weight));
+            insertPath(key, id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Добавляет строку, только если этого id ещё нет: при загрузке из хранилища
+     * изменения, пришедшие во время загрузки, новее прочитанных данных.
+     */
+    public void putIfAbsent(long id, String text, int weight) {
+        lock.writeLock().lock();
+        try {
+            if (!entries.containsKey(id)) {
+                String key = normalize(text);
+                entries.put(id, new Entry(key, weight));
+                insertPath(key, id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void setWeight(long id, int weight) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = entries.get(id);
+            if (entry == null || entry.weight() == weight) {
+                return;
+            }
+            entries.put(id, new Entry(entry.key(), weight));
+            List<Node> path = path(entry.key());
+            for (int i = path.size() - 1; i >= 0; i--) {
+                recompute(path.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            Entry old = entries.remove(id);
+            if (old != null) {
+                removePath(old.key(), id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insertPath(String key, long id) {
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        path.add(node);
+        int pos = 0;
+        while (pos < key.length()) {
+            int index = node.indexOf(key.charAt(pos));
+            if (index < 0) {
+                Node leaf = new Node(key.substring(pos));
+                node.addChild(leaf);
+                node = leaf;
+                path.add(node);
+                break;
+            }
+            Node child = node.children[index];
+            int matched = commonPrefix(child.edge, key, pos);
+            if (matched < child.edge.length()) {
+                Node middle = new Node(child.edge.substring(0, matched));
+                child.edge = child.edge.substring(matched);
+                middle.addChild(child);
+                node.children[index] = middle;
+                child = middle;
+            }
+            node = child;
+            path.add(node);
+            pos += matched;
+        }
+        node.addTerminal(id);
+        for (int i = path.size() - 1; i >= 0; i--) {
+            recompute(path.get(i));
+        }
+    }
+
+    /**
+     * Удаляет id из узла его строки и пересчитывает путь; опустевшие узлы выбрасываются,
+     * а узел без строк с единственным ребёнком сливается с ним.
+     */
+    private void removePath(String key, long id) {
+        List<Node> path = path(key);
+        path.get(path.size() - 1).removeTerminal(id);
+        for (int i = path.size() - 1; i > 0; i--) {
+            Node node = path.get(i);
+            Node parent = path.get(i - 1);
+            if (node.terminals.length == 0 && node.children.length == 0) {
+                parent.removeChild(node);
+            } else if (node.terminals.length == 0 && node.children.length == 1) {
+                Node child = node.children[0];
+                child.edge = node.edge + child.edge;
+                parent.children[parent.indexOf(child.edge.charAt(0))] = child;
+            } else {
+                recompute(node);
+            }
+        }
+        recompute(root);
+    }
+
+    private List<Node> path(String key) {
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        path.add(node);
+        int pos = 0;
+        while (pos < key.length()) {
+            node = node.child(key.charAt(pos));
+            pos += node.edge.length();
+            path.add(node);
+        }
+        return path;
+    }
+
+    private void recompute(Node node) {
+        int size = 0;
+        for (long id : node.terminals) {
+            size = offer(id, entries.get(id).weight(), size);
+        }
+        for (Node child : node.children) {
+            for (int i = 0; i < child.topIds.length; i++) {
+                size = offer(child.topIds[i], child.topWeights[i], size);
+            }
+        }
+        node.topIds = size == 0 ? NO_IDS : Arrays.copyOf(scratchIds, size);
+        node.topWeights = size == 0 ? NO_WEIGHTS : Arrays.copyOf(scratchWeights, size);
+    }
+
+    private int offer(long id, int weight, int size) {
+        int pos = size;
+        while (pos > 0 && (scratchWeights[pos - 1] < weight
+                || scratchWeights[pos - 1] == weight && scratchIds[pos - 1] > id)) {
+            pos--;
+        }
+        if (pos >= topK) {
+            return size;
+        }
+        int moved = Math.min(size, topK - 1) - pos;
+        System.arraycopy(scratchIds, pos, scratchIds, pos + 1, moved);
+        System.arraycopy(scratchWeights, pos, scratchWeights, pos + 1, moved);
+        scratchIds[pos] = id;
+        scratchWeights[pos] = weight;
+        return Math.min(size + 1, topK);
+    }
+
+    private static int commonPrefix(String edge, String key, int from) {
+        int max = Math.min(edge.length(), key.length() - from);
+        int i = 0;
+        while (i < max && edge.charAt(i) == key.charAt(from + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private record Entry(String key, int weight) {
+    }
+
+    private static final class Node {
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        String edge;
+        char[] labels = NO_LABELS;
+        Node[] children = NO_CHILDREN;
+        long[] terminals = NO_IDS;
+        long[] topIds = NO_IDS;
+        int[] topWeights = NO_WEIGHTS;
+
+        Node(String edge) {
+            this.edge = edge;
+        }
+
+        int indexOf(char label) {
+            return Arrays.binarySearch(labels, label);
+        }
+
+        Node child(char label) {
+            int index = indexOf(label);
+            return index < 0 ? null : children[index];
+        }
+
+        void addChild(Node child) {
+            int insertAt = -indexOf(child.edge.charAt(0)) - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            newLabels[insertAt] = child.edge.charAt(0);
+            newChildren[insertAt] = child;
+            System.arraycopy(labels, insertAt, newLabels, insertAt + 1, labels.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            labels = newLabels;
+            children = newChildren;
+        }
+
+        void removeChild(Node child) {
+            int index = indexOf(child.edge.charAt(0));
+            char[] newLabels = new char[labels.length - 1];
+            Node[] newChildren = new Node[children.length - 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(labels, index + 1, newLabels, index, labels.length - index - 1);
+            System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+            labels = newLabels;
+            children = newChildren;
+        }
+
+        void addTerminal(long id) {
+            terminals = Arrays.copyOf(terminals, terminals.length + 1);
+            terminals[terminals.length - 1] = id;
+        }
+
+        void removeTerminal(long id) {
+            terminals = Arrays.stream(terminals).filter(t -> t != id).toArray();
+        }
+    }
+}
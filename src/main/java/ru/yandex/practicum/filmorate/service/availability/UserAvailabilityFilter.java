@@ -0,0 +1,137 @@
+package ru.yandex.practicum.filmorate.service.availability;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Проверка, свободны ли почта и логин, без обращения к хранилищу в обычном случае:
+ * если фильтр Блума строки не видел, она точно свободна. Только «возможно занята»
+ * уточняется запросом по уникальному индексу.
+ * <p>
+ * Фильтры строятся из всех пользователей после старта и пополняются при создании
+ * и изменении пользователей. Когда пользователей становится больше заложенного,
+ * фильтры пересобираются с двойным запасом.
+ */
+@Slf4j
+@Component
+public class UserAvailabilityFilter {
+    private final UserStorage userStorage;
+    private final int expectedUsers;
+    private final double falsePositiveRate;
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private final Object registerLock = new Object();
+    private volatile Filters filters;
+    private List<User> registeredDuringRebuild;
+
+    public UserAvailabilityFilter(@Qualifier("userStorage") UserStorage userStorage,
+                                  @Value("${filmorate.users.bloom.expected-users:100000}") int expectedUsers,
+                                  @Value("${filmorate.users.bloom.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.userStorage = userStorage;
+        this.expectedUsers = expectedUsers;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        rebuildLock.lock();
+        try {
+            rebuild();
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Свободна ли почта для пользователя {@code userId}; {@code null} — для нового пользователя.
+     */
+    public boolean isEmailAvailable(String email, Long userId) {
+        Filters current = filters;
+        if (current != null && !current.emails().mightContain(email)) {
+            return true;
+        }
+        return isFreeFor(userStorage.findIdByEmail(email), userId);
+    }
+
+    public boolean isLoginAvailable(String login, Long userId) {
+        Filters current = filters;
+        if (current != null && !current.logins().mightContain(login)) {
+            return true;
+        }
+        return isFreeFor(userStorage.findIdByLogin(login), userId);
+    }
+
+    public void register(User user) {
+        boolean saturated;
+        synchronized (registerLock) {
+            Filters current = filters;
+            if (current != null) {
+                current.add(user);
+            }
+            if (registeredDuringRebuild != null) {
+                registeredDuringRebuild.add(user);
+            }
+            saturated = current != null && current.emails().isSaturated();
+        }
+        // пересобирает один поток, остальные продолжают пополнять прежние фильтры
+        if (saturated && rebuildLock.tryLock()) {
+            try {
+                if (filters.emails().isSaturated()) {
+                    rebuild();
+                }
+            } finally {
+                rebuildLock.unlock();
+            }
+        }
+    }
+
+    private void rebuild() {
+        long start = System.nanoTime();
+        synchronized (registerLock) {
+            registeredDuringRebuild = new ArrayList<>();
+        }
+        Collection<User> users;
+        try {
+            users = userStorage.findAll();
+        } catch (RuntimeException e) {
+            synchronized (registerLock) {
+                registeredDuringRebuild = null;
+            }
+            throw e;
+        }
+        int capacity = Math.max(expectedUsers, users.size() * 2);
+        Filters rebuilt = new Filters(new BloomFilter(capacity, falsePositiveRate),
+                new BloomFilter(capacity, falsePositiveRate));
+        users.forEach(rebuilt::add);
+        synchronized (registerLock) {
+            registeredDuringRebuild.forEach(rebuilt::add);
+            registeredDuringRebuild = null;
+            filters = rebuilt;
+        }
+        log.info("Фильтры почты и логинов построены для {} пользователей: {} бит, {} хешей, за {} мс",
+                users.size(), rebuilt.emails().bitCount(), rebuilt.emails().hashCount(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static boolean isFreeFor(Optional<Long> ownerId, Long userId) {
+        return ownerId.isEmpty() || ownerId.get().equals(userId);
+    }
+
+    private record Filters(BloomFilter emails, BloomFilter logins) {
+        void add(User user) {
+            emails.put(user.getEmail());
+            logins.put(user.getLogin());
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package ru.yandex.practicum.filmorate.service.browse;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Фильтры каталога. Внутри одного измерения значения объединяются через «или»,
+ * между измерениями — через «и»; границы диапазонов включаются, {@code null} — без границы.
+ */
+public record FilmBrowseQuery(Set<Integer> genreIds,
+                              Set<Integer> mpaIds,
+                              Integer yearFrom,
+                              Integer yearTo,
+                              Integer durationFrom,
+                              Integer durationTo) {
+
+    public FilmBrowseQuery {
+        genreIds = genreIds == null ? Set.of() : Set.copyOf(genreIds);
+        mpaIds = mpaIds == null ? Set.of() : Set.copyOf(mpaIds);
+    }
+
+    public static FilmBrowseQuery of(Collection<Integer> genreIds, Collection<Integer> mpaIds,
+                                     Integer yearFrom, Integer yearTo,
+                                     Integer durationFrom, Integer durationTo) {
+        return new FilmBrowseQuery(genreIds == null ? null : Set.copyOf(genreIds),
+                mpaIds == null ? null : Set.copyOf(mpaIds),
+                yearFrom, yearTo, durationFrom, durationTo);
+    }
+}
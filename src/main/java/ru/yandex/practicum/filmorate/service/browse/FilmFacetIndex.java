@@ -0,0 +1,174 @@
+package ru.yandex.practicum.filmorate.service.browse;
+
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.longlong.Roaring64Bitmap;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+import ru.yandex.practicum.filmorate.model.FilmFacets;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Битовые индексы каталога в памяти: для каждого жанра, рейтинга MPA, года выпуска
+ * и продолжительности — множество id фильмов. Фильтр каталога сводится к объединениям
+ * и пересечениям этих множеств, счётчики фасетов — к мощностям пересечений с выборкой,
+ * без соединений {@code films} с {@code film_genres}.
+ * <p>
+ * Загружается из хранилища после старта, вне транзакции, то есть с основной БД.
+ * Создание и изменение фильмов обновляют индексы сразу, в том числе до и во время
+ * загрузки: такие фильмы новее прочитанных, и загрузка их не перезаписывает.
+ */
+@Slf4j
+@Component
+public class FilmFacetIndex {
+    private static final int YEARS_PER_BUCKET = 10;
+    private static final int MINUTES_PER_BUCKET = 30;
+
+    private final FilmStorage filmStorage;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Roaring64Bitmap all = new Roaring64Bitmap();
+    private final NavigableMap<Integer, Roaring64Bitmap> byGenre = new TreeMap<>();
+    private final NavigableMap<Integer, Roaring64Bitmap> byMpa = new TreeMap<>();
+    private final NavigableMap<Integer, Roaring64Bitmap> byYear = new TreeMap<>();
+    private final NavigableMap<Integer, Roaring64Bitmap> byDuration = new TreeMap<>();
+
+    public FilmFacetIndex(@Qualifier("filmStorage") FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    /**
+     * Id подходящих фильмов по возрастанию и счётчики фасетов по этой выборке.
+     */
+    public Match search(FilmBrowseQuery query) {
+        lock.readLock().lock();
+        try {
+            Roaring64Bitmap result = all.clone();
+            if (!query.genreIds().isEmpty()) {
+                result.and(union(query.genreIds().stream().map(byGenre::get).toList()));
+            }
+            if (!query.mpaIds().isEmpty()) {
+                result.and(union(query.mpaIds().stream().map(byMpa::get).toList()));
+            }
+            if (query.yearFrom() != null || query.yearTo() != null) {
+                result.and(union(range(byYear, query.yearFrom(), query.yearTo())));
+            }
+            if (query.durationFrom() != null || query.durationTo() != null) {
+                result.and(union(range(byDuration, query.durationFrom(), query.durationTo())));
+            }
+            FilmFacets facets = new FilmFacets(
+                    counts(result, byGenre, 1),
+                    counts(result, byMpa, 1),
+                    counts(result, byYear, YEARS_PER_BUCKET),
+                    counts(result, byDuration, MINUTES_PER_BUCKET));
+            return new Match(result.toArray(), facets);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Добавляет фильм в индексы или переиндексирует уже добавленный.
+     */
+    public void index(CompactFilm film) {
+        lock.writeLock().lock();
+        try {
+            remove(film.id());
+            add(film);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        long start = System.nanoTime();
+        List<CompactFilm> films = filmStorage.findCompactByIds(filmStorage.findAllIds());
+        lock.writeLock().lock();
+        try {
+            for (CompactFilm film : films) {
+                if (!all.contains(film.id())) {
+                    add(film);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Индексы каталога загружены для {} фильмов за {} мс",
+                films.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void add(CompactFilm film) {
+        long id = film.id();
+        all.addLong(id);
+        for (int i = 0; i < film.genreCount(); i++) {
+            byGenre.computeIfAbsent(film.genreIdAt(i), k -> new Roaring64Bitmap()).addLong(id);
+        }
+        if (film.mpa() != null && film.mpa().getId() != null) {
+            byMpa.computeIfAbsent(film.mpa().getId(), k -> new Roaring64Bitmap()).addLong(id);
+        }
+        if (film.releaseDate() != null) {
+            byYear.computeIfAbsent(film.releaseDate().getYear(), k -> new Roaring64Bitmap()).addLong(id);
+        }
+        if (film.duration() != null) {
+            byDuration.computeIfAbsent(film.duration(), k -> new Roaring64Bitmap()).addLong(id);
+        }
+    }
+
+    /**
+     * Старые значения атрибутов не хранятся, поэтому фильм вычёркивается из всех множеств:
+     * их число ограничено справочниками и диапазонами лет и продолжительностей.
+     */
+    private void remove(long id) {
+        if (!all.contains(id)) {
+            return;
+        }
+        all.removeLong(id);
+        for (Map<Integer, Roaring64Bitmap> index : List.of(byGenre, byMpa, byYear, byDuration)) {
+            index.values().removeIf(ids -> {
+                ids.removeLong(id);
+                return ids.isEmpty();
+            });
+        }
+    }
+
+    private static Collection<Roaring64Bitmap> range(NavigableMap<Integer, Roaring64Bitmap> index,
+                                                     Integer from, Integer to) {
+        return index.subMap(from == null ? Integer.MIN_VALUE : from, true,
+                to == null ? Integer.MAX_VALUE : to, true).values();
+    }
+
+    private static Roaring64Bitmap union(Collection<Roaring64Bitmap> bitmaps) {
+        Roaring64Bitmap union = new Roaring64Bitmap();
+        for (Roaring64Bitmap bitmap : bitmaps) {
+            if (bitmap != null) {
+                union.or(bitmap);
+            }
+        }
+        return union;
+    }
+
+    private static SortedMap<Integer, Long> counts(Roaring64Bitmap result,
+                                                   Map<Integer, Roaring64Bitmap> index, int bucketSize) {
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        index.forEach((value, ids) -> {
+            long count = Roaring64Bitmap.andCardinality(result, ids);
+            if (count > 0) {
+                counts.merge(Math.floorDiv(value, bucketSize) * bucketSize, count, Long::sum);
+            }
+        });
+        return counts;
+    }
+
+    public record Match(long[] filmIds, FilmFacets facets) {
+    }
+}
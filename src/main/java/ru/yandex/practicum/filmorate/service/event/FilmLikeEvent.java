@@ -0,0 +1,22 @@
+package ru.yandex.practicum.filmorate.service.event;
+
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+
+import java.time.Instant;
+
+/**
+ * Лайк поставлен ({@code added}) или снят. Публикуется только если лайк действительно
+ * изменился; жанры и MPA фильма передаются сразу, чтобы подписчикам не ходить в хранилище.
+ */
+public record FilmLikeEvent(long filmId,
+                            long userId,
+                            boolean added,
+                            Integer mpaId,
+                            int[] genreIds,
+                            Instant occurredAt) {
+
+    public static FilmLikeEvent of(CompactFilm film, long userId, boolean added) {
+        Integer mpaId = film.mpa() != null ? film.mpa().getId() : null;
+        return new FilmLikeEvent(film.id(), userId, added, mpaId, film.genreIds(), Instant.now());
+    }
+}
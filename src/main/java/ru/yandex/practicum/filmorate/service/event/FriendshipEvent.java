@@ -0,0 +1,7 @@
+package ru.yandex.practicum.filmorate.service.event;
+
+/**
+ * Пользователь {@code userId} добавил ({@code added}) или удалил {@code friendId} из друзей.
+ */
+public record FriendshipEvent(long userId, long friendId, boolean added) {
+}
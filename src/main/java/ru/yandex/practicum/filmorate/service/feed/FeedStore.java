@@ -0,0 +1,173 @@
+package ru.yandex.practicum.filmorate.service.feed;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+import ru.yandex.practicum.filmorate.service.event.FilmLikeEvent;
+import ru.yandex.practicum.filmorate.service.event.FriendshipEvent;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ленты «что лайкнули друзья», материализуемые при записи.
+ * <p>
+ * Лайк рассылается в ленты подписчиков лайкнувшего — тех, кто добавил его в друзья, —
+ * но только в ленты, уже находящиеся в памяти. Лента, которой нет в памяти, собирается
+ * из БД при первом чтении. У пользователей с числом подписчиков больше
+ * {@code fan-out-limit} лайки не рассылаются: они хранятся у самого пользователя
+ * и подмешиваются в ленты его подписчиков при чтении.
+ * <p>
+ * Число лент и длина каждой ограничены, вытесняются давно не читавшиеся ленты.
+ */
+@Slf4j
+@Component
+public class FeedStore {
+    private final FilmStorage filmStorage;
+    private final UserStorage userStorage;
+    private final int feedCapacity;
+    private final int fanOutLimit;
+    private final Map<Long, UserFeed> feeds;
+    private final Map<Long, UserFeed> highDegreeLikes;
+
+    public FeedStore(@Qualifier("filmStorage") FilmStorage filmStorage,
+                     @Qualifier("userStorage") UserStorage userStorage,
+                     @Value("${filmorate.feed.capacity:50}") int feedCapacity,
+                     @Value("${filmorate.feed.max-feeds:10000}") int maxFeeds,
+                     @Value("${filmorate.feed.fan-out-limit:1000}") int fanOutLimit,
+                     @Value("${filmorate.feed.max-high-degree-users:1000}") int maxHighDegreeUsers) {
+        this.filmStorage = filmStorage;
+        this.userStorage = userStorage;
+        this.feedCapacity = feedCapacity;
+        this.fanOutLimit = fanOutLimit;
+        this.feeds = lruMap(maxFeeds);
+        this.highDegreeLikes = lruMap(maxHighDegreeUsers);
+    }
+
+    @EventListener
+    public void onLike(FilmLikeEvent event) {
+        FilmLike like = new FilmLike(event.filmId(), event.userId(),
+                LocalDateTime.ofInstant(event.occurredAt(), ZoneId.systemDefault()));
+        List<Long> followers = userStorage.findFollowerIds(event.userId(), fanOutLimit + 1);
+        if (followers.size() > fanOutLimit) {
+            UserFeed own;
+            synchronized (highDegreeLikes) {
+                own = highDegreeLikes.computeIfAbsent(event.userId(), id -> new UserFeed(feedCapacity));
+            }
+            apply(own, like, event.added());
+            return;
+        }
+        for (Long followerId : followers) {
+            UserFeed feed;
+            synchronized (feeds) {
+                feed = feeds.get(followerId);
+            }
+            if (feed != null) {
+                apply(feed, like, event.added());
+            }
+        }
+    }
+
+    /**
+     * Лента собрана по старому списку друзей — проще собрать её заново при следующем чтении.
+     */
+    @EventListener
+    public void onFriendship(FriendshipEvent event) {
+        synchronized (feeds) {
+            feeds.remove(event.userId());
+        }
+    }
+
+    public List<FilmLike> feed(long userId, int count) {
+        List<Long> friendIds = null;
+        UserFeed feed;
+        synchronized (feeds) {
+            feed = feeds.get(userId);
+        }
+        if (feed == null) {
+            friendIds = userStorage.findFriendIds(userId);
+            feed = load(userId, friendIds);
+        }
+        List<FilmLike> entries = feed.latest(count);
+        if (!hasHighDegreeLikes()) {
+            return entries;
+        }
+        if (friendIds == null) {
+            friendIds = userStorage.findFriendIds(userId);
+        }
+        return mergeHighDegree(entries, friendIds, count);
+    }
+
+    private UserFeed load(long userId, List<Long> friendIds) {
+        UserFeed feed = new UserFeed(feedCapacity);
+        // лента попадает в кеш до чтения из БД, чтобы не потерять лайки, пришедшие во время чтения;
+        // монитор ленты держится до конца загрузки, так что параллельные читатели не увидят её пустой
+        synchronized (feed) {
+            synchronized (feeds) {
+                UserFeed existing = feeds.putIfAbsent(userId, feed);
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            try {
+                feed.merge(filmStorage.findRecentLikesByUsers(friendIds, feedCapacity));
+            } catch (RuntimeException e) {
+                synchronized (feeds) {
+                    feeds.remove(userId, feed);
+                }
+                throw e;
+            }
+        }
+        log.debug("Лента пользователя {} собрана из БД", userId);
+        return feed;
+    }
+
+    private List<FilmLike> mergeHighDegree(List<FilmLike> entries, List<Long> friendIds, int count) {
+        UserFeed merged = new UserFeed(count);
+        List<FilmLike> pulled = new ArrayList<>(entries);
+        for (Long friendId : friendIds) {
+            UserFeed own;
+            synchronized (highDegreeLikes) {
+                own = highDegreeLikes.get(friendId);
+            }
+            if (own != null) {
+                pulled.addAll(own.latest(count));
+            }
+        }
+        merged.merge(pulled);
+        return merged.latest(count);
+    }
+
+    private boolean hasHighDegreeLikes() {
+        synchronized (highDegreeLikes) {
+            return !highDegreeLikes.isEmpty();
+        }
+    }
+
+    private static void apply(UserFeed feed, FilmLike like, boolean added) {
+        if (added) {
+            feed.push(like);
+        } else {
+            feed.remove(like.filmId(), like.userId());
+        }
+    }
+
+    private static <K, V> Map<K, V> lruMap(int maxSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+}
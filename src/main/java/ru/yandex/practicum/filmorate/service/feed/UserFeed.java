@@ -0,0 +1,86 @@
+package ru.yandex.practicum.filmorate.service.feed;
+
+import ru.yandex.practicum.filmorate.model.FilmLike;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Ограниченная лента одного пользователя: новые записи в начале, при переполнении
+ * отбрасываются самые старые.
+ */
+class UserFeed {
+    private final int capacity;
+    private final Deque<FilmLike> entries;
+
+    UserFeed(int capacity) {
+        this.capacity = capacity;
+        this.entries = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Добавляет запись в начало ленты. Лайк, уже попавший в ленту при чтении из БД
+     * (событие о нём публикуется после коммита), второй раз не добавляется.
+     */
+    synchronized void push(FilmLike like) {
+        if (contains(like.filmId(), like.userId())) {
+            return;
+        }
+        entries.addFirst(like);
+        if (entries.size() > capacity) {
+            entries.removeLast();
+        }
+    }
+
+    synchronized void remove(long filmId, long userId) {
+        entries.removeIf(like -> like.filmId() == filmId && like.userId() == userId);
+    }
+
+    /**
+     * Сливает с лентой записи, прочитанные из БД: записи, успевшие прийти
+     * за время чтения, не дублируются.
+     */
+    synchronized void merge(List<FilmLike> likes) {
+        List<FilmLike> all = new ArrayList<>(entries.size() + likes.size());
+        all.addAll(entries);
+        all.addAll(likes);
+        all.sort(Comparator.comparing(FilmLike::likedAt).reversed());
+        Set<LikeKey> seen = new HashSet<>();
+        entries.clear();
+        for (FilmLike like : all) {
+            if (entries.size() == capacity) {
+                break;
+            }
+            if (seen.add(new LikeKey(like.filmId(), like.userId()))) {
+                entries.addLast(like);
+            }
+        }
+    }
+
+    synchronized List<FilmLike> latest(int count) {
+        List<FilmLike> result = new ArrayList<>(Math.min(count, entries.size()));
+        Iterator<FilmLike> it = entries.iterator();
+        while (it.hasNext() && result.size() < count) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    private boolean contains(long filmId, long userId) {
+        for (FilmLike entry : entries) {
+            if (entry.filmId() == filmId && entry.userId() == userId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private record LikeKey(long filmId, long userId) {
+    }
+}
@@ -0,0 +1,248 @@
+package ru.yandex.practicum.filmorate.service.graph;
+
+import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
+
+import java.util.Arrays;
+
+/**
+ * Неизменяемый снимок графа друзей в формате CSR: пользователи пронумерованы плотно
+ * (индекс — позиция id в отсортированном массиве), рёбра «кто → кого добавил» лежат
+ * в одном массиве, разрезанном смещениями. Обратные рёбра хранятся так же — по ним
+ * идёт встречный поиск от второго пользователя.
+ */
+public final class FriendGraph {
+    private final long[] userIds;
+    private final int[] outOffsets;
+    private final int[] outTargets;
+    private final int[] inOffsets;
+    private final int[] inTargets;
+
+    private FriendGraph(long[] userIds, int[] outOffsets, int[] outTargets, int[] inOffsets, int[] inTargets) {
+        this.userIds = userIds;
+        this.outOffsets = outOffsets;
+        this.outTargets = outTargets;
+        this.inOffsets = inOffsets;
+        this.inTargets = inTargets;
+    }
+
+    public static FriendGraph load(UserStorage storage) {
+        EdgeBuffer edges = new EdgeBuffer();
+        storage.forEachFriendship(edges::add);
+        return of(edges.from, edges.to, edges.size);
+    }
+
+    static FriendGraph of(long[] from, long[] to, int edgeCount) {
+        long[] ids = new long[edgeCount * 2];
+        System.arraycopy(from, 0, ids, 0, edgeCount);
+        System.arraycopy(to, 0, ids, edgeCount, edgeCount);
+        Arrays.sort(ids);
+        int userCount = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                ids[userCount++] = ids[i];
+            }
+        }
+        long[] userIds = Arrays.copyOf(ids, userCount);
+
+        int[] source = new int[edgeCount];
+        int[] target = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            source[e] = Arrays.binarySearch(userIds, from[e]);
+            target[e] = Arrays.binarySearch(userIds, to[e]);
+        }
+        int[] outOffsets = new int[userCount + 1];
+        int[] outTargets = new int[edgeCount];
+        int[] inOffsets = new int[userCount + 1];
+        int[] inTargets = new int[edgeCount];
+        fill(source, target, outOffsets, outTargets);
+        fill(target, source, inOffsets, inTargets);
+        return new FriendGraph(userIds, outOffsets, outTargets, inOffsets, inTargets);
+    }
+
+    private static void fill(int[] source, int[] target, int[] offsets, int[] targets) {
+        for (int s : source) {
+            offsets[s + 1]++;
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            offsets[i] += offsets[i - 1];
+        }
+        int[] cursor = Arrays.copyOf(offsets, offsets.length - 1);
+        for (int e = 0; e < source.length; e++) {
+            targets[cursor[source[e]]++] = target[e];
+        }
+    }
+
+    public int userCount() {
+        return userIds.length;
+    }
+
+    public int edgeCount() {
+        return outTargets.length;
+    }
+
+    /**
+     * Кратчайшая цепочка друзей от {@code fromId} до {@code toId} длиной не больше
+     * {@code maxDepth} рёбер — двунаправленный поиск в ширину, на каждом шаге
+     * расширяется меньший фронт. Кроме результата ничего не выделяет: посещённые
+     * вершины, родители и очереди лежат в переиспользуемом {@code state}.
+     *
+     * @return id пользователей цепочки, включая концы, или {@code null}, если цепочки нет
+     */
+    public long[] shortestPath(long fromId, long toId, int maxDepth, SearchState state) {
+        if (fromId == toId) {
+            return new long[]{fromId};
+        }
+        int from = Arrays.binarySearch(userIds, fromId);
+        int to = Arrays.binarySearch(userIds, toId);
+        if (from < 0 || to < 0) {
+            return null;
+        }
+        state.ensureCapacity(userIds.length);
+        Frontier forward = state.forward;
+        Frontier backward = state.backward;
+        forward.start(from);
+        backward.start(to);
+        try {
+            int meet = -1;
+            int depth = 0;
+            while (meet < 0 && depth < maxDepth && forward.hasLevel() && backward.hasLevel()) {
+                meet = forward.levelSize() <= backward.levelSize()
+                        ? forward.expand(outOffsets, outTargets, backward)
+                        : backward.expand(inOffsets, inTargets, forward);
+                depth++;
+            }
+            return meet < 0 ? null : path(meet, forward, backward);
+        } finally {
+            forward.clear();
+            backward.clear();
+        }
+    }
+
+    private long[] path(int meet, Frontier forward, Frontier backward) {
+        int before = 0;
+        for (int v = forward.parent[meet]; v >= 0; v = forward.parent[v]) {
+            before++;
+        }
+        int after = 0;
+        for (int v = backward.parent[meet]; v >= 0; v = backward.parent[v]) {
+            after++;
+        }
+        long[] path = new long[before + 1 + after];
+        int i = before;
+        for (int v = meet; v >= 0; v = forward.parent[v]) {
+            path[i--] = userIds[v];
+        }
+        i = before + 1;
+        for (int v = backward.parent[meet]; v >= 0; v = backward.parent[v]) {
+            path[i++] = userIds[v];
+        }
+        return path;
+    }
+
+    /**
+     * Рабочие массивы одного поиска. Не потокобезопасны: каждый поток берёт свой экземпляр.
+     * После поиска очищаются только затронутые вершины.
+     */
+    public static final class SearchState {
+        private final Frontier forward = new Frontier();
+        private final Frontier backward = new Frontier();
+
+        private void ensureCapacity(int userCount) {
+            forward.ensureCapacity(userCount);
+            backward.ensureCapacity(userCount);
+        }
+    }
+
+    private static final class Frontier {
+        private long[] seen = new long[0];
+        private int[] parent = new int[0];
+        private int[] queue = new int[0];
+        private int levelStart;
+        private int levelEnd;
+        private int tail;
+
+        private void ensureCapacity(int userCount) {
+            if (parent.length < userCount) {
+                seen = new long[(userCount + 63) >>> 6];
+                parent = new int[userCount];
+                queue = new int[userCount];
+            }
+        }
+
+        private void start(int node) {
+            mark(node);
+            parent[node] = -1;
+            queue[0] = node;
+            levelStart = 0;
+            levelEnd = 1;
+            tail = 1;
+        }
+
+        private boolean hasLevel() {
+            return levelStart < levelEnd;
+        }
+
+        private int levelSize() {
+            return levelEnd - levelStart;
+        }
+
+        /**
+         * Раскрывает текущий уровень целиком или до первой вершины, уже найденной встречным поиском.
+         */
+        private int expand(int[] offsets, int[] targets, Frontier other) {
+            int meet = -1;
+            for (int i = levelStart; i < levelEnd && meet < 0; i++) {
+                int u = queue[i];
+                for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                    int v = targets[e];
+                    if (isSeen(v)) {
+                        continue;
+                    }
+                    mark(v);
+                    parent[v] = u;
+                    queue[tail++] = v;
+                    if (other.isSeen(v)) {
+                        meet = v;
+                        break;
+                    }
+                }
+            }
+            levelStart = levelEnd;
+            levelEnd = tail;
+            return meet;
+        }
+
+        private boolean isSeen(int node) {
+            return (seen[node >>> 6] & (1L << node)) != 0;
+        }
+
+        private void mark(int node) {
+            seen[node >>> 6] |= 1L << node;
+        }
+
+        private void clear() {
+            for (int i = 0; i < tail; i++) {
+                seen[queue[i] >>> 6] = 0;
+            }
+            levelStart = 0;
+            levelEnd = 0;
+            tail = 0;
+        }
+    }
+
+    private static final class EdgeBuffer {
+        private long[] from = new long[1024];
+        private long[] to = new long[1024];
+        private int size;
+
+        private void add(long userId, long friendId) {
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+            }
+            from[size] = userId;
+            to[size] = friendId;
+            size++;
+        }
+    }
+}
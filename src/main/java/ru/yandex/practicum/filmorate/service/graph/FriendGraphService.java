@@ -0,0 +1,102 @@
+package ru.yandex.practicum.filmorate.service.graph;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.dal.storage.UserStorage;
+import ru.yandex.practicum.filmorate.service.event.FriendshipEvent;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Держит снимок {@link FriendGraph} и ищет по нему цепочки друзей. Изменение дружбы
+ * помечает снимок устаревшим; перестраивается он при следующем запросе, но не чаще
+ * раза в {@code filmorate.friend-graph.min-rebuild-interval-ms}. Пока идёт перестройка,
+ * остальные запросы отвечают по прежнему снимку.
+ */
+@Slf4j
+@Service
+public class FriendGraphService {
+    private final UserStorage userStorage;
+    private final int maxDepth;
+    private final long minRebuildIntervalMs;
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private final Deque<FriendGraph.SearchState> states = new ConcurrentLinkedDeque<>();
+    private volatile FriendGraph graph;
+    private volatile long builtAtMs;
+
+    public FriendGraphService(@Qualifier("userStorage") UserStorage userStorage,
+                              @Value("${filmorate.friend-graph.max-depth:6}") int maxDepth,
+                              @Value("${filmorate.friend-graph.min-rebuild-interval-ms:1000}") long minRebuildIntervalMs) {
+        this.userStorage = userStorage;
+        this.maxDepth = maxDepth;
+        this.minRebuildIntervalMs = minRebuildIntervalMs;
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    @EventListener
+    public void onFriendship(FriendshipEvent event) {
+        dirty.set(true);
+    }
+
+    /**
+     * @return id пользователей кратчайшей цепочки, включая концы, или {@code null}
+     */
+    public long[] shortestPath(long fromId, long toId) {
+        FriendGraph current = current();
+        FriendGraph.SearchState state = states.poll();
+        if (state == null) {
+            state = new FriendGraph.SearchState();
+        }
+        try {
+            return current.shortestPath(fromId, toId, maxDepth, state);
+        } finally {
+            states.offer(state);
+        }
+    }
+
+    private FriendGraph current() {
+        FriendGraph current = graph;
+        if (current != null && !needsRebuild()) {
+            return current;
+        }
+        if (current != null) {
+            if (!rebuildLock.tryLock()) {
+                return current;
+            }
+        } else {
+            rebuildLock.lock();
+        }
+        try {
+            if (graph != null && !needsRebuild()) {
+                return graph;
+            }
+            dirty.set(false);
+            long start = System.nanoTime();
+            FriendGraph rebuilt = FriendGraph.load(userStorage);
+            graph = rebuilt;
+            builtAtMs = System.currentTimeMillis();
+            log.info("Граф друзей перестроен: {} пользователей, {} связей за {} мс",
+                    rebuilt.userCount(), rebuilt.edgeCount(), (System.nanoTime() - start) / 1_000_000);
+            return rebuilt;
+        } catch (RuntimeException e) {
+            dirty.set(true);
+            throw e;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    private boolean needsRebuild() {
+        return dirty.get() && System.currentTimeMillis() - builtAtMs >= minRebuildIntervalMs;
+    }
+}
@@ -0,0 +1,109 @@
+package ru.yandex.practicum.filmorate.service.outbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.OutboxEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Дописывает события в файл в формате NDJSON (одно событие на строку).
+ * <p>
+ * Когда файл дорастает до {@code filmorate.outbox.file-max-bytes}, он переименовывается
+ * в {@code <file>.1} (прежние копии сдвигаются на номер вперёд), и запись продолжается
+ * в новый файл. Хранится не более {@code filmorate.outbox.file-max-backups} копий,
+ * самая старая удаляется.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.outbox.sink", havingValue = "file", matchIfMissing = true)
+public class FileOutboxSink implements OutboxSink {
+    private final ObjectMapper objectMapper;
+    private final Path file;
+    private final long maxBytes;
+    private final int maxBackups;
+    private FileChannel channel;
+
+    public FileOutboxSink(ObjectMapper objectMapper,
+                          @Value("${filmorate.outbox.file:./db/outbox-events.ndjson}") Path file,
+                          @Value("${filmorate.outbox.file-max-bytes:67108864}") long maxBytes,
+                          @Value("${filmorate.outbox.file-max-backups:3}") int maxBackups) throws IOException {
+        this.objectMapper = objectMapper;
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxBackups = maxBackups;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.channel = open();
+        log.info("События outbox пишутся в файл {} (не больше {} байт, {} копий)",
+                file.toAbsolutePath(), maxBytes, maxBackups);
+    }
+
+    @Override
+    public synchronized void publish(List<OutboxEvent> events) {
+        StringBuilder sb = new StringBuilder(events.size() * 128);
+        try {
+            for (OutboxEvent event : events) {
+                sb.append(objectMapper.writeValueAsString(event)).append('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // события удаляются из outbox только после того, как они попали на диск
+            channel.force(false);
+            if (channel.size() >= maxBytes) {
+                rotate();
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось сериализовать событие outbox", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void rotate() throws IOException {
+        channel.close();
+        if (maxBackups > 0) {
+            Files.deleteIfExists(backup(maxBackups));
+            for (int i = maxBackups - 1; i >= 1; i--) {
+                if (Files.exists(backup(i))) {
+                    Files.move(backup(i), backup(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file, backup(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        channel = open();
+        log.info("Файл событий outbox {} достиг {} байт и переименован", file.toAbsolutePath(), maxBytes);
+    }
+
+    private Path backup(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private FileChannel open() throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,51 @@
+package ru.yandex.practicum.filmorate.service.outbox;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.OutboxDbStorage;
+import ru.yandex.practicum.filmorate.model.OutboxEvent;
+
+import java.util.List;
+
+/**
+ * Фоновая пересылка событий из таблицы outbox_events в {@link OutboxSink}.
+ * Гарантия доставки — at-least-once: пачка удаляется только после успешной публикации.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.outbox.relay.enabled", havingValue = "true", matchIfMissing = true)
+public class OutboxRelay {
+    private final OutboxDbStorage outboxStorage;
+    private final OutboxSink sink;
+    private final int batchSize;
+
+    public OutboxRelay(OutboxDbStorage outboxStorage,
+                       OutboxSink sink,
+                       @Value("${filmorate.outbox.batch-size:500}") int batchSize) {
+        this.outboxStorage = outboxStorage;
+        this.sink = sink;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.outbox.relay-interval-ms:1000}")
+    public void relay() {
+        int total = 0;
+        List<OutboxEvent> batch;
+        do {
+            batch = outboxStorage.fetchBatch(batchSize);
+            if (batch.isEmpty()) {
+                break;
+            }
+            sink.publish(batch);
+            outboxStorage.delete(batch.stream().map(OutboxEvent::getId).toList());
+            total += batch.size();
+        } while (batch.size() == batchSize);
+
+        if (total > 0) {
+            log.debug("Из outbox отправлено событий: {}", total);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package ru.yandex.practicum.filmorate.service.outbox;
+
+import ru.yandex.practicum.filmorate.model.OutboxEvent;
+
+import java.util.List;
+
+/**
+ * Получатель событий из outbox. Реализация должна либо надёжно принять
+ * всю пачку, либо выбросить исключение — тогда пачка будет отправлена повторно.
+ */
+public interface OutboxSink {
+    void publish(List<OutboxEvent> events);
+}
@@ -0,0 +1,156 @@
+package ru.yandex.practicum.filmorate.service.ranking;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Список с пропусками, упорядоченный по убыванию числа лайков, при равенстве —
+ * по возрастанию id. Каждая ссылка хранит, сколько элементов она перепрыгивает,
+ * поэтому и место элемента, и элемент по номеру находятся за O(log n).
+ * <p>
+ * Не потокобезопасен: синхронизацию обеспечивает {@link PopularityRanking}.
+ */
+public final class IndexedSkipList {
+    private static final int MAX_LEVEL = 32;
+
+    private final Node head = new Node(0, 0, MAX_LEVEL);
+    private int level = 1;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public void insert(long id, int likes) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && x.next[i].before(likes, id)) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        int nodeLevel = randomLevel();
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = size;
+            }
+            level = nodeLevel;
+        }
+        Node node = new Node(id, likes, nodeLevel);
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = nodeLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+        size++;
+    }
+
+    public boolean remove(long id, int likes) {
+        Node[] update = new Node[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && x.next[i].before(likes, id)) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        x = x.next[0];
+        if (x == null || !x.is(likes, id)) {
+            return false;
+        }
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == x) {
+                update[i].span[i] += x.span[i] - 1;
+                update[i].next[i] = x.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Место элемента, начиная с 1, или 0, если элемента нет.
+     */
+    public int rank(long id, int likes) {
+        int rank = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && (x.next[i].before(likes, id) || x.next[i].is(likes, id))) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+            if (x != head && x.is(likes, id)) {
+                return rank;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Id не более чем {@code count} элементов, начиная с позиции {@code offset} (с нуля).
+     */
+    public long[] range(int offset, int count) {
+        if (offset < 0 || offset >= size || count <= 0) {
+            return new long[0];
+        }
+        int target = offset + 1;
+        int traversed = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0 && traversed < target; i--) {
+            while (x.next[i] != null && traversed + x.span[i] <= target) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+        }
+        long[] ids = new long[Math.min(count, size - offset)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = x.id;
+            x = x.next[0];
+        }
+        return ids;
+    }
+
+    private static int randomLevel() {
+        int level = 1;
+        while (level < MAX_LEVEL && ThreadLocalRandom.current().nextInt(4) == 0) {
+            level++;
+        }
+        return level;
+    }
+
+    private static final class Node {
+        final long id;
+        final int likes;
+        final Node[] next;
+        final int[] span;
+
+        Node(long id, int likes, int level) {
+            this.id = id;
+            this.likes = likes;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+
+        boolean before(int otherLikes, long otherId) {
+            return likes > otherLikes || likes == otherLikes && id < otherId;
+        }
+
+        boolean is(int otherLikes, long otherId) {
+            return likes == otherLikes && id == otherId;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ru.yandex.practicum.filmorate.service.ranking;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.model.FilmRank;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.LongStream;
+
+/**
+ * Рейтинг популярности в памяти: все фильмы в порядке убывания лайков (при равенстве — по id)
+ * в {@link IndexedSkipList}. И место фильма, и страница с любого смещения находятся за O(log n)
+ * вместо сортировки всех фильмов в запросе.
+ * <p>
+ * Строится при создании бина, до того как приложение начнёт принимать запросы, поэтому
+ * ни один лайк не проходит мимо рейтинга. Построение идёт вне транзакции, то есть
+ * на основной БД: id фильмов одним запросом без их данных и один проход по лайкам.
+ */
+@Slf4j
+@Component
+public class PopularityRanking {
+    private final FilmStorage filmStorage;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, Integer> likeCounts = new HashMap<>();
+    private final IndexedSkipList ranking = new IndexedSkipList();
+
+    public PopularityRanking(@Qualifier("filmStorage") FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    /**
+     * Место фильма в рейтинге; пусто, если фильма в рейтинге нет.
+     */
+    public Optional<FilmRank> rank(long filmId) {
+        lock.lock();
+        try {
+            Integer likes = likeCounts.get(filmId);
+            return likes == null
+                    ? Optional.empty()
+                    : Optional.of(new FilmRank(filmId, ranking.rank(filmId, likes), likes));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Id фильмов на позициях {@code offset .. offset + count - 1} (с нуля).
+     */
+    public List<Long> page(int offset, int count) {
+        long[] ids;
+        lock.lock();
+        try {
+            ids = ranking.range(offset, count);
+        } finally {
+            lock.unlock();
+        }
+        return LongStream.of(ids).boxed().toList();
+    }
+
+    /**
+     * Фильмы выборки в порядке рейтинга, позиции {@code offset .. offset + count - 1}.
+     * Фильмы, которых ещё нет в рейтинге, считаются фильмами без лайков.
+     */
+    public List<Long> order(long[] filmIds, int offset, int count) {
+        long[] keys = new long[filmIds.length];
+        lock.lock();
+        try {
+            for (int i = 0; i < filmIds.length; i++) {
+                int likes = likeCounts.getOrDefault(filmIds[i], 0);
+                // старшие биты — убывание лайков, младшие — индекс в выборке, отсортированной по id
+                keys[i] = (long) (Integer.MAX_VALUE - likes) << 32 | i;
+            }
+        } finally {
+            lock.unlock();
+        }
+        Arrays.sort(keys);
+        List<Long> page = new ArrayList<>();
+        for (int i = offset; i < Math.min(keys.length, (long) offset + count); i++) {
+            page.add(filmIds[(int) keys[i]]);
+        }
+        return page;
+    }
+
+    public void addFilm(long filmId) {
+        lock.lock();
+        try {
+            if (likeCounts.putIfAbsent(filmId, 0) == null) {
+                ranking.insert(filmId, 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void adjust(long filmId, int delta) {
+        lock.lock();
+        try {
+            Integer likes = likeCounts.get(filmId);
+            if (likes == null) {
+                return;
+            }
+            int updated = Math.max(0, likes + delta);
+            ranking.remove(filmId, likes);
+            ranking.insert(filmId, updated);
+            likeCounts.put(filmId, updated);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PostConstruct
+    public void build() {
+        long start = System.nanoTime();
+        Map<Long, Integer> counts = new HashMap<>();
+        for (Long filmId : filmStorage.findAllIds()) {
+            counts.put(filmId, 0);
+        }
+        filmStorage.forEachLike((filmId, userId) -> counts.computeIfPresent(filmId, (id, likes) -> likes + 1));
+        lock.lock();
+        try {
+            counts.forEach((filmId, likes) -> {
+                likeCounts.put(filmId, likes);
+                ranking.insert(filmId, likes);
+            });
+        } finally {
+            lock.unlock();
+        }
+        log.info("Рейтинг популярности построен для {} фильмов за {} мс",
+                counts.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+}
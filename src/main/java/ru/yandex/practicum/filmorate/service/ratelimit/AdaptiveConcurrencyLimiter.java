@@ -0,0 +1,76 @@
+package ru.yandex.practicum.filmorate.service.ratelimit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Глобальный лимит одновременно обрабатываемых запросов, подстраиваемый по AIMD:
+ * каждый быстрый ответ увеличивает лимит на 1/limit (примерно +1 за «окно»),
+ * медленный или упавший запрос уменьшает его в {@code backoff} раз. Когда пул
+ * соединений начинает насыщаться, растёт задержка, лимит падает и лишние запросы
+ * получают 429 вместо ожидания соединения.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.rate-limit.enabled", havingValue = "true")
+public class AdaptiveConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoff;
+    private final long targetLatencyNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong limitBits;
+
+    public AdaptiveConcurrencyLimiter(@Value("${filmorate.rate-limit.concurrency.initial:20}") int initialLimit,
+                                      @Value("${filmorate.rate-limit.concurrency.min:4}") int minLimit,
+                                      @Value("${filmorate.rate-limit.concurrency.max:200}") int maxLimit,
+                                      @Value("${filmorate.rate-limit.concurrency.backoff:0.9}") double backoff,
+                                      @Value("${filmorate.rate-limit.concurrency.target-latency-ms:100}")
+                                      long targetLatencyMs) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoff = backoff;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+        this.limitBits = new AtomicLong(Double.doubleToRawLongBits(initialLimit));
+    }
+
+    public boolean tryAcquire() {
+        int limit = getLimit();
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(long latencyNanos, boolean failed) {
+        inFlight.decrementAndGet();
+        boolean overloaded = failed || latencyNanos > targetLatencyNanos;
+        double updated = Double.longBitsToDouble(limitBits.updateAndGet(bits -> {
+            double limit = Double.longBitsToDouble(bits);
+            double next = overloaded ? limit * backoff : limit + 1.0 / limit;
+            return Double.doubleToRawLongBits(Math.max(minLimit, Math.min(maxLimit, next)));
+        }));
+        if (overloaded) {
+            log.debug("Лимит параллельных запросов снижен до {}", (int) updated);
+        }
+    }
+
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,61 @@
+package ru.yandex.practicum.filmorate.service.ratelimit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ведра токенов по паре (endpoint, пользователь). Полностью пополнившиеся ведра
+ * периодически удаляются, а число ведер ограничено: при переполнении новые ключи
+ * делят одно общее ведро своего endpoint.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.rate-limit.enabled", havingValue = "true")
+public class RateLimiter {
+    private final long capacity;
+    private final long refillIntervalNanos;
+    private final int maxBuckets;
+    private final Map<BucketKey, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> overflowBuckets = new ConcurrentHashMap<>();
+
+    public RateLimiter(@Value("${filmorate.rate-limit.capacity:20}") long capacity,
+                       @Value("${filmorate.rate-limit.refill-per-second:10}") long refillPerSecond,
+                       @Value("${filmorate.rate-limit.max-buckets:100000}") int maxBuckets) {
+        this.capacity = capacity;
+        this.refillIntervalNanos = TimeUnit.SECONDS.toNanos(1) / refillPerSecond;
+        this.maxBuckets = maxBuckets;
+    }
+
+    public boolean tryAcquire(String endpoint, String subject) {
+        long now = System.nanoTime();
+        BucketKey key = new BucketKey(endpoint, subject);
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.size() < maxBuckets
+                    ? buckets.computeIfAbsent(key, k -> new TokenBucket(capacity, refillIntervalNanos, now))
+                    : overflowBuckets.computeIfAbsent(endpoint, k -> new TokenBucket(capacity, refillIntervalNanos, now));
+        }
+        return bucket.tryAcquire(now);
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.rate-limit.sweep-interval-ms:10000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        int before = buckets.size();
+        buckets.values().removeIf(bucket -> bucket.isIdle(now));
+        overflowBuckets.values().removeIf(bucket -> bucket.isIdle(now));
+        if (before != buckets.size()) {
+            log.debug("Удалено неактивных ведер лимитера: {}", before - buckets.size());
+        }
+    }
+
+    private record BucketKey(String endpoint, String subject) {
+    }
+}
@@ -0,0 +1,40 @@
+package ru.yandex.practicum.filmorate.service.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket без блокировок в форме GCRA: всё состояние — одно «теоретическое время
+ * прибытия» следующего запроса, которое обновляется через CAS. Ведро ёмкостью
+ * {@code capacity} пополняется на один токен каждые {@code refillIntervalNanos}.
+ */
+public class TokenBucket {
+    private final long refillIntervalNanos;
+    private final long burstToleranceNanos;
+    private final AtomicLong theoreticalArrival;
+
+    public TokenBucket(long capacity, long refillIntervalNanos, long nowNanos) {
+        this.refillIntervalNanos = refillIntervalNanos;
+        this.burstToleranceNanos = refillIntervalNanos * (capacity - 1);
+        this.theoreticalArrival = new AtomicLong(nowNanos);
+    }
+
+    public boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long base = tat - nowNanos > 0 ? tat : nowNanos;
+            if (base - nowNanos > burstToleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, base + refillIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ведро полностью пополнилось и ничем не отличается от нового — его можно удалить.
+     */
+    public boolean isIdle(long nowNanos) {
+        return theoreticalArrival.get() - nowNanos <= 0;
+    }
+}
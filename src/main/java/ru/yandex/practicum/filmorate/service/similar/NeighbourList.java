@@ -0,0 +1,99 @@
+package ru.yandex.practicum.filmorate.service.similar;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Не больше {@code capacity} соседей фильма, отсортированных по убыванию оценки.
+ * Для каждого соседа хранится число совместных лайков и вес по жанрам и MPA, чтобы
+ * оценку можно было пересчитать при новом лайке без полного перестроения.
+ */
+final class NeighbourList {
+    private final long[] filmIds;
+    private final int[] coLikes;
+    private final double[] metaWeights;
+    private final double[] scores;
+    private int size;
+
+    NeighbourList(int capacity) {
+        this.filmIds = new long[capacity];
+        this.coLikes = new int[capacity];
+        this.metaWeights = new double[capacity];
+        this.scores = new double[capacity];
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Добавляет соседа, если он попадает в первые {@code capacity} по оценке.
+     */
+    synchronized void offer(long filmId, int co, double metaWeight, double score) {
+        if (size == filmIds.length && score <= scores[size - 1]) {
+            return;
+        }
+        int pos = size == filmIds.length ? size - 1 : size++;
+        place(pos, filmId, co, metaWeight, score);
+    }
+
+    /**
+     * Меняет число совместных лайков с {@code filmId} на {@code delta} и пересчитывает оценку.
+     * Неизвестный сосед при положительном {@code delta} добавляется с одним совместным лайком:
+     * точное число станет известно при следующем полном расчёте.
+     */
+    synchronized void adjust(long filmId, int delta, double metaWeight, IntToDoubleFunction scoreOfCoLikes) {
+        int pos = indexOf(filmId);
+        if (pos < 0) {
+            if (delta > 0) {
+                offer(filmId, 1, metaWeight, scoreOfCoLikes.applyAsDouble(1));
+            }
+            return;
+        }
+        int co = coLikes[pos] + delta;
+        double weight = metaWeights[pos];
+        remove(pos);
+        if (co > 0) {
+            offer(filmId, co, weight, scoreOfCoLikes.applyAsDouble(co));
+        }
+    }
+
+    synchronized long[] top(int count) {
+        return Arrays.copyOf(filmIds, Math.min(count, size));
+    }
+
+    private int indexOf(long filmId) {
+        for (int i = 0; i < size; i++) {
+            if (filmIds[i] == filmId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void remove(int pos) {
+        int tail = size - pos - 1;
+        System.arraycopy(filmIds, pos + 1, filmIds, pos, tail);
+        System.arraycopy(coLikes, pos + 1, coLikes, pos, tail);
+        System.arraycopy(metaWeights, pos + 1, metaWeights, pos, tail);
+        System.arraycopy(scores, pos + 1, scores, pos, tail);
+        size--;
+    }
+
+    /**
+     * Ставит соседа в свободную позицию {@code pos} и сдвигает его вверх до своего места.
+     */
+    private void place(int pos, long filmId, int co, double metaWeight, double score) {
+        while (pos > 0 && scores[pos - 1] < score) {
+            filmIds[pos] = filmIds[pos - 1];
+            coLikes[pos] = coLikes[pos - 1];
+            metaWeights[pos] = metaWeights[pos - 1];
+            scores[pos] = scores[pos - 1];
+            pos--;
+        }
+        filmIds[pos] = filmId;
+        coLikes[pos] = co;
+        metaWeights[pos] = metaWeight;
+        scores[pos] = score;
+    }
+}
@@ -0,0 +1,135 @@
+package ru.yandex.practicum.filmorate.service.similar;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+import ru.yandex.practicum.filmorate.service.CompactFilmCache;
+import ru.yandex.practicum.filmorate.service.event.FilmLikeEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Похожие фильмы: для каждого фильма заранее посчитанный список из
+ * {@code filmorate.similar.top-k} соседей, поэтому ответ — одно обращение к карте.
+ * Списки полностью пересчитываются по расписанию ({@link SimilarityBuilder}),
+ * а между пересчётами лайки сдвигают оценки пар «фильм — другие фильмы пользователя».
+ */
+@Slf4j
+@Component
+public class SimilarFilmsIndex {
+    private final FilmStorage filmStorage;
+    private final CompactFilmCache compactFilms;
+    private final SimilarityBuilder builder;
+    private final SimilarityWeights weights;
+    private final int topK;
+    private final int maxUserLikes;
+    private final ForkJoinPool pool;
+    private volatile Map<Long, NeighbourList> neighbours = new ConcurrentHashMap<>();
+
+    public SimilarFilmsIndex(@Qualifier("filmStorage") FilmStorage filmStorage,
+                             CompactFilmCache compactFilms,
+                             @Value("${filmorate.similar.top-k:20}") int topK,
+                             @Value("${filmorate.similar.max-user-likes:500}") int maxUserLikes,
+                             @Value("${filmorate.similar.genre-weight:0.5}") double genreWeight,
+                             @Value("${filmorate.similar.mpa-weight:0.2}") double mpaWeight,
+                             @Value("${filmorate.similar.parallelism:0}") int parallelism) {
+        this.filmStorage = filmStorage;
+        this.compactFilms = compactFilms;
+        this.topK = topK;
+        this.maxUserLikes = maxUserLikes;
+        this.weights = new SimilarityWeights(genreWeight, mpaWeight);
+        this.builder = new SimilarityBuilder(topK, maxUserLikes, weights);
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    public List<Long> similar(long filmId, int count) {
+        NeighbourList list = neighbours.get(filmId);
+        if (list == null) {
+            return List.of();
+        }
+        return LongStream.of(list.top(Math.min(count, topK))).boxed().toList();
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.similar.initial-delay-ms:10000}",
+            fixedDelayString = "${filmorate.similar.rebuild-interval-ms:900000}")
+    public void rebuild() {
+        long start = System.nanoTime();
+        try {
+            Map<Long, NeighbourList> rebuilt = builder.build(filmStorage, pool);
+            neighbours = rebuilt;
+            log.info("Похожие фильмы пересчитаны для {} фильмов за {} мс",
+                    rebuilt.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Не удалось пересчитать похожие фильмы", e);
+        }
+    }
+
+    /**
+     * Лайк меняет число совместных лайков фильма с каждым фильмом, который уже лайкнул
+     * этот пользователь. Оценки пересчитываются по текущему числу лайков из кеша фильмов.
+     */
+    @EventListener
+    public void onLike(FilmLikeEvent event) {
+        List<Long> otherFilmIds = filmStorage.findRecentLikesByUsers(List.of(event.userId()), maxUserLikes).stream()
+                .map(FilmLike::filmId)
+                .filter(id -> id != event.filmId())
+                .toList();
+        if (otherFilmIds.isEmpty() || otherFilmIds.size() >= maxUserLikes) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(otherFilmIds);
+        ids.add(event.filmId());
+        Map<Long, CompactFilm> films = compactFilms.getAll(ids).stream()
+                .collect(Collectors.toMap(CompactFilm::id, Function.identity()));
+        CompactFilm film = films.get(event.filmId());
+        if (film == null) {
+            return;
+        }
+        int delta = event.added() ? 1 : -1;
+        Map<Long, NeighbourList> current = neighbours;
+        for (long otherId : otherFilmIds) {
+            CompactFilm other = films.get(otherId);
+            if (other != null) {
+                adjust(current, film, other, delta);
+                adjust(current, other, film, delta);
+            }
+        }
+    }
+
+    private void adjust(Map<Long, NeighbourList> current, CompactFilm film, CompactFilm other, int delta) {
+        NeighbourList list = delta > 0
+                ? current.computeIfAbsent(film.id(), id -> new NeighbourList(topK))
+                : current.get(film.id());
+        if (list == null) {
+            return;
+        }
+        double metaWeight = weights.metaWeight(film.genreIds(), mpaOf(film), other.genreIds(), mpaOf(other));
+        list.adjust(other.id(), delta, metaWeight,
+                co -> SimilarityWeights.score(co, film.likeCount(), other.likeCount(), metaWeight));
+    }
+
+    private static int mpaOf(CompactFilm film) {
+        return film.mpa() != null && film.mpa().getId() != null ? film.mpa().getId() : 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
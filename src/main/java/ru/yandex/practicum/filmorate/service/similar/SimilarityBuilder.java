@@ -0,0 +1,144 @@
+package ru.yandex.practicum.filmorate.service.similar;
+
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Полный расчёт соседей по всем лайкам. Лайки раскладываются в два CSR-индекса
+ * (фильм → пользователи и пользователь → фильмы) с плотной нумерацией, затем для каждого
+ * фильма параллельно считаются совместные лайки через лайкнувших его пользователей.
+ * Счётчики — переиспользуемый массив на поток, после фильма обнуляются только затронутые ячейки.
+ * <p>
+ * Пользователи с числом лайков больше {@code maxUserLikes} в совместные лайки не идут:
+ * они дают квадратичный вклад и почти ничего не говорят о похожести.
+ */
+final class SimilarityBuilder {
+    private final int topK;
+    private final int maxUserLikes;
+    private final SimilarityWeights weights;
+
+    SimilarityBuilder(int topK, int maxUserLikes, SimilarityWeights weights) {
+        this.topK = topK;
+        this.maxUserLikes = maxUserLikes;
+        this.weights = weights;
+    }
+
+    Map<Long, NeighbourList> build(FilmStorage storage, ForkJoinPool pool)
+            throws InterruptedException, ExecutionException {
+        LikeBuffer likes = new LikeBuffer();
+        storage.forEachLike(likes::add);
+        long[] filmIds = distinctSorted(likes.films, likes.size);
+        long[] userIds = distinctSorted(likes.users, likes.size);
+        int[] filmOf = new int[likes.size];
+        int[] userOf = new int[likes.size];
+        for (int i = 0; i < likes.size; i++) {
+            filmOf[i] = Arrays.binarySearch(filmIds, likes.films[i]);
+            userOf[i] = Arrays.binarySearch(userIds, likes.users[i]);
+        }
+        Csr filmUsers = Csr.of(filmIds.length, filmOf, userOf);
+        Csr userFilms = Csr.of(userIds.length, userOf, filmOf);
+
+        int[][] genres = new int[filmIds.length][];
+        int[] mpa = new int[filmIds.length];
+        Arrays.fill(genres, new int[0]);
+        for (CompactFilm film : storage.findCompactByIds(LongStream.of(filmIds).boxed().toList())) {
+            int index = Arrays.binarySearch(filmIds, film.id());
+            genres[index] = film.genreIds();
+            mpa[index] = film.mpa() != null && film.mpa().getId() != null ? film.mpa().getId() : 0;
+        }
+
+        Map<Long, NeighbourList> result = new ConcurrentHashMap<>(filmIds.length * 2);
+        ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(() -> new Accumulator(filmIds.length));
+        pool.submit(() -> IntStream.range(0, filmIds.length).parallel().forEach(a -> {
+            Accumulator acc = accumulators.get();
+            for (int e = filmUsers.offsets[a]; e < filmUsers.offsets[a + 1]; e++) {
+                int user = filmUsers.targets[e];
+                if (userFilms.degree(user) > maxUserLikes) {
+                    continue;
+                }
+                for (int f = userFilms.offsets[user]; f < userFilms.offsets[user + 1]; f++) {
+                    int b = userFilms.targets[f];
+                    if (b != a && acc.coLikes[b]++ == 0) {
+                        acc.touched[acc.touchedCount++] = b;
+                    }
+                }
+            }
+            NeighbourList neighbours = new NeighbourList(topK);
+            for (int t = 0; t < acc.touchedCount; t++) {
+                int b = acc.touched[t];
+                int co = acc.coLikes[b];
+                acc.coLikes[b] = 0;
+                double metaWeight = weights.metaWeight(genres[a], mpa[a], genres[b], mpa[b]);
+                neighbours.offer(filmIds[b], co, metaWeight,
+                        SimilarityWeights.score(co, filmUsers.degree(a), filmUsers.degree(b), metaWeight));
+            }
+            acc.touchedCount = 0;
+            if (!neighbours.isEmpty()) {
+                result.put(filmIds[a], neighbours);
+            }
+        })).get();
+        return result;
+    }
+
+    private static long[] distinctSorted(long[] values, int size) {
+        return LongStream.of(values).limit(size).sorted().distinct().toArray();
+    }
+
+    private record Csr(int[] offsets, int[] targets) {
+
+        static Csr of(int nodeCount, int[] source, int[] target) {
+            int[] offsets = new int[nodeCount + 1];
+            for (int s : source) {
+                offsets[s + 1]++;
+            }
+            for (int i = 1; i < offsets.length; i++) {
+                offsets[i] += offsets[i - 1];
+            }
+            int[] targets = new int[source.length];
+            int[] cursor = Arrays.copyOf(offsets, nodeCount);
+            for (int e = 0; e < source.length; e++) {
+                targets[cursor[source[e]]++] = target[e];
+            }
+            return new Csr(offsets, targets);
+        }
+
+        int degree(int node) {
+            return offsets[node + 1] - offsets[node];
+        }
+    }
+
+    private static final class Accumulator {
+        private final int[] coLikes;
+        private final int[] touched;
+        private int touchedCount;
+
+        private Accumulator(int filmCount) {
+            this.coLikes = new int[filmCount];
+            this.touched = new int[filmCount];
+        }
+    }
+
+    private static final class LikeBuffer {
+        private long[] films = new long[1024];
+        private long[] users = new long[1024];
+        private int size;
+
+        private void add(long filmId, long userId) {
+            if (size == films.length) {
+                films = Arrays.copyOf(films, size * 2);
+                users = Arrays.copyOf(users, size * 2);
+            }
+            films[size] = filmId;
+            users[size] = userId;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ru.yandex.practicum.filmorate.service.similar;
+
+/**
+ * Оценка похожести пары фильмов: косинусная мера по совместным лайкам, усиленная
+ * долей общих жанров (коэффициент Жаккара) и совпадением рейтинга MPA.
+ */
+record SimilarityWeights(double genreWeight, double mpaWeight) {
+
+    double metaWeight(int[] genresA, int mpaA, int[] genresB, int mpaB) {
+        double weight = 1 + genreWeight * jaccard(genresA, genresB);
+        if (mpaA != 0 && mpaA == mpaB) {
+            weight += mpaWeight;
+        }
+        return weight;
+    }
+
+    static double score(int coLikes, int likesA, int likesB, double metaWeight) {
+        if (coLikes <= 0 || likesA <= 0 || likesB <= 0) {
+            return 0;
+        }
+        return coLikes / Math.sqrt((double) likesA * likesB) * metaWeight;
+    }
+
+    /**
+     * Оба массива отсортированы по возрастанию.
+     */
+    private static double jaccard(int[] a, int[] b) {
+        if (a.length == 0 && b.length == 0) {
+            return 0;
+        }
+        int common = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) common / (a.length + b.length - common);
+    }
+}
@@ -0,0 +1,66 @@
+package ru.yandex.practicum.filmorate.service.stats;
+
+import java.util.Arrays;
+
+/**
+ * HyperLogLog на 2^precision однобайтовых регистрах. Сумма 2^-M и число нулевых
+ * регистров поддерживаются при каждом обновлении, поэтому оценка считается за O(1).
+ * Не потокобезопасен.
+ */
+class HyperLogLog {
+    private final int precision;
+    private final byte[] registers;
+    private final double alphaMm;
+    private double inverseSum;
+    private int zeroRegisters;
+
+    HyperLogLog(int precision) {
+        this.precision = precision;
+        int m = 1 << precision;
+        this.registers = new byte[m];
+        this.alphaMm = 0.7213 / (1 + 1.079 / m) * m * m;
+        this.inverseSum = m;
+        this.zeroRegisters = m;
+    }
+
+    void add(long value) {
+        long hash = mix(value);
+        int index = (int) (hash >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        int current = registers[index];
+        if (rank > current) {
+            inverseSum += Math.scalb(1.0, -rank) - Math.scalb(1.0, -current);
+            if (current == 0) {
+                zeroRegisters--;
+            }
+            registers[index] = (byte) rank;
+        }
+    }
+
+    long estimate() {
+        int m = registers.length;
+        double raw = alphaMm / inverseSum;
+        if (raw <= 2.5 * m && zeroRegisters > 0) {
+            // на малых мощностях точнее линейный подсчёт по пустым регистрам
+            return Math.round(m * Math.log((double) m / zeroRegisters));
+        }
+        return Math.round(raw);
+    }
+
+    void clear() {
+        Arrays.fill(registers, (byte) 0);
+        inverseSum = registers.length;
+        zeroRegisters = registers.length;
+    }
+
+    private static long mix(long value) {
+        // финализатор MurmurHash3: последовательные id дают равномерно распределённые хеши
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
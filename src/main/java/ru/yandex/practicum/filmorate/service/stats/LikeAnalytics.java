@@ -0,0 +1,122 @@
+package ru.yandex.practicum.filmorate.service.stats;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.service.event.FilmLikeEvent;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Потоковая аналитика по событиям лайков в разрезе жанров и рейтингов MPA.
+ * Память ограничена: на каждое значение измерения приходится {@value #DAYS}
+ * суточных HyperLogLog и одна сводка Space-Saving фиксированного размера.
+ * Снятые лайки не вычитаются — оба скетча считают поставленные лайки.
+ */
+@Component
+public class LikeAnalytics {
+    private static final int DAYS = 7;
+
+    private final ReferenceDataCache referenceData;
+    private final int precision;
+    private final int topCapacity;
+    private final Map<DimensionKey, DimensionSketch> sketches = new ConcurrentHashMap<>();
+
+    public LikeAnalytics(ReferenceDataCache referenceData,
+                         @Value("${filmorate.stats.hll-precision:12}") int precision,
+                         @Value("${filmorate.stats.top-capacity:100}") int topCapacity) {
+        this.referenceData = referenceData;
+        this.precision = precision;
+        this.topCapacity = topCapacity;
+    }
+
+    @EventListener
+    public void onLike(FilmLikeEvent event) {
+        if (!event.added()) {
+            return;
+        }
+        long day = LocalDate.ofInstant(event.occurredAt(), ZoneId.systemDefault()).toEpochDay();
+        for (int genreId : event.genreIds()) {
+            sketch(Dimension.GENRE, genreId).record(day, event.userId(), event.filmId());
+        }
+        if (event.mpaId() != null) {
+            sketch(Dimension.MPA, event.mpaId()).record(day, event.userId(), event.filmId());
+        }
+    }
+
+    public LikeStats snapshot(LocalDate date, int top) {
+        long day = date.toEpochDay();
+        long today = LocalDate.now().toEpochDay();
+        if (day > today || today - day >= DAYS) {
+            throw new ValidationException("Статистика хранится только за последние " + DAYS + " дней");
+        }
+        return new LikeStats(date, dimensionStats(Dimension.GENRE, day, top), dimensionStats(Dimension.MPA, day, top));
+    }
+
+    private List<LikeStats.DimensionStats> dimensionStats(Dimension dimension, long day, int top) {
+        return sketches.entrySet().stream()
+                .filter(e -> e.getKey().dimension() == dimension)
+                .sorted(Comparator.comparingInt(e -> e.getKey().id()))
+                .map(e -> e.getValue().stats(e.getKey().id(), nameOf(e.getKey()), day, top))
+                .toList();
+    }
+
+    private String nameOf(DimensionKey key) {
+        if (key.dimension() == Dimension.GENRE) {
+            return referenceData.genre(key.id()).getName();
+        }
+        MpaRating mpa = referenceData.mpa(key.id());
+        return mpa != null ? mpa.getName() : null;
+    }
+
+    private DimensionSketch sketch(Dimension dimension, int id) {
+        return sketches.computeIfAbsent(new DimensionKey(dimension, id), k -> new DimensionSketch());
+    }
+
+    private enum Dimension {
+        GENRE, MPA
+    }
+
+    private record DimensionKey(Dimension dimension, int id) {
+    }
+
+    private final class DimensionSketch {
+        private final HyperLogLog[] dailyLikers = new HyperLogLog[DAYS];
+        private final long[] slotDays = new long[DAYS];
+        private final SpaceSaving topFilms = new SpaceSaving(topCapacity);
+
+        private DimensionSketch() {
+            for (int i = 0; i < DAYS; i++) {
+                dailyLikers[i] = new HyperLogLog(precision);
+                slotDays[i] = -1;
+            }
+        }
+
+        synchronized void record(long day, long userId, long filmId) {
+            int slot = (int) (day % DAYS);
+            if (slotDays[slot] != day) {
+                dailyLikers[slot].clear();
+                slotDays[slot] = day;
+            }
+            dailyLikers[slot].add(userId);
+            topFilms.add(filmId);
+        }
+
+        synchronized LikeStats.DimensionStats stats(int id, String name, long day, int top) {
+            int slot = (int) (day % DAYS);
+            long likers = slotDays[slot] == day ? dailyLikers[slot].estimate() : 0;
+            List<LikeStats.TopFilm> films = topFilms.top(top).stream()
+                    .map(item -> new LikeStats.TopFilm(item.item(), item.count(), item.error()))
+                    .toList();
+            return new LikeStats.DimensionStats(id, name, likers, films);
+        }
+    }
+}
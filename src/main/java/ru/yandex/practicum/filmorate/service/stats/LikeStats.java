@@ -0,0 +1,18 @@
+package ru.yandex.practicum.filmorate.service.stats;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Оценки по лайкам: число уникальных лайкнувших за день (HyperLogLog, погрешность
+ * около 1.6%) и самые лайкаемые фильмы с момента запуска (Space-Saving, реальное
+ * число лайков лежит в пределах [likes - maxError, likes]).
+ */
+public record LikeStats(LocalDate date, List<DimensionStats> genres, List<DimensionStats> mpa) {
+
+    public record DimensionStats(int id, String name, long uniqueLikers, List<TopFilm> topFilms) {
+    }
+
+    public record TopFilm(long filmId, long likes, long maxError) {
+    }
+}
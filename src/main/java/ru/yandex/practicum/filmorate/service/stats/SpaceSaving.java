@@ -0,0 +1,71 @@
+package ru.yandex.practicum.filmorate.service.stats;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Алгоритм Space-Saving: не больше {@code capacity} счётчиков, новый элемент
+ * вытесняет минимальный и наследует его значение как погрешность. Любой элемент
+ * с частотой больше N/capacity гарантированно остаётся в сводке. Не потокобезопасен.
+ */
+class SpaceSaving {
+    private static final Comparator<Entry> BY_COUNT = Comparator.comparingLong((Entry e) -> e.count)
+            .thenComparingLong(e -> e.item);
+
+    private final int capacity;
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> ordered = new TreeSet<>(BY_COUNT);
+
+    SpaceSaving(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void add(long item) {
+        Entry entry = entries.get(item);
+        if (entry != null) {
+            ordered.remove(entry);
+            entry.count++;
+            ordered.add(entry);
+            return;
+        }
+        if (entries.size() < capacity) {
+            entry = new Entry(item, 1, 0);
+        } else {
+            Entry min = ordered.pollFirst();
+            entries.remove(min.item);
+            entry = new Entry(item, min.count + 1, min.count);
+        }
+        entries.put(item, entry);
+        ordered.add(entry);
+    }
+
+    List<TopItem> top(int count) {
+        List<TopItem> result = new ArrayList<>(Math.min(count, ordered.size()));
+        Iterator<Entry> it = ordered.descendingIterator();
+        while (it.hasNext() && result.size() < count) {
+            Entry e = it.next();
+            result.add(new TopItem(e.item, e.count, e.error));
+        }
+        return result;
+    }
+
+    record TopItem(long item, long count, long error) {
+    }
+
+    private static final class Entry {
+        private final long item;
+        private long count;
+        private final long error;
+
+        private Entry(long item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
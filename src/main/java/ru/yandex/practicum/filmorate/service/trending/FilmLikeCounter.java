@@ -0,0 +1,91 @@
+package ru.yandex.practicum.filmorate.service.trending;
+
+/**
+ * Счётчики лайков одного фильма в кольцевых буферах: 60 минутных корзин для окна
+ * в час и 168 часовых для суток и недели. Итоги по окнам поддерживаются
+ * инкрементально: при сдвиге времени из них вычитаются только устаревшие корзины.
+ */
+class FilmLikeCounter {
+    private static final int MINUTES = 60;
+    private static final int HOURS = 24 * 7;
+    private static final int HOURS_PER_DAY = 24;
+
+    private final int[] minutes = new int[MINUTES];
+    private final int[] hours = new int[HOURS];
+    private long currentMinute;
+    private long currentHour;
+    private int hourTotal;
+    private int dayTotal;
+    private int weekTotal;
+
+    FilmLikeCounter(long nowMinute) {
+        this.currentMinute = nowMinute;
+        this.currentHour = nowMinute / MINUTES;
+    }
+
+    synchronized void add(long atMinute, long nowMinute, int delta) {
+        advance(nowMinute);
+        long minute = Math.min(atMinute, currentMinute);
+        long hour = minute / MINUTES;
+        if (currentHour - hour >= HOURS) {
+            return;
+        }
+        hours[(int) (hour % HOURS)] += delta;
+        weekTotal += delta;
+        if (currentHour - hour < HOURS_PER_DAY) {
+            dayTotal += delta;
+        }
+        if (currentMinute - minute < MINUTES) {
+            minutes[(int) (minute % MINUTES)] += delta;
+            hourTotal += delta;
+        }
+    }
+
+    /**
+     * Снятые лайки вычитаются из текущей корзины, поэтому сумма за окно — это чистое
+     * число лайков за окно и может временно уйти в минус; наружу отдаётся не меньше нуля.
+     */
+    synchronized int count(TrendingWindow window, long nowMinute) {
+        advance(nowMinute);
+        int total = switch (window) {
+            case HOUR -> hourTotal;
+            case DAY -> dayTotal;
+            case WEEK -> weekTotal;
+        };
+        return Math.max(0, total);
+    }
+
+    synchronized boolean isIdle(long nowMinute) {
+        advance(nowMinute);
+        return weekTotal <= 0;
+    }
+
+    private void advance(long nowMinute) {
+        if (nowMinute <= currentMinute) {
+            return;
+        }
+        long minuteSteps = Math.min(nowMinute - currentMinute, MINUTES);
+        for (long m = nowMinute - minuteSteps + 1; m <= nowMinute; m++) {
+            int slot = (int) (m % MINUTES);
+            hourTotal -= minutes[slot];
+            minutes[slot] = 0;
+        }
+        currentMinute = nowMinute;
+
+        long nowHour = nowMinute / MINUTES;
+        if (nowHour > currentHour) {
+            long hourSteps = Math.min(nowHour - currentHour, HOURS);
+            for (long h = nowHour - hourSteps + 1; h <= nowHour; h++) {
+                int slot = (int) (h % HOURS);
+                weekTotal -= hours[slot];
+                hours[slot] = 0;
+            }
+            currentHour = nowHour;
+            int day = 0;
+            for (long h = nowHour - HOURS_PER_DAY + 1; h <= nowHour; h++) {
+                day += hours[(int) (h % HOURS)];
+            }
+            dayTotal = day;
+        }
+    }
+}
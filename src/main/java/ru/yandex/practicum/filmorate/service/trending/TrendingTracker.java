@@ -0,0 +1,134 @@
+package ru.yandex.practicum.filmorate.service.trending;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dal.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+import ru.yandex.practicum.filmorate.service.event.FilmLikeEvent;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Число лайков фильмов за последние час, сутки и неделю. Хранятся только фильмы,
+ * у которых были лайки за неделю; top-N считается по текущим итогам окон,
+ * без обращения к истории лайков.
+ * <p>
+ * Счётчики восстанавливаются при создании бина, до того как приложение начнёт
+ * принимать запросы: иначе лайк, поставленный во время восстановления, попал бы
+ * в счётчики дважды — из события и из хранилища.
+ */
+@Slf4j
+@Component
+public class TrendingTracker {
+    private final FilmStorage filmStorage;
+    private final Clock clock;
+    private final Map<Long, FilmLikeCounter> counters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TrendingTracker(@Qualifier("filmStorage") FilmStorage filmStorage) {
+        this(filmStorage, Clock.systemDefaultZone());
+    }
+
+    public TrendingTracker(FilmStorage filmStorage, Clock clock) {
+        this.filmStorage = filmStorage;
+        this.clock = clock;
+    }
+
+    @EventListener
+    public void onLike(FilmLikeEvent event) {
+        long now = nowMinute();
+        record(event.filmId(), now, now, event.added() ? 1 : -1);
+    }
+
+    public List<Long> top(TrendingWindow window, int count) {
+        long now = nowMinute();
+        Comparator<FilmCount> ranking = Comparator.comparingInt(FilmCount::count)
+                .thenComparing(Comparator.comparingLong(FilmCount::filmId).reversed());
+        PriorityQueue<FilmCount> heap = new PriorityQueue<>(count + 1, ranking);
+        counters.forEach((filmId, counter) -> {
+            int likes = counter.count(window, now);
+            if (likes > 0) {
+                heap.offer(new FilmCount(filmId, likes));
+                if (heap.size() > count) {
+                    heap.poll();
+                }
+            }
+        });
+        List<Long> result = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            result.add(heap.poll().filmId());
+        }
+        return result.reversed();
+    }
+
+    /**
+     * Число лайков фильма за окно.
+     */
+    public int count(long filmId, TrendingWindow window) {
+        FilmLikeCounter counter = counters.get(filmId);
+        return counter != null ? counter.count(window, nowMinute()) : 0;
+    }
+
+    /**
+     * Число фильмов, для которых хранятся счётчики.
+     */
+    public int trackedFilms() {
+        return counters.size();
+    }
+
+    /**
+     * Восстанавливает счётчики по лайкам за последнюю неделю из хранилища.
+     */
+    @PostConstruct
+    public void warmUp() {
+        long started = System.nanoTime();
+        long now = nowMinute();
+        LocalDateTime since = LocalDateTime.now(clock).minus(TrendingWindow.WEEK.getDuration());
+        int[] loaded = new int[1];
+        filmStorage.forEachLikeSince(since, like -> {
+            record(like.filmId(), toMinute(like), now, 1);
+            loaded[0]++;
+        });
+        log.info("Счётчики трендов восстановлены по {} лайкам за {} мс", loaded[0],
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    @Scheduled(fixedDelayString = "${filmorate.trending.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long now = nowMinute();
+        counters.keySet().forEach(filmId ->
+                counters.computeIfPresent(filmId, (id, counter) -> counter.isIdle(now) ? null : counter));
+    }
+
+    private void record(long filmId, long atMinute, long nowMinute, int delta) {
+        counters.compute(filmId, (id, counter) -> {
+            FilmLikeCounter target = counter != null ? counter : new FilmLikeCounter(nowMinute);
+            target.add(atMinute, nowMinute, delta);
+            return target;
+        });
+    }
+
+    private long toMinute(FilmLike like) {
+        return TimeUnit.MILLISECONDS.toMinutes(like.likedAt().atZone(clock.getZone()).toInstant().toEpochMilli());
+    }
+
+    private long nowMinute() {
+        return TimeUnit.MILLISECONDS.toMinutes(clock.millis());
+    }
+
+    private record FilmCount(long filmId, int count) {
+    }
+}
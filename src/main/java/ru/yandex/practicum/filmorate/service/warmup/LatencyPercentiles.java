@@ -0,0 +1,23 @@
+package ru.yandex.practicum.filmorate.service.warmup;
+
+import java.util.List;
+
+/**
+ * p50 и p99 задержек одного раунда прогрева, в миллисекундах.
+ */
+record LatencyPercentiles(double p50Ms, double p99Ms) {
+    static final String TOTAL = "всего";
+
+    static LatencyPercentiles of(List<Long> nanos) {
+        long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        return new LatencyPercentiles(percentile(sorted, 0.50), percentile(sorted, 0.99));
+    }
+
+    private static double percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,226 @@
+package ru.yandex.practicum.filmorate.service.warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Прогрев после старта: гоняет запросы к /films/popular, /films/{id} и
+ * /users/{id}/friends/common/{otherId} через настоящий HTTP-стек, пока p99 не
+ * перестанет меняться между раундами. Запросы синтетические — id берутся из ответа
+ * /films/popular — или повторяются из файла с путями ({@code filmorate.warmup.replay-file},
+ * по одному пути на строку).
+ * <p>
+ * Spring Boot переводит приложение в ACCEPTING_TRAFFIC только после всех
+ * {@link ApplicationRunner}, поэтому readiness-проба не проходит, пока прогрев не закончен.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.warmup.enabled", havingValue = "true")
+public class WarmupRunner implements ApplicationRunner {
+    private static final int SAMPLE_FILMS = 100;
+
+    private final ApplicationContext context;
+    private final Environment environment;
+    private final ObjectMapper objectMapper;
+    private final String replayFile;
+    private final int requestsPerRound;
+    private final int concurrency;
+    private final int maxRounds;
+    private final int stableRounds;
+    private final double tolerance;
+    private final long maxDurationMs;
+
+    public WarmupRunner(ApplicationContext context,
+                        Environment environment,
+                        ObjectMapper objectMapper,
+                        @Value("${filmorate.warmup.replay-file:}") String replayFile,
+                        @Value("${filmorate.warmup.requests-per-round:300}") int requestsPerRound,
+                        @Value("${filmorate.warmup.concurrency:4}") int concurrency,
+                        @Value("${filmorate.warmup.max-rounds:50}") int maxRounds,
+                        @Value("${filmorate.warmup.stable-rounds:3}") int stableRounds,
+                        @Value("${filmorate.warmup.tolerance:0.15}") double tolerance,
+                        @Value("${filmorate.warmup.max-duration-ms:60000}") long maxDurationMs) {
+        this.context = context;
+        this.environment = environment;
+        this.objectMapper = objectMapper;
+        this.replayFile = replayFile;
+        this.requestsPerRound = requestsPerRound;
+        this.concurrency = concurrency;
+        this.maxRounds = maxRounds;
+        this.stableRounds = stableRounds;
+        this.tolerance = tolerance;
+        this.maxDurationMs = maxDurationMs;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        Integer port = environment.getProperty("local.server.port", Integer.class);
+        if (port == null) {
+            log.warn("Прогрев пропущен: веб-сервер не запущен");
+            return;
+        }
+        AvailabilityChangeEvent.publish(context, ReadinessState.REFUSING_TRAFFIC);
+        String baseUrl = "http://localhost:" + port;
+        long started = System.nanoTime();
+        try (ExecutorService executor = Executors.newFixedThreadPool(concurrency)) {
+            HttpClient client = HttpClient.newBuilder()
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            List<Probe> probes = replayFile.isBlank() ? syntheticProbes(client, baseUrl) : replayedProbes();
+            if (probes.isEmpty()) {
+                log.warn("Прогрев пропущен: нет запросов");
+                return;
+            }
+            Map<String, LatencyPercentiles> before = null;
+            Map<String, LatencyPercentiles> after = null;
+            double previousP99 = -1;
+            int stable = 0;
+            int round = 0;
+            while (round < maxRounds && stable < stableRounds
+                    && (System.nanoTime() - started) / 1_000_000 < maxDurationMs) {
+                after = runRound(client, executor, baseUrl, probes);
+                if (before == null) {
+                    before = after;
+                }
+                double p99 = after.get(LatencyPercentiles.TOTAL).p99Ms();
+                boolean steady = previousP99 > 0 && Math.abs(p99 - previousP99) <= tolerance * previousP99;
+                stable = steady ? stable + 1 : 0;
+                previousP99 = p99;
+                round++;
+            }
+            report(before, after, round, stable >= stableRounds, (System.nanoTime() - started) / 1_000_000);
+        }
+    }
+
+    private Map<String, LatencyPercentiles> runRound(HttpClient client, ExecutorService executor,
+                                                     String baseUrl, List<Probe> probes) throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        List<Future<List<Sample>>> workers = new ArrayList<>();
+        for (int w = 0; w < concurrency; w++) {
+            workers.add(executor.submit(() -> {
+                List<Sample> samples = new ArrayList<>();
+                int i;
+                while ((i = next.getAndIncrement()) < requestsPerRound) {
+                    Probe probe = probes.get(i % probes.size());
+                    long start = System.nanoTime();
+                    send(client, baseUrl + probe.path());
+                    samples.add(new Sample(probe.endpoint(), System.nanoTime() - start));
+                }
+                return samples;
+            }));
+        }
+        Map<String, List<Long>> byEndpoint = new LinkedHashMap<>();
+        List<Long> total = new ArrayList<>();
+        for (Future<List<Sample>> worker : workers) {
+            for (Sample sample : worker.get()) {
+                byEndpoint.computeIfAbsent(sample.endpoint(), k -> new ArrayList<>()).add(sample.nanos());
+                total.add(sample.nanos());
+            }
+        }
+        Map<String, LatencyPercentiles> result = new LinkedHashMap<>();
+        byEndpoint.forEach((endpoint, nanos) -> result.put(endpoint, LatencyPercentiles.of(nanos)));
+        result.put(LatencyPercentiles.TOTAL, LatencyPercentiles.of(total));
+        return result;
+    }
+
+    private List<Probe> syntheticProbes(HttpClient client, String baseUrl) throws IOException {
+        String body = send(client, baseUrl + "/films/popular?count=" + SAMPLE_FILMS);
+        Set<Long> filmIds = new LinkedHashSet<>();
+        Set<Long> userIds = new LinkedHashSet<>();
+        if (body != null) {
+            for (JsonNode film : objectMapper.readTree(body)) {
+                filmIds.add(film.path("id").asLong());
+                film.path("likes").forEach(like -> userIds.add(like.asLong()));
+            }
+        }
+        List<Long> users = new ArrayList<>(userIds.isEmpty() ? List.of(1L, 2L) : userIds);
+        List<Probe> probes = new ArrayList<>();
+        probes.add(new Probe("/films/popular", "/films/popular"));
+        for (long filmId : filmIds) {
+            probes.add(new Probe("/films/{id}", "/films/" + filmId));
+        }
+        for (int i = 0; i < Math.max(users.size(), SAMPLE_FILMS / 2); i++) {
+            long userId = users.get(i % users.size());
+            long otherId = users.get((i + 1) % users.size());
+            probes.add(new Probe("/users/{id}/friends/common/{otherId}",
+                    "/users/" + userId + "/friends/common/" + otherId));
+        }
+        return probes;
+    }
+
+    private List<Probe> replayedProbes() throws IOException {
+        return Files.readAllLines(Path.of(replayFile)).stream()
+                .map(String::strip)
+                .filter(line -> line.startsWith("/"))
+                .map(line -> new Probe(endpointOf(line), line))
+                .toList();
+    }
+
+    private static String endpointOf(String path) {
+        int query = path.indexOf('?');
+        return (query >= 0 ? path.substring(0, query) : path).replaceAll("/\\d+", "/{id}");
+    }
+
+    private static String send(HttpClient client, String url) {
+        try {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url)).GET().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == 200 ? response.body() : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Прогрев прерван", e);
+        }
+    }
+
+    private static void report(Map<String, LatencyPercentiles> before, Map<String, LatencyPercentiles> after,
+                               int rounds, boolean stabilized, long durationMs) {
+        log.info("Прогрев {} за {} мс, раундов: {}", stabilized ? "завершён" : "остановлен по лимиту",
+                durationMs, rounds);
+        after.forEach((endpoint, last) -> {
+            LatencyPercentiles first = before.get(endpoint);
+            log.info("  {}: p50 {} → {} мс, p99 {} → {} мс", endpoint,
+                    format(first.p50Ms()), format(last.p50Ms()), format(first.p99Ms()), format(last.p99Ms()));
+        });
+    }
+
+    private static String format(double ms) {
+        return String.format("%.2f", ms);
+    }
+
+    private record Probe(String endpoint, String path) {
+    }
+
+    private record Sample(String endpoint, long nanos) {
+    }
+}
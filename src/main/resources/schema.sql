@@ -36,8 +36,36 @@ CREATE TABLE IF NOT EXISTS film_likes
 (
     film_id BIGINT NOT NULL REFERENCES films (id) ON DELETE CASCADE,
     user_id BIGINT NOT NULL REFERENCES users (id) ON DELETE CASCADE,
+    liked_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
     PRIMARY KEY (film_id, user_id)
 );
+ALTER TABLE film_likes ADD COLUMN IF NOT EXISTS liked_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP;
+CREATE TABLE IF NOT EXISTS film_like_bitmaps
+(
+    film_id    BIGINT    NOT NULL PRIMARY KEY REFERENCES films (id) ON DELETE CASCADE,
+    like_count INT       NOT NULL,
+    user_ids   VARBINARY NOT NULL
+);
+CREATE TABLE IF NOT EXISTS user_like_bitmaps
+(
+    user_id    BIGINT    NOT NULL PRIMARY KEY REFERENCES users (id) ON DELETE CASCADE,
+    like_count INT       NOT NULL,
+    film_ids   VARBINARY NOT NULL
+);
+CREATE TABLE IF NOT EXISTS film_like_deltas
+(
+    id       BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    film_id  BIGINT    NOT NULL REFERENCES films (id) ON DELETE CASCADE,
+    user_id  BIGINT    NOT NULL,
+    liked    BOOLEAN   NOT NULL,
+    merged   BOOLEAN   NOT NULL DEFAULT FALSE,
+    liked_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+CREATE TABLE IF NOT EXISTS data_migrations
+(
+    name       VARCHAR(64) PRIMARY KEY,
+    applied_at TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
 CREATE TABLE IF NOT EXISTS friendships
 (
         user_id   BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
@@ -45,10 +73,24 @@ CREATE TABLE IF NOT EXISTS friendships
         PRIMARY KEY (user_id, friend_id),
         CHECK (user_id <> friend_id)
 );
+CREATE TABLE IF NOT EXISTS outbox_events
+(
+    id          BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    event_type  VARCHAR(32) NOT NULL,
+    entity_id   BIGINT      NOT NULL,
+    related_id  BIGINT      NOT NULL,
+    created_at  TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
 CREATE INDEX IF NOT EXISTS idx_users_email     ON users (email);
 CREATE INDEX IF NOT EXISTS idx_users_login     ON users (login);
 CREATE INDEX IF NOT EXISTS idx_films_mpa       ON films (mpa_id);
 CREATE INDEX IF NOT EXISTS idx_fg_genre        ON film_genres (genre_id);
 CREATE INDEX IF NOT EXISTS idx_likes_film      ON film_likes (film_id);
+CREATE INDEX IF NOT EXISTS idx_likes_liked_at  ON film_likes (liked_at);
+CREATE INDEX IF NOT EXISTS idx_likes_user_time ON film_likes (user_id, liked_at);
 CREATE INDEX IF NOT EXISTS idx_friend_user     ON friendships (user_id);
 CREATE INDEX IF NOT EXISTS idx_friend_friend   ON friendships (friend_id);
+CREATE INDEX IF NOT EXISTS idx_deltas_pair    ON film_like_deltas (film_id, user_id, id);
+CREATE INDEX IF NOT EXISTS idx_deltas_user    ON film_like_deltas (user_id, liked_at);
+CREATE INDEX IF NOT EXISTS idx_deltas_merged  ON film_like_deltas (merged, id);
+CREATE INDEX IF NOT EXISTS idx_deltas_time    ON film_like_deltas (liked_at);
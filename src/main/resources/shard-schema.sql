@@ -0,0 +1,19 @@
+CREATE TABLE IF NOT EXISTS film_likes
+(
+    film_id BIGINT NOT NULL,
+    user_id BIGINT NOT NULL,
+    liked_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (film_id, user_id)
+);
+ALTER TABLE film_likes ADD COLUMN IF NOT EXISTS liked_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP;
+CREATE TABLE IF NOT EXISTS friendships
+(
+    user_id   BIGINT NOT NULL,
+    friend_id BIGINT NOT NULL,
+    PRIMARY KEY (user_id, friend_id),
+    CHECK (user_id <> friend_id)
+);
+CREATE INDEX IF NOT EXISTS idx_likes_user      ON film_likes (user_id);
+CREATE INDEX IF NOT EXISTS idx_likes_user_time ON film_likes (user_id, liked_at);
+CREATE INDEX IF NOT EXISTS idx_likes_liked_at  ON film_likes (liked_at);
+CREATE INDEX IF NOT EXISTS idx_friend_friend   ON friendships (friend_id);
@@ -1,36 +1,169 @@
 package ru.yandex.practicum.filmorate;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
 import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.controller.ErrorHandler;
+import ru.yandex.practicum.filmorate.controller.FilmController;
+import ru.yandex.practicum.filmorate.controller.RateLimitInterceptor;
+import ru.yandex.practicum.filmorate.controller.WebConfig;
+import ru.yandex.practicum.filmorate.dal.ExportDbStorage;
 import ru.yandex.practicum.filmorate.dal.FilmDbStorage;
+import ru.yandex.practicum.filmorate.dal.OutboxDbStorage;
+import ru.yandex.practicum.filmorate.dal.ParallelQueryExecutor;
+import ru.yandex.practicum.filmorate.dal.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.dal.SchemaConfig;
 import ru.yandex.practicum.filmorate.dal.UserDbStorage;
+import ru.yandex.practicum.filmorate.dal.VersionedSchemaInitializer;
+import ru.yandex.practicum.filmorate.dal.bitmap.LikeBitmapStorage;
+import ru.yandex.practicum.filmorate.dal.routing.DataSourceRole;
+import ru.yandex.practicum.filmorate.dal.routing.ReadWriteRoutingDataSource;
+import ru.yandex.practicum.filmorate.dal.routing.ReadYourWritesTracker;
+import ru.yandex.practicum.filmorate.dal.routing.ReplicationStandIn;
+import ru.yandex.practicum.filmorate.dal.shard.ShardRouter;
+import ru.yandex.practicum.filmorate.dal.shard.ShardedRelationStorage;
+import ru.yandex.practicum.filmorate.dal.sql.ExportSqlQuery;
+import ru.yandex.practicum.filmorate.dal.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.dal.storage.InMemoryUserStorage;
+import ru.yandex.practicum.filmorate.dal.storage.offheap.OffHeapLikeStore;
+import ru.yandex.practicum.filmorate.dal.storage.snapshot.SnapshotCodec;
+import ru.yandex.practicum.filmorate.dal.storage.snapshot.StorageSnapshot;
+import ru.yandex.practicum.filmorate.dal.storage.wal.FsyncPolicy;
+import ru.yandex.practicum.filmorate.dal.storage.wal.JournaledFilmStorage;
+import ru.yandex.practicum.filmorate.dal.storage.wal.JournaledUserStorage;
+import ru.yandex.practicum.filmorate.dal.storage.wal.WalStorageManager;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmLike;
+import ru.yandex.practicum.filmorate.model.FilmRank;
+import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.OutboxEvent;
+import ru.yandex.practicum.filmorate.model.OutboxEventType;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.CompactFilmCache;
+import ru.yandex.practicum.filmorate.service.ExportService;
+import ru.yandex.practicum.filmorate.service.JsonResponseCache;
+import ru.yandex.practicum.filmorate.service.LikeCoalescer;
+import ru.yandex.practicum.filmorate.service.autocomplete.PrefixIndex;
+import ru.yandex.practicum.filmorate.service.availability.BloomFilter;
+import ru.yandex.practicum.filmorate.service.browse.FilmBrowseQuery;
+import ru.yandex.practicum.filmorate.service.browse.FilmFacetIndex;
+import ru.yandex.practicum.filmorate.service.event.FilmLikeEvent;
+import ru.yandex.practicum.filmorate.service.event.FriendshipEvent;
+import ru.yandex.practicum.filmorate.service.feed.FeedStore;
+import ru.yandex.practicum.filmorate.service.graph.FriendGraph;
+import ru.yandex.practicum.filmorate.service.outbox.FileOutboxSink;
+import ru.yandex.practicum.filmorate.service.ranking.IndexedSkipList;
+import ru.yandex.practicum.filmorate.service.ranking.PopularityRanking;
+import ru.yandex.practicum.filmorate.service.ratelimit.AdaptiveConcurrencyLimiter;
+import ru.yandex.practicum.filmorate.service.ratelimit.RateLimiter;
+import ru.yandex.practicum.filmorate.service.ratelimit.TokenBucket;
+import ru.yandex.practicum.filmorate.service.similar.SimilarFilmsIndex;
+import ru.yandex.practicum.filmorate.service.stats.LikeAnalytics;
+import ru.yandex.practicum.filmorate.service.stats.LikeStats;
+import ru.yandex.practicum.filmorate.service.trending.TrendingTracker;
+import ru.yandex.practicum.filmorate.service.trending.TrendingWindow;
+import ru.yandex.practicum.filmorate.service.warmup.WarmupRunner;
 
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @JdbcTest
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
-@Import({UserDbStorage.class, FilmDbStorage.class})
+@Import({UserDbStorage.class, FilmDbStorage.class, OutboxDbStorage.class, ReferenceDataCache.class})
 class FilmoRateApplicationTests {
 	private final UserDbStorage userStorage;
 	private final FilmDbStorage filmStorage;
+	private final OutboxDbStorage outboxStorage;
 	private final JdbcTemplate jdbc;
+	private final PlatformTransactionManager transactionManager;
 
 	@BeforeEach
 	void setupDatabase() {
+		jdbc.update("DELETE FROM outbox_events");
 		jdbc.update("DELETE FROM film_likes");
 		jdbc.update("DELETE FROM friendships");
 		jdbc.update("DELETE FROM film_genres");
@@ -127,4 +260,1607 @@ class FilmoRateApplicationTests {
 		assertThat(films).isNotEmpty();
 		assertThat(films.get(0).getName()).isEqualTo("Matrix");
 	}
-}
\ No newline at end of file
+
+	@Test
+	void testLikeAndFriendshipWrittenToOutbox() {
+		filmStorage.addLike(1L, 2L);
+		userStorage.addFriend(1L, 2L);
+		userStorage.addFriend(1L, 2L);
+		filmStorage.removeLike(1L, 2L);
+		filmStorage.removeLike(1L, 2L);
+
+		List<OutboxEvent> events = outboxStorage.fetchBatch(10);
+		assertThat(events)
+				.extracting(OutboxEvent::getType)
+				.containsExactly(OutboxEventType.LIKE_ADDED, OutboxEventType.FRIEND_ADDED,
+						OutboxEventType.LIKE_REMOVED);
+		assertThat(events.get(0).getEntityId()).isEqualTo(1L);
+		assertThat(events.get(0).getRelatedId()).isEqualTo(2L);
+
+		outboxStorage.delete(events.stream().map(OutboxEvent::getId).toList());
+		assertThat(outboxStorage.fetchBatch(10)).isEmpty();
+	}
+
+	@Test
+	void testFindFilmsAndUsersByIds() {
+		jdbc.update("""
+				INSERT INTO films (name, description, release_date, duration, mpa_id)
+				VALUES ('Alien','Horror','1979-05-25',117, 2)
+				""");
+		filmStorage.addLike(2L, 1L);
+		filmStorage.addLike(2L, 2L);
+
+		List<Film> films = filmStorage.findByIds(List.of(2L, 99L, 1L, 2L));
+		assertThat(films).extracting(Film::getId).containsExactly(2L, 1L);
+		assertThat(films.get(0).getLikes()).containsExactlyInAnyOrder(1L, 2L);
+		assertThat(films.get(0).getMpa().getName()).isEqualTo("PG");
+		assertThat(films.get(1).getLikes()).isEmpty();
+
+		assertThat(userStorage.findByIds(List.of(2L, 1L)))
+				.extracting(User::getLogin)
+				.containsExactly("u2", "u1");
+	}
+
+	@Test
+	void testFindCompactFilmsByIds() {
+		jdbc.update("INSERT INTO film_genres (film_id, genre_id) VALUES (1, 2), (1, 1)");
+		filmStorage.addLike(1L, 1L);
+		filmStorage.addLike(1L, 2L);
+
+		List<CompactFilm> films = filmStorage.findCompactByIds(List.of(1L, 42L));
+		assertThat(films).hasSize(1);
+		CompactFilm film = films.get(0);
+		assertThat(film.name()).isEqualTo("Matrix");
+		assertThat(film.likeCount()).isEqualTo(2);
+		assertThat(film.genreIds()).containsExactly(1, 2);
+		assertThat(film.mpa().getName()).isEqualTo("G");
+		assertThat(filmStorage.findCompactByIds(List.of(1L)).get(0).mpa()).isSameAs(film.mpa());
+	}
+
+	@Test
+	void testLikeIsAddedOnceAndTimestamped() {
+		assertThat(filmStorage.addLike(1L, 1L)).isTrue();
+		assertThat(filmStorage.addLike(1L, 1L)).isFalse();
+		jdbc.update("UPDATE film_likes SET liked_at = DATEADD('DAY', -10, CURRENT_TIMESTAMP) WHERE user_id = 1");
+		assertThat(filmStorage.addLike(1L, 2L)).isTrue();
+
+		List<FilmLike> recent = new ArrayList<>();
+		filmStorage.forEachLikeSince(LocalDateTime.now().minusDays(7), recent::add);
+		assertThat(recent).extracting(FilmLike::userId).containsExactly(2L);
+
+		assertThat(filmStorage.removeLike(1L, 2L)).isTrue();
+		assertThat(filmStorage.removeLike(1L, 2L)).isFalse();
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testConcurrentLikesAreCoalesced() throws Exception {
+		LikeCoalescer coalescer = new LikeCoalescer(1000);
+		AtomicInteger writes = new AtomicInteger();
+		int threads = 64;
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Boolean>> results = new ArrayList<>();
+		try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+			for (int i = 0; i < threads; i++) {
+				long userId = i % 2 + 1;
+				results.add(executor.submit(() -> {
+					start.await();
+					return coalescer.apply(1L, userId, true, () -> {
+						writes.incrementAndGet();
+						return filmStorage.addLike(1L, userId);
+					});
+				}));
+			}
+			start.countDown();
+			int changed = 0;
+			for (Future<Boolean> result : results) {
+				changed += result.get() ? 1 : 0;
+			}
+			assertThat(changed).isEqualTo(2);
+		}
+
+		assertThat(writes.get()).isEqualTo(2);
+		assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM film_likes WHERE film_id = 1", Integer.class))
+				.isEqualTo(2);
+		assertThat(outboxStorage.fetchBatch(100))
+				.extracting(OutboxEvent::getType)
+				.containsOnly(OutboxEventType.LIKE_ADDED)
+				.hasSize(2);
+		assertThat(coalescer.apply(1L, 1L, true, () -> {
+			throw new AssertionError("Повторный лайк не должен доходить до хранилища");
+		})).isFalse();
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testLikeCoalescerMakesDuplicatesWaitForTheFirstWrite() throws Exception {
+		LikeCoalescer coalescer = new LikeCoalescer(1000);
+		AtomicInteger writes = new AtomicInteger();
+		try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+			CountDownLatch writing = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			Future<Boolean> first = executor.submit(() -> coalescer.apply(1L, 1L, true, () -> {
+				writes.incrementAndGet();
+				writing.countDown();
+				awaitLatch(release);
+				throw new IllegalStateException("Запись не удалась");
+			}));
+			writing.await();
+			Future<Boolean> duplicate = executor.submit(() -> coalescer.apply(1L, 1L, true, () -> {
+				writes.incrementAndGet();
+				return true;
+			}));
+			Thread.sleep(100);
+			assertThat(duplicate.isDone()).isFalse();
+			release.countDown();
+			// первая запись не удалась, и дубль после ожидания пишет сам
+			assertThatThrownBy(first::get).hasCauseInstanceOf(IllegalStateException.class);
+			assertThat(duplicate.get()).isTrue();
+			assertThat(writes.get()).isEqualTo(2);
+
+			CountDownLatch liking = new CountDownLatch(1);
+			CountDownLatch liked = new CountDownLatch(1);
+			Future<Boolean> like = executor.submit(() -> coalescer.apply(1L, 2L, true, () -> {
+				liking.countDown();
+				awaitLatch(liked);
+				return true;
+			}));
+			liking.await();
+			Future<Boolean> unlike = executor.submit(() -> coalescer.apply(1L, 2L, false, () -> true));
+			Thread.sleep(100);
+			assertThat(unlike.isDone()).isFalse();
+			liked.countDown();
+			assertThat(like.get()).isTrue();
+			assertThat(unlike.get()).isTrue();
+			assertThat(coalescer.apply(1L, 2L, false, () -> {
+				throw new AssertionError("Повторное снятие лайка не должно доходить до хранилища");
+			})).isFalse();
+		}
+
+		// внутри транзакции запрос не ждёт и не доверяет известному состоянию после неё
+		TransactionTemplate tx = new TransactionTemplate(transactionManager);
+		Boolean unlikedInTransaction = tx.execute(status -> coalescer.apply(1L, 1L, false, () -> true));
+		assertThat(unlikedInTransaction).isTrue();
+		assertThat(coalescer.apply(1L, 1L, true, () -> true)).isTrue();
+	}
+
+	private static void awaitLatch(CountDownLatch latch) {
+		try {
+			assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	void testShortestFriendPath() {
+		for (int i = 3; i <= 7; i++) {
+			jdbc.update("INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, '1990-01-01')",
+					"u" + i + "@mail.com", "u" + i, "User " + i);
+		}
+		// 1 → 2 → 3 → 4 → 5 и короткий путь 1 → 6 → 5; 7 добавил 1, но не наоборот
+		long[][] edges = {{1, 2}, {2, 3}, {3, 4}, {4, 5}, {1, 6}, {6, 5}, {7, 1}};
+		for (long[] edge : edges) {
+			userStorage.addFriend(edge[0], edge[1]);
+		}
+
+		FriendGraph graph = FriendGraph.load(userStorage);
+		FriendGraph.SearchState state = new FriendGraph.SearchState();
+		assertThat(graph.userCount()).isEqualTo(7);
+		assertThat(graph.shortestPath(1, 5, 6, state)).containsExactly(1, 6, 5);
+		assertThat(graph.shortestPath(1, 4, 6, state)).containsExactly(1, 2, 3, 4);
+		assertThat(graph.shortestPath(1, 4, 2, state)).isNull();
+		assertThat(graph.shortestPath(7, 5, 6, state)).containsExactly(7, 1, 6, 5);
+		assertThat(graph.shortestPath(5, 1, 6, state)).isNull();
+		assertThat(graph.shortestPath(3, 3, 6, state)).containsExactly(3);
+		assertThat(graph.shortestPath(1, 42, 6, state)).isNull();
+	}
+
+	@Test
+	void testOffHeapLikeStoreKeepsSortedLikesAcrossCompaction() {
+		// крошечные куски, чтобы рост блоков и уплотнение случались сразу
+		OffHeapLikeStore store = new OffHeapLikeStore(1024, 0.5);
+		for (long userId = 40; userId >= 1; userId--) {
+			assertThat(store.add(1L, userId)).isTrue();
+			assertThat(store.add(2L, userId * 2)).isTrue();
+		}
+		assertThat(store.add(1L, 7L)).isFalse();
+		assertThat(store.count(1L)).isEqualTo(40);
+		long reserved = store.reservedBytes();
+
+		for (long userId = 1; userId <= 38; userId++) {
+			assertThat(store.remove(1L, userId)).isTrue();
+		}
+		store.removeFilm(2L);
+		assertThat(store.remove(1L, 1L)).isFalse();
+
+		assertThat(store.userIds(1L)).containsExactly(39L, 40L);
+		assertThat(store.contains(1L, 40L)).isTrue();
+		assertThat(store.count(2L)).isZero();
+		assertThat(store.reservedBytes()).isLessThan(reserved);
+		List<long[]> likes = new ArrayList<>();
+		store.forEach((filmId, userId) -> likes.add(new long[]{filmId, userId}));
+		assertThat(likes).hasSize(2);
+	}
+
+	@Test
+	void testLikeBitmapsMergeJournal() throws IOException {
+		jdbc.update("""
+				INSERT INTO films (name, description, release_date, duration, mpa_id)
+				VALUES ('Alien','Horror','1979-05-25',117, 1)
+				""");
+		// пачка по две записи, чтобы слияние прошло в несколько заходов
+		LikeBitmapStorage bitmaps = new LikeBitmapStorage(new NamedParameterJdbcTemplate(jdbc),
+				transactionManager, 100, 2, 168, false);
+		assertThat(bitmaps.addLike(1L, 1L)).isEqualTo(1);
+		assertThat(bitmaps.addLike(1L, 1L)).isZero();
+		assertThat(bitmaps.addLike(1L, 2L)).isEqualTo(1);
+		assertThat(bitmaps.addLike(2L, 1L)).isEqualTo(1);
+		assertThat(bitmaps.addLike(2L, 2L)).isEqualTo(1);
+		assertThat(bitmaps.removeLike(2L, 2L)).isEqualTo(1);
+		assertThat(bitmaps.likeUserIds(1L)).containsExactlyInAnyOrder(1L, 2L);
+		assertThat(bitmaps.likeCounts(List.of(1L, 2L))).containsEntry(1L, 2).containsEntry(2L, 1);
+
+		bitmaps.merge();
+
+		assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM film_like_deltas WHERE NOT merged", Integer.class))
+				.isZero();
+		assertThat(jdbc.queryForObject("SELECT like_count FROM film_like_bitmaps WHERE film_id = 1", Integer.class))
+				.isEqualTo(2);
+		assertThat(bitmaps.commonLikedFilmIds(1L, 2L)).containsExactly(1L);
+		assertThat(bitmaps.likeCounts(List.of(1L, 2L))).containsEntry(1L, 2).containsEntry(2L, 1);
+
+		assertThat(bitmaps.removeLike(1L, 1L)).isEqualTo(1);
+		assertThat(bitmaps.isLiked(1L, 1L)).isFalse();
+		assertThat(bitmaps.likeUserIds(1L)).containsExactly(2L);
+		assertThat(bitmaps.commonLikedFilmIds(1L, 2L)).isEmpty();
+		List<long[]> likes = new ArrayList<>();
+		bitmaps.forEachLike((filmId, userId) -> likes.add(new long[]{filmId, userId}));
+		assertThat(likes).hasSize(2);
+
+		// выгрузка film_likes собирается из карт и журнала, а не из пустой таблицы строк
+		ExportDbStorage exportStorage = new ExportDbStorage(jdbc.getDataSource(), Optional.empty(),
+				Optional.of(bitmaps), 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThat(exportStorage.export(ExportSqlQuery.FILM_LIKES, out)).isEqualTo(2);
+		assertThat(out.toString(StandardCharsets.UTF_8).lines()).containsExactlyInAnyOrder(
+				"{\"film_id\":1,\"user_id\":2,\"liked_at\":null}",
+				"{\"film_id\":2,\"user_id\":1,\"liked_at\":null}");
+	}
+
+	@Test
+	void testLikeBitmapsBackfillLikeRowsOnlyOnce() {
+		filmStorage.addLike(1L, 1L);
+		filmStorage.addLike(1L, 2L);
+		NamedParameterJdbcTemplate named = new NamedParameterJdbcTemplate(jdbc);
+		LikeBitmapStorage bitmaps = new LikeBitmapStorage(named, transactionManager, 100, 100, 0, false);
+		bitmaps.backfill();
+		assertThat(bitmaps.likeUserIds(1L)).containsExactlyInAnyOrder(1L, 2L);
+
+		// все лайки сняты, пустая карта удалена, слитый журнал вычищен
+		bitmaps.removeLike(1L, 1L);
+		bitmaps.removeLike(1L, 2L);
+		bitmaps.merge();
+		assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM film_like_bitmaps", Integer.class)).isZero();
+		assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM film_like_deltas", Integer.class)).isZero();
+
+		// после перезапуска устаревшие строки film_likes не переносятся снова
+		LikeBitmapStorage restarted = new LikeBitmapStorage(named, transactionManager, 100, 100, 0, false);
+		restarted.backfill();
+		assertThat(restarted.likeUserIds(1L)).isEmpty();
+		assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM data_migrations", Integer.class)).isEqualTo(1);
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testLikeBitmapsSerializeLikesOfOneFilm() throws Exception {
+		LikeBitmapStorage bitmaps = new LikeBitmapStorage(new NamedParameterJdbcTemplate(jdbc),
+				transactionManager, 100, 100, 168, false);
+		TransactionTemplate tx = new TransactionTemplate(transactionManager);
+		try (ExecutorService executor = Executors.newFixedThreadPool(2)) {
+			CountDownLatch written = new CountDownLatch(1);
+			CountDownLatch commit = new CountDownLatch(1);
+			Future<Integer> first = executor.submit(() -> tx.execute(status -> {
+				int added = bitmaps.addLike(1L, 1L);
+				written.countDown();
+				awaitLatch(commit);
+				return added;
+			}));
+			awaitLatch(written);
+			Future<Integer> duplicate = executor.submit(() -> tx.execute(status -> bitmaps.addLike(1L, 1L)));
+			// второй лайк ждёт блокировки фильма, а не видит журнал без первой записи
+			Thread.sleep(100);
+			assertThat(duplicate.isDone()).isFalse();
+			commit.countDown();
+			assertThat(first.get()).isEqualTo(1);
+			assertThat(duplicate.get()).isZero();
+		}
+		assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM film_like_deltas", Integer.class)).isEqualTo(1);
+	}
+
+	@Test
+	void testPopularityRankingBuildsFromFilmIdsAndLikes() {
+		jdbc.update("""
+				INSERT INTO films (name, description, release_date, duration, mpa_id)
+				VALUES ('Alien','Horror','1979-05-25',117, 1), ('Heat','Crime','1995-12-15',170, 1)
+				""");
+		filmStorage.addLike(2L, 1L);
+		filmStorage.addLike(2L, 2L);
+		filmStorage.addLike(3L, 1L);
+		PopularityRanking popularity = new PopularityRanking(filmStorage);
+		popularity.build();
+
+		// фильм без лайков тоже в рейтинге, после фильмов с лайками
+		assertThat(popularity.page(0, 10)).containsExactly(2L, 3L, 1L);
+		assertThat(popularity.rank(2L)).contains(new FilmRank(2L, 1, 2));
+		assertThat(popularity.rank(1L)).contains(new FilmRank(1L, 3, 0));
+
+		popularity.adjust(1L, 1);
+		popularity.adjust(1L, 1);
+		popularity.adjust(2L, -1);
+		assertThat(popularity.page(0, 10)).containsExactly(1L, 2L, 3L);
+		assertThat(popularity.page(1, 1)).containsExactly(2L);
+
+		popularity.addFilm(4L);
+		popularity.addFilm(4L);
+		assertThat(popularity.page(3, 10)).containsExactly(4L);
+		assertThat(popularity.rank(4L)).contains(new FilmRank(4L, 4, 0));
+		assertThat(popularity.order(new long[]{2L, 3L, 4L}, 0, 2)).containsExactly(2L, 3L);
+	}
+
+	@Test
+	void testIndexedSkipListRanksAndPages() {
+		IndexedSkipList ranking = new IndexedSkipList();
+		for (long id = 1; id <= 200; id++) {
+			ranking.insert(id, (int) (id % 7));
+		}
+		// лайк фильму 10: 3 -> 4
+		assertThat(ranking.remove(10L, 3)).isTrue();
+		assertThat(ranking.remove(10L, 3)).isFalse();
+		ranking.insert(10L, 4);
+		assertThat(ranking.remove(200L, 4)).isTrue();
+
+		List<long[]> expected = new ArrayList<>();
+		for (long id = 1; id < 200; id++) {
+			expected.add(new long[]{id, id == 10 ? 4 : id % 7});
+		}
+		expected.sort((a, b) -> a[1] != b[1] ? Long.compare(b[1], a[1]) : Long.compare(a[0], b[0]));
+
+		assertThat(ranking.size()).isEqualTo(199);
+		for (int i = 0; i < expected.size(); i++) {
+			long[] film = expected.get(i);
+			assertThat(ranking.rank(film[0], (int) film[1])).isEqualTo(i + 1);
+			assertThat(ranking.range(i, 1)).containsExactly(film[0]);
+		}
+		assertThat(ranking.range(0, 3)).containsExactly(6L, 13L, 20L);
+		assertThat(ranking.range(197, 10)).hasSize(2);
+		assertThat(ranking.range(199, 10)).isEmpty();
+		assertThat(ranking.rank(10L, 3)).isZero();
+	}
+
+	@Test
+	void testFilmFacetIndexFiltersAndCounts() {
+		jdbc.update("""
+				INSERT INTO films (name, description, release_date, duration, mpa_id) VALUES
+				('Alien','Horror','1979-05-25',117, 1),
+				('Heat','Crime','1995-12-15',170, 2)
+				""");
+		jdbc.update("INSERT INTO film_genres (film_id, genre_id) VALUES (1, 1), (2, 4), (3, 4)");
+		FilmFacetIndex index = new FilmFacetIndex(filmStorage);
+		index.load();
+
+		FilmFacetIndex.Match thrillers = index.search(new FilmBrowseQuery(Set.of(4), null, 1990, null, null, null));
+		assertThat(thrillers.filmIds()).containsExactly(3L);
+		assertThat(thrillers.facets().decades()).containsExactly(entry(1990, 1L));
+
+		FilmFacetIndex.Match all = index.search(new FilmBrowseQuery(null, Set.of(1, 2), null, null, 100, 140));
+		assertThat(all.filmIds()).containsExactly(1L, 2L);
+		assertThat(all.facets().genres()).containsExactly(entry(1, 1L), entry(4, 1L));
+		assertThat(all.facets().durations()).containsExactly(entry(90, 1L), entry(120, 1L));
+
+		Film heat = filmStorage.findById(3L).orElseThrow();
+		heat.setDuration(130);
+		index.index(CompactFilm.from(heat));
+		assertThat(index.search(new FilmBrowseQuery(null, null, null, null, 100, 140)).filmIds())
+				.containsExactly(1L, 2L, 3L);
+	}
+
+	@Test
+	void testFilmFacetIndexKeepsFilmsIndexedBeforeLoad() {
+		FilmFacetIndex index = new FilmFacetIndex(filmStorage);
+		assertThat(index.search(new FilmBrowseQuery(null, null, null, null, null, null)).filmIds()).isEmpty();
+
+		// фильм создан и фильм изменён до загрузки индексов
+		jdbc.update("""
+				INSERT INTO films (name, description, release_date, duration, mpa_id)
+				VALUES ('Alien','Horror','1979-05-25',117, 1)
+				""");
+		index.index(filmStorage.findCompactByIds(List.of(2L)).get(0));
+		Film matrix = filmStorage.findById(1L).orElseThrow();
+		matrix.setDuration(200);
+		index.index(CompactFilm.from(matrix));
+		index.load();
+
+		assertThat(index.search(new FilmBrowseQuery(null, null, null, null, null, null)).filmIds())
+				.containsExactly(1L, 2L);
+		// загрузка не вернула фильму 1 прочитанную из хранилища продолжительность
+		assertThat(index.search(new FilmBrowseQuery(null, null, null, null, 100, 140)).filmIds())
+				.containsExactly(2L);
+		assertThat(index.search(new FilmBrowseQuery(null, null, null, null, 200, 200)).filmIds())
+				.containsExactly(1L);
+	}
+
+	@Test
+	void testPrefixIndexKeepsTopByWeight() {
+		PrefixIndex index = new PrefixIndex(2);
+		index.put(1L, "Matrix", 5);
+		index.put(2L, "Matrix Reloaded", 3);
+		index.put(3L, "Mad Max", 4);
+		index.put(4L, "Alien", 10);
+
+		assertThat(index.complete("ma", 10)).containsExactly(1L, 3L);
+		assertThat(index.complete("MATRIX ", 10)).containsExactly(1L, 2L);
+		assertThat(index.complete("matrix r", 10)).containsExactly(2L);
+		assertThat(index.complete("", 1)).containsExactly(4L);
+		assertThat(index.complete("mx", 10)).isEmpty();
+
+		index.setWeight(2L, 7);
+		assertThat(index.complete("ma", 10)).containsExactly(2L, 1L);
+
+		index.remove(2L);
+		assertThat(index.complete("ma", 10)).containsExactly(1L, 3L);
+		assertThat(index.complete("matrix r", 10)).isEmpty();
+
+		index.put(3L, "Heat", 4);
+		assertThat(index.complete("ma", 10)).containsExactly(1L);
+		assertThat(index.complete("h", 10)).containsExactly(3L);
+		assertThat(index.size()).isEqualTo(3);
+	}
+
+	@Test
+	void testBloomFilterAndUniqueLookups() {
+		BloomFilter filter = new BloomFilter(10_000, 0.01);
+		for (int i = 0; i < 10_000; i++) {
+			filter.put("user" + i + "@mail.com");
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 10_000; i++) {
+			assertThat(filter.mightContain("user" + i + "@mail.com")).isTrue();
+			if (filter.mightContain("other" + i + "@mail.com")) {
+				falsePositives++;
+			}
+		}
+		assertThat(falsePositives).isLessThan(300);
+		assertThat(filter.isSaturated()).isFalse();
+		filter.put("one-more@mail.com");
+		assertThat(filter.isSaturated()).isTrue();
+
+		assertThat(userStorage.findIdByEmail("u2@mail.com")).contains(2L);
+		assertThat(userStorage.findIdByLogin("u1")).contains(1L);
+		assertThat(userStorage.findIdByLogin("nobody")).isEmpty();
+	}
+
+	@Test
+	void testFileOutboxSinkRotatesAndCapsBackups(@TempDir Path dir) throws IOException {
+		Path file = dir.resolve("outbox.ndjson");
+		FileOutboxSink sink = new FileOutboxSink(new ObjectMapper(), file, 200, 2);
+		for (long i = 1; i <= 20; i++) {
+			OutboxEvent event = new OutboxEvent();
+			event.setId(i);
+			event.setType(OutboxEventType.LIKE_ADDED);
+			event.setEntityId(i);
+			event.setRelatedId(1L);
+			sink.publish(List.of(event));
+		}
+		sink.close();
+
+		assertThat(Files.size(file)).isLessThan(200);
+		assertThat(Files.size(dir.resolve("outbox.ndjson.1"))).isGreaterThanOrEqualTo(200);
+		assertThat(dir.resolve("outbox.ndjson.2")).exists();
+		assertThat(dir.resolve("outbox.ndjson.3")).doesNotExist();
+		assertThat(Files.readAllLines(dir.resolve("outbox.ndjson.1")).get(0)).contains("\"type\":\"LIKE_ADDED\"");
+	}
+
+	@Test
+	void testSnapshotCodecRoundTrip(@TempDir Path dir) throws IOException {
+		Film matrix = filmStorage.findById(1L).orElseThrow();
+		matrix.setGenres(new LinkedHashSet<>(List.of(new Genre(1, "Комедия"), new Genre(2, "Драма"))));
+		matrix.setLikes(new HashSet<>(Set.of(1L, 2L)));
+		Film blank = new Film();
+		blank.setId(2L);
+		blank.setName("Без даты");
+		User user = userStorage.findById(1L).orElseThrow();
+		User noBirthday = userStorage.findById(2L).orElseThrow();
+		noBirthday.setBirthday(null);
+		noBirthday.setName(null);
+		Path file = dir.resolve("storage.snapshot");
+
+		SnapshotCodec.write(file, new StorageSnapshot(List.of(matrix, blank), List.of(user, noBirthday),
+				Map.of(1L, Set.of(2L), 2L, Set.of())));
+		StorageSnapshot restored = SnapshotCodec.read(file);
+
+		assertThat(restored.films()).containsExactly(matrix, blank);
+		assertThat(restored.users()).containsExactly(user, noBirthday);
+		assertThat(restored.friendships()).containsOnly(entry(1L, Set.of(2L)), entry(2L, Set.of()));
+		assertThat(file.resolveSibling("storage.snapshot.tmp")).doesNotExist();
+	}
+
+	@Test
+	void testSnapshotCodecRejectsCorruptAndTruncatedFiles(@TempDir Path dir) throws IOException {
+		Path file = dir.resolve("storage.snapshot");
+		SnapshotCodec.write(file, new StorageSnapshot(List.copyOf(filmStorage.findAll()),
+				List.copyOf(userStorage.findAll()), Map.of(1L, Set.of(2L))));
+		byte[] bytes = Files.readAllBytes(file);
+
+		Path truncated = dir.resolve("truncated.snapshot");
+		Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 3));
+		assertThatThrownBy(() -> SnapshotCodec.read(truncated))
+				.isInstanceOf(IOException.class).hasMessageContaining("обрезан");
+
+		Path corrupt = dir.resolve("corrupt.snapshot");
+		byte[] flipped = bytes.clone();
+		flipped[flipped.length - 1] ^= 0x5A;
+		Files.write(corrupt, flipped);
+		assertThatThrownBy(() -> SnapshotCodec.read(corrupt))
+				.isInstanceOf(IOException.class).hasMessageContaining("Контрольная сумма");
+
+		Path headerOnly = dir.resolve("header.snapshot");
+		Files.write(headerOnly, Arrays.copyOf(bytes, 6));
+		assertThatThrownBy(() -> SnapshotCodec.read(headerOnly))
+				.isInstanceOf(IOException.class).hasMessageContaining("не является снимком");
+
+		Path foreign = dir.resolve("foreign.snapshot");
+		Files.writeString(foreign, "{\"films\":[],\"users\":[]}");
+		assertThatThrownBy(() -> SnapshotCodec.read(foreign))
+				.isInstanceOf(IOException.class).hasMessageContaining("не является снимком");
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testSnapshotCodecWritesConsistentSnapshotWhileLikesChange(@TempDir Path dir) throws Exception {
+		InMemoryFilmStorage films = new InMemoryFilmStorage(false, 1, 0.5);
+		InMemoryUserStorage users = new InMemoryUserStorage();
+		for (int i = 0; i < 10; i++) {
+			Film film = new Film();
+			film.setName("Film " + i);
+			films.add(film);
+		}
+		for (int i = 0; i < 500; i++) {
+			User user = new User();
+			user.setLogin("u" + i);
+			users.add(user);
+		}
+		Path file = dir.resolve("storage.snapshot");
+		AtomicBoolean running = new AtomicBoolean(true);
+		try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+			// лайки и друзья то появляются, то пропадают, так что размер тела всё время меняется
+			Future<?> writer = executor.submit(() -> {
+				for (long i = 0; running.get(); i++) {
+					long userId = i % 500 + 1;
+					boolean add = i / 500 % 2 == 0;
+					for (long filmId = 1; filmId <= 10; filmId++) {
+						if (add) {
+							films.addLike(filmId, userId);
+						} else {
+							films.removeLike(filmId, userId);
+						}
+					}
+					if (add) {
+						users.addFriend(userId, 1L);
+					} else {
+						users.removeFriend(userId, 1L);
+					}
+				}
+			});
+			try {
+				for (int i = 0; i < 50; i++) {
+					StorageSnapshot snapshot = StorageSnapshot.capture(films, users);
+					SnapshotCodec.write(file, snapshot);
+					StorageSnapshot restored = SnapshotCodec.read(file);
+
+					assertThat(restored.films()).containsExactlyInAnyOrderElementsOf(snapshot.films());
+					assertThat(restored.users()).hasSameSizeAs(snapshot.users());
+					assertThat(restored.friendships()).isEqualTo(snapshot.friendships());
+				}
+			} finally {
+				running.set(false);
+			}
+			writer.get();
+		}
+	}
+
+	@Test
+	void testInMemoryStorageCreatesFilmsAndKeepsLikesOnUpdate() {
+		for (boolean offHeap : new boolean[]{false, true}) {
+			InMemoryFilmStorage storage = new InMemoryFilmStorage(offHeap, 1, 0.5);
+			assertThat(storage.getAllMpa()).extracting(MpaRating::getName)
+					.containsExactly("G", "PG", "PG-13", "R", "NC-17");
+			assertThat(storage.getAllGenres()).extracting(Genre::getName).contains("Комедия", "Боевик").hasSize(6);
+
+			Film film = new Film();
+			film.setName("Matrix");
+			film.setReleaseDate(LocalDate.of(1999, 3, 31));
+			film.setDuration(136);
+			film.setMpa(storage.getMpaById(4).orElseThrow());
+			film.setGenres(Set.of(storage.getGenreById(6).orElseThrow()));
+			long id = storage.add(film).getId();
+			assertThat(storage.addLike(id, 7L)).isTrue();
+			assertThat(storage.addLike(id, 7L)).isFalse();
+
+			Film changed = new Film();
+			changed.setId(id);
+			changed.setName("The Matrix");
+			changed.setMpa(film.getMpa());
+			storage.update(changed);
+
+			assertThat(changed.getLikes()).containsExactly(7L);
+			assertThat(storage.findById(id)).hasValueSatisfying(stored -> {
+				assertThat(stored.getName()).isEqualTo("The Matrix");
+				assertThat(stored.getLikes()).containsExactly(7L);
+			});
+			assertThat(storage.findLikeUserIds(List.of(id, 1L))).containsOnlyKeys(id).containsEntry(id, Set.of(7L));
+		}
+	}
+
+	@Test
+	void testWalReplaysRecordsAndSkipsNoOpWrites(@TempDir Path dir) throws IOException {
+		InMemoryFilmStorage films = new InMemoryFilmStorage(false, 1, 0.5);
+		InMemoryUserStorage users = new InMemoryUserStorage();
+		WalStorageManager manager = walManager(dir, films, users);
+		JournaledFilmStorage journaledFilms = new JournaledFilmStorage(films, manager);
+		JournaledUserStorage journaledUsers = new JournaledUserStorage(users, manager);
+
+		long u1 = journaledUsers.add(walUser("u1")).getId();
+		long u2 = journaledUsers.add(walUser("u2")).getId();
+		Film film = new Film();
+		film.setName("Matrix");
+		film.setMpa(films.getMpaById(1).orElseThrow());
+		long filmId = journaledFilms.add(film).getId();
+		assertThat(journaledFilms.addLike(filmId, u1)).isTrue();
+		journaledUsers.addFriend(u1, u2);
+		long walSize = Files.size(dir.resolve("filmorate.wal"));
+
+		assertThat(journaledFilms.addLike(filmId, u1)).isFalse();
+		assertThat(journaledFilms.addLike(99L, u1)).isFalse();
+		assertThat(journaledFilms.removeLike(filmId, u2)).isFalse();
+		journaledUsers.addFriend(u1, u2);
+		journaledUsers.removeFriend(u2, u1);
+		assertThat(Files.size(dir.resolve("filmorate.wal"))).isEqualTo(walSize);
+
+		film.setDescription("Neo");
+		journaledFilms.update(film);
+		assertThat(film.getLikes()).containsExactly(u1);
+
+		InMemoryFilmStorage replayedFilms = new InMemoryFilmStorage(false, 1, 0.5);
+		InMemoryUserStorage replayedUsers = new InMemoryUserStorage();
+		WalStorageManager replayed = walManager(dir, replayedFilms, replayedUsers);
+		assertThat(replayedFilms.findById(filmId)).hasValueSatisfying(f -> {
+			assertThat(f.getDescription()).isEqualTo("Neo");
+			assertThat(f.getLikes()).containsExactly(u1);
+		});
+		assertThat(replayedUsers.findFriendIds(u1)).containsExactly(u2);
+		assertThat(replayedUsers.nextId()).isEqualTo(3L);
+		assertThat(replayedFilms.nextId()).isEqualTo(2L);
+		replayed.close();
+		manager.close();
+	}
+
+	@Test
+	void testWalTruncatesTornTailAndCompactsIntoSnapshot(@TempDir Path dir) throws IOException {
+		InMemoryFilmStorage films = new InMemoryFilmStorage(false, 1, 0.5);
+		InMemoryUserStorage users = new InMemoryUserStorage();
+		WalStorageManager manager = walManager(dir, films, users);
+		JournaledUserStorage journaledUsers = new JournaledUserStorage(users, manager);
+		journaledUsers.add(walUser("u1"));
+		manager.compact();
+		Path wal = dir.resolve("filmorate.wal");
+		assertThat(Files.size(wal)).isZero();
+		assertThat(dir.resolve("filmorate.snapshot")).exists();
+
+		journaledUsers.add(walUser("u2"));
+		long walSize = Files.size(wal);
+		// недописанный кадр: заголовок обещает 100 байт, а записано 3
+		Files.write(wal, new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 9, 9, 9}, StandardOpenOption.APPEND);
+
+		InMemoryUserStorage recovered = new InMemoryUserStorage();
+		WalStorageManager recoveredManager = walManager(dir, new InMemoryFilmStorage(false, 1, 0.5), recovered);
+		assertThat(recovered.findAll()).extracting(User::getLogin).containsExactlyInAnyOrder("u1", "u2");
+		assertThat(Files.size(wal)).isEqualTo(walSize);
+
+		new JournaledUserStorage(recovered, recoveredManager).add(walUser("u3"));
+		recoveredManager.close();
+		assertThat(Files.size(wal)).isZero();
+		InMemoryUserStorage fromSnapshot = new InMemoryUserStorage();
+		walManager(dir, new InMemoryFilmStorage(false, 1, 0.5), fromSnapshot).close();
+		assertThat(fromSnapshot.findAll()).extracting(User::getLogin).containsExactlyInAnyOrder("u1", "u2", "u3");
+		manager.close();
+	}
+
+	private static WalStorageManager walManager(Path dir, InMemoryFilmStorage films, InMemoryUserStorage users)
+			throws IOException {
+		WalStorageManager manager = new WalStorageManager(films, users, dir.resolve("filmorate.snapshot"),
+				dir.resolve("filmorate.wal"), FsyncPolicy.ALWAYS, 100, Long.MAX_VALUE);
+		manager.recover();
+		return manager;
+	}
+
+	private static User walUser(String login) {
+		User user = new User();
+		user.setEmail(login + "@mail.com");
+		user.setLogin(login);
+		user.setBirthday(LocalDate.of(1990, 1, 1));
+		return user;
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testReadOnlyTransactionsGoToReplicaUnlessPinned() throws InterruptedException {
+		DataSource primary = h2DataSource("routing-primary");
+		DataSource replica = h2DataSource("routing-replica");
+		new JdbcTemplate(primary).execute("CREATE TABLE role AS SELECT 'primary' AS name");
+		new JdbcTemplate(replica).execute("CREATE TABLE role AS SELECT 'replica' AS name");
+		ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource();
+		routing.setTargetDataSources(Map.of(DataSourceRole.PRIMARY, primary, DataSourceRole.REPLICA, replica));
+		routing.setDefaultTargetDataSource(primary);
+		routing.afterPropertiesSet();
+		DataSource routed = new LazyConnectionDataSourceProxy(routing);
+		JdbcTemplate routedJdbc = new JdbcTemplate(routed);
+		TransactionTemplate writeTx = new TransactionTemplate(new DataSourceTransactionManager(routed));
+		TransactionTemplate readTx = new TransactionTemplate(new DataSourceTransactionManager(routed));
+		readTx.setReadOnly(true);
+		ReadYourWritesTracker tracker = new ReadYourWritesTracker(60_000);
+		Supplier<String> role = () -> routedJdbc.queryForObject("SELECT name FROM role", String.class);
+
+		Function<Long, String> readAs = userId -> readTx.execute(status -> {
+			tracker.pinIfRecentWriter(userId);
+			return role.get();
+		});
+
+		assertThat(readAs.apply(1L)).isEqualTo("replica");
+		String inWriteTransaction = writeTx.execute(status -> role.get());
+		assertThat(inWriteTransaction).isEqualTo("primary");
+		assertThat(role.get()).isEqualTo("primary");
+
+		tracker.markWrite(1L);
+		assertThat(readAs.apply(2L)).isEqualTo("replica");
+		assertThat(readAs.apply(1L)).isEqualTo("primary");
+		assertThat(ReadYourWritesTracker.isPinnedToPrimary()).isFalse();
+
+		// чтение фильмов без пользователя закрепляется, если недавно менялся один из них
+		Function<List<Long>, String> readFilms = filmIds -> readTx.execute(status -> {
+			tracker.pinIfFilmsChanged(filmIds);
+			return role.get();
+		});
+		tracker.markFilmWrite(7L);
+		assertThat(readFilms.apply(List.of(8L))).isEqualTo("replica");
+		assertThat(readFilms.apply(List.of(8L, 7L))).isEqualTo("primary");
+
+		ReadYourWritesTracker expiring = new ReadYourWritesTracker(1);
+		expiring.markWrite(1L);
+		Thread.sleep(5);
+		String afterExpiry = readTx.execute(status -> {
+			expiring.pinIfRecentWriter(1L);
+			return role.get();
+		});
+		assertThat(afterExpiry).isEqualTo("replica");
+
+		new JdbcTemplate(primary).execute("SHUTDOWN");
+		new JdbcTemplate(replica).execute("SHUTDOWN");
+	}
+
+	@Test
+	void testReplicationStandInCopiesLikeDeltasIncrementally() {
+		DataSource primary = h2DataSource("stand-in-primary");
+		DataSource replica = h2DataSource("stand-in-replica");
+		new ResourceDatabasePopulator(new ClassPathResource("schema.sql"), new ClassPathResource("data.sql"))
+				.execute(primary);
+		JdbcTemplate primaryJdbc = new JdbcTemplate(primary);
+		JdbcTemplate replicaJdbc = new JdbcTemplate(replica);
+		primaryJdbc.update("INSERT INTO films (id, name, release_date, duration, mpa_id) VALUES (1, 'Matrix', '1999-03-31', 136, 1)");
+		primaryJdbc.update("INSERT INTO film_like_deltas (film_id, user_id, liked) VALUES (1, 1, TRUE), (1, 2, TRUE)");
+		String deltas = "SELECT id, user_id, liked, merged FROM film_like_deltas ORDER BY id";
+
+		ReplicationStandIn standIn = new ReplicationStandIn(primary, replica);
+		standIn.init();
+		assertThat(replicaJdbc.queryForList(deltas)).isEqualTo(primaryJdbc.queryForList(deltas));
+
+		primaryJdbc.update("UPDATE film_like_deltas SET merged = TRUE");
+		primaryJdbc.update("INSERT INTO film_like_deltas (film_id, user_id, liked) VALUES (1, 2, FALSE)");
+		standIn.replicate();
+		assertThat(replicaJdbc.queryForList(deltas)).isEqualTo(primaryJdbc.queryForList(deltas));
+		assertThat(replicaJdbc.queryForObject("SELECT name FROM films WHERE id = 1", String.class)).isEqualTo("Matrix");
+
+		// влитые записи больше не перечитываются, а удалённые по сроку хранения удаляются и с реплики
+		primaryJdbc.update("UPDATE film_like_deltas SET merged = TRUE");
+		standIn.replicate();
+		primaryJdbc.update("UPDATE film_like_deltas SET user_id = 5 WHERE id = 2");
+		primaryJdbc.update("DELETE FROM film_like_deltas WHERE id = 1");
+		standIn.replicate();
+		assertThat(replicaJdbc.queryForList("SELECT id, user_id FROM film_like_deltas ORDER BY id"))
+				.extracting(row -> row.get("ID") + ":" + row.get("USER_ID"))
+				.containsExactly("2:2", "3:2");
+
+		primaryJdbc.execute("SHUTDOWN");
+		replicaJdbc.execute("SHUTDOWN");
+	}
+
+	private static DataSource h2DataSource(String name) {
+		return new DriverManagerDataSource("jdbc:h2:mem:" + name + "-" + System.nanoTime()
+				+ ";DB_CLOSE_DELAY=-1;MODE=PostgreSQL", "sa", "");
+	}
+
+	@Test
+	void testShardedRelationsRouteByKeyAndMergeAcrossShards() {
+		ShardRouter router = new ShardRouter(3, "jdbc:h2:mem:shard-" + System.nanoTime()
+				+ "-%d;DB_CLOSE_DELAY=-1;MODE=PostgreSQL", "sa", "", false);
+		ShardedRelationStorage sharded = new ShardedRelationStorage(router);
+		try {
+			// у фильма k ровно k лайков, фильмы расходятся по разным шардам
+			List<Long> filmIds = LongStream.rangeClosed(1, 6).boxed().toList();
+			assertThat(filmIds.stream().map(router::indexFor).distinct().count()).isGreaterThan(1);
+			for (long filmId : filmIds) {
+				for (long userId = 1; userId <= filmId; userId++) {
+					assertThat(sharded.addLike(filmId, userId)).isEqualTo(1);
+				}
+			}
+			assertThat(sharded.addLike(6L, 1L)).isZero();
+			for (int i = 0; i < router.size(); i++) {
+				int shard = i;
+				long expected = filmIds.stream().filter(id -> router.indexFor(id) == shard).mapToLong(id -> id).sum();
+				assertThat(router.shard(i).getJdbcTemplate().queryForObject("SELECT COUNT(*) FROM film_likes", Long.class))
+						.isEqualTo(expected);
+			}
+			assertThat(sharded.likeCounts(filmIds)).hasSize(6).containsEntry(1L, 1).containsEntry(6L, 6);
+
+			LocalDateTime base = LocalDateTime.of(2024, 1, 1, 12, 0);
+			for (long filmId : filmIds) {
+				router.shardFor(filmId).update("UPDATE film_likes SET liked_at = :at WHERE film_id = :filmId AND user_id = 1",
+						Map.of("at", base.plusMinutes(filmId), "filmId", filmId));
+			}
+			// больше 500 id: запрос к каждому шарду идёт пачками
+			List<Long> userIds = new ArrayList<>(LongStream.rangeClosed(1001, 1700).boxed().toList());
+			userIds.add(1L);
+			assertThat(sharded.recentLikesByUsers(userIds, 3))
+					.extracting(FilmLike::filmId)
+					.containsExactly(6L, 5L, 4L);
+
+			long user = 1L;
+			long otherShardUser = LongStream.iterate(2, id -> id + 1)
+					.filter(id -> router.indexFor(id) != router.indexFor(user)).findFirst().orElseThrow();
+			long sameShardUser = LongStream.iterate(2, id -> id + 1)
+					.filter(id -> router.indexFor(id) == router.indexFor(user)).findFirst().orElseThrow();
+			sharded.addFriend(user, 100L);
+			sharded.addFriend(user, 200L);
+			sharded.addFriend(otherShardUser, 100L);
+			sharded.addFriend(otherShardUser, 300L);
+			sharded.addFriend(sameShardUser, 100L);
+			sharded.addFriend(sameShardUser, 200L);
+			assertThat(sharded.addFriend(user, 100L)).isZero();
+
+			assertThat(router.shardFor(user).getJdbcTemplate().queryForList(
+					"SELECT friend_id FROM friendships WHERE user_id = ?", Long.class, user))
+					.containsExactlyInAnyOrder(100L, 200L);
+			assertThat(sharded.friendIds(otherShardUser)).containsExactlyInAnyOrder(100L, 300L);
+			assertThat(sharded.commonFriendIds(user, otherShardUser)).containsExactly(100L);
+			assertThat(sharded.commonFriendIds(user, sameShardUser)).containsExactlyInAnyOrder(100L, 200L);
+			assertThat(sharded.followerIds(100L, 10)).containsExactlyInAnyOrder(user, otherShardUser, sameShardUser);
+		} finally {
+			router.close();
+		}
+	}
+
+	@Test
+	void testJsonResponseCacheEvictsLeastRecentlyUsedPopularPage() {
+		JsonResponseCache cache = new JsonResponseCache(new ObjectMapper(), 60_000, 2);
+		AtomicInteger loads = new AtomicInteger();
+		Supplier<List<Integer>> loader = () -> List.of(loads.incrementAndGet());
+
+		cache.popular(0, 1, loader);
+		cache.popular(0, 2, loader);
+		cache.popular(0, 1, loader);
+		assertThat(loads.get()).isEqualTo(2);
+
+		// третья страница вытесняет (0, 2), к которой обращались раньше всего
+		cache.popular(0, 3, loader);
+		cache.popular(0, 1, loader);
+		assertThat(loads.get()).isEqualTo(3);
+		cache.popular(0, 2, loader);
+		assertThat(loads.get()).isEqualTo(4);
+
+		cache.invalidatePopular();
+		assertThat(new String(cache.popular(0, 2, loader))).isEqualTo("[5]");
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testCompactFilmCacheLoadsMissesFromPrimaryInReadOnlyTransactions() {
+		DataSource primary = h2DataSource("film-cache-primary");
+		DataSource replica = h2DataSource("film-cache-replica");
+		new JdbcTemplate(primary).execute("CREATE TABLE role AS SELECT 'primary' AS name");
+		new JdbcTemplate(replica).execute("CREATE TABLE role AS SELECT 'replica' AS name");
+		ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource();
+		routing.setTargetDataSources(Map.of(DataSourceRole.PRIMARY, primary, DataSourceRole.REPLICA, replica));
+		routing.setDefaultTargetDataSource(primary);
+		routing.afterPropertiesSet();
+		DataSource routed = new LazyConnectionDataSourceProxy(routing);
+		JdbcTemplate routedJdbc = new JdbcTemplate(routed);
+		PlatformTransactionManager transactionManager = new DataSourceTransactionManager(routed);
+		TransactionTemplate readTx = new TransactionTemplate(transactionManager);
+		readTx.setReadOnly(true);
+
+		// реплика отстаёт: там у фильма ещё нет лайка
+		InMemoryFilmStorage storage = new InMemoryFilmStorage(false, 1, 0.5) {
+			@Override
+			public List<CompactFilm> findCompactByIds(Collection<Long> ids) {
+				int likes = "primary".equals(routedJdbc.queryForObject("SELECT name FROM role", String.class)) ? 1 : 0;
+				return super.findCompactByIds(ids).stream().map(film -> film.withLikeCount(likes)).toList();
+			}
+		};
+		Film film = new Film();
+		film.setName("Matrix");
+		film.setMpa(storage.getMpaById(1).orElseThrow());
+		long filmId = storage.add(film).getId();
+
+		CompactFilmCache cache = new CompactFilmCache(storage, transactionManager, 10, true);
+		List<CompactFilm> loaded = readTx.execute(status -> cache.getAll(List.of(filmId)));
+		assertThat(loaded).singleElement().extracting(CompactFilm::likeCount).isEqualTo(1);
+		assertThat(cache.getAll(List.of(filmId))).singleElement().extracting(CompactFilm::likeCount).isEqualTo(1);
+
+		CompactFilmCache withoutReplica = new CompactFilmCache(storage, transactionManager, 10, false);
+		List<CompactFilm> fromReplica = readTx.execute(status -> withoutReplica.getAll(List.of(filmId)));
+		assertThat(fromReplica).singleElement().extracting(CompactFilm::likeCount).isEqualTo(0);
+
+		new JdbcTemplate(primary).execute("SHUTDOWN");
+		new JdbcTemplate(replica).execute("SHUTDOWN");
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testParallelHydrationLoadsSameGenresAndLikesAsSequential() {
+		jdbc.update("""
+				INSERT INTO films (name, description, release_date, duration, mpa_id) VALUES
+				('Alien','Horror','1979-05-25',117, 2),
+				('Heat','Crime','1995-12-15',170, 1)
+				""");
+		jdbc.update("INSERT INTO film_genres (film_id, genre_id) VALUES (1, 2), (1, 1), (3, 4)");
+		jdbc.update("INSERT INTO film_likes (film_id, user_id) VALUES (1, 1), (1, 2), (3, 2)");
+		NamedParameterJdbcTemplate named = new NamedParameterJdbcTemplate(jdbc);
+		ParallelQueryExecutor executor = new ParallelQueryExecutor(transactionManager, 2);
+		FilmDbStorage parallel = new FilmDbStorage(named, outboxStorage, Optional.empty(), Optional.empty(),
+				Optional.of(executor), new ReferenceDataCache(named));
+		Function<Collection<Film>, Map<Long, Set<Genre>>> genresById = films -> films.stream()
+				.collect(Collectors.toMap(Film::getId, Film::getGenres));
+		try {
+			Map<Long, Set<Genre>> sequential = genresById.apply(filmStorage.findAll());
+			assertThat(genresById.apply(parallel.findAll())).isEqualTo(sequential);
+			assertThat(sequential.get(1L)).extracting(Genre::getId).containsExactly(1, 2);
+			assertThat(sequential.get(2L)).isEmpty();
+
+			TransactionTemplate readTx = new TransactionTemplate(transactionManager);
+			readTx.setReadOnly(true);
+			Collection<Film> readOnly = readTx.execute(status -> parallel.findAll());
+			assertThat(genresById.apply(readOnly)).isEqualTo(sequential);
+
+			assertThat(parallel.findById(1L)).hasValueSatisfying(film -> {
+				assertThat(film.getGenres()).extracting(Genre::getId).containsExactly(1, 2);
+				assertThat(film.getLikes()).containsExactlyInAnyOrder(1L, 2L);
+			});
+			assertThat(parallel.findByIds(List.of(3L, 1L, 99L, 3L)))
+					.extracting(Film::getId, film -> film.getLikes().size())
+					.containsExactly(tuple(3L, 1), tuple(1L, 2));
+
+			// в пишущей транзакции подзапросы идут в её соединении и видят незафиксированные жанры
+			TransactionTemplate writeTx = new TransactionTemplate(transactionManager);
+			Set<Genre> uncommitted = writeTx.execute(status -> {
+				jdbc.update("INSERT INTO film_genres (film_id, genre_id) VALUES (2, 3)");
+				Set<Genre> genres = genresById.apply(parallel.findAll()).get(2L);
+				status.setRollbackOnly();
+				return genres;
+			});
+			assertThat(uncommitted).extracting(Genre::getId).containsExactly(3);
+		} finally {
+			executor.close();
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void testParallelHydrationKeepsReadYourWritesPin() {
+		DataSource primary = h2DataSource("fork-primary");
+		DataSource replica = h2DataSource("fork-replica");
+		new JdbcTemplate(primary).execute("CREATE TABLE role AS SELECT 'primary' AS name");
+		new JdbcTemplate(replica).execute("CREATE TABLE role AS SELECT 'replica' AS name");
+		ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource();
+		routing.setTargetDataSources(Map.of(DataSourceRole.PRIMARY, primary, DataSourceRole.REPLICA, replica));
+		routing.setDefaultTargetDataSource(primary);
+		routing.afterPropertiesSet();
+		JdbcTemplate routedJdbc = new JdbcTemplate(new LazyConnectionDataSourceProxy(routing));
+		PlatformTransactionManager transactionManager = new DataSourceTransactionManager(routedJdbc.getDataSource());
+		TransactionTemplate readTx = new TransactionTemplate(transactionManager);
+		readTx.setReadOnly(true);
+		ReadYourWritesTracker tracker = new ReadYourWritesTracker(60_000);
+		ParallelQueryExecutor executor = new ParallelQueryExecutor(transactionManager, 2);
+		Supplier<String> role = () -> routedJdbc.queryForObject("SELECT name FROM role", String.class);
+		try {
+			String unpinned = readTx.execute(status -> executor.fork(role).get());
+			assertThat(unpinned).isEqualTo("replica");
+
+			tracker.markWrite(1L);
+			String pinned = readTx.execute(status -> {
+				tracker.pinIfRecentWriter(1L);
+				return executor.fork(role).get();
+			});
+			assertThat(pinned).isEqualTo("primary");
+			String afterPin = readTx.execute(status -> executor.fork(role).get());
+			assertThat(afterPin).isEqualTo("replica");
+		} finally {
+			executor.close();
+			new JdbcTemplate(primary).execute("SHUTDOWN");
+			new JdbcTemplate(replica).execute("SHUTDOWN");
+		}
+	}
+
+	@Test
+	void testTokenBucketAllowsBurstThenRefillsAtFixedRate() throws Exception {
+		TokenBucket bucket = new TokenBucket(3, 100, 0);
+		assertThat(bucket.tryAcquire(0)).isTrue();
+		assertThat(bucket.tryAcquire(0)).isTrue();
+		assertThat(bucket.tryAcquire(0)).isTrue();
+		assertThat(bucket.tryAcquire(0)).isFalse();
+		assertThat(bucket.tryAcquire(99)).isFalse();
+
+		// каждые 100 нс возвращается ровно один токен
+		assertThat(bucket.tryAcquire(100)).isTrue();
+		assertThat(bucket.tryAcquire(100)).isFalse();
+		assertThat(bucket.tryAcquire(250)).isTrue();
+		assertThat(bucket.tryAcquire(250)).isFalse();
+		assertThat(bucket.isIdle(250)).isFalse();
+
+		// долгий простой не копит токенов сверх ёмкости
+		assertThat(bucket.isIdle(10_000)).isTrue();
+		int granted = 0;
+		for (int i = 0; i < 10; i++) {
+			granted += bucket.tryAcquire(10_000) ? 1 : 0;
+		}
+		assertThat(granted).isEqualTo(3);
+
+		TokenBucket shared = new TokenBucket(50, 1_000_000_000L, 0);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				results.add(pool.submit(() -> {
+					int acquired = 0;
+					for (int i = 0; i < 100; i++) {
+						acquired += shared.tryAcquire(0) ? 1 : 0;
+					}
+					return acquired;
+				}));
+			}
+			int total = 0;
+			for (Future<Integer> result : results) {
+				total += result.get();
+			}
+			assertThat(total).isEqualTo(50);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void testAdaptiveConcurrencyLimiterBacksOffAndRecovers() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 2, 6, 0.5, 100);
+		long fast = TimeUnit.MILLISECONDS.toNanos(10);
+		long slow = TimeUnit.MILLISECONDS.toNanos(500);
+		for (int i = 0; i < 4; i++) {
+			assertThat(limiter.tryAcquire()).isTrue();
+		}
+		assertThat(limiter.tryAcquire()).isFalse();
+
+		// медленный ответ уменьшает лимит вдвое, и новые запросы отбрасываются, пока не завершатся текущие
+		limiter.release(slow, false);
+		assertThat(limiter.getLimit()).isEqualTo(2);
+		assertThat(limiter.getInFlight()).isEqualTo(3);
+		assertThat(limiter.tryAcquire()).isFalse();
+
+		// ошибка тоже считается перегрузкой, но лимит не опускается ниже минимума
+		limiter.release(fast, true);
+		assertThat(limiter.getLimit()).isEqualTo(2);
+		limiter.release(fast, false);
+		limiter.release(fast, false);
+		assertThat(limiter.getInFlight()).isZero();
+
+		// быстрые ответы поднимают лимит аддитивно, до максимума
+		for (int i = 0; i < 100; i++) {
+			assertThat(limiter.tryAcquire()).isTrue();
+			limiter.release(fast, false);
+		}
+		assertThat(limiter.getLimit()).isEqualTo(6);
+		for (int i = 0; i < 6; i++) {
+			assertThat(limiter.tryAcquire()).isTrue();
+		}
+		assertThat(limiter.tryAcquire()).isFalse();
+	}
+
+	@Test
+	void testRateLimitInterceptorReleasesStreamingRequestOnce() throws Exception {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 4, 4, 0.5, 10_000);
+		RateLimitInterceptor interceptor = new RateLimitInterceptor(new RateLimiter(100, 100, 100), limiter);
+		MockMvc mvc = MockMvcBuilders.standaloneSetup(new StreamingController())
+				.addInterceptors(interceptor)
+				.build();
+		// запросов больше лимита: утекающее место уже на пятом дало бы отказ
+		for (int i = 0; i < 10; i++) {
+			MvcResult started = mvc.perform(get("/stream")).andExpect(request().asyncStarted()).andReturn();
+			assertThat(limiter.getInFlight()).isEqualTo(1);
+			mvc.perform(asyncDispatch(started))
+					.andExpect(status().isOk())
+					.andExpect(content().string("{\"id\":1}\n"));
+			assertThat(limiter.getInFlight()).isZero();
+		}
+	}
+
+	@RestController
+	static class StreamingController {
+		@GetMapping("/stream")
+		StreamingResponseBody stream() {
+			return out -> out.write("{\"id\":1}\n".getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void testTrendingTrackerExpiresLikesAcrossWindows() {
+		MutableClock clock = new MutableClock(Instant.parse("2024-01-10T12:00:00Z"));
+		TrendingTracker tracker = new TrendingTracker(filmStorage, clock);
+		tracker.onLike(trendingLike(1L, 1L, true));
+		clock.advance(Duration.ofMinutes(30));
+		tracker.onLike(trendingLike(2L, 1L, true));
+		tracker.onLike(trendingLike(2L, 2L, true));
+		assertThat(tracker.top(TrendingWindow.HOUR, 10)).containsExactly(2L, 1L);
+
+		clock.advance(Duration.ofMinutes(31));
+		assertThat(tracker.count(1L, TrendingWindow.HOUR)).isZero();
+		assertThat(tracker.count(2L, TrendingWindow.HOUR)).isEqualTo(2);
+		assertThat(tracker.top(TrendingWindow.DAY, 10)).containsExactly(2L, 1L);
+
+		clock.advance(Duration.ofHours(24));
+		assertThat(tracker.top(TrendingWindow.DAY, 10)).isEmpty();
+		assertThat(tracker.top(TrendingWindow.WEEK, 10)).containsExactly(2L, 1L);
+		tracker.evictIdle();
+		assertThat(tracker.trackedFilms()).isEqualTo(2);
+
+		clock.advance(Duration.ofDays(7));
+		assertThat(tracker.top(TrendingWindow.WEEK, 10)).isEmpty();
+		tracker.evictIdle();
+		assertThat(tracker.trackedFilms()).isZero();
+
+		// лайк раз в 8 часов в течение 10 суток: часовое кольцо на 168 корзин проходит круг
+		for (int i = 0; i < 30; i++) {
+			tracker.onLike(trendingLike(3L, i, true));
+			clock.advance(Duration.ofHours(8));
+		}
+		assertThat(tracker.count(3L, TrendingWindow.WEEK)).isEqualTo(20);
+		assertThat(tracker.count(3L, TrendingWindow.DAY)).isEqualTo(2);
+		assertThat(tracker.count(3L, TrendingWindow.HOUR)).isZero();
+
+		// лайк раз в 7 минут в течение 140 минут: минутное кольцо на 60 корзин проходит круг
+		for (int i = 0; i < 20; i++) {
+			tracker.onLike(trendingLike(4L, i, true));
+			clock.advance(Duration.ofMinutes(7));
+		}
+		assertThat(tracker.count(4L, TrendingWindow.HOUR)).isEqualTo(8);
+		assertThat(tracker.count(4L, TrendingWindow.DAY)).isEqualTo(20);
+	}
+
+	@Test
+	void testTrendingTrackerRanksTopAndClampsUnlikes() {
+		MutableClock clock = new MutableClock(Instant.parse("2024-01-10T12:00:00Z"));
+		TrendingTracker tracker = new TrendingTracker(filmStorage, clock);
+		long[][] likes = {{6, 1}, {7, 2}, {8, 2}, {9, 3}};
+		for (long[] film : likes) {
+			for (long userId = 1; userId <= film[1]; userId++) {
+				tracker.onLike(trendingLike(film[0], userId, true));
+			}
+		}
+		assertThat(tracker.top(TrendingWindow.HOUR, 3)).containsExactly(9L, 7L, 8L);
+		assertThat(tracker.top(TrendingWindow.WEEK, 10)).containsExactly(9L, 7L, 8L, 6L);
+
+		tracker.onLike(trendingLike(5L, 1L, true));
+		tracker.onLike(trendingLike(5L, 1L, false));
+		tracker.onLike(trendingLike(5L, 2L, false));
+		for (TrendingWindow window : TrendingWindow.values()) {
+			assertThat(tracker.count(5L, window)).isZero();
+		}
+		assertThat(tracker.top(TrendingWindow.WEEK, 10)).doesNotContain(5L);
+		// итог окна ушёл в минус: первый новый лайк только возвращает его к нулю
+		tracker.onLike(trendingLike(5L, 3L, true));
+		tracker.onLike(trendingLike(5L, 4L, true));
+		assertThat(tracker.count(5L, TrendingWindow.HOUR)).isEqualTo(1);
+
+		tracker.onLike(trendingLike(6L, 1L, false));
+		tracker.evictIdle();
+		assertThat(tracker.trackedFilms()).isEqualTo(4);
+		assertThat(tracker.top(TrendingWindow.WEEK, 10)).containsExactly(9L, 7L, 8L, 5L);
+	}
+
+	@Test
+	void testTrendingTrackerWarmsUpFromLikesOfLastWeek() {
+		jdbc.update("""
+				INSERT INTO films (name, description, release_date, duration, mpa_id)
+				VALUES ('Alien','Horror','1979-05-25',117, 2)
+				""");
+		Instant now = Instant.parse("2024-01-10T12:00:00Z");
+		LocalDateTime local = LocalDateTime.ofInstant(now, ZoneOffset.UTC);
+		String insert = "INSERT INTO film_likes (film_id, user_id, liked_at) VALUES (?, ?, ?)";
+		jdbc.update(insert, 1L, 1L, local.minusMinutes(30));
+		jdbc.update(insert, 1L, 2L, local.minusDays(2));
+		jdbc.update(insert, 2L, 1L, local.minusHours(3));
+		jdbc.update(insert, 2L, 2L, local.minusDays(10));
+
+		TrendingTracker tracker = new TrendingTracker(filmStorage, Clock.fixed(now, ZoneOffset.UTC));
+		tracker.warmUp();
+
+		assertThat(tracker.count(1L, TrendingWindow.HOUR)).isEqualTo(1);
+		assertThat(tracker.count(1L, TrendingWindow.DAY)).isEqualTo(1);
+		assertThat(tracker.count(1L, TrendingWindow.WEEK)).isEqualTo(2);
+		assertThat(tracker.count(2L, TrendingWindow.HOUR)).isZero();
+		assertThat(tracker.count(2L, TrendingWindow.DAY)).isEqualTo(1);
+		assertThat(tracker.count(2L, TrendingWindow.WEEK)).isEqualTo(1);
+	}
+
+	private static FilmLikeEvent trendingLike(long filmId, long userId, boolean added) {
+		return new FilmLikeEvent(filmId, userId, added, 1, new int[0], Instant.now());
+	}
+
+	private static final class MutableClock extends Clock {
+		private Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		void advance(Duration duration) {
+			instant = instant.plus(duration);
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+	}
+
+	@Test
+	void testLikeAnalyticsEstimatesDistinctLikersWithinErrorBound() {
+		LikeAnalytics analytics = new LikeAnalytics(new ReferenceDataCache(new NamedParameterJdbcTemplate(jdbc)), 12, 10);
+		Instant now = Instant.now();
+		int distinct = 50_000;
+		for (long userId = 1; userId <= distinct; userId++) {
+			analytics.onLike(new FilmLikeEvent(1L, userId, true, 1, new int[]{1}, now));
+		}
+		// повторные лайки тех же пользователей и снятые лайки оценку не меняют
+		for (long userId = 1; userId <= 1_000; userId++) {
+			analytics.onLike(new FilmLikeEvent(2L, userId, true, 1, new int[]{1}, now));
+			analytics.onLike(new FilmLikeEvent(3L, distinct + userId, false, 1, new int[]{1}, now));
+		}
+		for (long userId = 1; userId <= 100; userId++) {
+			analytics.onLike(new FilmLikeEvent(4L, userId, true, 2, new int[]{2}, now));
+		}
+
+		LikeStats stats = analytics.snapshot(LocalDate.now(), 3);
+		// стандартная ошибка при 2^12 регистрах около 1.6%, берём запас в три сигмы
+		assertThat(stats.genres()).extracting(LikeStats.DimensionStats::id).containsExactly(1, 2);
+		assertThat(stats.genres().get(0).name()).isEqualTo("Комедия");
+		assertThat(stats.genres().get(0).uniqueLikers()).isBetween((long) (distinct * 0.95), (long) (distinct * 1.05));
+		assertThat(stats.mpa().get(0).uniqueLikers()).isBetween((long) (distinct * 0.95), (long) (distinct * 1.05));
+		// на малых мощностях работает линейный подсчёт
+		assertThat(stats.genres().get(1).uniqueLikers()).isBetween(98L, 102L);
+		assertThat(stats.mpa().get(1).name()).isEqualTo("PG");
+
+		assertThatThrownBy(() -> analytics.snapshot(LocalDate.now().minusDays(7), 3))
+				.isInstanceOf(ValidationException.class);
+	}
+
+	@Test
+	void testLikeAnalyticsKeepsHeavyHittersWithBoundedError() {
+		LikeAnalytics analytics = new LikeAnalytics(new ReferenceDataCache(new NamedParameterJdbcTemplate(jdbc)), 12, 50);
+		Instant now = Instant.now();
+		Map<Long, Long> exact = new HashMap<>();
+		long userId = 0;
+		long rareFilm = 1_000;
+		// частые фильмы перемешаны с 6000 фильмов по одному лайку
+		for (int round = 0; round < 1_000; round++) {
+			List<Long> films = new ArrayList<>(List.of(1L, 1L, 1L, 2L, 2L, 3L));
+			for (int i = 0; i < 6; i++) {
+				films.add(rareFilm++);
+			}
+			for (long filmId : films) {
+				analytics.onLike(new FilmLikeEvent(filmId, ++userId, true, 1, new int[]{1}, now));
+				exact.merge(filmId, 1L, Long::sum);
+			}
+		}
+
+		// всего 12000 лайков: фильмы с частотой больше 12000 / 50 гарантированно в сводке
+		List<LikeStats.TopFilm> top = analytics.snapshot(LocalDate.now(), 3).genres().get(0).topFilms();
+		assertThat(top).extracting(LikeStats.TopFilm::filmId).containsExactly(1L, 2L, 3L);
+		for (LikeStats.TopFilm film : top) {
+			assertThat(exact.get(film.filmId())).isBetween(film.likes() - film.maxError(), film.likes());
+		}
+		assertThat(analytics.snapshot(LocalDate.now(), 100).genres().get(0).topFilms()).hasSize(50);
+	}
+
+	@Test
+	void testFeedFansOutToLoadedFeedsAndMergesHighDegreeLikesOnRead() {
+		jdbc.update("""
+				INSERT INTO users (email, login, name, birthday) VALUES
+				('a@mail.com','a','Author','1990-01-01'),
+				('h@mail.com','h','Hub','1990-01-01')
+				""");
+		jdbc.update("""
+				INSERT INTO films (name, description, release_date, duration, mpa_id) VALUES
+				('Alien','Horror','1979-05-25',117, 2),
+				('Heat','Crime','1995-12-15',170, 1)
+				""");
+		// 1 подписан на 3 и 4, 2 — на 4: у 4 больше подписчиков, чем fan-out-limit
+		jdbc.update("INSERT INTO friendships (user_id, friend_id) VALUES (1, 3), (1, 4), (2, 4)");
+		LocalDateTime base = LocalDateTime.of(2024, 1, 1, 12, 0);
+		jdbc.update("INSERT INTO film_likes (film_id, user_id, liked_at) VALUES (1, 3, ?), (2, 4, ?)",
+				base.plusSeconds(1), base.plusSeconds(2));
+		FeedStore feeds = new FeedStore(filmStorage, userStorage, 10, 10, 1, 10);
+		Function<Long, List<String>> feedOf = userId -> feeds.feed(userId, 10).stream()
+				.map(like -> like.filmId() + "/" + like.userId())
+				.toList();
+		Function<Integer, Instant> at = seconds -> base.plusSeconds(seconds).atZone(ZoneId.systemDefault()).toInstant();
+
+		assertThat(feedOf.apply(1L)).containsExactly("2/4", "1/3");
+
+		// событие о лайке, который лента уже прочитала из БД, не дублирует запись
+		feeds.onLike(new FilmLikeEvent(1L, 3L, true, 1, new int[0], at.apply(1)));
+		assertThat(feedOf.apply(1L)).containsExactly("2/4", "1/3");
+
+		// событие о лайке попадает в уже собранную ленту подписчика без чтения из БД
+		feeds.onLike(new FilmLikeEvent(3L, 3L, true, 1, new int[0], at.apply(3)));
+		assertThat(feedOf.apply(1L)).containsExactly("3/3", "2/4", "1/3");
+
+		// лайки пользователя с большим числом подписчиков не рассылаются, а подмешиваются при чтении
+		feeds.onLike(new FilmLikeEvent(1L, 4L, true, 1, new int[0], at.apply(4)));
+		assertThat(feedOf.apply(1L)).containsExactly("1/4", "3/3", "2/4", "1/3");
+		assertThat(feedOf.apply(2L)).containsExactly("1/4", "2/4");
+
+		feeds.onLike(new FilmLikeEvent(3L, 3L, false, 1, new int[0], at.apply(5)));
+		assertThat(feedOf.apply(1L)).containsExactly("1/4", "2/4", "1/3");
+
+		// после изменения друзей лента собирается из БД заново
+		jdbc.update("DELETE FROM friendships WHERE user_id = 1 AND friend_id = 3");
+		feeds.onFriendship(new FriendshipEvent(1L, 3L, false));
+		assertThat(feedOf.apply(1L)).containsExactly("1/4", "2/4");
+	}
+
+	@Test
+	void testExportWritesEachTableAsNdjson() throws IOException {
+		jdbc.update("INSERT INTO film_genres (film_id, genre_id) VALUES (1, 2), (1, 1)");
+		jdbc.update("INSERT INTO film_likes (film_id, user_id, liked_at) VALUES (1, 2, '2024-01-01 12:00:00')");
+		jdbc.update("INSERT INTO friendships (user_id, friend_id) VALUES (1, 2)");
+		ExportDbStorage exportStorage = new ExportDbStorage(jdbc.getDataSource(), Optional.empty(), Optional.empty(), 1);
+		ObjectMapper mapper = new ObjectMapper();
+
+		Map<ExportSqlQuery, List<String>> exported = new HashMap<>();
+		for (ExportSqlQuery query : ExportSqlQuery.values()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			long rows = exportStorage.export(query, out);
+			List<String> lines = out.toString(StandardCharsets.UTF_8).lines().toList();
+			assertThat(lines).hasSize((int) rows);
+			for (String line : lines) {
+				assertThat(mapper.readTree(line).isObject()).isTrue();
+			}
+			exported.put(query, lines);
+		}
+		assertThat(mapper.readTree(exported.get(ExportSqlQuery.FILMS).get(0))).isEqualTo(mapper.readTree("""
+				{"id":1,"name":"Matrix","description":"Sci-fi","release_date":"1999-03-31",
+				 "duration":136,"mpa_id":1,"genre_ids":[1,2]}
+				"""));
+		assertThat(exported.get(ExportSqlQuery.USERS)).hasSize(2);
+		assertThat(mapper.readTree(exported.get(ExportSqlQuery.USERS).get(0))).isEqualTo(mapper.readTree("""
+				{"id":1,"email":"u1@mail.com","login":"u1","name":"User One","birthday":"1990-01-01"}
+				"""));
+		assertThat(mapper.readTree(exported.get(ExportSqlQuery.FILM_LIKES).get(0))).isEqualTo(mapper.readTree("""
+				{"film_id":1,"user_id":2,"liked_at":"2024-01-01T12:00"}
+				"""));
+		assertThat(exported.get(ExportSqlQuery.FRIENDSHIPS)).containsExactly("{\"user_id\":1,\"friend_id\":2}");
+
+		ExportService service = new ExportService(exportStorage, transactionManager, "db");
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		service.exportGzip(service.resolve("FRIENDSHIPS"), gzipped);
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()))) {
+			assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8).lines())
+					.containsExactly("{\"user_id\":1,\"friend_id\":2}");
+		}
+		assertThatThrownBy(() -> service.resolve("outbox_events")).isInstanceOf(NotFoundException.class);
+		assertThatThrownBy(() -> new ExportService(exportStorage, transactionManager, "memory").resolve("films"))
+				.isInstanceOf(ValidationException.class);
+	}
+
+	@Test
+	void testExportReadsShardedTablesFromEveryShard() throws IOException {
+		ShardRouter router = new ShardRouter(2, "jdbc:h2:mem:export-shard-" + System.nanoTime()
+				+ "-%d;DB_CLOSE_DELAY=-1;MODE=PostgreSQL", "sa", "", false);
+		ShardedRelationStorage sharded = new ShardedRelationStorage(router);
+		try {
+			List<Long> filmIds = LongStream.rangeClosed(1, 4).boxed().toList();
+			assertThat(filmIds.stream().map(router::indexFor).distinct().count()).isEqualTo(2);
+			filmIds.forEach(filmId -> sharded.addLike(filmId, 1L));
+			sharded.addFriend(1L, 2L);
+			sharded.addFriend(2L, 1L);
+			ExportDbStorage exportStorage = new ExportDbStorage(jdbc.getDataSource(), Optional.of(router), Optional.empty(), 1);
+
+			ByteArrayOutputStream likes = new ByteArrayOutputStream();
+			assertThat(exportStorage.export(ExportSqlQuery.FILM_LIKES, likes)).isEqualTo(4);
+			ObjectMapper mapper = new ObjectMapper();
+			List<Long> exportedFilmIds = new ArrayList<>();
+			for (String line : likes.toString(StandardCharsets.UTF_8).lines().toList()) {
+				exportedFilmIds.add(mapper.readTree(line).get("film_id").asLong());
+			}
+			assertThat(exportedFilmIds).containsExactlyInAnyOrderElementsOf(filmIds);
+			assertThat(exportStorage.export(ExportSqlQuery.FRIENDSHIPS, new ByteArrayOutputStream())).isEqualTo(2);
+			// фильмы не шардируются и читаются из основной БД
+			assertThat(exportStorage.export(ExportSqlQuery.FILMS, new ByteArrayOutputStream())).isEqualTo(1);
+		} finally {
+			router.close();
+		}
+	}
+
+	@Test
+	void testVersionedSchemaInitializerRunsScriptsOnlyWhenTheyChange() {
+		DataSource dataSource = h2DataSource("versioned-schema");
+		JdbcTemplate db = new JdbcTemplate(dataSource);
+		List<Resource> scripts = List.of(new ClassPathResource("schema.sql"), new ClassPathResource("data.sql"));
+
+		assertThat(new VersionedSchemaInitializer(dataSource, "main", scripts).initializeDatabase()).isTrue();
+		assertThat(db.queryForObject("SELECT COUNT(*) FROM genres", Integer.class)).isEqualTo(6);
+
+		// схема не менялась: скрипты не выполняются, удалённый жанр не возвращается
+		db.update("DELETE FROM genres WHERE id = 6");
+		assertThat(new VersionedSchemaInitializer(dataSource, "main", scripts).initializeDatabase()).isFalse();
+		assertThat(db.queryForObject("SELECT COUNT(*) FROM genres", Integer.class)).isEqualTo(5);
+
+		List<Resource> changed = new ArrayList<>(scripts);
+		changed.add(new ByteArrayResource("CREATE TABLE IF NOT EXISTS migration_marker (id INT);"
+				.getBytes(StandardCharsets.UTF_8)));
+		assertThat(new VersionedSchemaInitializer(dataSource, "main", changed).initializeDatabase()).isTrue();
+		assertThat(db.queryForObject("SELECT COUNT(*) FROM genres", Integer.class)).isEqualTo(6);
+		assertThat(db.queryForObject("SELECT COUNT(*) FROM schema_version", Integer.class)).isEqualTo(1);
+
+		String shardUrl = "jdbc:h2:mem:versioned-shard-" + System.nanoTime() + "-%d;DB_CLOSE_DELAY=-1;MODE=PostgreSQL";
+		new ShardRouter(1, shardUrl, "sa", "", true).close();
+		ShardRouter reopened = new ShardRouter(1, shardUrl, "sa", "", true);
+		try {
+			assertThat(reopened.shard(0).getJdbcTemplate().queryForList(
+					"SELECT name FROM schema_version", String.class)).containsExactly("shard");
+		} finally {
+			reopened.close();
+		}
+		db.execute("SHUTDOWN");
+	}
+
+	@Test
+	void testFastStartupKeepsControllersEager() {
+		LazyInitializationExcludeFilter filter = WebConfig.eagerControllers();
+		assertThat(filter.isExcluded("filmController", null, FilmController.class)).isTrue();
+		assertThat(filter.isExcluded("errorHandler", null, ErrorHandler.class)).isTrue();
+		assertThat(filter.isExcluded("feedStore", null, FeedStore.class)).isFalse();
+		assertThat(SchemaConfig.eagerSchemaInitializer()
+				.isExcluded("schemaInitializer", null, VersionedSchemaInitializer.class)).isTrue();
+	}
+
+	@Test
+	void testWarmupRunnerHoldsReadinessAndExercisesHotEndpoints(@TempDir Path dir) throws Exception {
+		Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			hits.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+			byte[] body = (path.equals("/films/popular")
+					? "[{\"id\":1,\"likes\":[1,2]},{\"id\":2,\"likes\":[]}]"
+					: "[]").getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		ExecutorService serverThreads = Executors.newFixedThreadPool(4);
+		server.setExecutor(serverThreads);
+		server.start();
+		StaticApplicationContext context = new StaticApplicationContext();
+		List<ReadinessState> readiness = new ArrayList<>();
+		context.addApplicationListener((ApplicationListener<AvailabilityChangeEvent<?>>) event -> {
+			if (event.getState() instanceof ReadinessState state) {
+				readiness.add(state);
+			}
+		});
+		context.refresh();
+		MockEnvironment environment = new MockEnvironment()
+				.withProperty("local.server.port", String.valueOf(server.getAddress().getPort()));
+		ObjectMapper mapper = new ObjectMapper();
+		try {
+			// допуск так велик, что раунды считаются стабильными со второго: 1 + 2 стабильных = 3 раунда
+			new WarmupRunner(context, environment, mapper, "", 20, 2, 10, 2, 100.0, 60_000).run(null);
+			assertThat(readiness).containsExactly(ReadinessState.REFUSING_TRAFFIC);
+			assertThat(hits.values().stream().mapToInt(AtomicInteger::get).sum()).isEqualTo(1 + 3 * 20);
+			assertThat(hits).containsKeys("/films/popular", "/films/1", "/films/2",
+					"/users/1/friends/common/2", "/users/2/friends/common/1");
+
+			hits.clear();
+			Path replay = dir.resolve("replay.txt");
+			Files.writeString(replay, "/films/7\n  /users/1/friends/common/3?x=1\nnot a path\n");
+			// стабильность недостижима, прогрев останавливается по числу раундов
+			new WarmupRunner(context, environment, mapper, replay.toString(), 10, 2, 2, 100, 0.0, 60_000).run(null);
+			assertThat(hits.keySet()).containsExactlyInAnyOrder("/films/7", "/users/1/friends/common/3");
+			assertThat(hits.get("/films/7").get() + hits.get("/users/1/friends/common/3").get()).isEqualTo(2 * 10);
+
+			hits.clear();
+			new WarmupRunner(context, new MockEnvironment(), mapper, "", 20, 2, 10, 2, 100.0, 60_000).run(null);
+			assertThat(hits).isEmpty();
+		} finally {
+			server.stop(0);
+			serverThreads.shutdownNow();
+			context.close();
+		}
+	}
+
+	@Test
+	void testSimilarFilmsRankSharedLikersAndFollowNewLikes() {
+		for (int i = 3; i <= 6; i++) {
+			jdbc.update("INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, '1990-01-01')",
+					"u" + i + "@mail.com", "u" + i, "User " + i);
+		}
+		for (int i = 2; i <= 4; i++) {
+			jdbc.update("INSERT INTO films (name, description, release_date, duration, mpa_id) VALUES (?, 'd', '2000-01-01', 100, 1)",
+					"Film " + i);
+		}
+		// у 1 и 2 одни и те же три лайкнувших, у 3 с ними общий один, у 4 — ни одного;
+		// пользователь 6 лайкнул больше max-user-likes фильмов и в совместные лайки не идёт
+		long[][] likes = {{1, 1}, {1, 2}, {1, 3}, {2, 1}, {2, 2}, {2, 3}, {3, 3}, {4, 4}, {4, 5},
+				{1, 6}, {2, 6}, {3, 6}, {4, 6}};
+		for (long[] like : likes) {
+			filmStorage.addLike(like[0], like[1]);
+		}
+		CompactFilmCache compactFilms = new CompactFilmCache(filmStorage, transactionManager, 100, false);
+		SimilarFilmsIndex index = new SimilarFilmsIndex(filmStorage, compactFilms, 5, 3, 0.5, 0.2, 2);
+		try {
+			assertThat(index.similar(1L, 10)).isEmpty();
+			index.rebuild();
+			assertThat(index.similar(1L, 10)).containsExactly(2L, 3L);
+			assertThat(index.similar(2L, 1)).containsExactly(1L);
+			assertThat(index.similar(3L, 10)).containsExactlyInAnyOrder(1L, 2L);
+			assertThat(index.similar(4L, 10)).isEmpty();
+
+			// новые лайки попадают в списки после перестроения
+			filmStorage.addLike(4L, 1L);
+			filmStorage.addLike(4L, 2L);
+			assertThat(index.similar(4L, 10)).isEmpty();
+			index.rebuild();
+			assertThat(index.similar(4L, 10)).containsExactlyInAnyOrder(1L, 2L);
+			assertThat(index.similar(1L, 10)).containsExactly(2L, 4L, 3L);
+
+			// а между перестроениями — по событию лайка
+			filmStorage.addLike(3L, 4L);
+			index.onLike(new FilmLikeEvent(3L, 4L, true, 1, new int[0], Instant.now()));
+			assertThat(index.similar(3L, 10)).contains(4L);
+			assertThat(index.similar(4L, 10)).contains(3L);
+			filmStorage.removeLike(3L, 4L);
+			index.onLike(new FilmLikeEvent(3L, 4L, false, 1, new int[0], Instant.now()));
+			assertThat(index.similar(3L, 10)).doesNotContain(4L);
+		} finally {
+			index.shutdown();
+		}
+	}
+}